@@ -1,11 +1,24 @@
 package org.ltang.mlbox.classifier;
 
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Dataset;
 import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.InstanceArrayDataset;
 import org.ltang.mlbox.data.SparseVector;
 import org.ltang.mlbox.optimizer.clg.CoordinateLipschitzGradientOptimizer;
+import org.ltang.mlbox.optimizer.clg.ElasticNetRegularizer;
 import org.ltang.mlbox.optimizer.clg.L2RegularizerLoss;
 import org.ltang.mlbox.optimizer.clg.LinearCombineLoss;
 import org.ltang.mlbox.optimizer.clg.LogisticLoss;
+import org.ltang.mlbox.optimizer.qn.BatchGradientOptimizer;
+import org.ltang.mlbox.optimizer.qn.LBFGSOptimizer;
+import org.ltang.mlbox.optimizer.qn.TronOptimizer;
+import org.ltang.mlbox.optimizer.sgd.HogwildSGDOptimizer;
+import org.ltang.mlbox.utils.BatchScorer;
+import org.ltang.mlbox.utils.FastMath;
 import org.ltang.mlbox.utils.MathFunctions;
 
 
@@ -16,9 +29,26 @@ import org.ltang.mlbox.utils.MathFunctions;
  */
 public class LogisticRegression {
 
+  /**
+   * The optimization algorithm of the training
+   */
+  public enum Solver {
+    // The coordinate descent over the column store of the training data
+    COORDINATE_DESCENT,
+    // L-BFGS over the full gradients of the rows of the training data
+    LBFGS,
+    // The trust region Newton method over the full gradients of the rows of the training data
+    TRON,
+    // The lock-free parallel stochastic gradient descent over the rows of the training data
+    HOGWILD_SGD
+  }
+
   // The weight for the regularizer
   double _lambda = 1.0;
 
+  // The fraction of the regularizer which is L1, lambda * (l1Ratio * ||beta||_1 + (1 - l1Ratio)/2 * ||beta||^2)
+  double _l1Ratio = 0;
+
   // The trained coefficients
   double[] _beta = null;
 
@@ -34,6 +64,41 @@ public class LogisticRegression {
   // debug mode
   int _debug = 0;
 
+  // The optimization algorithm
+  Solver _solver = Solver.COORDINATE_DESCENT;
+
+  // How the column store of the training data is stored
+  LogisticLoss.ColumnStorage _columnStorage = LogisticLoss.ColumnStorage.ARRAY;
+
+  // The file which backs the OFF_HEAP column store, or null to use direct memory
+  String _columnStoreFile = null;
+
+  // The number of threads for scoring and the long columns
+  int _numThreads = 1;
+
+  // The number of threads of the coordinate descent
+  int _numTrainingThreads = 1;
+
+  // If the coordinate descent shrinks the active set of coordinates
+  boolean _shrinking = false;
+
+  // If the coordinate descent takes the Newton steps of the exact second derivatives
+  boolean _newtonSteps = false;
+
+  // If the sigmoid and the log-loss are the approximations of FastMath in training and scoring
+  boolean _fastMath = false;
+
+  // The pool of the _numThreads threads, which is created when it is first used and reused by all
+  // the calls, or null for one thread
+  ForkJoinPool _pool = null;
+
+  // The scorer of predict on _pool, which is reused by all the calls
+  BatchScorer _scorer = null;
+
+  // The pool of the _numTrainingThreads threads, which is created when it is first used and reused
+  // by all the trainings, or null for one thread
+  ForkJoinPool _trainingPool = null;
+
   public LogisticRegression() {
     this(1.0);
   }
@@ -52,6 +117,18 @@ public class LogisticRegression {
     System.arraycopy(priorBeta, 0, _prior, 0, priorBeta.length);
   }
 
+  /**
+   * Set the fraction of the regularizer which is L1, which makes the coefficients sparse. 0 is L2
+   * only, 1 is L1 only, and the others are the elastic net. The L1 part needs the coordinate
+   * descent, and it is not towards the prior.
+   */
+  public void setL1Ratio(final double l1Ratio) {
+    if (l1Ratio < 0 || l1Ratio > 1) {
+      throw new IllegalArgumentException("The L1 ratio must be in [0, 1]: " + l1Ratio);
+    }
+    _l1Ratio = l1Ratio;
+  }
+
   public void setDebug(final int debug) {
     _debug = debug;
   }
@@ -60,6 +137,141 @@ public class LogisticRegression {
     _tolerance = tol;
   }
 
+  /**
+   * Set the optimization algorithm. The full-gradient solvers, LBFGS and TRON, converge in much
+   * fewer passes over the training data with many correlated features, and use the threads of
+   * setNumThreads for the rows of the training data. HOGWILD_SGD keeps the rows in memory instead
+   * of the column store, and sweeps them by the threads of setNumTrainingThreads, where the maximum
+   * iteration is the maximum number of epochs.
+   */
+  public void setSolver(final Solver solver) {
+    _solver = solver;
+  }
+
+  /**
+   * Set how the column store of the training data is stored, e.g., COMPRESSED to fit a larger
+   * training data set in the same heap
+   */
+  public void setColumnStorage(final LogisticLoss.ColumnStorage storage) {
+    _columnStorage = storage;
+  }
+
+  /**
+   * Set the number of threads to score the data in batches, and to compute the gradients of the
+   * long columns of the training data in ranges
+   */
+  public void setNumThreads(final int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + numThreads);
+    }
+    if (numThreads != _numThreads) {
+      shutdownPool();
+    }
+    _numThreads = numThreads;
+  }
+
+  /**
+   * Set the number of threads of the coordinate descent, which updates as many coordinates at the
+   * same time. The coefficients are slightly different from the serial updates, but the same for
+   * the same number of threads.
+   */
+  public void setNumTrainingThreads(final int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + numThreads);
+    }
+    if (numThreads != _numTrainingThreads) {
+      shutdownTrainingPool();
+    }
+    _numTrainingThreads = numThreads;
+  }
+
+  /**
+   * Skip the coordinates whose gradients are close to zero until the others converge, which saves
+   * most of the gradients of a high-dimensional sparse training data set
+   */
+  public void setShrinking(final boolean shrinking) {
+    _shrinking = shrinking;
+  }
+
+  /**
+   * Take the Newton steps of the exact second derivatives with a line search in the coordinate
+   * descent, which converges in much fewer iterations than the steps of the maximum second
+   * derivatives
+   */
+  public void setNewtonSteps(final boolean newtonSteps) {
+    _newtonSteps = newtonSteps;
+  }
+
+  /**
+   * Use the table-driven approximations of FastMath for the sigmoid and the log-loss in training
+   * and scoring, whose errors are at most FastMath.SIGMOID_MAX_ERROR and FastMath.SOFTPLUS_MAX_ERROR
+   */
+  public void setFastMath(final boolean fastMath) {
+    _fastMath = fastMath;
+    if (_scorer != null) {
+      _scorer.setFastMath(fastMath);
+    }
+  }
+
+  /**
+   * Shut down the threads of the model, which are created again if they are used later
+   */
+  public void shutdown() {
+    shutdownPool();
+    shutdownTrainingPool();
+  }
+
+  private synchronized void shutdownTrainingPool() {
+    if (_trainingPool != null) {
+      _trainingPool.shutdown();
+    }
+    _trainingPool = null;
+  }
+
+  /**
+   * @return The pool of the _numTrainingThreads threads, or null for one thread
+   */
+  private synchronized ForkJoinPool getTrainingPool() {
+    if (_trainingPool == null && _numTrainingThreads > 1) {
+      _trainingPool = new ForkJoinPool(_numTrainingThreads);
+    }
+    return _trainingPool;
+  }
+
+  private synchronized void shutdownPool() {
+    if (_pool != null) {
+      _pool.shutdown();
+    }
+    _pool = null;
+    _scorer = null;
+  }
+
+  /**
+   * @return The pool of the _numThreads threads, or null for one thread
+   */
+  private synchronized ForkJoinPool getPool() {
+    if (_pool == null && _numThreads > 1) {
+      _pool = new ForkJoinPool(_numThreads);
+    }
+    return _pool;
+  }
+
+  private synchronized BatchScorer getScorer() {
+    if (_scorer == null) {
+      final ForkJoinPool pool = getPool();
+      _scorer = pool != null ? new BatchScorer(pool) : new BatchScorer(1);
+      _scorer.setFastMath(_fastMath);
+    }
+    return _scorer;
+  }
+
+  /**
+   * Back the OFF_HEAP column store by a memory-mapped file instead of direct memory
+   */
+  public void setColumnStoreFile(final String fileName) {
+    _columnStoreFile = fileName;
+  }
+
 
   /**
    * Train the logistic regression using dense vector data
@@ -86,8 +298,32 @@ public class LogisticRegression {
    * @param instances
    */
   public void train(int dimension, final Instance[] instances) {
-    // Create the logistic loss function
-    final LogisticLoss logLoss = new LogisticLoss(dimension, instances);
+    if (instances == null) {
+      throw new IllegalArgumentException("The training data set is empty!");
+    }
+    train(new InstanceArrayDataset(dimension, instances));
+  }
+
+  /**
+   * Train the logistic regression using a data set which is read block by block,
+   * e.g., a CSRDataset in memory or a data set streamed from a file
+   * @param data
+   */
+  public void train(final Dataset data) {
+    if (_l1Ratio > 0 && _solver != Solver.COORDINATE_DESCENT) {
+      throw new IllegalStateException("The L1 regularizer needs the coordinate descent solver: " + _solver);
+    }
+    if (_solver == Solver.HOGWILD_SGD) {
+      trainHogwild(CSRDataset.copyOf(data));
+      return;
+    }
+    train(new LogisticLoss(data, _columnStorage, _columnStoreFile));
+  }
+
+  private void train(final LogisticLoss logLoss) {
+    int dimension = logLoss.getDimension();
+    logLoss.setPool(getPool());
+    logLoss.setFastMath(_fastMath);
     // Create the L2 loss
     final L2RegularizerLoss l2loss;
     if (_prior != null) {
@@ -98,11 +334,22 @@ public class LogisticRegression {
     // Combine the two loss functions
     final LinearCombineLoss loss = new LinearCombineLoss();
     loss.add(logLoss);
-    loss.add(l2loss, _lambda);
+    loss.add(l2loss, _lambda * (1 - _l1Ratio));
+
+    if (_solver != Solver.COORDINATE_DESCENT) {
+      trainFullGradient(loss);
+      return;
+    }
 
     // Create the optimizer
     final CoordinateLipschitzGradientOptimizer optimizer = new CoordinateLipschitzGradientOptimizer(loss);
     optimizer.setDebug(_debug);
+    optimizer.setPool(getTrainingPool());
+    optimizer.setShrinking(_shrinking);
+    optimizer.setNewtonSteps(_newtonSteps);
+    if (_l1Ratio > 0) {
+      optimizer.setRegularizer(new ElasticNetRegularizer(dimension, _lambda * _l1Ratio, 0));
+    }
     if (_maxIter > 0) {
       optimizer.setMaxNumIteration(_maxIter);
     }
@@ -115,20 +362,236 @@ public class LogisticRegression {
     _beta = optimizer.getCofficients();
   }
 
+  /**
+   * Train the models of a decreasing sequence of lambdas by the coordinate descent, with the other
+   * settings of this model. The column store is built once, and the training of each lambda is
+   * warm-started from the coefficients of the previous one, which are close to its solution, so the
+   * whole path costs a few trainings from scratch. With L1, the coefficients which are zero at the
+   * previous lambda are screened by the sequential strong rule, and each training stops at the
+   * same accuracy as the training of its lambda from scratch. The lambda of this model is not used.
+   * @param lambdas The weights of the regularizer in decreasing order
+   * @return The trained models of the lambdas
+   */
+  public LogisticRegression[] trainPath(final Dataset data, final double[] lambdas) {
+    if (_solver != Solver.COORDINATE_DESCENT) {
+      throw new IllegalStateException("The regularization path needs the coordinate descent solver: " + _solver);
+    }
+    if (lambdas.length == 0) {
+      throw new IllegalArgumentException("The regularization path has no lambda");
+    }
+    for (int k = 0; k < lambdas.length; k++) {
+      if (lambdas[k] < 0 || (k > 0 && lambdas[k] > lambdas[k - 1])) {
+        throw new IllegalArgumentException("The lambdas must be non-negative and decreasing, the " + k
+            + "th lambda: " + lambdas[k]);
+      }
+    }
+    final LogisticLoss logLoss = new LogisticLoss(data, _columnStorage, _columnStoreFile);
+    logLoss.setPool(getPool());
+    logLoss.setFastMath(_fastMath);
+    int dimension = logLoss.getDimension();
+    final L2RegularizerLoss l2loss;
+    if (_prior != null) {
+      l2loss = new L2RegularizerLoss(_prior);
+    } else {
+      l2loss = new L2RegularizerLoss(dimension);
+    }
+    final LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(logLoss);
+    loss.add(l2loss, lambdas[0] * (1 - _l1Ratio));
+
+    // The gradients at zero, whose subgradient norm is the initial norm of the training from
+    // scratch of each lambda
+    final double[] zeros = new double[dimension+1];
+    final double[] logLossGrads = new double[dimension+1];
+    final double[] l2Grads = new double[dimension+1];
+    for (int dimIndex = 0; dimIndex < dimension+1; dimIndex++) {
+      logLossGrads[dimIndex] = logLoss.getGradient(dimIndex, zeros);
+      l2Grads[dimIndex] = l2loss.getGradient(dimIndex, zeros);
+    }
+
+    final CoordinateLipschitzGradientOptimizer optimizer = new CoordinateLipschitzGradientOptimizer(loss);
+    optimizer.setDebug(_debug);
+    optimizer.setPool(getTrainingPool());
+    optimizer.setShrinking(_shrinking);
+    optimizer.setNewtonSteps(_newtonSteps);
+    if (_maxIter > 0) {
+      optimizer.setMaxNumIteration(_maxIter);
+    }
+    if (_tolerance > 0) {
+      optimizer.setToleranceForStopCriterion(_tolerance);
+    }
+
+    final LogisticRegression[] models = new LogisticRegression[lambdas.length];
+    for (int k = 0; k < lambdas.length; k++) {
+      double l1 = lambdas[k] * _l1Ratio;
+      double l2 = lambdas[k] * (1 - _l1Ratio);
+      loss.setWeight(1, l2);
+      ElasticNetRegularizer regularizer = null;
+      if (_l1Ratio > 0) {
+        regularizer = new ElasticNetRegularizer(dimension, l1, 0);
+        optimizer.setRegularizer(regularizer);
+        // The sequential strong rule discards the zero coefficients whose gradients are below
+        // 2 * l1 - the previous l1
+        optimizer.setScreeningMargin(k > 0 ? (lambdas[k - 1] - lambdas[k]) * _l1Ratio : Double.MAX_VALUE);
+      }
+      double sumSquares = 0;
+      for (int dimIndex = 0; dimIndex < dimension+1; dimIndex++) {
+        double grad = logLossGrads[dimIndex] + l2 * l2Grads[dimIndex];
+        if (regularizer != null) {
+          grad = regularizer.getSubgradient(dimIndex, 0, grad);
+        }
+        sumSquares += grad * grad;
+      }
+      optimizer.setReferenceGradientNorm(Math.sqrt(sumSquares));
+      optimizer.train();
+
+      models[k] = copySettings(lambdas[k]);
+      models[k].setCoefficients(optimizer.getCofficients());
+    }
+    return models;
+  }
+
+  /**
+   * @return The decreasing lambdas from maxLambda to maxLambda * minRatio evenly on the log scale
+   */
+  public static double[] getLambdaPath(final double maxLambda, final double minRatio, final int numLambdas) {
+    if (maxLambda <= 0 || minRatio <= 0 || minRatio > 1 || numLambdas < 1) {
+      throw new IllegalArgumentException("Invalid regularization path, max lambda: " + maxLambda + ", min ratio: "
+          + minRatio + ", #lambdas: " + numLambdas);
+    }
+    final double[] lambdas = new double[numLambdas];
+    for (int k = 0; k < numLambdas; k++) {
+      lambdas[k] = numLambdas == 1 ? maxLambda : maxLambda * Math.pow(minRatio, (double) k / (numLambdas - 1));
+    }
+    return lambdas;
+  }
+
+  /**
+   * @return An untrained model of the lambda with the other settings of this model
+   */
+  private LogisticRegression copySettings(final double lambda) {
+    final LogisticRegression model = new LogisticRegression(lambda, _maxIter);
+    model._l1Ratio = _l1Ratio;
+    model._prior = _prior;
+    model._tolerance = _tolerance;
+    model._debug = _debug;
+    model._solver = _solver;
+    model._columnStorage = _columnStorage;
+    model._columnStoreFile = _columnStoreFile;
+    model._numThreads = _numThreads;
+    model._numTrainingThreads = _numTrainingThreads;
+    model._shrinking = _shrinking;
+    model._newtonSteps = _newtonSteps;
+    model._fastMath = _fastMath;
+    return model;
+  }
+
+  /**
+   * Minimize the loss by a full-gradient solver
+   */
+  private void trainFullGradient(final LinearCombineLoss loss) {
+    final BatchGradientOptimizer optimizer;
+    if (_solver == Solver.LBFGS) {
+      optimizer = new LBFGSOptimizer(loss);
+    } else {
+      optimizer = new TronOptimizer(loss);
+    }
+    optimizer.setDebug(_debug);
+    if (_maxIter > 0) {
+      optimizer.setMaxNumIteration(_maxIter);
+    }
+    if (_tolerance > 0) {
+      optimizer.setToleranceForStopCriterion(_tolerance);
+    }
+    optimizer.train();
+    _beta = optimizer.getCofficients();
+  }
+
+  /**
+   * Minimize the loss by the lock-free parallel stochastic gradient descent over the rows
+   */
+  private void trainHogwild(final CSRDataset data) {
+    final HogwildSGDOptimizer optimizer = new HogwildSGDOptimizer(data, _lambda);
+    optimizer.setDebug(_debug);
+    optimizer.setPool(getTrainingPool());
+    if (_prior != null) {
+      optimizer.setPrior(_prior);
+    }
+    if (_maxIter > 0) {
+      optimizer.setMaxNumIteration(_maxIter);
+    }
+    if (_tolerance > 0) {
+      optimizer.setToleranceForStopCriterion(_tolerance);
+    }
+    optimizer.train();
+    _beta = optimizer.getCofficients();
+  }
+
   public double[] getCoefficients() {
     return _beta;
   }
 
+  /**
+   * Set the coefficients of a model trained elsewhere, such as by OnlineLogisticRegression
+   * @param beta The coefficients of the dimensions, followed by the intercept
+   */
+  public void setCoefficients(final double[] beta) {
+    if (beta.length < 1) {
+      throw new IllegalArgumentException("The coefficients must contain the intercept");
+    }
+    _beta = new double[beta.length];
+    System.arraycopy(beta, 0, _beta, 0, beta.length);
+  }
+
+  /**
+   * @return The number of the nonzero coefficients of the features
+   */
+  public int getNumNonZeroCoefficients() {
+    if (_beta == null) {
+      throw new IllegalStateException("The coefficients have not been trained!");
+    }
+    int numNonZeros = 0;
+    for (int dimIndex = 0; dimIndex < _beta.length - 1; dimIndex++) {
+      if (_beta[dimIndex] != 0) {
+        numNonZeros++;
+      }
+    }
+    return numNonZeros;
+  }
+
   public double predict(final SparseVector feature) {
     if (_beta == null) {
       throw new IllegalStateException("The coefficients have not been trained!");
     }
     double sum = feature.innerProduct(_beta);
     sum = sum + _beta[_beta.length - 1];
-    return MathFunctions.sigmoid(sum);
+    return _fastMath ? FastMath.sigmoid(sum) : MathFunctions.sigmoid(sum);
   }
 
   public double predict(float[] feature) {
     return predict(new SparseVector(feature));
   }
+
+  /**
+   * Score all the instances of a data set block by block
+   * @param data
+   * @param scores The output predicted probabilities, one for each instance
+   */
+  public void predict(final Dataset data, final double[] scores) {
+    if (_beta == null) {
+      throw new IllegalStateException("The coefficients have not been trained!");
+    }
+    if (scores.length < data.getNumInstances()) {
+      throw new IllegalArgumentException("The scores array is shorter than the number of instances");
+    }
+    double intercept = _beta[_beta.length - 1];
+    final BatchScorer scorer = getScorer();
+    int blockStart = 0;
+    Iterator<CSRDataset> blocks = data.blocks(Dataset.DEFAULT_BLOCK_SIZE);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      scorer.score(block, _beta, intercept, true, scores, blockStart);
+      blockStart += block.getNumInstances();
+    }
+  }
 }
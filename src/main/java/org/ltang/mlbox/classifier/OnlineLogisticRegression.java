@@ -0,0 +1,263 @@
+package org.ltang.mlbox.classifier;
+
+import java.util.Iterator;
+
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Dataset;
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.SparseVector;
+import org.ltang.mlbox.utils.FastMath;
+import org.ltang.mlbox.utils.IntDoubleHashMap;
+import org.ltang.mlbox.utils.MathFunctions;
+
+
+/**
+ * The online logistic regression by FTRL-Proximal (McMahan et al., 2013), which updates the model
+ * by one instance at a time, so a stream of instances is learned without retraining from scratch.
+ *
+ * Each dimension has the learning rate alpha / (rateBeta + sqrt(n)), where n is the sum of its
+ * squared gradients, and its coefficient is solved in closed form from z, the sum of its adjusted
+ * gradients, which makes it exactly zero if |z| <= lambda1. The intercept has no regularization.
+ *
+ * The z and sqrt(n) of the dimensions seen so far are in an IntDoubleHashMap, so the memory is
+ * proportional to the number of distinct dimensions instead of the dimension of the feature space.
+ * An update is a few probes of the map and one sqrt for each nonzero feature.
+ *
+ * @author Liang Tang
+ */
+public class OnlineLogisticRegression {
+
+  // The values of a dimension in the map
+  static final int Z = 0;
+  static final int SQRT_N = 1;
+  static final int NUM_VALUES = 2;
+
+  // The learning rate alpha / (rateBeta + sqrt(n))
+  final double _alpha;
+  final double _rateBeta;
+
+  // The weights of the L1 and L2 regularizers
+  final double _lambda1;
+  final double _lambda2;
+
+  // The z and sqrt(n) of the dimensions
+  final IntDoubleHashMap _state;
+
+  double _interceptZ = 0;
+  double _interceptSqrtN = 0;
+
+  // The largest dimension index seen so far
+  int _maxDimIndex = -1;
+
+  long _numUpdates = 0;
+
+  // If the sigmoid is the approximation of FastMath
+  boolean _fastMath = false;
+
+  // The entries and the coefficients of the features of the current instance
+  int[] _entries = new int[16];
+  double[] _coefficients = new double[16];
+
+  public OnlineLogisticRegression() {
+    this(0.1, 1.0, 0, 1.0);
+  }
+
+  /**
+   * @param alpha The scale of the learning rates
+   * @param rateBeta The smoothing of the learning rates, which keeps the early rates bounded
+   * @param lambda1 The weight of the L1 regularizer, which makes the coefficients sparse
+   * @param lambda2 The weight of the L2 regularizer
+   */
+  public OnlineLogisticRegression(double alpha, double rateBeta, double lambda1, double lambda2) {
+    if (alpha <= 0 || rateBeta < 0 || lambda1 < 0 || lambda2 < 0) {
+      throw new IllegalArgumentException("Invalid parameters, alpha: " + alpha + ", rateBeta: " + rateBeta
+          + ", lambda1: " + lambda1 + ", lambda2: " + lambda2);
+    }
+    _alpha = alpha;
+    _rateBeta = rateBeta;
+    _lambda1 = lambda1;
+    _lambda2 = lambda2;
+    _state = new IntDoubleHashMap(NUM_VALUES, 1024);
+  }
+
+  /**
+   * Use the table-driven approximation of FastMath for the sigmoid in the updates and predictions,
+   * which is also set to the exported LogisticRegression
+   */
+  public void setFastMath(final boolean fastMath) {
+    _fastMath = fastMath;
+  }
+
+  /**
+   * Update the model by an instance
+   * @return The predicted probability before the update, which is the progressive validation of
+   * the stream
+   */
+  public double update(final Instance inst) {
+    SparseVector features = inst.getFeatures();
+    return update(features.dims, features.vals, 0, features.dims.length, inst.getLabel(), inst.getWeight());
+  }
+
+  /**
+   * Update the model by a micro-batch of instances, one after another in their order
+   */
+  public void update(final Instance[] instances) {
+    for (int i = 0; i < instances.length; i++) {
+      update(instances[i]);
+    }
+  }
+
+  /**
+   * Update the model by one pass over a data set, one after another in their order, which reads
+   * the CSR blocks of the data set without creating Instances
+   */
+  public void update(final Dataset data) {
+    Iterator<CSRDataset> blocks = data.blocks(Dataset.DEFAULT_BLOCK_SIZE);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      int numInsts = block.getNumInstances();
+      for (int instIndex = 0; instIndex < numInsts; instIndex++) {
+        update(block.dims, block.vals, block.rowOffsets[instIndex], block.rowOffsets[instIndex + 1],
+            block.labels[instIndex], block.weights[instIndex]);
+      }
+    }
+  }
+
+  /**
+   * Update the model by the features in [from, to) of dims and vals
+   */
+  double update(final int[] dims, final float[] vals, int from, int to, float label, float weight) {
+    if (!MathFunctions.almostEqual(label, 0f) && !MathFunctions.almostEqual(label, 1f)) {
+      throw new IllegalArgumentException("The label can only be 0 or 1: " + label);
+    }
+    int numFeatures = to - from;
+    if (numFeatures > _entries.length) {
+      int length = Math.max(numFeatures, 2 * _entries.length);
+      _entries = new int[length];
+      _coefficients = new double[length];
+    }
+    final int[] entries = _entries;
+    final double[] coefficients = _coefficients;
+    for (int k = 0; k < numFeatures; k++) {
+      int dimIndex = dims[from + k];
+      entries[k] = _state.insert(dimIndex);
+      if (dimIndex > _maxDimIndex) {
+        _maxDimIndex = dimIndex;
+      }
+    }
+    // The map may grow by the insertions
+    final double[] values = _state.getValues();
+
+    double intercept = -_interceptZ * _alpha / (_rateBeta + _interceptSqrtN);
+    double margin = intercept;
+    for (int k = 0; k < numFeatures; k++) {
+      int offset = entries[k] * NUM_VALUES;
+      double coefficient = getCoefficient(values[offset + Z], values[offset + SQRT_N]);
+      coefficients[k] = coefficient;
+      margin += coefficient * vals[from + k];
+    }
+    double pred = _fastMath ? FastMath.sigmoid(margin) : MathFunctions.sigmoid(margin);
+
+    double residual = (pred - label) * weight;
+    for (int k = 0; k < numFeatures; k++) {
+      int offset = entries[k] * NUM_VALUES;
+      double grad = residual * vals[from + k];
+      double sqrtN = values[offset + SQRT_N];
+      double newSqrtN = Math.sqrt(sqrtN * sqrtN + grad * grad);
+      values[offset + Z] += grad - (newSqrtN - sqrtN) / _alpha * coefficients[k];
+      values[offset + SQRT_N] = newSqrtN;
+    }
+    double newSqrtN = Math.sqrt(_interceptSqrtN * _interceptSqrtN + residual * residual);
+    _interceptZ += residual - (newSqrtN - _interceptSqrtN) / _alpha * intercept;
+    _interceptSqrtN = newSqrtN;
+    _numUpdates++;
+    return pred;
+  }
+
+  /**
+   * @return The coefficient of a dimension in closed form, which is zero if |z| <= lambda1
+   */
+  double getCoefficient(double z, double sqrtN) {
+    if (z <= _lambda1 && z >= -_lambda1) {
+      return 0;
+    }
+    double shrunk = z > 0 ? z - _lambda1 : z + _lambda1;
+    return -shrunk / ((_rateBeta + sqrtN) / _alpha + _lambda2);
+  }
+
+  public double getCoefficient(int dimIndex) {
+    int entry = _state.indexOf(dimIndex);
+    if (entry < 0) {
+      return 0;
+    }
+    double[] values = _state.getValues();
+    return getCoefficient(values[entry * NUM_VALUES + Z], values[entry * NUM_VALUES + SQRT_N]);
+  }
+
+  public double getIntercept() {
+    return -_interceptZ * _alpha / (_rateBeta + _interceptSqrtN);
+  }
+
+  public double predict(final SparseVector feature) {
+    double margin = getIntercept();
+    for (int k = 0; k < feature.dims.length; k++) {
+      margin += getCoefficient(feature.dims[k]) * feature.vals[k];
+    }
+    return _fastMath ? FastMath.sigmoid(margin) : MathFunctions.sigmoid(margin);
+  }
+
+  public long getNumUpdates() {
+    return _numUpdates;
+  }
+
+  /**
+   * @return The number of the dimensions seen so far
+   */
+  public int getNumDimensions() {
+    return _state.size();
+  }
+
+  /**
+   * @return The number of the nonzero coefficients
+   */
+  public int getNumNonZeroCoefficients() {
+    double[] values = _state.getValues();
+    int numNonZeros = 0;
+    for (int entry = 0; entry < _state.size(); entry++) {
+      if (getCoefficient(values[entry * NUM_VALUES + Z], values[entry * NUM_VALUES + SQRT_N]) != 0) {
+        numNonZeros++;
+      }
+    }
+    return numNonZeros;
+  }
+
+  /**
+   * Export the current model over the dimensions seen so far
+   */
+  public LogisticRegression toLogisticRegression() {
+    return toLogisticRegression(_maxDimIndex + 1);
+  }
+
+  /**
+   * Export the current model as a LogisticRegression with dense coefficients, which predicts the
+   * same probabilities
+   * @param dimension The dimension of the exported model, which covers all the dimensions seen so far
+   */
+  public LogisticRegression toLogisticRegression(int dimension) {
+    if (dimension <= _maxDimIndex) {
+      throw new IllegalArgumentException("The dimension " + dimension + " does not cover the dimension index "
+          + _maxDimIndex);
+    }
+    double[] beta = new double[dimension+1];
+    double[] values = _state.getValues();
+    for (int entry = 0; entry < _state.size(); entry++) {
+      beta[_state.getKey(entry)] =
+          getCoefficient(values[entry * NUM_VALUES + Z], values[entry * NUM_VALUES + SQRT_N]);
+    }
+    beta[dimension] = getIntercept();
+    LogisticRegression model = new LogisticRegression();
+    model.setCoefficients(beta);
+    model.setFastMath(_fastMath);
+    return model;
+  }
+}
@@ -0,0 +1,72 @@
+package org.ltang.mlbox.data;
+
+
+/**
+ * The layout of the binary dataset file. All values are little-endian.
+ *
+ * <pre>
+ * header (32 bytes):
+ *   int   magic "MLBD"
+ *   int   version
+ *   long  number of instances (n)
+ *   int   dimension
+ *   int   reserved
+ *   long  number of feature entries (nnz)
+ * blocks (each starts at an 8-byte aligned position):
+ *   float[n]    labels
+ *   float[n]    weights
+ *   float[n]    offsets
+ *   int[n]      flags
+ *   long[n+1]   row offsets, the entries of row i are [rowOffsets[i], rowOffsets[i+1])
+ *   int[nnz]    feature dimension indices
+ *   float[nnz]  feature values
+ * </pre>
+ *
+ * @author Liang Tang
+ */
+final class BinaryDatasetFormat {
+
+  // "MLBD" in little-endian
+  static final int MAGIC = 'M' | ('L' << 8) | ('B' << 16) | ('D' << 24);
+
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 32;
+
+  final long _numInstances;
+
+  final long _numEntries;
+
+  final long _labelsPos;
+
+  final long _weightsPos;
+
+  final long _offsetsPos;
+
+  final long _flagsPos;
+
+  final long _rowOffsetsPos;
+
+  final long _dimsPos;
+
+  final long _valsPos;
+
+  final long _fileSize;
+
+  BinaryDatasetFormat(long numInstances, long numEntries) {
+    _numInstances = numInstances;
+    _numEntries = numEntries;
+    _labelsPos = HEADER_SIZE;
+    _weightsPos = align(_labelsPos + 4 * numInstances);
+    _offsetsPos = align(_weightsPos + 4 * numInstances);
+    _flagsPos = align(_offsetsPos + 4 * numInstances);
+    _rowOffsetsPos = align(_flagsPos + 4 * numInstances);
+    _dimsPos = align(_rowOffsetsPos + 8 * (numInstances + 1));
+    _valsPos = align(_dimsPos + 4 * numEntries);
+    _fileSize = align(_valsPos + 4 * numEntries);
+  }
+
+  static long align(long pos) {
+    return (pos + 7) & ~7L;
+  }
+}
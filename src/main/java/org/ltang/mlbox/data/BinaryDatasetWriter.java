@@ -0,0 +1,222 @@
+package org.ltang.mlbox.data;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Write a data set into the binary dataset format (see BinaryDatasetFormat), which can be
+ * reloaded instantly by MappedBinaryDataset.
+ *
+ * @author Liang Tang
+ */
+public final class BinaryDatasetWriter {
+
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final FileChannel _channel;
+
+  private final ByteBuffer _buf = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+  private long _pos = 0;
+
+  private BinaryDatasetWriter(FileChannel channel) {
+    _channel = channel;
+  }
+
+  /**
+   * Write the instances
+   */
+  public static void write(String fileName, int dimension, final Instance[] instances)
+      throws IOException {
+    int numInsts = instances.length;
+    long numEntries = 0;
+    for (Instance inst : instances) {
+      numEntries += inst.getFeatures().dims.length;
+    }
+    BinaryDatasetFormat format = new BinaryDatasetFormat(numInsts, numEntries);
+
+    RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+    try {
+      file.setLength(0);
+      BinaryDatasetWriter writer = new BinaryDatasetWriter(file.getChannel());
+      writer.writeHeader(format, dimension);
+      for (int i = 0; i < numInsts; i++) {
+        writer.putFloat(instances[i].getLabel());
+      }
+      writer.padTo(format._weightsPos);
+      for (int i = 0; i < numInsts; i++) {
+        writer.putFloat(instances[i].getWeight());
+      }
+      writer.padTo(format._offsetsPos);
+      for (int i = 0; i < numInsts; i++) {
+        writer.putFloat(instances[i].getOffset());
+      }
+      writer.padTo(format._flagsPos);
+      for (int i = 0; i < numInsts; i++) {
+        writer.putInt(instances[i].getFlag());
+      }
+      writer.padTo(format._rowOffsetsPos);
+      long rowOffset = 0;
+      for (int i = 0; i < numInsts; i++) {
+        writer.putLong(rowOffset);
+        rowOffset += instances[i].getFeatures().dims.length;
+      }
+      writer.putLong(rowOffset);
+      writer.padTo(format._dimsPos);
+      for (int i = 0; i < numInsts; i++) {
+        writer.putInts(instances[i].getFeatures().dims, 0, instances[i].getFeatures().dims.length);
+      }
+      writer.padTo(format._valsPos);
+      for (int i = 0; i < numInsts; i++) {
+        writer.putFloats(instances[i].getFeatures().vals, 0, instances[i].getFeatures().vals.length);
+      }
+      writer.padTo(format._fileSize);
+      writer.flush();
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Write a data set given by its primitive arrays. The entries of the i-th row are
+   * dims/vals[rowOffsets[i], rowOffsets[i+1]).
+   *
+   * @param weights The weights, all 1 if it is null
+   * @param offsets The offsets, all 0 if it is null
+   * @param flags The flags, all 0 if it is null
+   */
+  public static void write(String fileName, int dimension, int numInsts, final float[] labels,
+      final float[] weights, final float[] offsets, final int[] flags, final int[] rowOffsets,
+      final int[] dims, final float[] vals)
+      throws IOException {
+    int numEntries = rowOffsets[numInsts] - rowOffsets[0];
+    BinaryDatasetFormat format = new BinaryDatasetFormat(numInsts, numEntries);
+
+    RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+    try {
+      file.setLength(0);
+      BinaryDatasetWriter writer = new BinaryDatasetWriter(file.getChannel());
+      writer.writeHeader(format, dimension);
+      writer.putFloats(labels, 0, numInsts);
+      writer.padTo(format._weightsPos);
+      if (weights != null) {
+        writer.putFloats(weights, 0, numInsts);
+      } else {
+        for (int i = 0; i < numInsts; i++) {
+          writer.putFloat(1f);
+        }
+      }
+      writer.padTo(format._offsetsPos);
+      if (offsets != null) {
+        writer.putFloats(offsets, 0, numInsts);
+      } else {
+        writer.padTo(format._offsetsPos + 4L * numInsts);
+      }
+      writer.padTo(format._flagsPos);
+      if (flags != null) {
+        writer.putInts(flags, 0, numInsts);
+      } else {
+        writer.padTo(format._flagsPos + 4L * numInsts);
+      }
+      writer.padTo(format._rowOffsetsPos);
+      for (int i = 0; i <= numInsts; i++) {
+        writer.putLong(rowOffsets[i] - rowOffsets[0]);
+      }
+      writer.padTo(format._dimsPos);
+      writer.putInts(dims, rowOffsets[0], numEntries);
+      writer.padTo(format._valsPos);
+      writer.putFloats(vals, rowOffsets[0], numEntries);
+      writer.padTo(format._fileSize);
+      writer.flush();
+    } finally {
+      file.close();
+    }
+  }
+
+  private void writeHeader(BinaryDatasetFormat format, int dimension)
+      throws IOException {
+    putInt(BinaryDatasetFormat.MAGIC);
+    putInt(BinaryDatasetFormat.VERSION);
+    putLong(format._numInstances);
+    putInt(dimension);
+    putInt(0);
+    putLong(format._numEntries);
+  }
+
+  private void ensureRemaining(int numBytes)
+      throws IOException {
+    if (_buf.remaining() < numBytes) {
+      flush();
+    }
+  }
+
+  private void flush()
+      throws IOException {
+    _buf.flip();
+    while (_buf.hasRemaining()) {
+      _channel.write(_buf);
+    }
+    _buf.clear();
+  }
+
+  private void putInt(int v)
+      throws IOException {
+    ensureRemaining(4);
+    _buf.putInt(v);
+    _pos += 4;
+  }
+
+  private void putLong(long v)
+      throws IOException {
+    ensureRemaining(8);
+    _buf.putLong(v);
+    _pos += 8;
+  }
+
+  private void putFloat(float v)
+      throws IOException {
+    ensureRemaining(4);
+    _buf.putFloat(v);
+    _pos += 4;
+  }
+
+  private void putInts(int[] src, int offset, int len)
+      throws IOException {
+    while (len > 0) {
+      ensureRemaining(4);
+      int n = Math.min(len, _buf.remaining() >> 2);
+      _buf.asIntBuffer().put(src, offset, n);
+      _buf.position(_buf.position() + (n << 2));
+      _pos += (long) n << 2;
+      offset += n;
+      len -= n;
+    }
+  }
+
+  private void putFloats(float[] src, int offset, int len)
+      throws IOException {
+    while (len > 0) {
+      ensureRemaining(4);
+      int n = Math.min(len, _buf.remaining() >> 2);
+      _buf.asFloatBuffer().put(src, offset, n);
+      _buf.position(_buf.position() + (n << 2));
+      _pos += (long) n << 2;
+      offset += n;
+      len -= n;
+    }
+  }
+
+  // Fill zeros up to the position
+  private void padTo(long pos)
+      throws IOException {
+    while (_pos < pos) {
+      ensureRemaining(1);
+      _buf.put((byte) 0);
+      _pos++;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package org.ltang.mlbox.data;
+
+import java.util.Arrays;
+
+
+/**
+ * Reusable buffers for materializing the blocks of a data set
+ *
+ * @author Liang Tang
+ */
+final class CSRBlockBuffer {
+
+  int[] _rowOffsets;
+
+  float[] _labels;
+
+  float[] _weights;
+
+  float[] _offsets;
+
+  int[] _flags;
+
+  int[] _dims = new int[0];
+
+  float[] _vals = new float[0];
+
+  CSRBlockBuffer(int maxBlockSize) {
+    _rowOffsets = new int[maxBlockSize + 1];
+    _labels = new float[maxBlockSize];
+    _weights = new float[maxBlockSize];
+    _offsets = new float[maxBlockSize];
+    _flags = new int[maxBlockSize];
+  }
+
+  /**
+   * Make sure the entry buffers can hold numEntries entries
+   */
+  void ensureEntryCapacity(int numEntries) {
+    if (_dims.length < numEntries) {
+      int newCapacity = Math.max(numEntries, (int) Math.min(2L * _dims.length, Integer.MAX_VALUE - 8));
+      _dims = Arrays.copyOf(_dims, newCapacity);
+      _vals = Arrays.copyOf(_vals, newCapacity);
+    }
+  }
+
+  CSRDataset toBlock(int dimension, int numInstances) {
+    return new CSRDataset(dimension, numInstances, _rowOffsets, _dims, _vals, _labels, _weights, _offsets, _flags);
+  }
+}
@@ -0,0 +1,213 @@
+package org.ltang.mlbox.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+
+/**
+ * A data set packed in the compressed sparse row (CSR) format. All the feature entries are in
+ * one dims array and one values array, and the entries of the i-th row are
+ * [rowOffsets[i], rowOffsets[i+1]). The labels, weights, offsets and flags are primitive arrays.
+ * Compared with an Instance[] of SparseVector objects, there are no per-row objects at all.
+ *
+ * The arrays are shared, not copied, and they can be longer than needed.
+ *
+ * @author Liang Tang
+ */
+public final class CSRDataset implements Dataset {
+
+  public final int[] rowOffsets;
+
+  public final int[] dims;
+
+  public final float[] vals;
+
+  public final float[] labels;
+
+  public final float[] weights;
+
+  public final float[] offsets;
+
+  public final int[] flags;
+
+  private final int _numInstances;
+
+  private final int _dimension;
+
+  /**
+   * @param weights The weights, all 1 if it is null
+   * @param offsets The offsets, all 0 if it is null
+   * @param flags The flags, all 0 if it is null
+   */
+  public CSRDataset(int dimension, int numInstances, final int[] rowOffsets, final int[] dims,
+      final float[] vals, final float[] labels, final float[] weights, final float[] offsets, final int[] flags) {
+    if (rowOffsets.length < numInstances + 1 || labels.length < numInstances) {
+      throw new IllegalArgumentException("The row offsets or labels are shorter than the number of instances");
+    }
+    if (dims.length < rowOffsets[numInstances] || vals.length < rowOffsets[numInstances]) {
+      throw new IllegalArgumentException("The dims or values are shorter than the number of entries");
+    }
+    _dimension = dimension;
+    _numInstances = numInstances;
+    this.rowOffsets = rowOffsets;
+    this.dims = dims;
+    this.vals = vals;
+    this.labels = labels;
+    if (weights != null) {
+      this.weights = weights;
+    } else {
+      this.weights = new float[numInstances];
+      Arrays.fill(this.weights, 1f);
+    }
+    this.offsets = offsets != null ? offsets : new float[numInstances];
+    this.flags = flags != null ? flags : new int[numInstances];
+  }
+
+  /**
+   * Pack the instances
+   */
+  public CSRDataset(int dimension, final Instance[] instances) {
+    _dimension = dimension;
+    _numInstances = instances.length;
+    rowOffsets = new int[_numInstances + 1];
+    labels = new float[_numInstances];
+    weights = new float[_numInstances];
+    offsets = new float[_numInstances];
+    flags = new int[_numInstances];
+    long numEntries = 0;
+    for (int i = 0; i < _numInstances; i++) {
+      numEntries += instances[i].getFeatures().dims.length;
+    }
+    if (numEntries > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Too many feature entries for a CSR data set: " + numEntries);
+    }
+    dims = new int[(int) numEntries];
+    vals = new float[(int) numEntries];
+    int entryIndex = 0;
+    for (int i = 0; i < _numInstances; i++) {
+      Instance inst = instances[i];
+      SparseVector features = inst.getFeatures();
+      rowOffsets[i] = entryIndex;
+      System.arraycopy(features.dims, 0, dims, entryIndex, features.dims.length);
+      System.arraycopy(features.vals, 0, vals, entryIndex, features.vals.length);
+      entryIndex += features.dims.length;
+      labels[i] = inst.getLabel();
+      weights[i] = inst.getWeight();
+      offsets[i] = inst.getOffset();
+      flags[i] = inst.getFlag();
+    }
+    rowOffsets[_numInstances] = entryIndex;
+  }
+
+  /**
+   * Read all the blocks of a data set into one CSR data set in memory, or return the data set
+   * itself if it is already a CSRDataset
+   */
+  public static CSRDataset copyOf(final Dataset data) {
+    if (data instanceof CSRDataset) {
+      return (CSRDataset) data;
+    }
+    int numInstances = data.getNumInstances();
+    int[] rowOffsets = new int[numInstances + 1];
+    float[] labels = new float[numInstances];
+    float[] weights = new float[numInstances];
+    float[] offsets = new float[numInstances];
+    int[] flags = new int[numInstances];
+    int[] dims = new int[1024];
+    float[] vals = new float[1024];
+    int numEntries = 0;
+    int blockStart = 0;
+    Iterator<CSRDataset> blocks = data.blocks(Dataset.DEFAULT_BLOCK_SIZE);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      int numBlockInsts = block.getNumInstances();
+      int numBlockEntries = block.getNumEntries();
+      if ((long) numEntries + numBlockEntries > Integer.MAX_VALUE - 8) {
+        throw new IllegalArgumentException("Too many feature entries for a CSR data set");
+      }
+      if (numEntries + numBlockEntries > dims.length) {
+        int length = (int) Math.min(Integer.MAX_VALUE - 8,
+            Math.max((long) numEntries + numBlockEntries, 2L * dims.length));
+        dims = Arrays.copyOf(dims, length);
+        vals = Arrays.copyOf(vals, length);
+      }
+      int blockEntryStart = block.rowOffsets[0];
+      System.arraycopy(block.dims, blockEntryStart, dims, numEntries, numBlockEntries);
+      System.arraycopy(block.vals, blockEntryStart, vals, numEntries, numBlockEntries);
+      for (int i = 0; i < numBlockInsts; i++) {
+        rowOffsets[blockStart + i] = numEntries + block.rowOffsets[i] - blockEntryStart;
+      }
+      System.arraycopy(block.labels, 0, labels, blockStart, numBlockInsts);
+      System.arraycopy(block.weights, 0, weights, blockStart, numBlockInsts);
+      System.arraycopy(block.offsets, 0, offsets, blockStart, numBlockInsts);
+      System.arraycopy(block.flags, 0, flags, blockStart, numBlockInsts);
+      numEntries += numBlockEntries;
+      blockStart += numBlockInsts;
+    }
+    if (blockStart != numInstances) {
+      throw new IllegalStateException("The blocks have " + blockStart + " instances instead of " + numInstances);
+    }
+    rowOffsets[numInstances] = numEntries;
+    return new CSRDataset(data.getDimension(), numInstances, rowOffsets, dims, vals, labels, weights, offsets,
+        flags);
+  }
+
+  @Override
+  public int getNumInstances() {
+    return _numInstances;
+  }
+
+  @Override
+  public int getDimension() {
+    return _dimension;
+  }
+
+  /**
+   * The data set is already in memory, so it is a single block by itself
+   */
+  @Override
+  public Iterator<CSRDataset> blocks(int maxBlockSize) {
+    if (maxBlockSize < 1) {
+      throw new IllegalArgumentException("The maximum block size must be positive: " + maxBlockSize);
+    }
+    return Collections.singletonList(this).iterator();
+  }
+
+  public int getNumEntries() {
+    return rowOffsets[_numInstances] - rowOffsets[0];
+  }
+
+  public SparseVector getFeatures(int instIndex) {
+    int start = rowOffsets[instIndex];
+    int end = rowOffsets[instIndex + 1];
+    return new SparseVector(Arrays.copyOfRange(dims, start, end), Arrays.copyOfRange(vals, start, end));
+  }
+
+  public Instance getInstance(int instIndex) {
+    return new Instance(getFeatures(instIndex), labels[instIndex], weights[instIndex], offsets[instIndex],
+        flags[instIndex]);
+  }
+
+  /**
+   * The inner product between the features of an instance and a dense vector
+   */
+  public double innerProduct(int instIndex, final double[] v) {
+    double ret = 0;
+    for (int j = rowOffsets[instIndex]; j < rowOffsets[instIndex + 1]; j++) {
+      ret += vals[j] * v[dims[j]];
+    }
+    return ret;
+  }
+
+  /**
+   * Unpack all the instances
+   */
+  public Instance[] toInstances() {
+    Instance[] instances = new Instance[_numInstances];
+    for (int i = 0; i < _numInstances; i++) {
+      instances[i] = getInstance(i);
+    }
+    return instances;
+  }
+}
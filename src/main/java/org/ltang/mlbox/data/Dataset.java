@@ -0,0 +1,29 @@
+package org.ltang.mlbox.data;
+
+import java.util.Iterator;
+
+
+/**
+ * A data set which is read block by block, so that it does not have to fit in the heap.
+ * Each block is a CSRDataset of consecutive instances, and the blocks come in the original order.
+ *
+ * @author Liang Tang
+ */
+public interface Dataset {
+
+  int DEFAULT_BLOCK_SIZE = 4096;
+
+  int getDimension();
+
+  int getNumInstances();
+
+  /**
+   * Iterate the instances in blocks. A data set which is already in memory may return larger blocks
+   * than maxBlockSize. The block returned by next() may reuse the buffers of the previous one, so it
+   * is only valid until the next call of next().
+   *
+   * @param maxBlockSize The maximum number of instances in a block
+   * @throws IllegalArgumentException If maxBlockSize is not positive
+   */
+  Iterator<CSRDataset> blocks(int maxBlockSize);
+}
@@ -0,0 +1,87 @@
+package org.ltang.mlbox.data;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * A data set backed by an in-memory array of instances
+ *
+ * @author Liang Tang
+ */
+public class InstanceArrayDataset implements Dataset {
+
+  private final int _dimension;
+
+  private final Instance[] _instances;
+
+  public InstanceArrayDataset(int dimension, final Instance[] instances) {
+    _dimension = dimension;
+    _instances = instances;
+  }
+
+  public Instance[] getInstances() {
+    return _instances;
+  }
+
+  @Override
+  public int getDimension() {
+    return _dimension;
+  }
+
+  @Override
+  public int getNumInstances() {
+    return _instances.length;
+  }
+
+  @Override
+  public Iterator<CSRDataset> blocks(final int maxBlockSize) {
+    if (maxBlockSize < 1) {
+      throw new IllegalArgumentException("The maximum block size must be positive: " + maxBlockSize);
+    }
+    final CSRBlockBuffer buffer = new CSRBlockBuffer(Math.min(maxBlockSize, _instances.length));
+    return new Iterator<CSRDataset>() {
+
+      int _nextInstIndex = 0;
+
+      @Override
+      public boolean hasNext() {
+        return _nextInstIndex < _instances.length;
+      }
+
+      @Override
+      public CSRDataset next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int numInsts = Math.min(maxBlockSize, _instances.length - _nextInstIndex);
+        int numEntries = 0;
+        for (int i = 0; i < numInsts; i++) {
+          numEntries += _instances[_nextInstIndex + i].getFeatures().dims.length;
+        }
+        buffer.ensureEntryCapacity(numEntries);
+        int entryIndex = 0;
+        for (int i = 0; i < numInsts; i++) {
+          Instance inst = _instances[_nextInstIndex + i];
+          SparseVector features = inst.getFeatures();
+          buffer._rowOffsets[i] = entryIndex;
+          System.arraycopy(features.dims, 0, buffer._dims, entryIndex, features.dims.length);
+          System.arraycopy(features.vals, 0, buffer._vals, entryIndex, features.vals.length);
+          entryIndex += features.dims.length;
+          buffer._labels[i] = inst.getLabel();
+          buffer._weights[i] = inst.getWeight();
+          buffer._offsets[i] = inst.getOffset();
+          buffer._flags[i] = inst.getFlag();
+        }
+        buffer._rowOffsets[numInsts] = entryIndex;
+        _nextInstIndex += numInsts;
+        return buffer.toBlock(_dimension, numInsts);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
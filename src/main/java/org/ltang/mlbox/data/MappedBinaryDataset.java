@@ -0,0 +1,207 @@
+package org.ltang.mlbox.data;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.ltang.mlbox.utils.MappedRegion;
+
+
+/**
+ * A data set memory-mapped from a binary dataset file (see BinaryDatasetWriter).
+ * Opening the file only reads the header, and the labels, weights and features are read
+ * directly from the mapped file without copying. The blocks are bulk copies of the mapped file.
+ *
+ * @author Liang Tang
+ */
+public class MappedBinaryDataset implements Dataset {
+
+  private final MappedRegion _region;
+
+  private final BinaryDatasetFormat _format;
+
+  private final int _numInstances;
+
+  private final int _dimension;
+
+  public MappedBinaryDataset(String fileName)
+      throws IOException {
+    RandomAccessFile file = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      if (channel.size() < BinaryDatasetFormat.HEADER_SIZE) {
+        throw new IOException(fileName + " is not a binary dataset file");
+      }
+      MappedRegion header = new MappedRegion(channel, FileChannel.MapMode.READ_ONLY, 0,
+          BinaryDatasetFormat.HEADER_SIZE);
+      if (header.getInt(0) != BinaryDatasetFormat.MAGIC) {
+        throw new IOException(fileName + " is not a binary dataset file");
+      }
+      int version = header.getInt(4);
+      if (version != BinaryDatasetFormat.VERSION) {
+        throw new IOException("Unsupported binary dataset version " + version + " of " + fileName);
+      }
+      long numInstances = header.getLong(8);
+      if (numInstances > Integer.MAX_VALUE) {
+        throw new IOException("Too many instances in " + fileName + ": " + numInstances);
+      }
+      _numInstances = (int) numInstances;
+      _dimension = header.getInt(16);
+      _format = new BinaryDatasetFormat(numInstances, header.getLong(24));
+      if (channel.size() < _format._fileSize) {
+        throw new IOException(fileName + " is truncated, expected " + _format._fileSize + " bytes");
+      }
+      _region = new MappedRegion(channel, FileChannel.MapMode.READ_ONLY, 0, _format._fileSize);
+    } finally {
+      // The mapping stays valid after the file is closed
+      file.close();
+    }
+  }
+
+  @Override
+  public int getNumInstances() {
+    return _numInstances;
+  }
+
+  @Override
+  public int getDimension() {
+    return _dimension;
+  }
+
+  public long getNumEntries() {
+    return _format._numEntries;
+  }
+
+  public float getLabel(int instIndex) {
+    return _region.getFloat(_format._labelsPos + 4L * instIndex);
+  }
+
+  public float getWeight(int instIndex) {
+    return _region.getFloat(_format._weightsPos + 4L * instIndex);
+  }
+
+  public float getOffset(int instIndex) {
+    return _region.getFloat(_format._offsetsPos + 4L * instIndex);
+  }
+
+  public int getFlag(int instIndex) {
+    return _region.getInt(_format._flagsPos + 4L * instIndex);
+  }
+
+  /**
+   * @return The position of the first feature entry of the instance among all entries
+   */
+  public long getRowStart(int instIndex) {
+    return _region.getLong(_format._rowOffsetsPos + 8L * instIndex);
+  }
+
+  /**
+   * @return The position after the last feature entry of the instance among all entries
+   */
+  public long getRowEnd(int instIndex) {
+    return _region.getLong(_format._rowOffsetsPos + 8L * (instIndex + 1));
+  }
+
+  /**
+   * @param entryIndex The position among all entries, see getRowStart
+   */
+  public int getEntryDimension(long entryIndex) {
+    return _region.getInt(_format._dimsPos + 4 * entryIndex);
+  }
+
+  /**
+   * @param entryIndex The position among all entries, see getRowStart
+   */
+  public float getEntryValue(long entryIndex) {
+    return _region.getFloat(_format._valsPos + 4 * entryIndex);
+  }
+
+  /**
+   * Bulk copy of the dimension indices of the entries [entryIndex, entryIndex+len)
+   */
+  public void getEntryDimensions(long entryIndex, int[] dst, int offset, int len) {
+    _region.getInts(_format._dimsPos + 4 * entryIndex, dst, offset, len);
+  }
+
+  /**
+   * Bulk copy of the values of the entries [entryIndex, entryIndex+len)
+   */
+  public void getEntryValues(long entryIndex, float[] dst, int offset, int len) {
+    _region.getFloats(_format._valsPos + 4 * entryIndex, dst, offset, len);
+  }
+
+  public SparseVector getFeatures(int instIndex) {
+    long start = getRowStart(instIndex);
+    int len = (int) (getRowEnd(instIndex) - start);
+    int[] dims = new int[len];
+    float[] vals = new float[len];
+    getEntryDimensions(start, dims, 0, len);
+    getEntryValues(start, vals, 0, len);
+    return new SparseVector(dims, vals);
+  }
+
+  public Instance getInstance(int instIndex) {
+    return new Instance(getFeatures(instIndex), getLabel(instIndex), getWeight(instIndex),
+        getOffset(instIndex), getFlag(instIndex));
+  }
+
+  /**
+   * Copy all the instances onto the heap
+   */
+  public Instance[] getInstances() {
+    Instance[] instances = new Instance[_numInstances];
+    for (int i = 0; i < _numInstances; i++) {
+      instances[i] = getInstance(i);
+    }
+    return instances;
+  }
+
+  @Override
+  public Iterator<CSRDataset> blocks(final int maxBlockSize) {
+    if (maxBlockSize < 1) {
+      throw new IllegalArgumentException("The maximum block size must be positive: " + maxBlockSize);
+    }
+    final CSRBlockBuffer buffer = new CSRBlockBuffer(Math.min(maxBlockSize, _numInstances));
+    return new Iterator<CSRDataset>() {
+
+      int _nextInstIndex = 0;
+
+      @Override
+      public boolean hasNext() {
+        return _nextInstIndex < _numInstances;
+      }
+
+      @Override
+      public CSRDataset next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int numInsts = Math.min(maxBlockSize, _numInstances - _nextInstIndex);
+        long firstEntry = getRowStart(_nextInstIndex);
+        long numEntries = getRowStart(_nextInstIndex + numInsts) - firstEntry;
+        if (numEntries > Integer.MAX_VALUE - 8) {
+          throw new IllegalStateException("Too many feature entries in a block: " + numEntries);
+        }
+        buffer.ensureEntryCapacity((int) numEntries);
+        for (int i = 0; i <= numInsts; i++) {
+          buffer._rowOffsets[i] = (int) (getRowStart(_nextInstIndex + i) - firstEntry);
+        }
+        _region.getFloats(_format._labelsPos + 4L * _nextInstIndex, buffer._labels, 0, numInsts);
+        _region.getFloats(_format._weightsPos + 4L * _nextInstIndex, buffer._weights, 0, numInsts);
+        _region.getFloats(_format._offsetsPos + 4L * _nextInstIndex, buffer._offsets, 0, numInsts);
+        _region.getInts(_format._flagsPos + 4L * _nextInstIndex, buffer._flags, 0, numInsts);
+        getEntryDimensions(firstEntry, buffer._dims, 0, (int) numEntries);
+        getEntryValues(firstEntry, buffer._vals, 0, (int) numEntries);
+        _nextInstIndex += numInsts;
+        return buffer.toBlock(_dimension, numInsts);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
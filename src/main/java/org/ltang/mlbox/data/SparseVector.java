@@ -4,13 +4,10 @@ import java.io.DataInputStream;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.List;
+
+import org.ltang.mlbox.utils.SortUtil;
 
 
 /**
@@ -27,6 +24,15 @@ public final class SparseVector {
 
   static final float EPS = 1.0E-13f;
 
+  // Galloping intersection is used if one vector is this many times longer than the other
+  static final int GALLOP_RATIO = 16;
+
+  // The number of entries skipped at a time by the linear merge
+  static final int SKIP_BLOCK = 4;
+
+  // The cached norm2, or -1 if it is not computed yet
+  private float _norm2 = -1;
+
   public SparseVector(final int[] dims, final float[] values) {
     if (dims.length != values.length) {
       throw new IllegalArgumentException("The numbers of dimensions " + "and values are not identical!");
@@ -36,55 +42,27 @@ public final class SparseVector {
     sortDimensionIndices();
   }
 
-  private SparseVector(final List<float[]> valuePairs, int dimension) {
-    List<float[]> sortedValuePairs = new ArrayList<float[]>(valuePairs.size());
-    sortedValuePairs.addAll(valuePairs);
-    Collections.sort(sortedValuePairs, new Comparator<float[]>() {
-      @Override
-      public int compare(float[] o1, float[] o2) {
-        if ((int) o1[0] > (int) o2[0]) {
-          return 1;
-        } else if ((int) o1[0] < (int) o2[0]) {
-          return -1;
-        } else {
-          return 0;
-        }
-      }
-    });
-    this.dims = new int[sortedValuePairs.size()];
-    this.vals = new float[sortedValuePairs.size()];
-    createFromSortedValuePairs(sortedValuePairs);
-  }
-
   public SparseVector(float[] v) {
-    List<float[]> sortedValuePairs = new ArrayList<float[]>();
+    int numValues = 0;
     for (int dimIndex = 0; dimIndex < v.length; dimIndex++) {
       float val = v[dimIndex];
       float absVal = val > 0 ? val : (-val);
       if (absVal > EPS) {
-        sortedValuePairs.add(new float[]{dimIndex, val});
+        numValues++;
       }
     }
-    this.dims = new int[sortedValuePairs.size()];
-    this.vals = new float[sortedValuePairs.size()];
-    createFromSortedValuePairs(sortedValuePairs);
-  }
-
-  private SparseVector(final Collection<Integer> dims, final Collection<Float> values) {
-    if (dims.size() != values.size()) {
-      throw new IllegalArgumentException("The numbers of dimensions and values " + "are not identical!");
-    }
-    Iterator<Integer> dimIter = dims.iterator();
-    Iterator<Float> valueIter = values.iterator();
-    this.dims = new int[dims.size()];
-    this.vals = new float[dims.size()];
+    this.dims = new int[numValues];
+    this.vals = new float[numValues];
     int index = 0;
-    while (dimIter.hasNext()) {
-      this.dims[index] = dimIter.next();
-      this.vals[index] = valueIter.next();
-      index++;
+    for (int dimIndex = 0; dimIndex < v.length; dimIndex++) {
+      float val = v[dimIndex];
+      float absVal = val > 0 ? val : (-val);
+      if (absVal > EPS) {
+        this.dims[index] = dimIndex;
+        this.vals[index] = val;
+        index++;
+      }
     }
-    sortDimensionIndices();
   }
 
   protected SparseVector(int numValues) {
@@ -92,39 +70,24 @@ public final class SparseVector {
     this.vals = new float[numValues];
   }
 
-  private void createFromSortedValuePairs(final List<float[]> sortedValuePairs) {
-    if (this.dims.length < sortedValuePairs.size() || this.vals.length < sortedValuePairs.size()) {
-      throw new IllegalArgumentException("The number of values is greater than " + "the capacity of the sparse vector");
-    }
-    for (int i = 0; i < sortedValuePairs.size(); i++) {
-      float[] valuePair = sortedValuePairs.get(i);
-      this.dims[i] = (int) valuePair[0];
-      this.vals[i] = valuePair[1];
-    }
+  /**
+   * Take the first len entries of the sorted arrays, which are shared if their lengths are len
+   */
+  SparseVector(final int[] sortedDims, final float[] sortedValues, int len) {
+    this.dims = sortedDims.length == len ? sortedDims : Arrays.copyOf(sortedDims, len);
+    this.vals = sortedValues.length == len ? sortedValues : Arrays.copyOf(sortedValues, len);
   }
 
+  /**
+   * Stable sort of the entries by the dimension indices, which are usually already sorted
+   */
   private void sortDimensionIndices() {
-    List<float[]> valuePairs = new ArrayList<float[]>(this.dims.length);
-    for (int i = 0; i < dims.length; i++) {
-      valuePairs.add(new float[]{dims[i], vals[i]});
-    }
-    Collections.sort(valuePairs, new Comparator<float[]>() {
-      @Override
-      public int compare(float[] o1, float[] o2) {
-        if ((int) o1[0] > (int) o2[0]) {
-          return 1;
-        } else if ((int) o1[0] < (int) o2[0]) {
-          return -1;
-        } else {
-          return 0;
-        }
-      }
-    });
-    createFromSortedValuePairs(valuePairs);
+    SortUtil.sort(dims, vals, 0, dims.length);
   }
 
   public SparseVector(final SparseVector copy) {
-    this(copy.dims, copy.vals);
+    // The entries of a sparse vector are already sorted
+    this(Arrays.copyOf(copy.dims, copy.dims.length), Arrays.copyOf(copy.vals, copy.vals.length), copy.dims.length);
   }
 
   public SparseVector copyNew() {
@@ -139,15 +102,17 @@ public final class SparseVector {
    * @return
    */
   public static SparseVector create(String[] descriptions) {
-    List<Integer> dims = new ArrayList<Integer>();
-    List<Float> values = new ArrayList<Float>();
-    for (String entry : descriptions) {
-      entry = entry.trim();
+    int[] dims = new int[descriptions.length];
+    float[] values = new float[descriptions.length];
+    for (int i = 0; i < descriptions.length; i++) {
+      String entry = descriptions[i].trim();
       String[] token = entry.split(":");
-      dims.add(Integer.parseInt(token[0]));
-      values.add(Float.parseFloat(token[1]));
+      dims[i] = Integer.parseInt(token[0]);
+      values[i] = Float.parseFloat(token[1]);
     }
-    return new SparseVector(dims, values);
+    SparseVector ret = new SparseVector(dims, values, dims.length);
+    ret.sortDimensionIndices();
+    return ret;
   }
 
   public float get(int dimIndex) {
@@ -168,58 +133,61 @@ public final class SparseVector {
   }
 
   public SparseVector add(final SparseVector v) {
-    List<float[]> resultValuePairs = new ArrayList<float[]>();
+    return merge(v, 1f);
+  }
+
+  /**
+   * @return this + scale * v
+   */
+  private SparseVector merge(final SparseVector v, float scale) {
+    // Merge the two sorted vectors into arrays large enough for the union of the dimensions
+    int len1 = this.dims.length;
+    int len2 = v.dims.length;
+    int[] resultDims = new int[len1 + len2];
+    float[] resultVals = new float[len1 + len2];
     int i = 0;
     int j = 0;
-    while (i < this.dims.length || j < v.vals.length) {
-      int dimIndex1 = i < this.dims.length ? this.dims[i] : -1;
-      int dimIndex2 = j < v.vals.length ? v.dims[j] : -1;
-
-      if (dimIndex1 == -1 && dimIndex2 == -1) {
-        throw new IllegalStateException("Error for both dimIndex1 and dimIndex2 are -1");
-      } else if (dimIndex1 == -1) { // i went to the end
-        resultValuePairs.add(new float[]{dimIndex2, v.vals[j]});
-        j++;
-      } else if (dimIndex2 == -1) { // j went to the end
-        resultValuePairs.add(new float[]{dimIndex1, this.vals[i]});
-        i++;
-      } else if (dimIndex1 < dimIndex2) {
-        resultValuePairs.add(new float[]{dimIndex1, this.vals[i]});
+    int k = 0;
+    while (i < len1 && j < len2) {
+      int dimIndex1 = this.dims[i];
+      int dimIndex2 = v.dims[j];
+      if (dimIndex1 < dimIndex2) {
+        resultDims[k] = dimIndex1;
+        resultVals[k] = this.vals[i];
         i++;
       } else if (dimIndex1 > dimIndex2) {
-        resultValuePairs.add(new float[]{dimIndex2, v.vals[j]});
+        resultDims[k] = dimIndex2;
+        resultVals[k] = scale * v.vals[j];
         j++;
       } else {
-        resultValuePairs.add(new float[]{dimIndex1, this.vals[i] + v.vals[j]});
+        resultDims[k] = dimIndex1;
+        resultVals[k] = this.vals[i] + scale * v.vals[j];
         i++;
         j++;
       }
+      k++;
     }
-    SparseVector result = new SparseVector(resultValuePairs.size());
-    result.createFromSortedValuePairs(resultValuePairs);
-    return result;
+    // One of the vectors went to the end
+    System.arraycopy(this.dims, i, resultDims, k, len1 - i);
+    System.arraycopy(this.vals, i, resultVals, k, len1 - i);
+    k += len1 - i;
+    for (; j < len2; j++, k++) {
+      resultDims[k] = v.dims[j];
+      resultVals[k] = scale * v.vals[j];
+    }
+    return new SparseVector(resultDims, resultVals, k);
   }
 
   public SparseVector neg() {
-    SparseVector ret = new SparseVector(this);
-    for (int i = 0; i < ret.vals.length; i++) {
-      ret.vals[i] = -ret.vals[i];
-    }
-    return ret;
+    return copyNew().negInPlace();
   }
 
   public SparseVector subtract(final SparseVector v) {
-    SparseVector tmp = v.copyNew();
-    tmp.neg();
-    return this.add(tmp);
+    return merge(v, -1f);
   }
 
   public SparseVector mul(float scalar) {
-    SparseVector ret = new SparseVector(this);
-    for (int i = 0; i < ret.vals.length; i++) {
-      ret.vals[i] *= scalar;
-    }
-    return ret;
+    return copyNew().mulInPlace(scalar);
   }
 
   public SparseVector div(float scalar) {
@@ -227,42 +195,131 @@ public final class SparseVector {
   }
 
   public SparseVector pow(float p) {
-    SparseVector ret = new SparseVector(this);
-    for (int i = 0; i < ret.vals.length; i++) {
-      ret.vals[i] = (float) Math.pow(ret.vals[i], p);
-    }
-    return ret;
+    return copyNew().powInPlace(p);
   }
 
   public SparseVector square() {
-    SparseVector ret = new SparseVector(this);
-    for (int i = 0; i < ret.vals.length; i++) {
-      ret.vals[i] = ret.vals[i] * ret.vals[i];
-    }
-    return ret;
+    return copyNew().squareInPlace();
   }
 
   public SparseVector inverse() {
-    SparseVector ret = new SparseVector(this);
-    for (int i = 0; i < ret.vals.length; i++) {
-      ret.vals[i] = (float) (1.0 / ret.vals[i]);
+    return copyNew().inverseInPlace();
+  }
+
+  /**
+   * Negate the values of this vector without copying
+   * @return this vector
+   */
+  public SparseVector negInPlace() {
+    _norm2 = -1;
+    for (int i = 0; i < vals.length; i++) {
+      vals[i] = -vals[i];
+    }
+    return this;
+  }
+
+  /**
+   * Multiply the values of this vector without copying
+   * @return this vector
+   */
+  public SparseVector mulInPlace(float scalar) {
+    _norm2 = -1;
+    for (int i = 0; i < vals.length; i++) {
+      vals[i] *= scalar;
+    }
+    return this;
+  }
+
+  public SparseVector divInPlace(float scalar) {
+    return mulInPlace(1.0f / scalar);
+  }
+
+  public SparseVector powInPlace(float p) {
+    _norm2 = -1;
+    for (int i = 0; i < vals.length; i++) {
+      vals[i] = (float) Math.pow(vals[i], p);
+    }
+    return this;
+  }
+
+  public SparseVector squareInPlace() {
+    _norm2 = -1;
+    for (int i = 0; i < vals.length; i++) {
+      vals[i] = vals[i] * vals[i];
+    }
+    return this;
+  }
+
+  public SparseVector inverseInPlace() {
+    _norm2 = -1;
+    for (int i = 0; i < vals.length; i++) {
+      vals[i] = (float) (1.0 / vals[i]);
+    }
+    return this;
+  }
+
+  /**
+   * y += alpha * this, without allocating
+   */
+  public void axpy(double alpha, final double[] y) {
+    for (int i = 0; i < dims.length; i++) {
+      y[dims[i]] += alpha * vals[i];
+    }
+  }
+
+  /**
+   * y += alpha * this, without allocating
+   */
+  public void axpy(float alpha, final float[] y) {
+    for (int i = 0; i < dims.length; i++) {
+      y[dims[i]] += alpha * vals[i];
     }
-    return ret;
   }
 
   public float innerProduct(final SparseVector v) {
+    if (isSkewed(this, v)) {
+      return this.dims.length < v.dims.length ? innerProductGallop(this, v) : innerProductGallop(v, this);
+    }
+    return innerProductMerge(this, v);
+  }
+
+  /**
+   * Whether one vector is so much longer than the other that galloping through the longer one
+   * is faster than a linear merge
+   */
+  private static boolean isSkewed(final SparseVector v1, final SparseVector v2) {
+    int len1 = v1.dims.length;
+    int len2 = v2.dims.length;
+    return len1 > len2 ? len1 / GALLOP_RATIO > len2 : len2 / GALLOP_RATIO > len1;
+  }
+
+  /**
+   * The inner product by a linear merge of the two vectors. A run of smaller dimensions is
+   * skipped a block at a time, which takes one comparison per block instead of one per entry.
+   */
+  static float innerProductMerge(final SparseVector v1, final SparseVector v2) {
+    final int[] dims1 = v1.dims;
+    final int[] dims2 = v2.dims;
+    int len1 = dims1.length;
+    int len2 = dims2.length;
     float ret = 0;
     int i = 0;
     int j = 0;
-    while (i < this.dims.length && j < v.vals.length) {
-      int dimIndex1 = this.dims[i];
-      int dimIndex2 = v.dims[j];
+    while (i < len1 && j < len2) {
+      int dimIndex1 = dims1[i];
+      int dimIndex2 = dims2[j];
       if (dimIndex1 < dimIndex2) {
         i++;
+        while (i + SKIP_BLOCK <= len1 && dims1[i + SKIP_BLOCK - 1] < dimIndex2) {
+          i += SKIP_BLOCK;
+        }
       } else if (dimIndex1 > dimIndex2) {
         j++;
+        while (j + SKIP_BLOCK <= len2 && dims2[j + SKIP_BLOCK - 1] < dimIndex1) {
+          j += SKIP_BLOCK;
+        }
       } else {
-        ret += this.vals[i] * v.vals[j];
+        ret += v1.vals[i] * v2.vals[j];
         i++;
         j++;
       }
@@ -270,6 +327,44 @@ public final class SparseVector {
     return ret;
   }
 
+  /**
+   * The inner product by an exponential search in the longer vector for each entry of the
+   * shorter one, which takes O(m log(n/m)) instead of O(m+n)
+   */
+  static float innerProductGallop(final SparseVector shorter, final SparseVector longer) {
+    float ret = 0;
+    int j = 0;
+    for (int i = 0; i < shorter.dims.length && j < longer.dims.length; i++) {
+      j = gallop(longer.dims, j, shorter.dims[i]);
+      if (j < longer.dims.length && longer.dims[j] == shorter.dims[i]) {
+        ret += shorter.vals[i] * longer.vals[j];
+        j++;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return The first position p >= from where dims[p] >= key, or dims.length if there is none
+   */
+  static int gallop(final int[] dims, int from, int key) {
+    int len = dims.length;
+    if (from >= len || dims[from] >= key) {
+      return from;
+    }
+    // dims[low] < key, and dims[high] >= key or high >= len
+    int low = from;
+    int step = 1;
+    int high = from + 1;
+    while (high < len && dims[high] < key) {
+      low = high;
+      step <<= 1;
+      high = len - from > step ? from + step : len;
+    }
+    int index = Arrays.binarySearch(dims, low + 1, Math.min(high, len), key);
+    return index >= 0 ? index : -(index + 1);
+  }
+
   public float innerProduct(final float[] v) {
     return innerProduct(v, v.length);
   }
@@ -296,12 +391,43 @@ public final class SparseVector {
     return ret;
   }
 
+  /**
+   * The norm is computed once and cached. The in-place operations reset the cache, but a direct
+   * change of vals does not.
+   */
   public float norm2() {
-    return (float)Math.sqrt(innerProduct(this));
+    float norm = _norm2;
+    if (norm < 0) {
+      float sum = 0;
+      for (int i = 0; i < vals.length; i++) {
+        sum += vals[i] * vals[i];
+      }
+      norm = (float) Math.sqrt(sum);
+      _norm2 = norm;
+    }
+    return norm;
   }
 
   public SparseVector elementwiseMultiply(SparseVector v) {
-    List<float[]> resultValuePairs = new ArrayList<float[]>();
+    int maxLen = Math.min(this.dims.length, v.dims.length);
+    int[] resultDims = new int[maxLen];
+    float[] resultVals = new float[maxLen];
+    int k = 0;
+    if (isSkewed(this, v)) {
+      SparseVector shorter = this.dims.length < v.dims.length ? this : v;
+      SparseVector longer = shorter == this ? v : this;
+      int j = 0;
+      for (int i = 0; i < shorter.dims.length && j < longer.dims.length; i++) {
+        j = gallop(longer.dims, j, shorter.dims[i]);
+        if (j < longer.dims.length && longer.dims[j] == shorter.dims[i]) {
+          resultDims[k] = shorter.dims[i];
+          resultVals[k] = this.vals[shorter == this ? i : j] * v.vals[shorter == this ? j : i];
+          k++;
+          j++;
+        }
+      }
+      return new SparseVector(resultDims, resultVals, k);
+    }
     int i = 0;
     int j = 0;
     while (i < this.dims.length && j < v.vals.length) {
@@ -312,14 +438,14 @@ public final class SparseVector {
       } else if (dimIndex1 > dimIndex2) {
         j++;
       } else {
-        resultValuePairs.add(new float[]{dimIndex1, this.vals[i] * v.vals[j]});
+        resultDims[k] = dimIndex1;
+        resultVals[k] = this.vals[i] * v.vals[j];
+        k++;
         i++;
         j++;
       }
     }
-    SparseVector result = new SparseVector(resultValuePairs.size());
-    result.createFromSortedValuePairs(resultValuePairs);
-    return result;
+    return new SparseVector(resultDims, resultVals, k);
   }
 
   public static float cosine(SparseVector v1, SparseVector v2) {
@@ -351,16 +477,43 @@ public final class SparseVector {
     }
   }
 
+  /**
+   * Write the vector in the compact serialization, see SparseVectorCodec. The dimension indices
+   * must be non-negative. The values are not written if all of them are 1, and are rounded to
+   * float16s, i.e., 11 significant bits, if halfFloat is true.
+   */
+  public void serialize(DataOutputStream os, boolean halfFloat)
+      throws IOException {
+    os.write(SparseVectorCodec.encode(this, halfFloat));
+  }
+
+  /**
+   * Write the vector in the compact serialization at the position of the buffer
+   */
+  public void serialize(ByteBuffer buf, boolean halfFloat) {
+    SparseVectorCodec.encode(this, halfFloat, buf);
+  }
+
+  /**
+   * @return The number of bytes of the compact serialization
+   */
+  public int getSerializedSize(boolean halfFloat) {
+    return SparseVectorCodec.encodedSize(this, halfFloat);
+  }
+
+  /**
+   * Read a vector of either the original or the compact serialization
+   */
   public static SparseVector deserialize(DataInputStream dis)
       throws IOException {
-    int numValues = dis.readInt();
-    int[] dims = new int[numValues];
-    float[] vals = new float[numValues];
-    for (int i = 0; i < numValues; i++) {
-      dims[i] = dis.readInt();
-      vals[i] = dis.readFloat();
-    }
-    return new SparseVector(dims, vals);
+    return SparseVectorCodec.decode(dis);
+  }
+
+  /**
+   * Read a vector of either the original or the compact serialization at the position of the buffer
+   */
+  public static SparseVector deserialize(ByteBuffer buf) {
+    return SparseVectorCodec.decode(buf);
   }
 
   @Override
@@ -0,0 +1,89 @@
+package org.ltang.mlbox.data;
+
+import java.util.Arrays;
+
+import org.ltang.mlbox.utils.SortUtil;
+
+
+/**
+ * A reusable builder of sparse vectors. The entries are appended into growing primitive arrays,
+ * and finish() creates the vector and clears the builder for the next one, so building many
+ * vectors only allocates the arrays of the vectors themselves.
+ *
+ * The entries can be appended in any order, and the values of the same dimension are summed up.
+ *
+ * @author Liang Tang
+ */
+public final class SparseVectorBuilder {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private int[] _dims;
+
+  private float[] _vals;
+
+  private int _size = 0;
+
+  // Whether the appended dimensions are strictly ascending, so no sorting is needed
+  private boolean _sorted = true;
+
+  public SparseVectorBuilder() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public SparseVectorBuilder(int initialCapacity) {
+    _dims = new int[Math.max(initialCapacity, 1)];
+    _vals = new float[Math.max(initialCapacity, 1)];
+  }
+
+  public SparseVectorBuilder append(int dimIndex, float value) {
+    if (_size == _dims.length) {
+      int newCapacity = _dims.length + (_dims.length >> 1) + 1;
+      _dims = Arrays.copyOf(_dims, newCapacity);
+      _vals = Arrays.copyOf(_vals, newCapacity);
+    }
+    if (_size > 0 && _dims[_size - 1] >= dimIndex) {
+      _sorted = false;
+    }
+    _dims[_size] = dimIndex;
+    _vals[_size] = value;
+    _size++;
+    return this;
+  }
+
+  /**
+   * Append all the entries of a vector multiplied by the scale
+   */
+  public SparseVectorBuilder append(final SparseVector v, float scale) {
+    for (int i = 0; i < v.dims.length; i++) {
+      append(v.dims[i], scale * v.vals[i]);
+    }
+    return this;
+  }
+
+  /**
+   * @return The number of appended entries
+   */
+  public int size() {
+    return _size;
+  }
+
+  public void clear() {
+    _size = 0;
+    _sorted = true;
+  }
+
+  /**
+   * Create the vector of the appended entries, and clear the builder
+   */
+  public SparseVector finish() {
+    int len = _size;
+    if (!_sorted) {
+      SortUtil.sort(_dims, _vals, 0, _size);
+      len = SortUtil.mergeDuplicates(_dims, _vals, 0, _size);
+    }
+    SparseVector v = new SparseVector(Arrays.copyOf(_dims, len), Arrays.copyOf(_vals, len), len);
+    clear();
+    return v;
+  }
+}
@@ -0,0 +1,217 @@
+package org.ltang.mlbox.data;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.ltang.mlbox.utils.HalfFloat;
+import org.ltang.mlbox.utils.SortUtil;
+import org.ltang.mlbox.utils.VarIntCodec;
+
+
+/**
+ * The compact serialization of sparse vectors, which is
+ *   1 byte of flags, whose highest bit is always set,
+ *   the varint number of the bytes after it,
+ *   the varint number of entries,
+ *   the varint gaps of the ascending dimension indices,
+ *   the values as big-endian floats or float16s, or nothing if all the values are 1.
+ *
+ * The original serialization is the big-endian int number of entries followed by the pairs of
+ * the int dimension index and the float value. Its first byte never has the highest bit set, so
+ * both are read by looking at the first byte.
+ *
+ * @author Liang Tang
+ */
+final class SparseVectorCodec {
+
+  static final int COMPACT = 0x80;
+
+  // All the values are 1 and not written
+  static final int ALL_ONES = 0x01;
+
+  // The values are written as float16s
+  static final int HALF_FLOAT = 0x02;
+
+  private static int flags(final SparseVector v, boolean halfFloat) {
+    for (float val : v.vals) {
+      if (val != 1f) {
+        return COMPACT | (halfFloat ? HALF_FLOAT : 0);
+      }
+    }
+    return COMPACT | ALL_ONES;
+  }
+
+  // The number of bytes after the flags and the payload size
+  private static int payloadSize(final SparseVector v, int flags) {
+    int numValues = v.dims.length;
+    long size = VarIntCodec.encodedSize(numValues) + VarIntCodec.deltaEncodedSize(v.dims, 0, numValues, 0);
+    if ((flags & ALL_ONES) == 0) {
+      size += (long) numValues * ((flags & HALF_FLOAT) != 0 ? 2 : 4);
+    }
+    if (size > Integer.MAX_VALUE - 6) {
+      throw new IllegalArgumentException("The sparse vector is too large to serialize: " + numValues);
+    }
+    return (int) size;
+  }
+
+  static int encodedSize(final SparseVector v, boolean halfFloat) {
+    int payloadSize = payloadSize(v, flags(v, halfFloat));
+    return 1 + VarIntCodec.encodedSize(payloadSize) + payloadSize;
+  }
+
+  static byte[] encode(final SparseVector v, boolean halfFloat) {
+    int flags = flags(v, halfFloat);
+    int payloadSize = payloadSize(v, flags);
+    byte[] buf = new byte[1 + VarIntCodec.encodedSize(payloadSize) + payloadSize];
+    encode(v, flags, payloadSize, buf, 0);
+    return buf;
+  }
+
+  /**
+   * Write the vector at the position of the buffer, and move the position after it
+   */
+  static void encode(final SparseVector v, boolean halfFloat, final ByteBuffer buf) {
+    int flags = flags(v, halfFloat);
+    int payloadSize = payloadSize(v, flags);
+    int size = 1 + VarIntCodec.encodedSize(payloadSize) + payloadSize;
+    if (buf.remaining() < size) {
+      throw new BufferOverflowException();
+    }
+    if (buf.hasArray()) {
+      encode(v, flags, payloadSize, buf.array(), buf.arrayOffset() + buf.position());
+      buf.position(buf.position() + size);
+    } else {
+      byte[] bytes = new byte[size];
+      encode(v, flags, payloadSize, bytes, 0);
+      buf.put(bytes);
+    }
+  }
+
+  private static int encode(final SparseVector v, int flags, int payloadSize, final byte[] buf, int pos) {
+    int numValues = v.dims.length;
+    buf[pos++] = (byte) flags;
+    pos = VarIntCodec.write(buf, pos, payloadSize);
+    pos = VarIntCodec.write(buf, pos, numValues);
+    pos = VarIntCodec.writeDeltas(buf, pos, v.dims, 0, numValues, 0);
+    if ((flags & ALL_ONES) != 0) {
+      return pos;
+    }
+    final float[] vals = v.vals;
+    if ((flags & HALF_FLOAT) != 0) {
+      for (int i = 0; i < numValues; i++) {
+        short half = HalfFloat.fromFloat(vals[i]);
+        buf[pos++] = (byte) (half >>> 8);
+        buf[pos++] = (byte) half;
+      }
+    } else {
+      ByteBuffer.wrap(buf, pos, numValues << 2).asFloatBuffer().put(vals);
+      pos += numValues << 2;
+    }
+    return pos;
+  }
+
+  /**
+   * Read a vector of either serialization at the position of the buffer, and move the position
+   * after it
+   */
+  static SparseVector decode(final ByteBuffer buf) {
+    int flags = buf.get(buf.position()) & 0xff;
+    if ((flags & COMPACT) == 0) {
+      // The original serialization is big-endian, which is the order of a slice
+      ByteBuffer view = buf.slice();
+      int numValues = view.getInt();
+      SparseVector v = decodeOriginal(numValues, view);
+      buf.position(buf.position() + view.position());
+      return v;
+    }
+    buf.get();
+    int payloadSize = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = buf.get();
+      payloadSize |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        break;
+      }
+    }
+    if (buf.remaining() < payloadSize) {
+      throw new BufferUnderflowException();
+    }
+    if (buf.hasArray()) {
+      SparseVector v = decodePayload(flags, buf.array(), buf.arrayOffset() + buf.position());
+      buf.position(buf.position() + payloadSize);
+      return v;
+    }
+    byte[] payload = new byte[payloadSize];
+    buf.get(payload);
+    return decodePayload(flags, payload, 0);
+  }
+
+  /**
+   * Read a vector of either serialization from the stream
+   */
+  static SparseVector decode(DataInputStream dis)
+      throws IOException {
+    int flags = dis.readUnsignedByte();
+    if ((flags & COMPACT) == 0) {
+      int numValues = (flags << 24) | (dis.readUnsignedByte() << 16) | dis.readUnsignedShort();
+      if (numValues > (Integer.MAX_VALUE >> 3)) {
+        throw new IOException("Too many entries of the serialized sparse vector: " + numValues);
+      }
+      byte[] entries = new byte[numValues << 3];
+      dis.readFully(entries);
+      return decodeOriginal(numValues, ByteBuffer.wrap(entries));
+    }
+    int payloadSize = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = dis.readUnsignedByte();
+      payloadSize |= (b & 0x7f) << shift;
+      if (b < 0x80) {
+        break;
+      }
+    }
+    byte[] payload = new byte[payloadSize];
+    dis.readFully(payload);
+    return decodePayload(flags, payload, 0);
+  }
+
+  // The entries of the original serialization, which are read from a big-endian buffer
+  private static SparseVector decodeOriginal(int numValues, final ByteBuffer entries) {
+    if (numValues < 0 || entries.remaining() < ((long) numValues << 3)) {
+      throw new BufferUnderflowException();
+    }
+    int[] dims = new int[numValues];
+    float[] vals = new float[numValues];
+    for (int i = 0; i < numValues; i++) {
+      dims[i] = entries.getInt();
+      vals[i] = entries.getFloat();
+    }
+    SortUtil.sort(dims, vals, 0, numValues);
+    return new SparseVector(dims, vals, numValues);
+  }
+
+  private static SparseVector decodePayload(int flags, final byte[] buf, int pos) {
+    if ((flags & ~(COMPACT | ALL_ONES | HALF_FLOAT)) != 0) {
+      throw new IllegalArgumentException("Unknown flags of the serialized sparse vector: " + flags);
+    }
+    int numValues = VarIntCodec.read(buf, pos);
+    pos += VarIntCodec.encodedSize(numValues);
+    int[] dims = new int[numValues];
+    pos = VarIntCodec.readDeltas(buf, pos, 0, dims, 0, numValues);
+    float[] vals = new float[numValues];
+    if ((flags & ALL_ONES) != 0) {
+      Arrays.fill(vals, 1f);
+    } else if ((flags & HALF_FLOAT) != 0) {
+      for (int i = 0; i < numValues; i++) {
+        vals[i] = HalfFloat.toFloat((short) ((buf[pos] << 8) | (buf[pos + 1] & 0xff)));
+        pos += 2;
+      }
+    } else {
+      ByteBuffer.wrap(buf, pos, numValues << 2).asFloatBuffer().get(vals);
+    }
+    return new SparseVector(dims, vals, numValues);
+  }
+}
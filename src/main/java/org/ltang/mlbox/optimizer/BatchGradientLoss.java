@@ -0,0 +1,23 @@
+package org.ltang.mlbox.optimizer;
+
+/**
+ * The loss function for the full-gradient optimization algorithms, which computes the gradients
+ * of all the dimensions in one pass over the training data, and the products of its Hessian and
+ * vectors for the Newton methods. The loss is smooth, so its cost may differ from Loss.cost, which
+ * may clip the predictions.
+ * @author Liang Tang
+ */
+public interface BatchGradientLoss extends Loss {
+
+  /**
+   * Compute the gradient at beta into gradient, which has _dimension+1 elements like beta, and keep
+   * what the Hessian needs at beta
+   * @return The cost at beta
+   */
+  double getCostAndGradient(final double[] beta, final double[] gradient);
+
+  /**
+   * Compute hv = H * v, where H is the Hessian at the beta of the last call of getCostAndGradient
+   */
+  void getHessianVectorProduct(final double[] v, final double[] hv);
+}
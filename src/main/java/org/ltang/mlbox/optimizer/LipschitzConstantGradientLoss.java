@@ -1,7 +1,9 @@
 package org.ltang.mlbox.optimizer;
 
 /**
- * The abstract class of the _loss function for the coordinate Lipschitz constant gradient algorithm
+ * The abstract class of the _loss function for the coordinate Lipschitz constant gradient algorithm.
+ * getGradient and getMaxSecondDerivative may be called by several threads at the same time, but
+ * never at the same time as coefficientUpdate.
  * @author Liang Tang
  */
 public interface LipschitzConstantGradientLoss extends DifferentiableLoss {
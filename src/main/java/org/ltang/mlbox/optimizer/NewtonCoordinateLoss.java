@@ -0,0 +1,30 @@
+package org.ltang.mlbox.optimizer;
+
+/**
+ * The loss function for the coordinate Newton steps with a line search, which also provides the
+ * exact second derivative of a coordinate and the change of the loss along a coordinate.
+ * getDerivatives may be called by several threads at the same time like getGradient, each with its
+ * own derivatives array, but getCostChange is never called at the same time as coefficientUpdate.
+ * @author Liang Tang
+ */
+public interface NewtonCoordinateLoss extends LipschitzConstantGradientLoss {
+
+  /**
+   * Compute the gradient and the second derivative of the dimension at beta into derivatives[0]
+   * and derivatives[1]
+   */
+  void getDerivatives(final int dimIndex, final double[] beta, final double[] derivatives);
+
+  /**
+   * @return The rate r such that the second derivative at beta + t * e_dimIndex is at most
+   * exp(r * |t|) times the one at beta, for any beta, which bounds the change of the loss of a step
+   * without computing it
+   */
+  double getSecondDerivativeGrowthRate(final int dimIndex);
+
+  /**
+   * @return The change of the loss if beta[dimIndex] is moved by delta, which does not update the
+   * loss
+   */
+  double getCostChange(final int dimIndex, final double delta, final double[] beta);
+}
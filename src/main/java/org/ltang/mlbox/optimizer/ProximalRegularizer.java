@@ -0,0 +1,37 @@
+package org.ltang.mlbox.optimizer;
+
+/**
+ * A separable regularizer which may not be differentiable, such as L1, and is minimized by the
+ * proximal coordinate steps: the step of a coordinate minimizes the quadratic model of the loss
+ * plus the regularizer of the coordinate, which is solved in closed form by proximal.
+ * @author Liang Tang
+ */
+public interface ProximalRegularizer {
+
+  /**
+   * @return The regularizer of all the coefficients
+   */
+  double cost(final double[] beta);
+
+  /**
+   * @return The regularizer of one coefficient
+   */
+  double cost(final int dimIndex, final double value);
+
+  /**
+   * @return The x which minimizes curvature/2 * (x - value)^2 + the regularizer of the dimension at x
+   */
+  double proximal(final int dimIndex, final double value, final double curvature);
+
+  /**
+   * @return The subgradient of the smallest absolute value of the loss plus the regularizer of the
+   * dimension, where grad is the gradient of the loss, which is zero at the optimum
+   */
+  double getSubgradient(final int dimIndex, final double value, final double grad);
+
+  /**
+   * @return The threshold t such that the coefficient zero is optimal if the absolute gradient of
+   * the loss is at most t, which is 0 if the regularizer is differentiable at zero
+   */
+  double getZeroThreshold(final int dimIndex);
+}
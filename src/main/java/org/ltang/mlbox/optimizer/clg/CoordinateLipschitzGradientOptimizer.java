@@ -1,7 +1,12 @@
 package org.ltang.mlbox.optimizer.clg;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import org.apache.log4j.Logger;
 import org.ltang.mlbox.optimizer.LipschitzConstantGradientLoss;
+import org.ltang.mlbox.optimizer.NewtonCoordinateLoss;
+import org.ltang.mlbox.optimizer.ProximalRegularizer;
 import org.ltang.mlbox.utils.MathFunctions;
 import org.ltang.mlbox.utils.VectorUtil;
 
@@ -10,6 +15,43 @@ import org.ltang.mlbox.utils.VectorUtil;
  * The implementation of coordinate Lipschitz constant gradient optimization
  * algorithm
  *
+ * With more than one thread, the coordinates are updated in blocks like Shotgun (Bradley et al.,
+ * 2011): the gradients of a block of numThreads coordinates are computed in parallel from the same
+ * coefficients, and then the updates are applied in the order of the coordinates, so the loss only
+ * sees one coefficientUpdate at a time and the result does not depend on the thread scheduling.
+ * The intercept, which is correlated with all the other coordinates, is updated alone. Too many
+ * correlated coordinates in a block overshoot, so the block is halved whenever the norm of the
+ * gradient grows, down to the serial updates.
+ *
+ * With shrinking, like liblinear, a coordinate is dropped from the active set for the rest of the
+ * iterations if its gradient is far below the average gradient of the active set. When the active
+ * set converges, all the coordinates are checked again, and the optimization only stops if they
+ * have converged too.
+ *
+ * With the Newton steps, like the coordinate descent Newton method (Chang, Hsieh and Lin, 2008), a
+ * coordinate is moved by its gradient over its exact second derivative at the current coefficients,
+ * which are computed in the same pass over the column, and the step is halved until the loss decreases enough (the Armijo
+ * rule). The loss change of a step is only computed if it is not already bounded by the rule,
+ * either because the step is no longer than the Lipschitz step of the maximum second derivative,
+ * or by the growth rate of the second derivative along the coordinate, which accepts most of the
+ * steps close to the optimum.
+ *
+ * With a ProximalRegularizer, such as L1, the objective is the loss plus the regularizer, and the
+ * step of a coordinate is the proximal step of its quadratic model, e.g., the soft-thresholding of
+ * L1, which makes the coefficient exactly zero if its gradient is small. The Newton steps are
+ * halved by the Armijo rule of Tseng and Yun (2009) on the loss plus the regularizer, or fall back
+ * to the Lipschitz step, which always decreases the objective. The convergence is measured by the
+ * subgradients of the smallest absolute values, and a coefficient which is zero and whose gradient
+ * is well below the threshold of zero is dropped from the active set, like the L1 shrinking of
+ * liblinear, so the zero coefficients are skipped in the later iterations.
+ *
+ * A train starts from the current coefficients, so the train after changing the weights of the
+ * losses or the regularizer is warm-started from the last solution, whose inner products are kept
+ * by the loss, e.g., for a regularization path. With a screening margin, such as the sequential
+ * strong rule of Tibshirani et al. (2012), the zero coefficients whose gradients at the start are
+ * below their thresholds of zero minus the margin start out of the active set, and they are checked
+ * with all the others when the active set converges, so the screening never changes the solution.
+ *
  * @author Liang Tang
  */
 public class CoordinateLipschitzGradientOptimizer {
@@ -34,11 +76,73 @@ public class CoordinateLipschitzGradientOptimizer {
 
   final static double EPS = 1E-7;
 
+  // The number of coordinates updated at the same time
+  int _numThreads = 1;
+
+  // The pool for the gradients of a block of coordinates, or null for the serial updates
+  ForkJoinPool _pool = null;
+
+  // If _pool is created by setNumThreads, so it is shut down when it is replaced, instead of a pool
+  // shared by setPool
+  private boolean _ownsPool = false;
+
+  // The number of coordinates updated at the same time in the current iteration
+  int _blockSize = 1;
+
+  // A coordinate is dropped if its gradient is below this ratio of the root mean square of the
+  // gradients of the active set in the last iteration
+  final static double SHRINK_RATIO = 0.1;
+
+  boolean _shrinking = false;
+
+  // The coordinates in the active set in ascending order, which are _activeDims[0, _numActive)
+  final int[] _activeDims;
+
+  int _numActive;
+
+  // The gradients below the threshold are dropped from the active set in the current iteration
+  double _shrinkThreshold = 0;
+
+  // The number of gradients of the coordinates computed so far
+  long _numGradients = 0;
+
+  // The loss decreases by at least this ratio of the linear decrease of an accepted Newton step
+  final static double ARMIJO_SIGMA = 0.01;
+
+  // The loss of the Newton steps, or null for the Lipschitz steps
+  NewtonCoordinateLoss _newtonLoss = null;
+
+  // The second derivatives of the coordinates at the coefficients of their gradients
+  double[] _secondDerivatives = null;
+
+  // The arrays of the gradient and the second derivative of getDerivatives, one for each thread
+  private double[][] _derivatives = null;
+
+  // The growth rates of the second derivatives of the coordinates along themselves
+  double[] _growthRates = null;
+
+  // The number of the loss changes computed by the line searches of the Newton steps
+  long _numLineSearches = 0;
+
+  // The non-differentiable regularizer of the proximal steps, or null
+  ProximalRegularizer _regularizer = null;
+
+  // A zero coefficient is dropped if its gradient is below its zero threshold minus this margin
+  double _zeroMargin = Double.MAX_VALUE;
+
+  // A zero coefficient starts out of the active set if its gradient at the start of train is below
+  // its zero threshold minus this margin
+  double _screeningMargin = Double.MAX_VALUE;
+
+  // The norm which the tolerance is relative to, or 0 for the norm at the start of train
+  double _referenceGradNorm = 0;
+
   public CoordinateLipschitzGradientOptimizer(LipschitzConstantGradientLoss loss) {
     _dimension = loss.getDimension();
     _loss = loss;
     _beta = new double[_dimension+1];
     _maxSecondDerivaties = new double[_dimension+1];
+    _activeDims = new int[_dimension+1];
     _loss.coefficientUpdate(0, 0, _beta);
   }
 
@@ -55,29 +159,327 @@ public class CoordinateLipschitzGradientOptimizer {
   }
 
   /**
-   * Update one dimension of the coefficients
-   * @return The norm of the gradient
+   * Enable the shrinking of the active set, which skips the coordinates whose gradients are close
+   * to zero
+   */
+  public void setShrinking(boolean shrinking) {
+    _shrinking = shrinking;
+  }
+
+  /**
+   * Take the Newton steps of the exact second derivatives with a line search instead of the steps
+   * of the maximum second derivatives, which needs a NewtonCoordinateLoss
+   */
+  public void setNewtonSteps(boolean newton) {
+    if (!newton) {
+      _newtonLoss = null;
+      _secondDerivatives = null;
+      _growthRates = null;
+      return;
+    }
+    if (!(_loss instanceof NewtonCoordinateLoss)
+        || (_loss instanceof LinearCombineLoss && !((LinearCombineLoss) _loss).isNewtonCoordinateLoss())) {
+      throw new IllegalArgumentException("The loss function does not support the Newton steps: "
+          + _loss.getClass().getName());
+    }
+    _newtonLoss = (NewtonCoordinateLoss) _loss;
+    _secondDerivatives = new double[_dimension+1];
+    _growthRates = new double[_dimension+1];
+  }
+
+  /**
+   * Minimize the loss plus a non-differentiable regularizer by the proximal steps
+   */
+  public void setRegularizer(ProximalRegularizer regularizer) {
+    _regularizer = regularizer;
+  }
+
+  /**
+   * Screen out the zero coefficients whose gradients at the start of the next train are below their
+   * zero thresholds of the regularizer minus the margin, e.g., the decrease of the L1 weight from
+   * the last train for the sequential strong rule
+   */
+  public void setScreeningMargin(double margin) {
+    _screeningMargin = margin;
+  }
+
+  /**
+   * Stop when the norm of the gradient is below the tolerance times this norm instead of its norm
+   * at the start of train, so a warm start stops at the same accuracy as a cold start, or 0 for
+   * the norm at the start of train
+   */
+  public void setReferenceGradientNorm(double norm) {
+    if (norm < 0) {
+      throw new IllegalArgumentException("The reference gradient norm must not be negative: " + norm);
+    }
+    _referenceGradNorm = norm;
+  }
+
+  /**
+   * Set the number of threads, which is also the number of coordinates updated at the same time.
+   * 1 is the serial coordinate descent.
+   */
+  public void setNumThreads(int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + numThreads);
+    }
+    if (numThreads == _numThreads && (_ownsPool || numThreads == 1)) {
+      return;
+    }
+    shutdown();
+    _numThreads = numThreads;
+    _pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+    _ownsPool = _pool != null;
+  }
+
+  /**
+   * Update the coordinates by the threads of a pool shared with other work, e.g., the pool of the
+   * model, which is not shut down by the optimizer, or serially if the pool is null
+   */
+  public void setPool(final ForkJoinPool pool) {
+    shutdown();
+    _pool = pool;
+    _numThreads = pool != null ? pool.getParallelism() : 1;
+  }
+
+  /**
+   * Shut down the pool created by setNumThreads, after which the coordinates are updated serially
+   */
+  public void shutdown() {
+    if (_ownsPool) {
+      _pool.shutdown();
+    }
+    _pool = null;
+    _ownsPool = false;
+    _numThreads = 1;
+  }
+
+  /**
+   * Update the dimensions of the active set once, and drop the ones whose gradients are below
+   * _shrinkThreshold
+   * @return The norm of the gradient of the active set
    */
   private double updateBeta() {
-    double grad;
-    double maxSecondDerivative;
-    double delta;
     double[] gradVec = new double[_dimension+1];
-    for (int dimIndex = 0; dimIndex < _dimension+1; dimIndex++) {
-      grad = _loss.getGradient(dimIndex, _beta);
-      maxSecondDerivative = _maxSecondDerivaties[dimIndex];
-      delta = -1.0 / maxSecondDerivative * grad;
-      double newBeta = _beta[dimIndex] + delta;
-      if (MathFunctions.almostEqual(newBeta, _beta[dimIndex], EPS) == false) {
-        _beta[dimIndex] = newBeta;
-        _loss.coefficientUpdate(dimIndex, delta, _beta);
+    int numActive = _numActive;
+    // The dimensions which stay active are moved to _activeDims[0, numKept)
+    int numKept = 0;
+    if (_blockSize == 1) {
+      for (int i = 0; i < numActive; i++) {
+        int dimIndex = _activeDims[i];
+        computeGradient(dimIndex, gradVec, _derivatives[0]);
+        numKept = updateActive(dimIndex, gradVec, numKept);
+      }
+    } else {
+      // The intercept is the last active dimension if it is active
+      int numFeatures = numActive > 0 && _activeDims[numActive - 1] == _dimension ? numActive - 1 : numActive;
+      for (int from = 0; from < numFeatures; from += _blockSize) {
+        int to = Math.min(from + _blockSize, numFeatures);
+        _pool.invoke(new GradientTask(from, to, 0, Math.min(_numThreads, to - from), gradVec));
+        for (int i = from; i < to; i++) {
+          int dimIndex = _activeDims[i];
+          numKept = updateActive(dimIndex, gradVec, numKept);
+        }
+      }
+      if (numFeatures < numActive) {
+        computeGradient(_dimension, gradVec, _derivatives[0]);
+        numKept = updateActive(_dimension, gradVec, numKept);
       }
-      gradVec[dimIndex] = grad;
     }
+    _numGradients += numActive;
+    _numActive = numKept;
 
     return VectorUtil.norm2(gradVec);
   }
 
+  /**
+   * Compute the gradient of the dimension into gradVec, and also its second derivative for the
+   * Newton steps by the derivatives array of the calling thread
+   */
+  private void computeGradient(int dimIndex, final double[] gradVec, final double[] derivatives) {
+    if (_newtonLoss == null) {
+      gradVec[dimIndex] = _loss.getGradient(dimIndex, _beta);
+      return;
+    }
+    _newtonLoss.getDerivatives(dimIndex, _beta, derivatives);
+    gradVec[dimIndex] = derivatives[0];
+    _secondDerivatives[dimIndex] = derivatives[1];
+  }
+
+  /**
+   * Update the dimension, or drop it from the active set if its gradient is below the threshold.
+   * With the regularizer, the gradient in gradVec is replaced by the subgradient.
+   * @return The number of the kept active dimensions
+   */
+  private int updateActive(int dimIndex, final double[] gradVec, int numKept) {
+    double grad = gradVec[dimIndex];
+    if (_regularizer != null) {
+      double value = _beta[dimIndex];
+      gradVec[dimIndex] = _regularizer.getSubgradient(dimIndex, value, grad);
+      if (value == 0 && Math.abs(grad) < _regularizer.getZeroThreshold(dimIndex) - _zeroMargin) {
+        return numKept;
+      }
+    }
+    if (Math.abs(gradVec[dimIndex]) < _shrinkThreshold) {
+      return numKept;
+    }
+    updateBeta(dimIndex, grad);
+    _activeDims[numKept] = dimIndex;
+    return numKept + 1;
+  }
+
+  private void activateAll() {
+    for (int dimIndex = 0; dimIndex < _dimension+1; dimIndex++) {
+      _activeDims[dimIndex] = dimIndex;
+    }
+    _numActive = _dimension+1;
+    _shrinkThreshold = 0;
+    _zeroMargin = Double.MAX_VALUE;
+  }
+
+  /**
+   * Update one dimension of the coefficients by its gradient
+   */
+  private void updateBeta(int dimIndex, double grad) {
+    double maxSecondDerivative = _maxSecondDerivaties[dimIndex];
+    if (_regularizer != null) {
+      updateBetaProximal(dimIndex, grad, maxSecondDerivative);
+      return;
+    }
+    double delta = -1.0 / maxSecondDerivative * grad;
+    if (_newtonLoss != null) {
+      delta = getNewtonStep(dimIndex, grad, delta);
+    }
+    double newBeta = _beta[dimIndex] + delta;
+    if (MathFunctions.almostEqual(newBeta, _beta[dimIndex], EPS) == false) {
+      _beta[dimIndex] = newBeta;
+      _loss.coefficientUpdate(dimIndex, delta, _beta);
+    }
+  }
+
+  /**
+   * Update one dimension of the coefficients by the proximal step of its gradient, where a
+   * coefficient which becomes zero is set to exactly zero however small its change is
+   */
+  private void updateBetaProximal(int dimIndex, double grad, double maxSecondDerivative) {
+    double value = _beta[dimIndex];
+    double delta = _regularizer.proximal(dimIndex, value - grad / maxSecondDerivative, maxSecondDerivative) - value;
+    if (_newtonLoss != null) {
+      delta = getProximalNewtonStep(dimIndex, grad, delta);
+    }
+    double newBeta = value + delta;
+    if (newBeta == 0 ? value != 0 : MathFunctions.almostEqual(newBeta, value, EPS) == false) {
+      _beta[dimIndex] = newBeta;
+      _loss.coefficientUpdate(dimIndex, delta, _beta);
+    }
+  }
+
+  /**
+   * The proximal Newton step of the dimension, which is halved until the loss plus the regularizer
+   * decreases by at least ARMIJO_SIGMA * t * (grad * d + R(beta + d) - R(beta)), where d is the full
+   * step and t is the ratio of the halved step, or the Lipschitz step if the halved step is no
+   * longer than it
+   */
+  private double getProximalNewtonStep(int dimIndex, double grad, double lipschitzStep) {
+    double secondDerivative = _secondDerivatives[dimIndex];
+    if (secondDerivative < EPS) {
+      return lipschitzStep;
+    }
+    double value = _beta[dimIndex];
+    double regCost = _regularizer.cost(dimIndex, value);
+    double fullStep = _regularizer.proximal(dimIndex, value - grad / secondDerivative, secondDerivative) - value;
+    double decrease = grad * fullStep + _regularizer.cost(dimIndex, value + fullStep) - regCost;
+    double step = fullStep;
+    while (Math.abs(step) > Math.abs(lipschitzStep) && Math.abs(step) >= EPS) {
+      double regChange = _regularizer.cost(dimIndex, value + step) - regCost;
+      double sufficient = ARMIJO_SIGMA * step / fullStep * decrease;
+      if (getMaxCostChange(dimIndex, grad, secondDerivative, step) + regChange <= sufficient) {
+        return step;
+      }
+      _numLineSearches++;
+      if (_newtonLoss.getCostChange(dimIndex, step, _beta) + regChange <= sufficient) {
+        return step;
+      }
+      step /= 2;
+    }
+    return lipschitzStep;
+  }
+
+  /**
+   * The Newton step of the dimension, which is halved until the loss decreases by at least
+   * ARMIJO_SIGMA * grad * step, or the step is no longer than the Lipschitz step
+   */
+  private double getNewtonStep(int dimIndex, double grad, double lipschitzStep) {
+    double secondDerivative = _secondDerivatives[dimIndex];
+    if (secondDerivative < EPS) {
+      return lipschitzStep;
+    }
+    double step = -grad / secondDerivative;
+    while (Math.abs(step) > Math.abs(lipschitzStep) && Math.abs(step) >= EPS) {
+      if (getMaxCostChange(dimIndex, grad, secondDerivative, step) <= ARMIJO_SIGMA * grad * step) {
+        break;
+      }
+      _numLineSearches++;
+      if (_newtonLoss.getCostChange(dimIndex, step, _beta) <= ARMIJO_SIGMA * grad * step) {
+        break;
+      }
+      step /= 2;
+    }
+    return step;
+  }
+
+  /**
+   * @return The upper bound of the change of the loss of the step, which is grad * step plus the
+   * integral of the second derivative bounded by secondDerivative * exp(growthRate * |t|)
+   */
+  private double getMaxCostChange(int dimIndex, double grad, double secondDerivative, double step) {
+    double growthRate = _growthRates[dimIndex];
+    if (growthRate * Math.abs(step) < EPS) {
+      return grad * step + secondDerivative * step * step / 2;
+    }
+    double u = growthRate * Math.abs(step);
+    return grad * step + secondDerivative * (Math.expm1(u) - u) / (growthRate * growthRate);
+  }
+
+  /**
+   * Computes the gradients of the dimensions _activeDims[from, to) with the current coefficients,
+   * which are split into the leaves [fromLeaf, toLeaf) of at most _numThreads leaves, and the k-th
+   * leaf uses _derivatives[k]
+   */
+  private final class GradientTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    final int _from;
+    final int _to;
+    final int _fromLeaf;
+    final int _toLeaf;
+    final double[] _gradVec;
+
+    GradientTask(int from, int to, int fromLeaf, int toLeaf, final double[] gradVec) {
+      _from = from;
+      _to = to;
+      _fromLeaf = fromLeaf;
+      _toLeaf = toLeaf;
+      _gradVec = gradVec;
+    }
+
+    @Override
+    protected void compute() {
+      if (_toLeaf - _fromLeaf == 1) {
+        final double[] derivatives = _derivatives[_fromLeaf];
+        for (int i = _from; i < _to; i++) {
+          computeGradient(_activeDims[i], _gradVec, derivatives);
+        }
+        return;
+      }
+      int midLeaf = (_fromLeaf + _toLeaf) >>> 1;
+      int mid = _from + (int) ((long) (_to - _from) * (midLeaf - _fromLeaf) / (_toLeaf - _fromLeaf));
+      invokeAll(new GradientTask(_from, mid, _fromLeaf, midLeaf, _gradVec),
+          new GradientTask(mid, _to, midLeaf, _toLeaf, _gradVec));
+    }
+  }
+
   public void train() {
 
     for (int dimIndex = 0; dimIndex < _dimension+1; dimIndex++) {
@@ -86,48 +488,114 @@ public class CoordinateLipschitzGradientOptimizer {
         maxSecDev = EPS;
       }
       _maxSecondDerivaties[dimIndex] = maxSecDev;
+      if (_newtonLoss != null) {
+        _growthRates[dimIndex] = _newtonLoss.getSecondDerivativeGrowthRate(dimIndex);
+      }
     }
 
     // Compute the initial gradient's norm
+    _derivatives = new double[_numThreads][2];
+    activateAll();
     double[] gradVec = new double[_dimension+1];
-    for (int dimIndex = 0; dimIndex < _dimension+1; dimIndex++) {
-      double grad = _loss.getGradient(dimIndex, _beta);
-      gradVec[dimIndex] = grad;
+    if (_pool == null) {
+      for (int dimIndex = 0; dimIndex < _dimension+1; dimIndex++) {
+        computeGradient(dimIndex, gradVec, _derivatives[0]);
+      }
+    } else {
+      _pool.invoke(new GradientTask(0, _dimension+1, 0, Math.min(_numThreads, _dimension+1), gradVec));
+    }
+    if (_regularizer != null) {
+      // The screened coordinates are zero with zero subgradients, so they are out of the norm too
+      int numKept = 0;
+      for (int dimIndex = 0; dimIndex < _dimension+1; dimIndex++) {
+        double grad = gradVec[dimIndex];
+        gradVec[dimIndex] = _regularizer.getSubgradient(dimIndex, _beta[dimIndex], grad);
+        if (_beta[dimIndex] == 0
+            && Math.abs(grad) < _regularizer.getZeroThreshold(dimIndex) - _screeningMargin) {
+          continue;
+        }
+        _activeDims[numKept++] = dimIndex;
+      }
+      _numActive = numKept;
     }
     double initGradNorm = VectorUtil.norm2(gradVec);
+    double stopGradNorm = (_referenceGradNorm > 0 ? _referenceGradNorm : initGradNorm) * _tolerance;
 
     if (DEBUG >= 1) {
-      log.info("Initial cost: " + _loss.cost(_beta)+", initial gradient norm: "+initGradNorm);
+      log.info("Initial cost: " + cost()+", initial gradient norm: "+initGradNorm + ", #screened : "
+          + (_dimension+1 - _numActive));
     }
 
     // Start optimization
+    _blockSize = _numThreads;
+    double prevGradNorm = initGradNorm;
     int iter;
-    for (iter = 0; iter < _max_iter; iter++) {
+    // The iterations over the shrunk active sets are cheaper, so the maximum number of iterations
+    // is counted as the number of gradients of as many iterations over all the coordinates
+    long maxNumGradients = _numGradients + (long) _max_iter * (_dimension+1);
+    boolean shrinking = _shrinking || _regularizer != null;
+    for (iter = 0; shrinking ? _numGradients < maxNumGradients : iter < _max_iter; iter++) {
+      boolean allActive = _numActive == _dimension+1;
+      int numActive = _numActive;
       double gradNorm = updateBeta();
-      if (gradNorm <= initGradNorm * _tolerance) {
-        break; // all Converged
+      if (gradNorm <= stopGradNorm) {
+        if (allActive) {
+          break; // all Converged
+        }
+        // Check all the coordinates in the next iteration
+        activateAll();
+        prevGradNorm = Double.MAX_VALUE;
+        if (DEBUG >= 1) {
+          log.info("iter : " + iter + ", the active set converges, check all the coordinates");
+        }
+        continue;
       }
+      if (_shrinking) {
+        _shrinkThreshold = SHRINK_RATIO * gradNorm / Math.sqrt(numActive);
+      }
+      if (_regularizer != null) {
+        _zeroMargin = gradNorm / Math.sqrt(numActive);
+      }
+      if (_blockSize > 1 && gradNorm > prevGradNorm) {
+        _blockSize /= 2;
+        if (DEBUG >= 1) {
+          log.info("iter : " + iter + ", the gradient norm grows, #coordinates updated at the same time: " + _blockSize);
+        }
+      }
+      prevGradNorm = gradNorm;
 
       /////////////////// debug //////////////////////
       if (DEBUG == 1) {
         if (iter % 2 == 0) {
-          log.info("iter : " + iter + ",  cost : " + _loss.cost(_beta) + ", #gradnorm: " + gradNorm);
+          log.info("iter : " + iter + ",  cost : " + cost() + ", #gradnorm: " + gradNorm);
         }
       } else if (DEBUG == 2) {
-        log.info("iter : " + iter + ",  cost : " + _loss.cost(_beta) + ", #gradnorm: " + gradNorm);
+        log.info("iter : " + iter + ",  cost : " + cost() + ", #gradnorm: " + gradNorm);
       } else if (DEBUG == 3) {
-        log.info("iter : " + iter + ", cost : " + _loss.cost(_beta) + ", #gradNorm: " + gradNorm);
+        log.info("iter : " + iter + ", cost : " + cost() + ", #gradNorm: " + gradNorm);
         printParameters();
       }
       ////////////////////////////////////////////////
     }
 
     if (DEBUG >= 1) {
-      log.info("Total #iter : " + iter + ",  final cost : " + _loss.cost(_beta));
+      log.info("Total #iter : " + iter + ", #gradients : " + _numGradients + ", #line searches : " + _numLineSearches
+          + ",  final cost : " + cost());
       printParameters();
     }
   }
 
+  /**
+   * @return The loss plus the regularizer at the current coefficients
+   */
+  public double cost() {
+    double cost = _loss.cost(_beta);
+    if (_regularizer != null) {
+      cost += _regularizer.cost(_beta);
+    }
+    return cost;
+  }
+
   public double[] getCofficients() {
     return _beta;
   }
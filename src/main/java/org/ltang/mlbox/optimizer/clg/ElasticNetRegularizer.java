@@ -0,0 +1,96 @@
+package org.ltang.mlbox.optimizer.clg;
+
+import org.ltang.mlbox.optimizer.ProximalRegularizer;
+
+
+/**
+ * The elastic net regularizer l1 * ||beta||_1 + l2/2 * ||beta||^2, where the intercept is not
+ * regularized. Its proximal step is the soft-thresholding of the L1 part scaled by the L2 part,
+ * which makes a coefficient exactly zero if its gradient is at most l1.
+ * @author Liang Tang
+ */
+public class ElasticNetRegularizer implements ProximalRegularizer {
+
+  final int _dimension;
+
+  final double _l1;
+
+  final double _l2;
+
+  /**
+   * @param dimension The number of features, and the intercept is beta[dimension]
+   * @param l1 The weight of the L1 norm
+   * @param l2 The weight of the squared L2 norm
+   */
+  public ElasticNetRegularizer(int dimension, double l1, double l2) {
+    if (l1 < 0 || l2 < 0) {
+      throw new IllegalArgumentException("The weights of the regularizer must not be negative, l1: " + l1
+          + ", l2: " + l2);
+    }
+    _dimension = dimension;
+    _l1 = l1;
+    _l2 = l2;
+  }
+
+  public double getL1() {
+    return _l1;
+  }
+
+  public double getL2() {
+    return _l2;
+  }
+
+  @Override
+  public double cost(final double[] beta) {
+    double cost = 0;
+    for (int dimIndex = 0; dimIndex < _dimension; dimIndex++) {
+      cost += cost(dimIndex, beta[dimIndex]);
+    }
+    return cost;
+  }
+
+  @Override
+  public double cost(int dimIndex, double value) {
+    if (dimIndex == _dimension) {
+      return 0;
+    }
+    return _l1 * Math.abs(value) + _l2 * value * value / 2;
+  }
+
+  @Override
+  public double proximal(int dimIndex, double value, double curvature) {
+    if (dimIndex == _dimension) {
+      return value;
+    }
+    double scaled = curvature * value;
+    if (scaled <= _l1 && scaled >= -_l1) {
+      return 0;
+    }
+    return (scaled > 0 ? scaled - _l1 : scaled + _l1) / (curvature + _l2);
+  }
+
+  @Override
+  public double getSubgradient(int dimIndex, double value, double grad) {
+    if (dimIndex == _dimension) {
+      return grad;
+    }
+    if (value > 0) {
+      return grad + _l1 + _l2 * value;
+    }
+    if (value < 0) {
+      return grad - _l1 + _l2 * value;
+    }
+    if (grad > _l1) {
+      return grad - _l1;
+    }
+    if (grad < -_l1) {
+      return grad + _l1;
+    }
+    return 0;
+  }
+
+  @Override
+  public double getZeroThreshold(int dimIndex) {
+    return dimIndex == _dimension ? 0 : _l1;
+  }
+}
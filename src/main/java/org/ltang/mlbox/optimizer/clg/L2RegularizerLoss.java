@@ -1,6 +1,7 @@
 package org.ltang.mlbox.optimizer.clg;
 
-import org.ltang.mlbox.optimizer.LipschitzConstantGradientLoss;
+import org.ltang.mlbox.optimizer.BatchGradientLoss;
+import org.ltang.mlbox.optimizer.NewtonCoordinateLoss;
 import org.ltang.mlbox.utils.VectorUtil;
 
 
@@ -8,7 +9,7 @@ import org.ltang.mlbox.utils.VectorUtil;
  * The L2 regularization _loss
  * @author Liang Tang
  */
-public class L2RegularizerLoss implements LipschitzConstantGradientLoss {
+public class L2RegularizerLoss implements NewtonCoordinateLoss, BatchGradientLoss {
 
   int _dimension = -1;
 
@@ -60,6 +61,38 @@ public class L2RegularizerLoss implements LipschitzConstantGradientLoss {
     return 1;
   }
 
+  @Override
+  public void getDerivatives(final int dimIndex, final double[] beta, final double[] derivatives) {
+    derivatives[0] = getGradient(dimIndex, beta);
+    // The intercept is not regularized
+    derivatives[1] = dimIndex < _dimension ? 1 : 0;
+  }
+
+  @Override
+  public double getSecondDerivativeGrowthRate(final int dimIndex) {
+    return 0;
+  }
+
+  @Override
+  public double getCostChange(final int dimIndex, final double delta, final double[] beta) {
+    // (b + delta)^2 / 2 - b^2 / 2 of the difference b from the prior
+    return getGradient(dimIndex, beta) * delta + (dimIndex < _dimension ? delta * delta / 2 : 0);
+  }
+
+  @Override
+  public double getCostAndGradient(final double[] beta, final double[] gradient) {
+    for (int dimIndex = 0; dimIndex <= _dimension; dimIndex++) {
+      gradient[dimIndex] = getGradient(dimIndex, beta);
+    }
+    return cost(beta);
+  }
+
+  @Override
+  public void getHessianVectorProduct(final double[] v, final double[] hv) {
+    System.arraycopy(v, 0, hv, 0, _dimension);
+    hv[_dimension] = 0;
+  }
+
   @Override
   public double cost(final double[] beta) {
     if (_priorBeta == null) {
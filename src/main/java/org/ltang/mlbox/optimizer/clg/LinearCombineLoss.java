@@ -1,16 +1,21 @@
 package org.ltang.mlbox.optimizer.clg;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import org.ltang.mlbox.optimizer.BatchGradientLoss;
 import org.ltang.mlbox.optimizer.LipschitzConstantGradientLoss;
+import org.ltang.mlbox.optimizer.NewtonCoordinateLoss;
 
 
 /**
- * The weighted linear combination of a set of _loss functions
+ * The weighted linear combination of a set of _loss functions. The coordinate Newton steps need
+ * all the combined losses to be NewtonCoordinateLoss, and the full-gradient optimizers need them
+ * to be BatchGradientLoss.
  * @author Liang Tang
  *
  */
-public class LinearCombineLoss implements LipschitzConstantGradientLoss {
+public class LinearCombineLoss implements NewtonCoordinateLoss, BatchGradientLoss {
 
   List<LipschitzConstantGradientLoss> lossList = new ArrayList<LipschitzConstantGradientLoss>();
 
@@ -37,6 +42,17 @@ public class LinearCombineLoss implements LipschitzConstantGradientLoss {
     this.lossWeights.add(weight);
   }
 
+  /**
+   * Change the weight of the lossIndex-th added loss, e.g., the regularizer of the next lambda of
+   * a regularization path
+   */
+  public void setWeight(int lossIndex, double weight) {
+    if (lossIndex < 0 || lossIndex >= lossList.size()) {
+      throw new IllegalArgumentException("There is no loss function of index " + lossIndex);
+    }
+    this.lossWeights.set(lossIndex, weight);
+  }
+
   @Override
   public double getGradient(final int dimIndex, final double[] beta) {
     double grad = 0;
@@ -55,6 +71,113 @@ public class LinearCombineLoss implements LipschitzConstantGradientLoss {
     return maxSecondDerivative;
   }
 
+  /**
+   * The derivatives of the caller also hold the ones of each combined loss before they are summed,
+   * so the calls at the same time need no other arrays
+   */
+  @Override
+  public void getDerivatives(final int dimIndex, final double[] beta, final double[] derivatives) {
+    double grad = 0;
+    double secondDerivative = 0;
+    for (int lossIndex = 0; lossIndex < lossList.size(); lossIndex++) {
+      getNewtonLoss(lossIndex).getDerivatives(dimIndex, beta, derivatives);
+      grad += derivatives[0] * lossWeights.get(lossIndex);
+      secondDerivative += derivatives[1] * lossWeights.get(lossIndex);
+    }
+    derivatives[0] = grad;
+    derivatives[1] = secondDerivative;
+  }
+
+  @Override
+  public double getSecondDerivativeGrowthRate(final int dimIndex) {
+    double growthRate = 0;
+    for (int lossIndex = 0; lossIndex < lossList.size(); lossIndex++) {
+      if (lossWeights.get(lossIndex) != 0) {
+        growthRate = Math.max(growthRate, getNewtonLoss(lossIndex).getSecondDerivativeGrowthRate(dimIndex));
+      }
+    }
+    return growthRate;
+  }
+
+  @Override
+  public double getCostChange(final int dimIndex, final double delta, final double[] beta) {
+    double change = 0;
+    for (int lossIndex = 0; lossIndex < lossList.size(); lossIndex++) {
+      change += getNewtonLoss(lossIndex).getCostChange(dimIndex, delta, beta) * lossWeights.get(lossIndex);
+    }
+    return change;
+  }
+
+  @Override
+  public double getCostAndGradient(final double[] beta, final double[] gradient) {
+    double cost = 0;
+    final double[] lossGradient = new double[gradient.length];
+    Arrays.fill(gradient, 0);
+    for (int lossIndex = 0; lossIndex < lossList.size(); lossIndex++) {
+      double weight = lossWeights.get(lossIndex);
+      cost += getBatchLoss(lossIndex).getCostAndGradient(beta, lossGradient) * weight;
+      for (int dimIndex = 0; dimIndex < gradient.length; dimIndex++) {
+        gradient[dimIndex] += lossGradient[dimIndex] * weight;
+      }
+    }
+    return cost;
+  }
+
+  @Override
+  public void getHessianVectorProduct(final double[] v, final double[] hv) {
+    final double[] lossHv = new double[hv.length];
+    Arrays.fill(hv, 0);
+    for (int lossIndex = 0; lossIndex < lossList.size(); lossIndex++) {
+      double weight = lossWeights.get(lossIndex);
+      getBatchLoss(lossIndex).getHessianVectorProduct(v, lossHv);
+      for (int dimIndex = 0; dimIndex < hv.length; dimIndex++) {
+        hv[dimIndex] += lossHv[dimIndex] * weight;
+      }
+    }
+  }
+
+  /**
+   * @return If all the combined losses support the full-gradient optimizers
+   */
+  public boolean isBatchGradientLoss() {
+    for (LipschitzConstantGradientLoss loss : lossList) {
+      if (!(loss instanceof BatchGradientLoss)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private BatchGradientLoss getBatchLoss(int lossIndex) {
+    LipschitzConstantGradientLoss loss = lossList.get(lossIndex);
+    if (!(loss instanceof BatchGradientLoss)) {
+      throw new IllegalStateException("The " + lossIndex + "th loss function does not support the full gradients: "
+          + loss.getClass().getName());
+    }
+    return (BatchGradientLoss) loss;
+  }
+
+  /**
+   * @return If all the combined losses support the coordinate Newton steps
+   */
+  public boolean isNewtonCoordinateLoss() {
+    for (LipschitzConstantGradientLoss loss : lossList) {
+      if (!(loss instanceof NewtonCoordinateLoss)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private NewtonCoordinateLoss getNewtonLoss(int lossIndex) {
+    LipschitzConstantGradientLoss loss = lossList.get(lossIndex);
+    if (!(loss instanceof NewtonCoordinateLoss)) {
+      throw new IllegalStateException("The " + lossIndex + "th loss function does not support the Newton steps: "
+          + loss.getClass().getName());
+    }
+    return (NewtonCoordinateLoss) loss;
+  }
+
   @Override
   public void coefficientUpdate(final int dimIndex, final double delta, final double[] newBeta) {
     for (LipschitzConstantGradientLoss loss : lossList) {
@@ -1,121 +1,548 @@
 package org.ltang.mlbox.optimizer.clg;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Dataset;
 import org.ltang.mlbox.data.Instance;
-import org.ltang.mlbox.data.SparseVector;
-import org.ltang.mlbox.optimizer.LipschitzConstantGradientLoss;
+import org.ltang.mlbox.data.InstanceArrayDataset;
+import org.ltang.mlbox.optimizer.BatchGradientLoss;
+import org.ltang.mlbox.optimizer.NewtonCoordinateLoss;
+import org.ltang.mlbox.utils.BatchScorer;
+import org.ltang.mlbox.utils.FastMath;
+import org.ltang.mlbox.utils.MappedRegion;
 import org.ltang.mlbox.utils.MathFunctions;
+import org.ltang.mlbox.utils.VarIntCodec;
 
 
 /**
  * The logistic _loss (the negative log-likelihood of logistic regression).
+ *
+ * The coordinate optimizers read the column store, where the gradient of a coordinate is one pass
+ * over its column. The full-gradient optimizers read the blocks of the training data, where all the
+ * gradients are one pass over the rows.
+ *
  * @author Liang Tang
  */
-public class LogisticLoss implements LipschitzConstantGradientLoss {
+public class LogisticLoss implements NewtonCoordinateLoss, BatchGradientLoss {
+
+  /**
+   * How the instance indices of the columns are stored
+   */
+  public enum ColumnStorage {
+    // An int[] of the instance indices for each column
+    ARRAY,
+    // The gaps between the ascending instance indices as varints, which are decoded chunk by chunk
+    COMPRESSED,
+    // The instance indices and float values in direct memory or a memory-mapped file, which are
+    // copied onto the heap chunk by chunk, so the garbage collector never scans or moves them
+    OFF_HEAP
+  }
+
+  /**
+   * What is computed over the entries of a column
+   */
+  private enum ColumnOp {
+    GRADIENT(1),
+    // The gradient and the second derivative
+    DERIVATIVES(2),
+    // The change of the loss if the coefficient is moved by delta
+    COST_CHANGE(1),
+    // Add delta times the entries onto the inner products
+    INNER_PRODUCTS(0);
+
+    // The number of sums of the entries
+    final int numSums;
+
+    ColumnOp(int numSums) {
+      this.numSums = numSums;
+    }
+  }
 
   final static double EPS = 1E-5;
 
+  // The number of entries of a compressed column decoded at a time
+  final static int CHUNK_SIZE = 1024;
+
+  // The number of entries of a range of a long column
+  final static int RANGE_SIZE = 16 * CHUNK_SIZE;
+
+  // The margin whose sigmoid is 1 - 1E-6, where the exact cost clips the predictions
+  final static double MAX_COST_MARGIN = Math.log((1 - 1E-6) / 1E-6);
+
+  // The default minimum number of entries of a column which is split into ranges
+  final static int DEFAULT_PARALLEL_COLUMN_SIZE = 8 * RANGE_SIZE;
+
+  // Shared by all the empty columns, so a large hashed feature space with few used dimensions
+  // does not allocate an array per unused dimension
+  private final static int[] EMPTY_INDICES = new int[0];
+  private final static byte[] EMPTY_BYTES = new byte[0];
+  private final static double[] EMPTY_VALUES = new double[0];
+
+  final ColumnStorage _storage;
+
   // Column store index, where each column is a _dimension.
   final double[][] _colValArrs;
   final int[][] _colIndexArrs;
 
+  // The compressed instance indices of the columns if the storage is COMPRESSED, where
+  // _colIndexArrs is null
+  final byte[][] _colIndexBytes;
+
+  // The instance indices and values of the columns if the storage is OFF_HEAP, where _colIndexArrs
+  // and _colValArrs are null. The entries of a column start at the byte positions
+  // _colIndexPositions[dim] and _colValuePositions[dim], which is -1 for a constant column.
+  MappedRegion _region;
+  final long[] _colIndexPositions;
+  final long[] _colValuePositions;
+
+  // The file which backs the off-heap column store, or null for direct memory
+  private final String _columnStoreFile;
+
+  // The number of entries of each column
+  final int[] _colSizes;
+
+  // If all the entries of a column have the same value, e.g., a binary feature, only the
+  // instance indices are stored, the value is _colConstants[dim] and _colValArrs[dim] is null
+  final double[] _colConstants;
+
   // the sum of the inner product between the beta_j and x_j
   final double[] _innerProducts;
 
+  // The residual weight * (pred - y) of each instance, which is updated with _innerProducts, so
+  // the gradient of a column is the inner product between the column and the residuals
+  final double[] _residuals;
+
   // the number of features without considering the intercept term
   final int _dimension;
 
-  final Instance[] _instances;
+  // The training data, which is only read block by block
+  final Dataset _data;
+
+  final float[] _labels;
+
+  final float[] _weights;
+
+  final int _numInsts;
+
+  // The maximum second derivatives and the growth rates of the columns, which are -1 until they
+  // are computed, so the later trainings over the same column store, e.g., of a regularization
+  // path, do not scan the columns again
+  private final double[] _maxSecondDerivatives;
+  private final double[] _growthRates;
+
+  // The readers which are not in use. Each call of getGradient or getMaxSecondDerivative takes its
+  // own reader, so the gradients of several columns can be computed by several threads at the same
+  // time.
+  private final ConcurrentLinkedQueue<ColumnReader> _freeReaders = new ConcurrentLinkedQueue<ColumnReader>();
+
+  // The columns with at least this many entries are split into ranges of _rangeSize entries. The
+  // gradient of such a column is the sum of the gradients of its ranges, which are each summed in
+  // the order of the entries and then summed in the order of the ranges, so the gradient is the
+  // same with or without the pool.
+  int _parallelColumnSize = DEFAULT_PARALLEL_COLUMN_SIZE;
+
+  int _rangeSize = RANGE_SIZE;
+
+  // If the sigmoid of the residuals and the log-loss of the cost function are the approximations
+  // of FastMath
+  private boolean _fastMath = false;
+
+  // The pool for the ranges of the long columns and the cost function, or null
+  ForkJoinPool _pool = null;
+
+  // If _pool was created by setNumThreads and is shut down by the loss
+  private boolean _ownsPool = false;
+
+  // Scores the blocks of the training data in the cost function
+  private BatchScorer _scorer = new BatchScorer(1);
+
+  // The predictions of a block in the cost function
+  private double[] _blockScores = null;
+
+  // The second derivatives weight * pred * (1 - pred) of the instances at the beta of the last full
+  // gradient, for the Hessian-vector products
+  private double[] _rowCurvatures = null;
 
   public LogisticLoss(int dimension, final Instance[] instances) {
-    _instances = instances;
-    _dimension = dimension;
-    _colIndexArrs = new int[_dimension+1][];
-    _colValArrs = new double[_dimension+1][];
+    this(dimension, instances, ColumnStorage.ARRAY);
+  }
 
-    // Create the cache of the sum of the inner product between the beta_j and x_j
-    _innerProducts = new double[_instances.length];
+  public LogisticLoss(int dimension, final Instance[] instances, ColumnStorage storage) {
+    this(new InstanceArrayDataset(dimension, checkNotEmpty(instances)), storage);
+  }
 
-    // Check the input training instances
-    checkTrainData();
+  public LogisticLoss(final Dataset data) {
+    this(data, ColumnStorage.ARRAY);
+  }
+
+  public LogisticLoss(final Dataset data, ColumnStorage storage) {
+    this(data, storage, null);
+  }
 
-    // Create the column based store
+  /**
+   * @param columnStoreFile The file which backs the OFF_HEAP column store, so its pages are held by
+   * the page cache of the OS instead of the process, or null to use direct memory
+   */
+  public LogisticLoss(final Dataset data, ColumnStorage storage, String columnStoreFile) {
+    _data = data;
+    _storage = storage;
+    _columnStoreFile = columnStoreFile;
+    _dimension = data.getDimension();
+    _numInsts = data.getNumInstances();
+    _labels = new float[_numInsts];
+    _weights = new float[_numInsts];
+    _colIndexArrs = storage == ColumnStorage.ARRAY ? new int[_dimension+1][] : null;
+    _colIndexBytes = storage == ColumnStorage.COMPRESSED ? new byte[_dimension+1][] : null;
+    _colValArrs = storage != ColumnStorage.OFF_HEAP ? new double[_dimension+1][] : null;
+    _colIndexPositions = storage == ColumnStorage.OFF_HEAP ? new long[_dimension+1] : null;
+    _colValuePositions = storage == ColumnStorage.OFF_HEAP ? new long[_dimension+1] : null;
+    _colSizes = new int[_dimension+1];
+    _colConstants = new double[_dimension+1];
+    _maxSecondDerivatives = new double[_dimension+1];
+    _growthRates = new double[_dimension+1];
+    Arrays.fill(_maxSecondDerivatives, -1);
+    Arrays.fill(_growthRates, -1);
+
+    // Create the cache of the sum of the inner product between the beta_j and x_j
+    _innerProducts = new double[_numInsts];
+
+    // Create the column based store, and check the input training instances
     createColumnStore();
+
+    _residuals = new double[_numInsts];
+    for (int instIndex = 0; instIndex < _numInsts; instIndex++) {
+      _residuals[instIndex] = residual(instIndex, 0);
+    }
+  }
+
+  /**
+   * @return weight * (pred - y) of the instance, where pred is the clipped sigmoid of the inner
+   * product
+   */
+  private double residual(int instIndex, double innerProduct) {
+    double pred = _fastMath ? FastMath.sigmoid(innerProduct) : MathFunctions.sigmoid(innerProduct);
+    pred = pred < EPS ? EPS : pred;
+    pred = pred > 1 - EPS ? (1 - EPS) : pred;
+    return (pred - _labels[instIndex]) * _weights[instIndex];
+  }
+
+  private ColumnReader acquireReader() {
+    ColumnReader reader = _freeReaders.poll();
+    return reader != null ? reader : new ColumnReader();
+  }
+
+  private void releaseReader(final ColumnReader reader) {
+    _freeReaders.offer(reader);
+  }
+
+  /**
+   * Reads the entries of a column chunk by chunk. The chunk is the entries [_from, _to) of
+   * _indices, and the value of the entry i is _values[_valueOffset + i], or the constant of the
+   * column if _values is null. The array storage is read as one chunk without copying.
+   */
+  final class ColumnReader {
+
+    int[] _indices;
+
+    double[] _values;
+
+    int _from;
+
+    int _to;
+
+    int _valueOffset;
+
+    private int _dimIndex;
+
+    // The index of the next entry to read
+    private int _numRead;
+
+    // The index after the last entry to read
+    private int _end;
+
+    private int _bytePos;
+
+    private final int[] _indexBuffer = _storage != ColumnStorage.ARRAY ? new int[CHUNK_SIZE] : null;
+
+    private final float[] _floatBuffer = _storage == ColumnStorage.OFF_HEAP ? new float[CHUNK_SIZE] : null;
+
+    private final double[] _valueBuffer = _storage == ColumnStorage.OFF_HEAP ? new double[CHUNK_SIZE] : null;
+
+    void open(int dimIndex) {
+      open(dimIndex, 0, _colSizes[dimIndex]);
+    }
+
+    /**
+     * Read the entries [from, to) of the column, where from must be 0 for the COMPRESSED storage
+     */
+    void open(int dimIndex, int from, int to) {
+      _dimIndex = dimIndex;
+      _values = _colValArrs != null ? _colValArrs[dimIndex] : null;
+      _numRead = from;
+      _end = to;
+      _bytePos = 0;
+    }
+
+    boolean next() {
+      if (_numRead >= _end) {
+        return false;
+      }
+      if (_storage == ColumnStorage.ARRAY) {
+        _indices = _colIndexArrs[_dimIndex];
+        _from = _numRead;
+        _to = _end;
+        _valueOffset = 0;
+        _numRead = _end;
+        return true;
+      }
+      int len = Math.min(CHUNK_SIZE, _end - _numRead);
+      if (_storage == ColumnStorage.COMPRESSED) {
+        int prev = _numRead == 0 ? 0 : _indexBuffer[CHUNK_SIZE - 1];
+        _bytePos = VarIntCodec.readDeltas(_colIndexBytes[_dimIndex], _bytePos, prev, _indexBuffer, 0, len);
+        _valueOffset = _numRead;
+      } else {
+        _region.getInts(_colIndexPositions[_dimIndex] + 4L * _numRead, _indexBuffer, 0, len);
+        long valuePos = _colValuePositions[_dimIndex];
+        if (valuePos >= 0) {
+          _region.getFloats(valuePos + 4L * _numRead, _floatBuffer, 0, len);
+          for (int i = 0; i < len; i++) {
+            _valueBuffer[i] = _floatBuffer[i];
+          }
+          _values = _valueBuffer;
+        }
+        _valueOffset = 0;
+      }
+      _indices = _indexBuffer;
+      _from = 0;
+      _to = len;
+      _numRead += len;
+      return true;
+    }
   }
 
   private void updateInnerProducts(int dimIndex, double delta) {
-    if (Math.abs(delta) < EPS) {
+    if (delta == 0) {
       return;
     }
-    int[] colIndices = _colIndexArrs[dimIndex];
-    double[] colValues = _colValArrs[dimIndex];
-    for (int i = 0; i < colIndices.length; i++) {
+    if (isParallelColumn(dimIndex)) {
+      // The ranges update the inner products of different instances
+      _pool.invoke(new ColumnRangeTask(dimIndex, 0, getNumRanges(dimIndex), ColumnOp.INNER_PRODUCTS, delta, null));
+      return;
+    }
+    final ColumnReader reader = acquireReader();
+    reader.open(dimIndex);
+    while (reader.next()) {
+      addInnerProducts(delta, reader._indices, reader._from, reader._to, reader._values, reader._valueOffset,
+          _colConstants[dimIndex]);
+    }
+    releaseReader(reader);
+  }
+
+  private void addInnerProducts(double delta, final int[] colIndices, int from, int to, final double[] colValues,
+      int valueOffset, double constant) {
+    if (colValues == null) {
+      double deltaX = delta * constant;
+      for (int i = from; i < to; i++) {
+        int instIndex = colIndices[i];
+        double innerProduct = _innerProducts[instIndex] + deltaX;
+        _innerProducts[instIndex] = innerProduct;
+        _residuals[instIndex] = residual(instIndex, innerProduct);
+      }
+      return;
+    }
+    for (int i = from; i < to; i++) {
       int instIndex = colIndices[i];
-      double x_j = colValues[i];
-      _innerProducts[instIndex] += delta * x_j;
+      double x_j = colValues[valueOffset + i];
+      double innerProduct = _innerProducts[instIndex] + delta * x_j;
+      _innerProducts[instIndex] = innerProduct;
+      _residuals[instIndex] = residual(instIndex, innerProduct);
     }
   }
 
-  private void checkTrainData() {
-    if (_instances == null) {
+  private static Instance[] checkNotEmpty(final Instance[] instances) {
+    if (instances == null) {
       throw new IllegalArgumentException("The training data set is empty!");
     }
+    return instances;
+  }
 
-    int numInsts = _instances.length;
-    for (int instIndex = 0; instIndex < numInsts; instIndex++) {
-      if (!MathFunctions.almostEqual(_instances[instIndex].getLabel(), 0f)
-          && !MathFunctions.almostEqual(_instances[instIndex].getLabel(), 1f)) {
+  private void checkTrainData() {
+    for (int instIndex = 0; instIndex < _numInsts; instIndex++) {
+      if (!MathFunctions.almostEqual(_labels[instIndex], 0f)
+          && !MathFunctions.almostEqual(_labels[instIndex], 1f)) {
         throw new IllegalArgumentException("The label of the " + instIndex + "th data can only be 0 or 1");
       }
     }
   }
 
   private void createColumnStore() {
-    // First Scan: Count the number of entries for each _dimension
-    final int[] maxNumEntries = new int[_dimension+1];
-    int numInsts = _instances.length;
-    for (int instIndex = 0; instIndex < numInsts; instIndex++) {
-      Instance inst = _instances[instIndex];
-      float weight = inst.getWeight();
-      SparseVector features = inst.getFeatures();
-      if (MathFunctions.almostEqual(weight, 0)) {
-        continue;
-      }
-
-      int[] dimIndices = features.dims;
-      for (int j = 0; j < dimIndices.length; j++) {
-        int dimIndex = dimIndices[j];
-        maxNumEntries[dimIndex]++;
+    final boolean compressed = _storage == ColumnStorage.COMPRESSED;
+    // First Scan: Count the number of entries for each _dimension, and find the constant columns.
+    // For the compressed storage, also count the bytes of the gaps between the instance indices.
+    final int[] maxNumEntries = _colSizes;
+    final boolean[] isConstant = new boolean[_dimension+1];
+    final long[] numBytes = compressed ? new long[_dimension+1] : null;
+    final int[] lastInstIndices = compressed ? new int[_dimension+1] : null;
+    int blockStart = 0;
+    Iterator<CSRDataset> blocks = _data.blocks(Dataset.DEFAULT_BLOCK_SIZE);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      int numBlockInsts = block.getNumInstances();
+      System.arraycopy(block.labels, 0, _labels, blockStart, numBlockInsts);
+      System.arraycopy(block.weights, 0, _weights, blockStart, numBlockInsts);
+      final int[] rowOffsets = block.rowOffsets;
+      final int[] dims = block.dims;
+      final float[] vals = block.vals;
+      for (int i = 0; i < numBlockInsts; i++) {
+        if (MathFunctions.almostEqual(block.weights[i], 0)) {
+          continue;
+        }
+        int instIndex = blockStart + i;
+        for (int j = rowOffsets[i]; j < rowOffsets[i + 1]; j++) {
+          int dimIndex = dims[j];
+          if (maxNumEntries[dimIndex] == 0) {
+            isConstant[dimIndex] = true;
+            _colConstants[dimIndex] = vals[j];
+          } else if (isConstant[dimIndex] && _colConstants[dimIndex] != vals[j]) {
+            isConstant[dimIndex] = false;
+          }
+          maxNumEntries[dimIndex]++;
+          if (compressed) {
+            numBytes[dimIndex] += VarIntCodec.encodedSize(instIndex - lastInstIndices[dimIndex]);
+            lastInstIndices[dimIndex] = instIndex;
+          }
+        }
+        maxNumEntries[_dimension]++;
+        if (compressed) {
+          numBytes[_dimension] += VarIntCodec.encodedSize(instIndex - lastInstIndices[_dimension]);
+          lastInstIndices[_dimension] = instIndex;
+        }
       }
+      blockStart += numBlockInsts;
     }
-    maxNumEntries[_dimension] = numInsts;
+    isConstant[_dimension] = true;
+    _colConstants[_dimension] = 1;
+
+    checkTrainData();
 
     // Allocate the memory for the column store
-    for (int dim = 0; dim < _dimension+1; dim++) {
-      _colIndexArrs[dim] = new int[maxNumEntries[dim]];
-      _colValArrs[dim] = new double[maxNumEntries[dim]];
+    if (_storage == ColumnStorage.OFF_HEAP) {
+      allocateOffHeap(isConstant);
+    } else {
+      for (int dim = 0; dim < _dimension+1; dim++) {
+        if (compressed) {
+          if (numBytes[dim] > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many entries in the column of the dimension " + dim);
+          }
+          _colIndexBytes[dim] = numBytes[dim] == 0 ? EMPTY_BYTES : new byte[(int) numBytes[dim]];
+        } else {
+          _colIndexArrs[dim] = maxNumEntries[dim] == 0 ? EMPTY_INDICES : new int[maxNumEntries[dim]];
+        }
+        if (maxNumEntries[dim] == 0) {
+          _colValArrs[dim] = EMPTY_VALUES;
+        } else {
+          _colValArrs[dim] = isConstant[dim] ? null : new double[maxNumEntries[dim]];
+        }
+      }
     }
 
     // Second Scan : Build the column store
     final int[] entryIndices = new int[_dimension+1];
-    for (int instIndex = 0; instIndex < _instances.length; instIndex++) {
-      Instance inst = _instances[instIndex];
-      float weight = inst.getWeight();
-      SparseVector features = inst.getFeatures();
-      if (MathFunctions.almostEqual(weight, 0)) {
-        continue;
+    final int[] bytePositions = compressed ? new int[_dimension+1] : null;
+    if (compressed) {
+      Arrays.fill(lastInstIndices, 0);
+    }
+    blockStart = 0;
+    blocks = _data.blocks(Dataset.DEFAULT_BLOCK_SIZE);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      final int[] rowOffsets = block.rowOffsets;
+      final int[] dims = block.dims;
+      final float[] vals = block.vals;
+      for (int i = 0; i < block.getNumInstances(); i++) {
+        int instIndex = blockStart + i;
+        if (MathFunctions.almostEqual(_weights[instIndex], 0)) {
+          continue;
+        }
+        for (int j = rowOffsets[i]; j < rowOffsets[i + 1]; j++) {
+          addEntry(dims[j], instIndex, vals[j], entryIndices, bytePositions, lastInstIndices);
+        }
+        addEntry(_dimension, instIndex, 1, entryIndices, bytePositions, lastInstIndices);
       }
-      int[] dimIndices = features.dims;
-      float[] x = features.vals;
-      for (int j = 0; j < dimIndices.length; j++) {
-        int dimIndex = dimIndices[j];
-        int entryIndex = entryIndices[dimIndex];
-        _colIndexArrs[dimIndex][entryIndex] = instIndex;
-        _colValArrs[dimIndex][entryIndex] = x[j];
-        entryIndices[dimIndex]++;
+      blockStart += block.getNumInstances();
+    }
+  }
+
+  /**
+   * Lay out all the columns in one off-heap region, the instance indices of all the columns first,
+   * then the values of the columns which are not constant
+   */
+  private void allocateOffHeap(final boolean[] isConstant) {
+    long size = 0;
+    for (int dim = 0; dim < _dimension+1; dim++) {
+      _colIndexPositions[dim] = size;
+      size += 4L * _colSizes[dim];
+    }
+    for (int dim = 0; dim < _dimension+1; dim++) {
+      if (isConstant[dim]) {
+        _colValuePositions[dim] = -1;
+      } else {
+        _colValuePositions[dim] = size;
+        size += 4L * _colSizes[dim];
       }
-      _colIndexArrs[_dimension][instIndex] = instIndex;
-      _colValArrs[_dimension][instIndex] = 1;
     }
+    if (_columnStoreFile == null) {
+      _region = new MappedRegion(size);
+      return;
+    }
+    try {
+      RandomAccessFile file = new RandomAccessFile(_columnStoreFile, "rw");
+      try {
+        file.setLength(size);
+        _region = new MappedRegion(file.getChannel(), FileChannel.MapMode.READ_WRITE, 0, size);
+      } finally {
+        // The mapping stays valid after the file is closed
+        file.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to map the column store file " + _columnStoreFile, e);
+    }
+  }
+
+  private void addEntry(int dimIndex, int instIndex, float value, final int[] entryIndices,
+      final int[] bytePositions, final int[] lastInstIndices) {
+    int entryIndex = entryIndices[dimIndex];
+    if (_storage == ColumnStorage.OFF_HEAP) {
+      _region.putInt(_colIndexPositions[dimIndex] + 4L * entryIndex, instIndex);
+      if (_colValuePositions[dimIndex] >= 0) {
+        _region.putFloat(_colValuePositions[dimIndex] + 4L * entryIndex, value);
+      }
+      entryIndices[dimIndex]++;
+      return;
+    }
+    if (bytePositions == null) {
+      _colIndexArrs[dimIndex][entryIndex] = instIndex;
+    } else {
+      bytePositions[dimIndex] = VarIntCodec.write(_colIndexBytes[dimIndex], bytePositions[dimIndex],
+          instIndex - lastInstIndices[dimIndex]);
+      lastInstIndices[dimIndex] = instIndex;
+    }
+    if (_colValArrs[dimIndex] != null) {
+      _colValArrs[dimIndex][entryIndex] = value;
+    }
+    entryIndices[dimIndex]++;
+  }
+
+  private boolean isConstantColumn(int dimIndex) {
+    return _colValArrs != null ? _colValArrs[dimIndex] == null : _colValuePositions[dimIndex] < 0;
   }
 
   /**
@@ -127,38 +554,354 @@ public class LogisticLoss implements LipschitzConstantGradientLoss {
   @Override
   public double getGradient(final int dimIndex, final double[] beta) {
     double grad = 0;
-    final int[] colIndices = _colIndexArrs[dimIndex];
-    final double[] colValues = _colValArrs[dimIndex];
-    for (int i = 0; i < colIndices.length; i++) {
-      int instIndex = colIndices[i];
-      Instance inst = _instances[instIndex];
-      double x_j = colValues[i];
-      double y = inst.getLabel();
-      double weight = inst.getWeight();
-      double v = _innerProducts[instIndex];
-      double pred = MathFunctions.sigmoid(v);
-      pred = pred < EPS ? EPS : pred;
-      pred = pred > 1 - EPS ? (1 - EPS) : pred;
-      grad += -(y - pred) * x_j * weight;
+    if (_colSizes[dimIndex] < _parallelColumnSize) {
+      final ColumnReader reader = acquireReader();
+      reader.open(dimIndex);
+      while (reader.next()) {
+        grad = addGradient(grad, reader._indices, reader._from, reader._to, reader._values, reader._valueOffset);
+      }
+      releaseReader(reader);
+    } else {
+      final double[] sums = new double[1];
+      sumLongColumn(dimIndex, ColumnOp.GRADIENT, 0, sums);
+      grad = sums[0];
+    }
+    // The same value for all the entries of a constant column is taken out of the sum
+    return isConstantColumn(dimIndex) ? grad * _colConstants[dimIndex] : grad;
+  }
+
+  /**
+   * Get the gradient and the exact second derivative sum weight * pred * (1 - pred) * x_j^2 at the
+   * current coefficients in the same pass over the column
+   */
+  @Override
+  public void getDerivatives(final int dimIndex, final double[] beta, final double[] derivatives) {
+    derivatives[0] = 0;
+    derivatives[1] = 0;
+    sumColumn(dimIndex, ColumnOp.DERIVATIVES, 0, derivatives);
+    if (isConstantColumn(dimIndex)) {
+      double constant = _colConstants[dimIndex];
+      derivatives[0] *= constant;
+      derivatives[1] *= constant * constant;
+    }
+  }
+
+  /**
+   * The change of the loss of the instances of the column, which is computed from the cached
+   * predictions of the inner products without a pass over the training data. The loss change of an
+   * instance is weight * (log(1 + pred * (exp(delta * x_j) - 1)) - y * delta * x_j), whose derivative
+   * at 0 is the gradient of the clipped predictions.
+   */
+  @Override
+  public double getCostChange(final int dimIndex, final double delta, final double[] beta) {
+    if (delta == 0) {
+      return 0;
+    }
+    final double[] sums = new double[1];
+    sumColumn(dimIndex, ColumnOp.COST_CHANGE, delta, sums);
+    return sums[0];
+  }
+
+  /**
+   * Adds the sums of the op over the entries of the column onto sums, where a constant column is
+   * summed without multiplying the constant, except the change of the loss
+   */
+  private void sumColumn(int dimIndex, ColumnOp op, double delta, final double[] sums) {
+    if (_colSizes[dimIndex] == 0) {
+      // The unused dimensions of a hashed feature space
+      return;
+    }
+    if (_colSizes[dimIndex] >= _parallelColumnSize) {
+      sumLongColumn(dimIndex, op, delta, sums);
+      return;
+    }
+    final ColumnReader reader = acquireReader();
+    reader.open(dimIndex);
+    while (reader.next()) {
+      addEntries(op, dimIndex, delta, reader, reader._from, reader._to, sums, 0);
+    }
+    releaseReader(reader);
+  }
+
+  /**
+   * Adds the sums of the op over the ranges of a long column onto sums, which are computed in
+   * parallel if possible
+   */
+  private void sumLongColumn(int dimIndex, ColumnOp op, double delta, final double[] sums) {
+    if (!isParallelColumn(dimIndex)) {
+      sumByRanges(dimIndex, op, delta, sums);
+      return;
+    }
+    int numSums = op.numSums;
+    double[] rangeSums = new double[getNumRanges(dimIndex) * numSums];
+    _pool.invoke(new ColumnRangeTask(dimIndex, 0, getNumRanges(dimIndex), op, delta, rangeSums));
+    for (int i = 0; i < rangeSums.length; i++) {
+      sums[i % numSums] += rangeSums[i];
+    }
+  }
+
+  /**
+   * Applies the op on the entries [from, to) of the current chunk of the reader, and adds the sums
+   * onto sums[offset, offset + op.numSums)
+   */
+  private void addEntries(ColumnOp op, int dimIndex, double delta, final ColumnReader reader, int from, int to,
+      final double[] sums, int offset) {
+    switch (op) {
+      case GRADIENT:
+        sums[offset] = addGradient(sums[offset], reader._indices, from, to, reader._values, reader._valueOffset);
+        break;
+      case DERIVATIVES:
+        addDerivatives(sums, offset, reader._indices, from, to, reader._values, reader._valueOffset);
+        break;
+      case COST_CHANGE:
+        sums[offset] = addCostChange(sums[offset], delta, reader._indices, from, to, reader._values,
+            reader._valueOffset, _colConstants[dimIndex]);
+        break;
+      default:
+        addInnerProducts(delta, reader._indices, from, to, reader._values, reader._valueOffset,
+            _colConstants[dimIndex]);
+    }
+  }
+
+  /**
+   * The sums of a long column summed range by range in one thread, which are the same sums as the
+   * ranges computed in parallel
+   */
+  private void sumByRanges(int dimIndex, ColumnOp op, double delta, final double[] sums) {
+    final double[] rangeSums = new double[op.numSums];
+    // The number of entries summed into rangeSums
+    int rangeEntries = 0;
+    final ColumnReader reader = acquireReader();
+    reader.open(dimIndex);
+    while (reader.next()) {
+      int from = reader._from;
+      while (from < reader._to) {
+        int to = Math.min(reader._to, from + _rangeSize - rangeEntries);
+        addEntries(op, dimIndex, delta, reader, from, to, rangeSums, 0);
+        rangeEntries += to - from;
+        from = to;
+        if (rangeEntries == _rangeSize) {
+          addRangeSums(sums, rangeSums);
+          rangeEntries = 0;
+        }
+      }
+    }
+    releaseReader(reader);
+    if (rangeEntries > 0) {
+      addRangeSums(sums, rangeSums);
+    }
+  }
+
+  private static void addRangeSums(final double[] sums, final double[] rangeSums) {
+    for (int i = 0; i < rangeSums.length; i++) {
+      sums[i] += rangeSums[i];
+      rangeSums[i] = 0;
+    }
+  }
+
+  /**
+   * If the ranges of the column are computed in parallel, which needs the random access to the
+   * entries of the ARRAY and OFF_HEAP storages
+   */
+  private boolean isParallelColumn(int dimIndex) {
+    return _pool != null && _storage != ColumnStorage.COMPRESSED && _colSizes[dimIndex] >= _parallelColumnSize;
+  }
+
+  private int getNumRanges(int dimIndex) {
+    return (_colSizes[dimIndex] + _rangeSize - 1) / _rangeSize;
+  }
+
+  /**
+   * Applies the op on the ranges [rangeFrom, rangeTo) of a column, and computes the sums of the
+   * range i into rangeSums[i * op.numSums, (i + 1) * op.numSums)
+   */
+  private final class ColumnRangeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    final int _dimIndex;
+    final int _rangeFrom;
+    final int _rangeTo;
+    final ColumnOp _op;
+    final double _delta;
+    final double[] _rangeSums;
+
+    ColumnRangeTask(int dimIndex, int rangeFrom, int rangeTo, ColumnOp op, double delta, final double[] rangeSums) {
+      _dimIndex = dimIndex;
+      _rangeFrom = rangeFrom;
+      _rangeTo = rangeTo;
+      _op = op;
+      _delta = delta;
+      _rangeSums = rangeSums;
+    }
+
+    @Override
+    protected void compute() {
+      if (_rangeTo - _rangeFrom > 1) {
+        int mid = (_rangeFrom + _rangeTo) >>> 1;
+        invokeAll(new ColumnRangeTask(_dimIndex, _rangeFrom, mid, _op, _delta, _rangeSums),
+            new ColumnRangeTask(_dimIndex, mid, _rangeTo, _op, _delta, _rangeSums));
+        return;
+      }
+      int from = _rangeFrom * _rangeSize;
+      int to = Math.min(from + _rangeSize, _colSizes[_dimIndex]);
+      final ColumnReader reader = acquireReader();
+      reader.open(_dimIndex, from, to);
+      while (reader.next()) {
+        addEntries(_op, _dimIndex, _delta, reader, reader._from, reader._to, _rangeSums, _rangeFrom * _op.numSums);
+      }
+      releaseReader(reader);
+    }
+  }
+
+  /**
+   * Add the gradient of the entries [from, to) of a column onto grad, without multiplying the
+   * constant if colValues is null
+   */
+  private double addGradient(double grad, final int[] colIndices, int from, int to, final double[] colValues,
+      int valueOffset) {
+    final double[] residuals = _residuals;
+    if (colValues == null) {
+      for (int i = from; i < to; i++) {
+        grad += residuals[colIndices[i]];
+      }
+      return grad;
+    }
+    for (int i = from; i < to; i++) {
+      grad += residuals[colIndices[i]] * colValues[valueOffset + i];
     }
     return grad;
   }
 
+  /**
+   * Add the gradient and the second derivative of the entries [from, to) of a column onto
+   * sums[offset] and sums[offset + 1], without multiplying the constant if colValues is null. Since
+   * y is 0 or 1, weight * pred * (1 - pred) is |r| - r^2 / weight of the residual r.
+   */
+  private void addDerivatives(final double[] sums, int offset, final int[] colIndices, int from, int to,
+      final double[] colValues, int valueOffset) {
+    final double[] residuals = _residuals;
+    double grad = sums[offset];
+    double secondDerivative = sums[offset + 1];
+    if (colValues == null) {
+      for (int i = from; i < to; i++) {
+        int instIndex = colIndices[i];
+        double residual = residuals[instIndex];
+        grad += residual;
+        secondDerivative += Math.abs(residual) - residual * residual / _weights[instIndex];
+      }
+    } else {
+      for (int i = from; i < to; i++) {
+        int instIndex = colIndices[i];
+        double x_j = colValues[valueOffset + i];
+        double residual = residuals[instIndex];
+        grad += residual * x_j;
+        secondDerivative += (Math.abs(residual) - residual * residual / _weights[instIndex]) * x_j * x_j;
+      }
+    }
+    sums[offset] = grad;
+    sums[offset + 1] = secondDerivative;
+  }
+
+  /**
+   * Add the change of the loss of the entries [from, to) of a column onto change, if the
+   * coefficient is moved by delta
+   */
+  private double addCostChange(double change, double delta, final int[] colIndices, int from, int to,
+      final double[] colValues, int valueOffset, double constant) {
+    final double[] residuals = _residuals;
+    if (colValues == null) {
+      // exp(delta * x_j) - 1 is the same for all the entries
+      double deltaX = delta * constant;
+      double expDeltaX = Math.expm1(deltaX);
+      for (int i = from; i < to; i++) {
+        int instIndex = colIndices[i];
+        double pred = prediction(instIndex, residuals[instIndex]);
+        change += (Math.log1p(pred * expDeltaX) - _labels[instIndex] * deltaX) * _weights[instIndex];
+      }
+      return change;
+    }
+    for (int i = from; i < to; i++) {
+      int instIndex = colIndices[i];
+      double deltaX = delta * colValues[valueOffset + i];
+      double pred = prediction(instIndex, residuals[instIndex]);
+      change += (Math.log1p(pred * Math.expm1(deltaX)) - _labels[instIndex] * deltaX) * _weights[instIndex];
+    }
+    return change;
+  }
+
+  /**
+   * @return The clipped prediction of the instance from its residual weight * (pred - y), where the
+   * weight of an instance in the columns is never 0
+   */
+  private double prediction(int instIndex, double residual) {
+    return residual / _weights[instIndex] + _labels[instIndex];
+  }
+
   @Override
   public double getMaxSecondDerivative(final int dimIndex) {
+    if (_maxSecondDerivatives[dimIndex] < 0) {
+      _maxSecondDerivatives[dimIndex] = computeMaxSecondDerivative(dimIndex);
+    }
+    return _maxSecondDerivatives[dimIndex];
+  }
+
+  private double computeMaxSecondDerivative(final int dimIndex) {
     double maxSecondDerivative = 0;
-    final int[] colIndices = _colIndexArrs[dimIndex];
-    final double[] colValues = _colValArrs[dimIndex];
-    for (int i = 0; i < colIndices.length; i++) {
-      int instIndex = colIndices[i];
-      Instance inst = _instances[instIndex];
-      double x_j = colValues[i];
-      double weight = inst.getWeight();
-      maxSecondDerivative += 0.25 * x_j * x_j * weight;
+    final ColumnReader reader = acquireReader();
+    reader.open(dimIndex);
+    while (reader.next()) {
+      final int[] colIndices = reader._indices;
+      final double[] colValues = reader._values;
+      if (colValues == null) {
+        for (int i = reader._from; i < reader._to; i++) {
+          maxSecondDerivative += _weights[colIndices[i]];
+        }
+      } else {
+        for (int i = reader._from; i < reader._to; i++) {
+          int instIndex = colIndices[i];
+          double x_j = colValues[reader._valueOffset + i];
+          double weight = _weights[instIndex];
+          maxSecondDerivative += 0.25 * x_j * x_j * weight;
+        }
+      }
+    }
+    releaseReader(reader);
+    if (isConstantColumn(dimIndex)) {
+      // The sum of the weights
+      return 0.25 * _colConstants[dimIndex] * _colConstants[dimIndex] * maxSecondDerivative;
     }
     return maxSecondDerivative;
   }
 
+  /**
+   * weight * pred * (1 - pred) of an instance changes by at most exp(|x_j * t|) times if its inner
+   * product changes by x_j * t, so the rate is the maximum of |x_j| of the column
+   */
+  @Override
+  public double getSecondDerivativeGrowthRate(final int dimIndex) {
+    if (_growthRates[dimIndex] < 0) {
+      _growthRates[dimIndex] = computeSecondDerivativeGrowthRate(dimIndex);
+    }
+    return _growthRates[dimIndex];
+  }
+
+  private double computeSecondDerivativeGrowthRate(final int dimIndex) {
+    if (isConstantColumn(dimIndex)) {
+      return Math.abs(_colConstants[dimIndex]);
+    }
+    double maxAbsValue = 0;
+    final ColumnReader reader = acquireReader();
+    reader.open(dimIndex);
+    while (reader.next()) {
+      for (int i = reader._from; i < reader._to; i++) {
+        maxAbsValue = Math.max(maxAbsValue, Math.abs(reader._values[reader._valueOffset + i]));
+      }
+    }
+    releaseReader(reader);
+    return maxAbsValue;
+  }
+
   @Override
   public void coefficientUpdate(final int dimIndex, final double delta, final double[] newBeta) {
     updateInnerProducts(dimIndex, delta);
@@ -168,27 +911,215 @@ public class LogisticLoss implements LipschitzConstantGradientLoss {
   public double cost(final double[] beta) {
     final double EPS = 1E-6;
     double cost = 0;
-    for (int instIndex = 0; instIndex < _instances.length; instIndex++) {
-      Instance inst = _instances[instIndex];
-      double y = inst.getLabel();
-      double pred = expected(beta, inst.getFeatures());
-      pred = pred < EPS ? EPS : pred;
-      pred = pred > 1 - EPS ? (1 - EPS) : pred;
-      double logLikelihood = y * Math.log(pred) + (1 - y) * Math.log(1 - pred);
-      double weight = inst.getWeight();
-      cost += -logLikelihood * weight;
+    int blockStart = 0;
+    Iterator<CSRDataset> blocks = _data.blocks(Dataset.DEFAULT_BLOCK_SIZE);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      // The predictions of the whole block in one batch
+      if (_blockScores == null || _blockScores.length < block.getNumInstances()) {
+        _blockScores = new double[block.getNumInstances()];
+      }
+      if (_fastMath) {
+        cost += fastCost(block, beta, blockStart);
+        blockStart += block.getNumInstances();
+        continue;
+      }
+      _scorer.score(block, beta, beta[beta.length - 1], true, _blockScores, 0);
+      for (int i = 0; i < block.getNumInstances(); i++) {
+        int instIndex = blockStart + i;
+        double y = _labels[instIndex];
+        double pred = _blockScores[i];
+        pred = pred < EPS ? EPS : pred;
+        pred = pred > 1 - EPS ? (1 - EPS) : pred;
+        double logLikelihood = y * Math.log(pred) + (1 - y) * Math.log(1 - pred);
+        double weight = _weights[instIndex];
+        cost += -logLikelihood * weight;
+      }
+      blockStart += block.getNumInstances();
+    }
+    return cost;
+  }
+
+  /**
+   * The cost of a block by the softplus of FastMath, where the log-loss of an instance is
+   * softplus(-margin) if y = 1 or softplus(margin) if y = 0, and the margin is clipped like the
+   * predictions of the exact cost
+   */
+  private double fastCost(final CSRDataset block, final double[] beta, int blockStart) {
+    _scorer.score(block, beta, beta[beta.length - 1], false, _blockScores, 0);
+    double cost = 0;
+    for (int i = 0; i < block.getNumInstances(); i++) {
+      int instIndex = blockStart + i;
+      double y = _labels[instIndex];
+      double margin = _blockScores[i];
+      margin = margin < -MAX_COST_MARGIN ? -MAX_COST_MARGIN : margin;
+      margin = margin > MAX_COST_MARGIN ? MAX_COST_MARGIN : margin;
+      double logLoss = y * FastMath.softplus(-margin) + (1 - y) * FastMath.softplus(margin);
+      cost += logLoss * _weights[instIndex];
+    }
+    return cost;
+  }
+
+  /**
+   * The log-loss without clipping the predictions and its gradient, in one pass over the blocks of
+   * the training data. The rows of a block are scored and then summed into the gradient by the
+   * threads of setNumThreads.
+   */
+  @Override
+  public double getCostAndGradient(final double[] beta, final double[] gradient) {
+    if (_rowCurvatures == null) {
+      _rowCurvatures = new double[_numInsts];
+    }
+    Arrays.fill(gradient, 0);
+    double cost = 0;
+    int blockStart = 0;
+    Iterator<CSRDataset> blocks = _data.blocks(Dataset.DEFAULT_BLOCK_SIZE);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      int numBlockInsts = block.getNumInstances();
+      if (_blockScores == null || _blockScores.length < numBlockInsts) {
+        _blockScores = new double[numBlockInsts];
+      }
+      _scorer.score(block, beta, beta[_dimension], false, _blockScores, 0);
+      for (int i = 0; i < numBlockInsts; i++) {
+        int instIndex = blockStart + i;
+        double margin = _blockScores[i];
+        double y = _labels[instIndex];
+        double weight = _weights[instIndex];
+        double pred;
+        double logLoss;
+        if (_fastMath) {
+          pred = FastMath.sigmoid(margin);
+          logLoss = FastMath.softplus(margin) - y * margin;
+        } else {
+          pred = MathFunctions.sigmoid(margin);
+          // log(1 + exp(margin)) by the more accurate one of log(1 - pred) and log(pred)
+          logLoss = (margin > 0 ? margin - Math.log(pred) : -Math.log1p(-pred)) - y * margin;
+        }
+        cost += logLoss * weight;
+        _rowCurvatures[instIndex] = weight * pred * (1 - pred);
+        // The residual of the row is its factor in the gradient
+        _blockScores[i] = (pred - y) * weight;
+      }
+      gradient[_dimension] += _scorer.multiplyTransposed(block, _blockScores, 0, gradient);
+      blockStart += numBlockInsts;
     }
     return cost;
   }
 
+  /**
+   * X^T * D * X * v of the blocks of the training data, where D is the diagonal of the second
+   * derivatives of the instances at the beta of the last full gradient
+   */
   @Override
-  public int getDimension() {
-    return _dimension;
+  public void getHessianVectorProduct(final double[] v, final double[] hv) {
+    if (_rowCurvatures == null) {
+      throw new IllegalStateException("The Hessian is computed at the beta of the last full gradient");
+    }
+    Arrays.fill(hv, 0);
+    int blockStart = 0;
+    Iterator<CSRDataset> blocks = _data.blocks(Dataset.DEFAULT_BLOCK_SIZE);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      int numBlockInsts = block.getNumInstances();
+      if (_blockScores == null || _blockScores.length < numBlockInsts) {
+        _blockScores = new double[numBlockInsts];
+      }
+      _scorer.score(block, v, v[_dimension], false, _blockScores, 0);
+      for (int i = 0; i < numBlockInsts; i++) {
+        _blockScores[i] *= _rowCurvatures[blockStart + i];
+      }
+      hv[_dimension] += _scorer.multiplyTransposed(block, _blockScores, 0, hv);
+      blockStart += numBlockInsts;
+    }
   }
 
-  private double expected(final double[] beta, final SparseVector feature) {
-    double sum = feature.innerProduct(beta);
-    sum = sum + beta[beta.length - 1];
-    return MathFunctions.sigmoid(sum);
+  /**
+   * Use the approximations of FastMath for the sigmoid and the log-loss, which should be set
+   * before the training
+   */
+  public void setFastMath(boolean fastMath) {
+    _fastMath = fastMath;
+    for (int instIndex = 0; instIndex < _numInsts; instIndex++) {
+      _residuals[instIndex] = residual(instIndex, _innerProducts[instIndex]);
+    }
+  }
+
+  /**
+   * Set the number of threads to score the training data in the cost function, and to compute the
+   * ranges of the long columns, which share the same pool
+   */
+  public void setNumThreads(int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + numThreads);
+    }
+    if (_ownsPool ? numThreads == _pool.getParallelism() : _pool == null && numThreads == 1) {
+      return;
+    }
+    shutdown();
+    if (numThreads > 1) {
+      _pool = new ForkJoinPool(numThreads);
+      _ownsPool = true;
+      _scorer = new BatchScorer(_pool);
+    }
+  }
+
+  /**
+   * Score the training data and compute the ranges of the long columns by the threads of a pool
+   * shared with other work, e.g., the pool of the model, which is not shut down by the loss, or
+   * serially if the pool is null
+   */
+  public void setPool(final ForkJoinPool pool) {
+    shutdown();
+    if (pool != null) {
+      _pool = pool;
+      _scorer = new BatchScorer(pool);
+    }
+  }
+
+  /**
+   * Shut down the pool created by setNumThreads, after which the loss is computed serially
+   */
+  public void shutdown() {
+    if (_ownsPool) {
+      _pool.shutdown();
+    }
+    _pool = null;
+    _ownsPool = false;
+    _scorer = new BatchScorer(1);
+  }
+
+  /**
+   * Set the minimum number of entries of a column which is split into ranges, and computed in
+   * parallel if there is more than one thread. The gradients do not depend on the number of threads.
+   */
+  public void setParallelColumnSize(int minColumnSize) {
+    if (minColumnSize < 2) {
+      throw new IllegalArgumentException("The minimum size of the parallel columns must be at least 2: "
+          + minColumnSize);
+    }
+    _parallelColumnSize = minColumnSize;
+  }
+
+  /**
+   * @return The number of bytes of the index and value arrays of the column store
+   */
+  long getColumnStoreSize() {
+    if (_region != null) {
+      return _region.size();
+    }
+    long size = 0;
+    for (int dim = 0; dim < _dimension+1; dim++) {
+      size += _colIndexArrs != null ? 4L * _colIndexArrs[dim].length : _colIndexBytes[dim].length;
+      if (_colValArrs[dim] != null) {
+        size += 8L * _colValArrs[dim].length;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public int getDimension() {
+    return _dimension;
   }
 }
@@ -0,0 +1,80 @@
+package org.ltang.mlbox.optimizer.qn;
+
+import org.apache.log4j.Logger;
+import org.ltang.mlbox.optimizer.BatchGradientLoss;
+import org.ltang.mlbox.optimizer.clg.LinearCombineLoss;
+import org.ltang.mlbox.utils.VectorUtil;
+
+
+/**
+ * The base class of the optimization algorithms of the full gradients, which compute all the
+ * gradients in one pass over the training data. Like the coordinate optimizers, the optimization
+ * stops when the norm of the gradient is less than the tolerance times its initial norm.
+ *
+ * @author Liang Tang
+ */
+public abstract class BatchGradientOptimizer {
+
+  private static final Logger log = Logger.getLogger(BatchGradientOptimizer.class);
+
+  final double[] _beta;
+
+  // The number of features plus 1 (intercept term)
+  final int _dimension;
+
+  int _max_iter = 500;
+
+  // norm of the objective's gradient is less than tol times its initial value
+  double _tolerance = 1E-4;
+
+  int DEBUG = 0;
+
+  final BatchGradientLoss _loss;
+
+  // The number of the full gradients computed so far, which is the number of passes over the data
+  int _numGradients = 0;
+
+  // The number of the Hessian-vector products computed so far
+  int _numHessianProducts = 0;
+
+  BatchGradientOptimizer(BatchGradientLoss loss) {
+    if (loss instanceof LinearCombineLoss && !((LinearCombineLoss) loss).isBatchGradientLoss()) {
+      throw new IllegalArgumentException("The loss functions do not support the full gradients");
+    }
+    _dimension = loss.getDimension();
+    _loss = loss;
+    _beta = new double[_dimension+1];
+  }
+
+  public void setDebug(int debug) {
+    DEBUG = debug;
+  }
+
+  public void setMaxNumIteration(int maxIter) {
+    _max_iter = maxIter;
+  }
+
+  public void setToleranceForStopCriterion(final double tol) {
+    _tolerance = tol;
+  }
+
+  public abstract void train();
+
+  double getCostAndGradient(final double[] beta, final double[] gradient) {
+    _numGradients++;
+    return _loss.getCostAndGradient(beta, gradient);
+  }
+
+  void getHessianVectorProduct(final double[] v, final double[] hv) {
+    _numHessianProducts++;
+    _loss.getHessianVectorProduct(v, hv);
+  }
+
+  public double[] getCofficients() {
+    return _beta;
+  }
+
+  public void printParameters() {
+    log.info(VectorUtil.toString(_beta));
+  }
+}
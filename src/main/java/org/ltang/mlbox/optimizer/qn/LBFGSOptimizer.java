@@ -0,0 +1,164 @@
+package org.ltang.mlbox.optimizer.qn;
+
+import org.apache.log4j.Logger;
+import org.ltang.mlbox.optimizer.BatchGradientLoss;
+import org.ltang.mlbox.utils.VectorUtil;
+
+
+/**
+ * The limited-memory BFGS algorithm (Liu and Nocedal, 1989). The direction is the gradient times
+ * the inverse Hessian approximated by the last numCorrections steps and their changes of the
+ * gradients, and the step length is found by backtracking until the loss decreases enough (the
+ * Armijo rule). Every trial point of the line search is one pass for both the cost and the
+ * gradient, so the accepted point needs no more pass.
+ *
+ * @author Liang Tang
+ */
+public class LBFGSOptimizer extends BatchGradientOptimizer {
+
+  private static final Logger log = Logger.getLogger(LBFGSOptimizer.class);
+
+  // The loss decreases by at least this ratio of the linear decrease of an accepted step
+  final static double ARMIJO_C = 1E-4;
+
+  // The maximum number of the trial points of a line search
+  final static int MAX_LINE_SEARCH = 20;
+
+  // The number of the last corrections which approximate the inverse Hessian
+  int _numCorrections = 10;
+
+  public LBFGSOptimizer(BatchGradientLoss loss) {
+    super(loss);
+  }
+
+  public void setNumCorrections(int numCorrections) {
+    if (numCorrections < 1) {
+      throw new IllegalArgumentException("The number of corrections must be positive: " + numCorrections);
+    }
+    _numCorrections = numCorrections;
+  }
+
+  @Override
+  public void train() {
+    int n = _dimension+1;
+    // The last corrections in a ring, where the newest one is at (first + numPairs - 1) % m
+    int m = _numCorrections;
+    final double[][] s = new double[m][n];
+    final double[][] y = new double[m][n];
+    final double[] rho = new double[m];
+    final double[] alpha = new double[m];
+    int first = 0;
+    int numPairs = 0;
+
+    final double[] grad = new double[n];
+    final double[] direction = new double[n];
+    final double[] newBeta = new double[n];
+    final double[] newGrad = new double[n];
+    double cost = getCostAndGradient(_beta, grad);
+    double initGradNorm = VectorUtil.norm2(grad);
+    if (DEBUG >= 1) {
+      log.info("Initial cost: " + cost + ", initial gradient norm: " + initGradNorm);
+    }
+
+    int iter;
+    for (iter = 0; iter < _max_iter; iter++) {
+      double gradNorm = VectorUtil.norm2(grad);
+      if (gradNorm <= initGradNorm * _tolerance) {
+        break; // Converged
+      }
+
+      // The two-loop recursion of the direction
+      for (int i = 0; i < n; i++) {
+        direction[i] = -grad[i];
+      }
+      for (int k = numPairs - 1; k >= 0; k--) {
+        int j = (first + k) % m;
+        alpha[j] = rho[j] * VectorUtil.innerProduct(s[j], direction);
+        VectorUtil.addScaled(direction, -alpha[j], y[j]);
+      }
+      // The initial inverse Hessian is s'y / y'y of the newest correction, or a step of length 1
+      double gamma = 1 / gradNorm;
+      if (numPairs > 0) {
+        int newest = (first + numPairs - 1) % m;
+        gamma = 1 / (rho[newest] * VectorUtil.innerProduct(y[newest], y[newest]));
+      }
+      for (int i = 0; i < n; i++) {
+        direction[i] *= gamma;
+      }
+      for (int k = 0; k < numPairs; k++) {
+        int j = (first + k) % m;
+        double b = rho[j] * VectorUtil.innerProduct(y[j], direction);
+        VectorUtil.addScaled(direction, alpha[j] - b, s[j]);
+      }
+
+      double slope = VectorUtil.innerProduct(grad, direction);
+      if (slope >= 0) {
+        // Not a descent direction because of the rounding, so restart from the steepest descent
+        numPairs = 0;
+        for (int i = 0; i < n; i++) {
+          direction[i] = -grad[i] / gradNorm;
+        }
+        slope = -gradNorm;
+      }
+
+      // Backtrack by the minimum of the quadratic interpolation, within [0.1, 0.5] of the last step
+      double step = 1;
+      double newCost = 0;
+      boolean accepted = false;
+      for (int ls = 0; ls < MAX_LINE_SEARCH; ls++) {
+        for (int i = 0; i < n; i++) {
+          newBeta[i] = _beta[i] + step * direction[i];
+        }
+        newCost = getCostAndGradient(newBeta, newGrad);
+        if (newCost <= cost + ARMIJO_C * step * slope) {
+          accepted = true;
+          break;
+        }
+        double minStep = -slope * step * step / (2 * (newCost - cost - slope * step));
+        step = Math.min(Math.max(minStep, 0.1 * step), 0.5 * step);
+      }
+      if (!accepted) {
+        if (DEBUG >= 1) {
+          log.info("iter : " + iter + ", the line search fails to decrease the cost : " + cost);
+        }
+        break;
+      }
+
+      double sy = 0;
+      double yy = 0;
+      for (int i = 0; i < n; i++) {
+        double gradChange = newGrad[i] - grad[i];
+        sy += (newBeta[i] - _beta[i]) * gradChange;
+        yy += gradChange * gradChange;
+      }
+      // Keep the inverse Hessian positive definite, and replace the oldest correction if the
+      // memory is full
+      if (sy > 1E-10 * yy) {
+        int j = numPairs < m ? (first + numPairs) % m : first;
+        for (int i = 0; i < n; i++) {
+          s[j][i] = newBeta[i] - _beta[i];
+          y[j][i] = newGrad[i] - grad[i];
+        }
+        rho[j] = 1 / sy;
+        if (numPairs < m) {
+          numPairs++;
+        } else {
+          first = (first + 1) % m;
+        }
+      }
+
+      System.arraycopy(newBeta, 0, _beta, 0, n);
+      System.arraycopy(newGrad, 0, grad, 0, n);
+      cost = newCost;
+
+      if (DEBUG >= 2) {
+        log.info("iter : " + iter + ",  cost : " + cost + ", #gradnorm: " + VectorUtil.norm2(grad) + ", step : " + step);
+      }
+    }
+
+    if (DEBUG >= 1) {
+      log.info("Total #iter : " + iter + ", #gradients : " + _numGradients + ",  final cost : " + cost);
+      printParameters();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package org.ltang.mlbox.optimizer.qn;
+
+import org.apache.log4j.Logger;
+import org.ltang.mlbox.optimizer.BatchGradientLoss;
+import org.ltang.mlbox.utils.VectorUtil;
+
+
+/**
+ * The trust region Newton method (TRON) of liblinear (Lin, Weng and Keerthi, 2008). The Newton
+ * direction is solved by the conjugate gradient within the trust region, where the Hessian is only
+ * accessed by the Hessian-vector products, and the region grows or shrinks by how well the
+ * quadratic model predicts the reduction of the cost.
+ *
+ * A trial point is one pass for both the cost and the gradient, so the accepted point needs no
+ * more pass. A rejected point is one more pass to restore the Hessian at the current point.
+ *
+ * @author Liang Tang
+ */
+public class TronOptimizer extends BatchGradientOptimizer {
+
+  private static final Logger log = Logger.getLogger(TronOptimizer.class);
+
+  // The ratios of the actual to the predicted reduction which accept the step and resize the region
+  final static double ETA0 = 1E-4;
+  final static double ETA1 = 0.25;
+  final static double ETA2 = 0.75;
+
+  // The factors which shrink or grow the region
+  final static double SIGMA1 = 0.25;
+  final static double SIGMA2 = 0.5;
+  final static double SIGMA3 = 4;
+
+  // The conjugate gradient stops when its residual is less than this ratio of the gradient norm
+  final static double CG_TOLERANCE = 0.1;
+
+  // The number of the conjugate gradient iterations so far
+  int _numCGIterations = 0;
+
+  public TronOptimizer(BatchGradientLoss loss) {
+    super(loss);
+  }
+
+  @Override
+  public void train() {
+    int n = _dimension+1;
+    final double[] grad = new double[n];
+    final double[] step = new double[n];
+    final double[] residual = new double[n];
+    final double[] newBeta = new double[n];
+    final double[] newGrad = new double[n];
+
+    double cost = getCostAndGradient(_beta, grad);
+    double initGradNorm = VectorUtil.norm2(grad);
+    double gradNorm = initGradNorm;
+    double delta = initGradNorm;
+    if (DEBUG >= 1) {
+      log.info("Initial cost: " + cost + ", initial gradient norm: " + initGradNorm);
+    }
+
+    int iter = 0;
+    while (iter < _max_iter && gradNorm > initGradNorm * _tolerance) {
+      int cgIter = trustRegionCG(delta, grad, step, residual);
+
+      for (int i = 0; i < n; i++) {
+        newBeta[i] = _beta[i] + step[i];
+      }
+      double gs = VectorUtil.innerProduct(grad, step);
+      double predictedReduction = -0.5 * (gs - VectorUtil.innerProduct(step, residual));
+      double newCost = getCostAndGradient(newBeta, newGrad);
+      double actualReduction = cost - newCost;
+
+      // Resize the trust region by the minimum of the quadratic interpolation along the step
+      double stepNorm = VectorUtil.norm2(step);
+      if (iter == 0) {
+        delta = Math.min(delta, stepNorm);
+      }
+      double alpha;
+      if (newCost - cost - gs <= 0) {
+        alpha = SIGMA3;
+      } else {
+        alpha = Math.max(SIGMA1, -0.5 * (gs / (newCost - cost - gs)));
+      }
+      if (actualReduction < ETA0 * predictedReduction) {
+        delta = Math.min(Math.max(alpha, SIGMA1) * stepNorm, SIGMA2 * delta);
+      } else if (actualReduction < ETA1 * predictedReduction) {
+        delta = Math.max(SIGMA1 * delta, Math.min(alpha * stepNorm, SIGMA2 * delta));
+      } else if (actualReduction < ETA2 * predictedReduction) {
+        delta = Math.max(SIGMA1 * delta, Math.min(alpha * stepNorm, SIGMA3 * delta));
+      } else {
+        delta = Math.max(delta, Math.min(alpha * stepNorm, SIGMA3 * delta));
+      }
+
+      if (DEBUG >= 2) {
+        log.info("iter : " + iter + ", actual reduction : " + actualReduction + ", predicted reduction : "
+            + predictedReduction + ", delta : " + delta + ", cost : " + cost + ", #gradnorm: " + gradNorm
+            + ", #CG : " + cgIter);
+      }
+
+      if (actualReduction > ETA0 * predictedReduction) {
+        iter++;
+        System.arraycopy(newBeta, 0, _beta, 0, n);
+        System.arraycopy(newGrad, 0, grad, 0, n);
+        cost = newCost;
+        gradNorm = VectorUtil.norm2(grad);
+      } else {
+        // The Hessian of the loss is at the rejected point
+        getCostAndGradient(_beta, grad);
+      }
+      if (actualReduction <= 0 && predictedReduction <= 0) {
+        if (DEBUG >= 1) {
+          log.info("iter : " + iter + ", the actual and predicted reductions are not positive");
+        }
+        break;
+      }
+      if (Math.abs(actualReduction) <= 1E-12 * Math.abs(cost)
+          && Math.abs(predictedReduction) <= 1E-12 * Math.abs(cost)) {
+        if (DEBUG >= 1) {
+          log.info("iter : " + iter + ", the reductions are too small");
+        }
+        break;
+      }
+    }
+
+    if (DEBUG >= 1) {
+      log.info("Total #iter : " + iter + ", #gradients : " + _numGradients + ", #Hessian-vector products : "
+          + _numHessianProducts + ",  final cost : " + cost);
+      printParameters();
+    }
+  }
+
+  /**
+   * Solve H * step = -grad by the conjugate gradient within the trust region ||step|| <= delta
+   * @param residual The output -grad - H * step
+   * @return The number of the conjugate gradient iterations
+   */
+  private int trustRegionCG(double delta, final double[] grad, final double[] step, final double[] residual) {
+    int n = grad.length;
+    final double[] direction = new double[n];
+    final double[] hd = new double[n];
+    for (int i = 0; i < n; i++) {
+      step[i] = 0;
+      residual[i] = -grad[i];
+      direction[i] = residual[i];
+    }
+    double cgTolerance = CG_TOLERANCE * VectorUtil.norm2(grad);
+    double rTr = VectorUtil.innerProduct(residual, residual);
+    int cgIter = 0;
+    // Each iteration is conjugate to the previous ones, so at most n iterations in exact arithmetic
+    while (cgIter < n && Math.sqrt(rTr) > cgTolerance) {
+      cgIter++;
+      getHessianVectorProduct(direction, hd);
+      double alpha = rTr / VectorUtil.innerProduct(direction, hd);
+      VectorUtil.addScaled(step, alpha, direction);
+      if (VectorUtil.norm2(step) > delta) {
+        // Go back, and stop at the boundary of the trust region along the direction
+        VectorUtil.addScaled(step, -alpha, direction);
+        double std = VectorUtil.innerProduct(step, direction);
+        double sts = VectorUtil.innerProduct(step, step);
+        double dtd = VectorUtil.innerProduct(direction, direction);
+        double dsq = delta * delta;
+        double rad = Math.sqrt(std * std + dtd * (dsq - sts));
+        if (std >= 0) {
+          alpha = (dsq - sts) / (std + rad);
+        } else {
+          alpha = (rad - std) / dtd;
+        }
+        VectorUtil.addScaled(step, alpha, direction);
+        VectorUtil.addScaled(residual, -alpha, hd);
+        break;
+      }
+      VectorUtil.addScaled(residual, -alpha, hd);
+      double newRTr = VectorUtil.innerProduct(residual, residual);
+      double beta = newRTr / rTr;
+      for (int i = 0; i < n; i++) {
+        direction[i] = residual[i] + beta * direction[i];
+      }
+      rTr = newRTr;
+    }
+    _numCGIterations += cgIter;
+    return cgIter;
+  }
+}
@@ -0,0 +1,362 @@
+package org.ltang.mlbox.optimizer.sgd;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.log4j.Logger;
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.utils.MathFunctions;
+import org.ltang.mlbox.utils.VectorUtil;
+
+
+/**
+ * The lock-free parallel stochastic gradient descent of Hogwild (Niu et al., 2011) for the
+ * logistic loss plus lambda/2 * ||beta - prior||^2, where the intercept has no regularization.
+ * The rows are split into one disjoint shard for each thread, and in each epoch every thread
+ * sweeps its shard in a random order and updates the shared coefficients without any lock. The
+ * rows of a sparse data set rarely share features, so the lost updates of the races are rare.
+ *
+ * With lazy L2, the step of a row only regularizes the dimensions of its features, each by
+ * lambda / (n * d_j), where d_j is the fraction of rows with dimension j, so the expected step is
+ * still the gradient of the objective / n, and a step touches only the nonzeros of its row.
+ * Otherwise, the step of a row regularizes all the dimensions, which is O(dimension) per row.
+ *
+ * The learning rate of epoch e is learningRate / (1 + learningRateDecay * e). The training stops
+ * when the loss of an epoch, which is summed from the predictions before the steps, decreases by
+ * less than the tolerance times its previous value, or after the maximum number of epochs.
+ *
+ * The coefficients are plain doubles, whose writes are atomic on 64-bit JVMs. The result is
+ * deterministic for one thread, but not for several threads.
+ *
+ * @author Liang Tang
+ */
+public class HogwildSGDOptimizer {
+
+  private static final Logger log = Logger.getLogger(HogwildSGDOptimizer.class);
+
+  // The number of consecutive epochs whose losses decrease by less than the tolerance to stop, as
+  // the loss summed during an epoch is noisy, and more so with the races of several threads
+  static final int NUM_STOP_EPOCHS = 3;
+
+  final CSRDataset _data;
+
+  final int _numInsts;
+
+  // The number of features plus 1 (intercept term)
+  final int _dimension;
+
+  final double[] _beta;
+
+  final double _lambda;
+
+  double[] _prior = null;
+
+  int _max_iter = 50;
+
+  // The relative decrease of the loss of an epoch to stop
+  double _tolerance = 1E-4;
+
+  double _learningRate = 0.1;
+
+  double _learningRateDecay = 0.1;
+
+  boolean _lazyL2 = true;
+
+  int _numThreads = 1;
+
+  ForkJoinPool _pool = null;
+
+  // If _pool was created by setNumThreads and is shut down by the optimizer
+  private boolean _ownsPool = false;
+
+  long _seed = 1;
+
+  int DEBUG = 0;
+
+  // The number of epochs run by train
+  int _numEpochs = 0;
+
+  // The L2 weight of a feature entry of dimension j in the lazy L2, lambda / (n * d_j)
+  double[] _lazyL2Weights = null;
+
+  public HogwildSGDOptimizer(final CSRDataset data, double lambda) {
+    if (lambda < 0) {
+      throw new IllegalArgumentException("The weight of the regularizer must not be negative: " + lambda);
+    }
+    for (int instIndex = 0; instIndex < data.getNumInstances(); instIndex++) {
+      if (!MathFunctions.almostEqual(data.labels[instIndex], 0f)
+          && !MathFunctions.almostEqual(data.labels[instIndex], 1f)) {
+        throw new IllegalArgumentException("The label of the " + instIndex + "th data can only be 0 or 1");
+      }
+    }
+    _data = data;
+    _numInsts = data.getNumInstances();
+    _dimension = data.getDimension();
+    _beta = new double[_dimension+1];
+    _lambda = lambda;
+  }
+
+  public void setDebug(int debug) {
+    DEBUG = debug;
+  }
+
+  /**
+   * Set the maximum number of epochs
+   */
+  public void setMaxNumIteration(int maxIter) {
+    _max_iter = maxIter;
+  }
+
+  public void setToleranceForStopCriterion(final double tol) {
+    _tolerance = tol;
+  }
+
+  public void setLearningRate(double learningRate, double learningRateDecay) {
+    if (learningRate <= 0 || learningRateDecay < 0) {
+      throw new IllegalArgumentException("Invalid learning rate: " + learningRate + ", decay: " + learningRateDecay);
+    }
+    _learningRate = learningRate;
+    _learningRateDecay = learningRateDecay;
+  }
+
+  /**
+   * Regularize only the dimensions of the features of a row in its step
+   */
+  public void setLazyL2(boolean lazyL2) {
+    _lazyL2 = lazyL2;
+  }
+
+  /**
+   * Regularize the coefficients towards the prior coefficients instead of zero
+   */
+  public void setPrior(final double[] priorBeta) {
+    if (priorBeta.length != _dimension+1) {
+      throw new IllegalArgumentException("The prior has " + priorBeta.length + " coefficients instead of "
+          + (_dimension+1));
+    }
+    _prior = priorBeta;
+    System.arraycopy(priorBeta, 0, _beta, 0, _dimension);
+  }
+
+  public void setNumThreads(int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + numThreads);
+    }
+    if (numThreads == _numThreads && (_ownsPool || numThreads == 1)) {
+      return;
+    }
+    shutdown();
+    _numThreads = numThreads;
+    _pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+    _ownsPool = _pool != null;
+  }
+
+  /**
+   * Run the shards on the threads of a pool shared with other work, e.g., the pool of the model,
+   * which is not shut down by the optimizer, or serially if the pool is null
+   */
+  public void setPool(final ForkJoinPool pool) {
+    shutdown();
+    _pool = pool;
+    _numThreads = pool != null ? pool.getParallelism() : 1;
+  }
+
+  /**
+   * Shut down the pool created by setNumThreads, after which the rows are trained serially
+   */
+  public void shutdown() {
+    if (_ownsPool) {
+      _pool.shutdown();
+    }
+    _pool = null;
+    _ownsPool = false;
+    _numThreads = 1;
+  }
+
+  /**
+   * Set the seed of the random orders of the rows
+   */
+  public void setSeed(long seed) {
+    _seed = seed;
+  }
+
+  public void train() {
+    if (_numInsts == 0) {
+      return;
+    }
+    if (_lazyL2) {
+      computeLazyL2Weights();
+    }
+    int numShards = Math.min(_numThreads, _numInsts);
+    final int[][] shards = new int[numShards][];
+    final Random[] randoms = new Random[numShards];
+    for (int shard = 0; shard < numShards; shard++) {
+      int from = (int) ((long) _numInsts * shard / numShards);
+      int to = (int) ((long) _numInsts * (shard + 1) / numShards);
+      shards[shard] = new int[to - from];
+      for (int i = 0; i < to - from; i++) {
+        shards[shard][i] = from + i;
+      }
+      randoms[shard] = new Random(_seed + shard);
+    }
+
+    double prevLoss = Double.POSITIVE_INFINITY;
+    int numSmallDecreases = 0;
+    for (_numEpochs = 0; _numEpochs < _max_iter; ) {
+      double learningRate = _learningRate / (1 + _learningRateDecay * _numEpochs);
+      ShardTask task = new ShardTask(shards, randoms, 0, numShards, learningRate);
+      double loss = _pool == null ? task.compute() : _pool.invoke(task);
+      _numEpochs++;
+      if (DEBUG >= 2) {
+        log.info("epoch : " + _numEpochs + ", learning rate : " + learningRate + ", loss : " + loss);
+      }
+      if (prevLoss - loss < _tolerance * prevLoss && loss <= prevLoss) {
+        if (++numSmallDecreases >= NUM_STOP_EPOCHS) {
+          break; // Converged
+        }
+      } else {
+        numSmallDecreases = 0;
+      }
+      prevLoss = loss;
+    }
+
+    if (DEBUG >= 1) {
+      log.info("Total #epochs : " + _numEpochs + ", final cost : " + cost());
+      printParameters();
+    }
+  }
+
+  /**
+   * lambda / (n * d_j), where d_j is the fraction of rows with dimension j
+   */
+  private void computeLazyL2Weights() {
+    int[] counts = new int[_dimension];
+    for (int entry = _data.rowOffsets[0]; entry < _data.rowOffsets[_numInsts]; entry++) {
+      counts[_data.dims[entry]]++;
+    }
+    _lazyL2Weights = new double[_dimension];
+    for (int dimIndex = 0; dimIndex < _dimension; dimIndex++) {
+      _lazyL2Weights[dimIndex] = counts[dimIndex] > 0 ? _lambda / counts[dimIndex] : 0;
+    }
+  }
+
+  /**
+   * Sweep a shard of rows in a random order
+   * @return The sum of the losses of the rows before their steps
+   */
+  private double sweep(final int[] rows, final Random random, double learningRate) {
+    final double[] beta = _beta;
+    final double[] prior = _prior;
+    final int[] rowOffsets = _data.rowOffsets;
+    final int[] dims = _data.dims;
+    final float[] vals = _data.vals;
+    final double l2Rate = learningRate * _lambda / _numInsts;
+    double sumLoss = 0;
+    for (int i = rows.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = rows[i];
+      rows[i] = rows[j];
+      rows[j] = tmp;
+    }
+    for (int k = 0; k < rows.length; k++) {
+      int instIndex = rows[k];
+      int from = rowOffsets[instIndex];
+      int to = rowOffsets[instIndex + 1];
+      double margin = beta[_dimension];
+      for (int entry = from; entry < to; entry++) {
+        margin += vals[entry] * beta[dims[entry]];
+      }
+      // The sigmoid and the log-loss by one exp
+      double label = _data.labels[instIndex];
+      double weight = _data.weights[instIndex];
+      double e = Math.exp(-Math.abs(margin));
+      double pred = margin >= 0 ? 1 / (1 + e) : e / (1 + e);
+      sumLoss += (Math.max(margin, 0) + Math.log1p(e) - label * margin) * weight;
+      double residual = (pred - label) * weight;
+
+      if (_lazyL2) {
+        for (int entry = from; entry < to; entry++) {
+          int dimIndex = dims[entry];
+          double diff = prior == null ? beta[dimIndex] : beta[dimIndex] - prior[dimIndex];
+          double shrink = Math.min(learningRate * _lazyL2Weights[dimIndex], 1);
+          beta[dimIndex] -= learningRate * residual * vals[entry] + shrink * diff;
+        }
+      } else {
+        for (int dimIndex = 0; dimIndex < _dimension; dimIndex++) {
+          double diff = prior == null ? beta[dimIndex] : beta[dimIndex] - prior[dimIndex];
+          beta[dimIndex] -= l2Rate * diff;
+        }
+        for (int entry = from; entry < to; entry++) {
+          beta[dims[entry]] -= learningRate * residual * vals[entry];
+        }
+      }
+      beta[_dimension] -= learningRate * residual;
+    }
+    return sumLoss;
+  }
+
+  /**
+   * Sweeps the shards [from, to) at the same time
+   */
+  private final class ShardTask extends RecursiveTask<Double> {
+
+    private static final long serialVersionUID = 1L;
+
+    final int[][] _shards;
+    final Random[] _randoms;
+    final int _from;
+    final int _to;
+    final double _learningRate;
+
+    ShardTask(final int[][] shards, final Random[] randoms, int from, int to, double learningRate) {
+      _shards = shards;
+      _randoms = randoms;
+      _from = from;
+      _to = to;
+      _learningRate = learningRate;
+    }
+
+    @Override
+    protected Double compute() {
+      if (_to - _from == 1) {
+        return sweep(_shards[_from], _randoms[_from], _learningRate);
+      }
+      int mid = (_from + _to) >>> 1;
+      ShardTask right = new ShardTask(_shards, _randoms, mid, _to, _learningRate);
+      right.fork();
+      double left = new ShardTask(_shards, _randoms, _from, mid, _learningRate).compute();
+      return left + right.join();
+    }
+  }
+
+  /**
+   * @return The logistic loss plus the regularizer at the current coefficients
+   */
+  public double cost() {
+    double cost = 0;
+    for (int instIndex = 0; instIndex < _numInsts; instIndex++) {
+      double margin = _data.innerProduct(instIndex, _beta) + _beta[_dimension];
+      double e = Math.exp(-Math.abs(margin));
+      cost += (Math.max(margin, 0) + Math.log1p(e) - _data.labels[instIndex] * margin) * _data.weights[instIndex];
+    }
+    double reg = 0;
+    for (int dimIndex = 0; dimIndex < _dimension; dimIndex++) {
+      double diff = _prior == null ? _beta[dimIndex] : _beta[dimIndex] - _prior[dimIndex];
+      reg += diff * diff;
+    }
+    return cost + _lambda * reg / 2;
+  }
+
+  public int getNumEpochs() {
+    return _numEpochs;
+  }
+
+  public double[] getCofficients() {
+    return _beta;
+  }
+
+  public void printParameters() {
+    log.info(VectorUtil.toString(_beta));
+  }
+}
@@ -0,0 +1,357 @@
+package org.ltang.mlbox.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.SparseVector;
+
+
+/**
+ * Batched sparse matrix - dense vector products (SpMV), i.e., the inner products between a block
+ * of sparse rows and the coefficients. The intercept and the sigmoid are fused into the same pass,
+ * and the rows are split across a fork-join pool if there is more than one thread.
+ *
+ * The sigmoid is either exact or the approximation of FastMath.
+ *
+ * The rows are either the rows of a CSR block or an array of sparse vectors. The inner product of
+ * every row is summed in the order of its entries, so the results do not depend on the number of
+ * threads and are identical to SparseVector.innerProduct(double[]).
+ *
+ * The transposed products, e.g., the gradients of all the coefficients, are summed over
+ * contiguous ranges of rows into their own copies of the output, which are then summed in the
+ * order of the ranges. Unlike the scores, they depend on the number of threads by the rounding.
+ * They reuse the copies, so a scorer computes one transposed product at a time. If the output is
+ * longer than the entries of the block, e.g., a hashed feature space, clearing and summing the
+ * copies costs more than the product itself, so the block is summed serially.
+ *
+ * @author Liang Tang
+ */
+public final class BatchScorer {
+
+  // A task of CSR rows is not split further if it has fewer entries than this
+  static final int MIN_TASK_ENTRIES = 1 << 14;
+
+  // A task of sparse vectors is not split further if it has fewer rows than this
+  static final int MIN_TASK_ROWS = 256;
+
+  private int _numThreads;
+
+  // The pool for the parallel scoring, or null if there is only one thread
+  ForkJoinPool _pool;
+
+  // If _pool was created by the constructor of the number of threads and is shut down by the scorer
+  private boolean _ownsPool = false;
+
+  // If the sigmoid is the approximation of FastMath
+  private boolean _fastMath = false;
+
+  // The copies of the output of the ranges of rows of the transposed products
+  private double[][] _partialSums = null;
+
+  /**
+   * @param numThreads The number of threads to score the rows, 1 to score them in the caller thread.
+   * The pool of more than one thread is released by shutdown().
+   */
+  public BatchScorer(int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + numThreads);
+    }
+    _numThreads = numThreads;
+    _pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+    _ownsPool = _pool != null;
+  }
+
+  /**
+   * @param pool The pool to score the rows, which can be shared with other work and is not shut
+   * down by the scorer
+   */
+  public BatchScorer(final ForkJoinPool pool) {
+    _numThreads = pool.getParallelism();
+    _pool = pool;
+  }
+
+  /**
+   * Shut down the pool created by the constructor of the number of threads, after which the rows
+   * are scored in the caller thread
+   */
+  public void shutdown() {
+    if (_ownsPool) {
+      _pool.shutdown();
+    }
+    _pool = null;
+    _ownsPool = false;
+    _numThreads = 1;
+  }
+
+  public int getNumThreads() {
+    return _numThreads;
+  }
+
+  /**
+   * Use the approximated sigmoid of FastMath instead of Math.exp
+   */
+  public void setFastMath(boolean fastMath) {
+    _fastMath = fastMath;
+  }
+
+  private static double sigmoid(double v, boolean fastMath) {
+    return fastMath ? FastMath.sigmoid(v) : MathFunctions.sigmoid(v);
+  }
+
+  /**
+   * out[outOffset+i] = beta * row_i + intercept, or its sigmoid, for all the rows of the block
+   */
+  public void score(final CSRDataset block, final double[] beta, double intercept, boolean sigmoid,
+      final double[] out, int outOffset) {
+    int numRows = block.getNumInstances();
+    checkOutput(out, outOffset, numRows);
+    if (_pool == null || block.getNumEntries() < 2 * MIN_TASK_ENTRIES) {
+      scoreRows(block.rowOffsets, block.dims, block.vals, 0, numRows, beta, intercept, sigmoid, _fastMath, out,
+          outOffset);
+    } else {
+      _pool.invoke(new CSRTask(block, 0, numRows, beta, intercept, sigmoid, _fastMath, out, outOffset));
+    }
+  }
+
+  /**
+   * out[outOffset+i-from] = beta * rows[i] + intercept, or its sigmoid, for the rows [from, to)
+   */
+  public void score(final SparseVector[] rows, int from, int to, final double[] beta, double intercept,
+      boolean sigmoid, final double[] out, int outOffset) {
+    checkOutput(out, outOffset, to - from);
+    if (_pool == null || to - from < 2 * MIN_TASK_ROWS) {
+      scoreRows(rows, from, to, beta, intercept, sigmoid, _fastMath, out, outOffset - from);
+    } else {
+      _pool.invoke(new VectorTask(rows, from, to, beta, intercept, sigmoid, _fastMath, out, outOffset - from));
+    }
+  }
+
+  /**
+   * out[dim] += sum_i rowValues[rowOffset+i] * row_i[dim] over all the rows of the block, i.e., the
+   * transposed block times the row values
+   * @return The sum of the row values, which is the product of the intercept column
+   */
+  public double multiplyTransposed(final CSRDataset block, final double[] rowValues, int rowOffset,
+      final double[] out) {
+    int numRows = block.getNumInstances();
+    checkOutput(rowValues, rowOffset, numRows);
+    final int[] rowOffsets = block.rowOffsets;
+    int numEntries = rowOffsets[numRows] - rowOffsets[0];
+    int numRanges = _pool == null || out.length > numEntries ? 1
+        : Math.min(_numThreads, numEntries / MIN_TASK_ENTRIES);
+    if (numRanges <= 1) {
+      return multiplyTransposed(rowOffsets, block.dims, block.vals, 0, numRows, rowValues, rowOffset, out);
+    }
+    if (_partialSums == null || _partialSums.length != numRanges || _partialSums[0].length != out.length) {
+      _partialSums = new double[numRanges][out.length];
+    }
+    // The ranges of rows with about the same number of entries
+    final int[] rowBounds = new int[numRanges + 1];
+    int row = 0;
+    for (int range = 1; range < numRanges; range++) {
+      long entryBound = rowOffsets[0] + (long) numEntries * range / numRanges;
+      while (rowOffsets[row] < entryBound) {
+        row++;
+      }
+      rowBounds[range] = row;
+    }
+    rowBounds[numRanges] = numRows;
+    final double[] rangeIntercepts = new double[numRanges];
+    _pool.invoke(new TransposedTask(block, rowBounds, 0, numRanges, rowValues, rowOffset, _partialSums,
+        rangeIntercepts));
+    double intercept = 0;
+    for (int range = 0; range < numRanges; range++) {
+      final double[] partialSum = _partialSums[range];
+      for (int dim = 0; dim < out.length; dim++) {
+        out[dim] += partialSum[dim];
+      }
+      intercept += rangeIntercepts[range];
+    }
+    return intercept;
+  }
+
+  private static void checkOutput(final double[] out, int outOffset, int numRows) {
+    if (outOffset < 0 || out.length - outOffset < numRows) {
+      throw new IllegalArgumentException("The output array is shorter than the number of rows");
+    }
+  }
+
+  // The kernel of the CSR rows [rowFrom, rowTo)
+  static void scoreRows(final int[] rowOffsets, final int[] dims, final float[] vals, int rowFrom, int rowTo,
+      final double[] beta, double intercept, boolean sigmoid, boolean fastMath, final double[] out, int outOffset) {
+    int start = rowOffsets[rowFrom];
+    for (int i = rowFrom; i < rowTo; i++) {
+      int end = rowOffsets[i + 1];
+      double sum = 0;
+      for (int j = start; j < end; j++) {
+        sum += vals[j] * beta[dims[j]];
+      }
+      sum += intercept;
+      out[outOffset + i] = sigmoid ? sigmoid(sum, fastMath) : sum;
+      start = end;
+    }
+  }
+
+  // The kernel of the sparse vectors rows[from, to), where the output of rows[i] is out[outBase+i]
+  static void scoreRows(final SparseVector[] rows, int from, int to, final double[] beta, double intercept,
+      boolean sigmoid, boolean fastMath, final double[] out, int outBase) {
+    for (int i = from; i < to; i++) {
+      final int[] dims = rows[i].dims;
+      final float[] vals = rows[i].vals;
+      double sum = 0;
+      for (int j = 0; j < dims.length; j++) {
+        sum += vals[j] * beta[dims[j]];
+      }
+      sum += intercept;
+      out[outBase + i] = sigmoid ? sigmoid(sum, fastMath) : sum;
+    }
+  }
+
+  // The kernel of the transposed product of the CSR rows [rowFrom, rowTo)
+  static double multiplyTransposed(final int[] rowOffsets, final int[] dims, final float[] vals, int rowFrom,
+      int rowTo, final double[] rowValues, int rowOffset, final double[] out) {
+    double intercept = 0;
+    int start = rowOffsets[rowFrom];
+    for (int i = rowFrom; i < rowTo; i++) {
+      int end = rowOffsets[i + 1];
+      double rowValue = rowValues[rowOffset + i];
+      if (rowValue != 0) {
+        for (int j = start; j < end; j++) {
+          out[dims[j]] += rowValue * vals[j];
+        }
+      }
+      intercept += rowValue;
+      start = end;
+    }
+    return intercept;
+  }
+
+  /**
+   * Sums the ranges [rangeFrom, rangeTo) of rows of a transposed product into their own copies of
+   * the output, which are cleared first
+   */
+  private static final class TransposedTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    final CSRDataset _block;
+    final int[] _rowBounds;
+    final int _rangeFrom;
+    final int _rangeTo;
+    final double[] _rowValues;
+    final int _rowOffset;
+    final double[][] _partialSums;
+    final double[] _rangeIntercepts;
+
+    TransposedTask(final CSRDataset block, final int[] rowBounds, int rangeFrom, int rangeTo,
+        final double[] rowValues, int rowOffset, final double[][] partialSums, final double[] rangeIntercepts) {
+      _block = block;
+      _rowBounds = rowBounds;
+      _rangeFrom = rangeFrom;
+      _rangeTo = rangeTo;
+      _rowValues = rowValues;
+      _rowOffset = rowOffset;
+      _partialSums = partialSums;
+      _rangeIntercepts = rangeIntercepts;
+    }
+
+    @Override
+    protected void compute() {
+      if (_rangeTo - _rangeFrom > 1) {
+        int mid = (_rangeFrom + _rangeTo) >>> 1;
+        invokeAll(new TransposedTask(_block, _rowBounds, _rangeFrom, mid, _rowValues, _rowOffset, _partialSums,
+            _rangeIntercepts),
+            new TransposedTask(_block, _rowBounds, mid, _rangeTo, _rowValues, _rowOffset, _partialSums,
+                _rangeIntercepts));
+        return;
+      }
+      final double[] partialSum = _partialSums[_rangeFrom];
+      Arrays.fill(partialSum, 0);
+      _rangeIntercepts[_rangeFrom] = multiplyTransposed(_block.rowOffsets, _block.dims, _block.vals,
+          _rowBounds[_rangeFrom], _rowBounds[_rangeFrom + 1], _rowValues, _rowOffset, partialSum);
+    }
+  }
+
+  private static final class CSRTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    final CSRDataset _block;
+    final int _rowFrom;
+    final int _rowTo;
+    final double[] _beta;
+    final double _intercept;
+    final boolean _sigmoid;
+    final boolean _fastMath;
+    final double[] _out;
+    final int _outOffset;
+
+    CSRTask(final CSRDataset block, int rowFrom, int rowTo, final double[] beta, double intercept, boolean sigmoid,
+        boolean fastMath, final double[] out, int outOffset) {
+      _block = block;
+      _rowFrom = rowFrom;
+      _rowTo = rowTo;
+      _beta = beta;
+      _intercept = intercept;
+      _sigmoid = sigmoid;
+      _fastMath = fastMath;
+      _out = out;
+      _outOffset = outOffset;
+    }
+
+    @Override
+    protected void compute() {
+      final int[] rowOffsets = _block.rowOffsets;
+      int numEntries = rowOffsets[_rowTo] - rowOffsets[_rowFrom];
+      if (numEntries < 2 * MIN_TASK_ENTRIES || _rowTo - _rowFrom < 2) {
+        scoreRows(rowOffsets, _block.dims, _block.vals, _rowFrom, _rowTo, _beta, _intercept, _sigmoid, _fastMath,
+            _out, _outOffset);
+        return;
+      }
+      int mid = (_rowFrom + _rowTo) >>> 1;
+      invokeAll(new CSRTask(_block, _rowFrom, mid, _beta, _intercept, _sigmoid, _fastMath, _out, _outOffset),
+          new CSRTask(_block, mid, _rowTo, _beta, _intercept, _sigmoid, _fastMath, _out, _outOffset));
+    }
+  }
+
+  private static final class VectorTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    final SparseVector[] _rows;
+    final int _from;
+    final int _to;
+    final double[] _beta;
+    final double _intercept;
+    final boolean _sigmoid;
+    final boolean _fastMath;
+    final double[] _out;
+    final int _outBase;
+
+    VectorTask(final SparseVector[] rows, int from, int to, final double[] beta, double intercept, boolean sigmoid,
+        boolean fastMath, final double[] out, int outBase) {
+      _rows = rows;
+      _from = from;
+      _to = to;
+      _beta = beta;
+      _intercept = intercept;
+      _sigmoid = sigmoid;
+      _fastMath = fastMath;
+      _out = out;
+      _outBase = outBase;
+    }
+
+    @Override
+    protected void compute() {
+      if (_to - _from < 2 * MIN_TASK_ROWS) {
+        scoreRows(_rows, _from, _to, _beta, _intercept, _sigmoid, _fastMath, _out, _outBase);
+        return;
+      }
+      int mid = (_from + _to) >>> 1;
+      invokeAll(new VectorTask(_rows, _from, mid, _beta, _intercept, _sigmoid, _fastMath, _out, _outBase),
+          new VectorTask(_rows, mid, _to, _beta, _intercept, _sigmoid, _fastMath, _out, _outBase));
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package org.ltang.mlbox.utils;
+
+
+/**
+ * Table-driven approximations of the sigmoid and the softplus log(1 + exp(v)), which replace the
+ * calls of Math.exp and Math.log in training and scoring. Both functions are tabulated on
+ * [-RANGE, RANGE] with STEPS_PER_UNIT steps per unit, and linearly interpolated between the steps.
+ *
+ * The absolute error of sigmoid is at most SIGMOID_MAX_ERROR, which is the interpolation error
+ * h^2/8 * max|sigmoid''| plus the rounding, and 1/(1+exp(RANGE)) outside the table. The absolute
+ * error of softplus is at most SOFTPLUS_MAX_ERROR, since max|softplus''| = 1/4, so the log-loss of
+ * an instance, softplus(-margin) or softplus(margin), has the same error bound.
+ *
+ * @author Liang Tang
+ */
+public final class FastMath {
+
+  static final int RANGE = 16;
+
+  static final int STEPS_PER_UNIT = 128;
+
+  public static final double SIGMOID_MAX_ERROR = 1E-6;
+
+  public static final double SOFTPLUS_MAX_ERROR = 2E-6;
+
+  private static final double[] SIGMOID_TABLE = new double[2 * RANGE * STEPS_PER_UNIT + 1];
+
+  private static final double[] SOFTPLUS_TABLE = new double[2 * RANGE * STEPS_PER_UNIT + 1];
+
+  static {
+    for (int i = 0; i < SIGMOID_TABLE.length; i++) {
+      double v = (double) i / STEPS_PER_UNIT - RANGE;
+      SIGMOID_TABLE[i] = MathFunctions.sigmoid(v);
+      // log(1 + exp(v)) = max(v, 0) + log(1 + exp(-|v|)) without overflow
+      SOFTPLUS_TABLE[i] = Math.max(v, 0) + Math.log1p(Math.exp(-Math.abs(v)));
+    }
+  }
+
+  public static double sigmoid(double v) {
+    double x = (v + RANGE) * STEPS_PER_UNIT;
+    if (x <= 0) {
+      return SIGMOID_TABLE[0];
+    }
+    if (x >= SIGMOID_TABLE.length - 1) {
+      return SIGMOID_TABLE[SIGMOID_TABLE.length - 1];
+    }
+    int i = (int) x;
+    double low = SIGMOID_TABLE[i];
+    return low + (x - i) * (SIGMOID_TABLE[i + 1] - low);
+  }
+
+  /**
+   * @return log(1 + exp(v)), which is the log-loss -log(sigmoid(-v))
+   */
+  public static double softplus(double v) {
+    double x = (v + RANGE) * STEPS_PER_UNIT;
+    if (x <= 0) {
+      return 0;
+    }
+    if (x >= SOFTPLUS_TABLE.length - 1) {
+      return v;
+    }
+    int i = (int) x;
+    double low = SOFTPLUS_TABLE[i];
+    return low + (x - i) * (SOFTPLUS_TABLE[i + 1] - low);
+  }
+}
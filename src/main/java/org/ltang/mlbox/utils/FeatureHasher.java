@@ -0,0 +1,166 @@
+package org.ltang.mlbox.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.ltang.mlbox.data.SparseVector;
+
+
+/**
+ * The hashing trick: raw feature indices or feature names are hashed into a space of 2^numBits
+ * dimensions, so the parameter vector stays bounded however many raw features there are.
+ * With signed hashing, the sign of a feature value is also decided by the hash, so that the
+ * collisions cancel out in expectation instead of biasing the inner products.
+ *
+ * The hash is the 32-bit MurmurHash3. The low numBits bits give the dimension index, and the
+ * highest bit gives the sign.
+ *
+ * @author Liang Tang
+ */
+public final class FeatureHasher {
+
+  public static final int MAX_NUM_BITS = 30;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int SEED = 0x3c074a61;
+
+  private final int _numBits;
+
+  private final int _mask;
+
+  private final boolean _signed;
+
+  public FeatureHasher(int numBits) {
+    this(numBits, false);
+  }
+
+  public FeatureHasher(int numBits, boolean signed) {
+    if (numBits < 1 || numBits > MAX_NUM_BITS) {
+      throw new IllegalArgumentException("The number of hash bits must be in [1, " + MAX_NUM_BITS + "]: " + numBits);
+    }
+    _numBits = numBits;
+    _mask = (1 << numBits) - 1;
+    _signed = signed;
+  }
+
+  public int getNumBits() {
+    return _numBits;
+  }
+
+  public boolean isSigned() {
+    return _signed;
+  }
+
+  /**
+   * @return The dimension of the hashed feature space, i.e., 2^numBits
+   */
+  public int getDimension() {
+    return 1 << _numBits;
+  }
+
+  public int getIndex(int rawIndex) {
+    return indexOf(hash(rawIndex));
+  }
+
+  public float getSign(int rawIndex) {
+    return signOf(hash(rawIndex));
+  }
+
+  public int getIndex(String name) {
+    return indexOf(hash(name));
+  }
+
+  public float getSign(String name) {
+    return signOf(hash(name));
+  }
+
+  /**
+   * Hash a vector of named features. The values of the colliding features are summed up.
+   */
+  public SparseVector transform(final String[] names, final float[] values) {
+    if (names.length != values.length) {
+      throw new IllegalArgumentException("The numbers of names and values are not identical!");
+    }
+    int[] dims = new int[names.length];
+    float[] vals = new float[names.length];
+    for (int i = 0; i < names.length; i++) {
+      int h = hash(names[i]);
+      dims[i] = indexOf(h);
+      vals[i] = signOf(h) * values[i];
+    }
+    SortUtil.sort(dims, vals, 0, dims.length);
+    int len = SortUtil.mergeDuplicates(dims, vals, 0, dims.length);
+    return new SparseVector(Arrays.copyOf(dims, len), Arrays.copyOf(vals, len));
+  }
+
+  int indexOf(int hash) {
+    return hash & _mask;
+  }
+
+  float signOf(int hash) {
+    return !_signed || hash >= 0 ? 1f : -1f;
+  }
+
+  int hash(String name) {
+    byte[] bytes = name.getBytes(UTF8);
+    return hash(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+
+  /**
+   * MurmurHash3 of a single int
+   */
+  static int hash(int value) {
+    int h = mixH1(SEED, mixK1(value));
+    return fmix(h ^ 4);
+  }
+
+  /**
+   * MurmurHash3 of the bytes buf[from, to)
+   */
+  static int hash(ByteBuffer buf, int from, int to) {
+    int h = SEED;
+    int pos = from;
+    for (; pos + 4 <= to; pos += 4) {
+      int k = (buf.get(pos) & 0xff) | ((buf.get(pos + 1) & 0xff) << 8)
+          | ((buf.get(pos + 2) & 0xff) << 16) | ((buf.get(pos + 3) & 0xff) << 24);
+      h = mixH1(h, mixK1(k));
+    }
+    // The 1 to 3 tail bytes
+    int tail = to - pos;
+    if (tail > 0) {
+      int k = buf.get(pos) & 0xff;
+      if (tail >= 2) {
+        k ^= (buf.get(pos + 1) & 0xff) << 8;
+      }
+      if (tail >= 3) {
+        k ^= (buf.get(pos + 2) & 0xff) << 16;
+      }
+      h ^= mixK1(k);
+    }
+    return fmix(h ^ (to - from));
+  }
+
+  private static int mixK1(int k) {
+    k *= 0xcc9e2d51;
+    k = Integer.rotateLeft(k, 15);
+    k *= 0x1b873593;
+    return k;
+  }
+
+  private static int mixH1(int h, int k) {
+    h ^= k;
+    h = Integer.rotateLeft(h, 13);
+    return h * 5 + 0xe6546b64;
+  }
+
+  private static int fmix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
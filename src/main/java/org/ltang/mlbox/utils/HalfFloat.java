@@ -0,0 +1,65 @@
+package org.ltang.mlbox.utils;
+
+
+/**
+ * Conversions between float and the IEEE 754 half precision (float16) format, which keeps 11
+ * significant bits and the range [6.0E-8, 65504]. The conversion from float rounds to the nearest
+ * half, ties to even, like the hardware conversions.
+ *
+ * @author Liang Tang
+ */
+public final class HalfFloat {
+
+  // 2^-24, the value of the least significant bit of the subnormal halves
+  private static final float SUBNORMAL_UNIT = 5.9604645E-8f;
+
+  public static short fromFloat(float value) {
+    int bits = Float.floatToRawIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int exp = (bits >>> 23) & 0xff;
+    int mant = bits & 0x7fffff;
+    if (exp == 0xff) {
+      // Infinity, or NaN which keeps a non-zero mantissa
+      return (short) (sign | 0x7c00 | (mant != 0 ? 0x200 | (mant >>> 13) : 0));
+    }
+    int halfExp = exp - 127 + 15;
+    if (halfExp >= 0x1f) {
+      return (short) (sign | 0x7c00);
+    }
+    if (halfExp <= 0) {
+      if (halfExp < -10) {
+        return (short) sign;
+      }
+      // A subnormal half, whose mantissa is the float value in the units of 2^-24
+      return (short) (sign | roundShift(mant | 0x800000, 14 - halfExp));
+    }
+    // A carry of the rounding goes into the exponent, which is also correct for the overflow
+    return (short) (sign | roundShift((halfExp << 23) | mant, 13));
+  }
+
+  // value >>> shift, rounded to the nearest, ties to even
+  private static int roundShift(int value, int shift) {
+    int ret = value >>> shift;
+    int rem = value & ((1 << shift) - 1);
+    int mid = 1 << (shift - 1);
+    if (rem > mid || (rem == mid && (ret & 1) != 0)) {
+      ret++;
+    }
+    return ret;
+  }
+
+  public static float toFloat(short half) {
+    int bits = half & 0xffff;
+    int sign = (bits & 0x8000) << 16;
+    int exp = (bits >>> 10) & 0x1f;
+    int mant = bits & 0x3ff;
+    if (exp == 0x1f) {
+      return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+    }
+    if (exp == 0) {
+      float value = mant * SUBNORMAL_UNIT;
+      return sign != 0 ? -value : value;
+    }
+    return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+  }
+}
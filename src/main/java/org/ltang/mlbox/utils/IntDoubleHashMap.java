@@ -0,0 +1,160 @@
+package org.ltang.mlbox.utils;
+
+import java.util.Arrays;
+
+
+/**
+ * An open-addressing hash map from int keys to a fixed number of double values per key, which
+ * stores neither boxed keys nor entry objects. The values of a key are at
+ * getValues()[entry * numValues, (entry + 1) * numValues), where the entries are numbered in the
+ * order of insertion and never move, so the values of all the keys are dense in one array.
+ *
+ * The table is probed linearly, and each slot is one long of the key and the entry, so a probe
+ * reads one cache line. The table doubles when it is half full. Keys cannot be removed.
+ *
+ * @author Liang Tang
+ */
+public final class IntDoubleHashMap {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private final int _numValues;
+
+  // The key in the high 32 bits and entry+1 in the low 32 bits, or 0 for an empty slot
+  private long[] _table;
+
+  private int _mask;
+
+  // The key of each entry
+  private int[] _keys;
+
+  private double[] _values;
+
+  private int _size = 0;
+
+  public IntDoubleHashMap(int numValues) {
+    this(numValues, MIN_CAPACITY);
+  }
+
+  /**
+   * @param numValues The number of values of each key
+   * @param expectedSize The number of keys which fit without growing
+   */
+  public IntDoubleHashMap(int numValues, int expectedSize) {
+    if (numValues < 1) {
+      throw new IllegalArgumentException("The number of values per key must be positive: " + numValues);
+    }
+    if (expectedSize < 0 || expectedSize > (1 << 29)) {
+      throw new IllegalArgumentException("Invalid expected size: " + expectedSize);
+    }
+    _numValues = numValues;
+    int capacity = MIN_CAPACITY;
+    while (capacity < 2 * expectedSize) {
+      capacity <<= 1;
+    }
+    _table = new long[capacity];
+    _mask = capacity - 1;
+    _keys = new int[capacity / 2];
+    _values = new double[capacity / 2 * numValues];
+  }
+
+  public int size() {
+    return _size;
+  }
+
+  public int getNumValues() {
+    return _numValues;
+  }
+
+  /**
+   * @return The values of all the entries. The array is replaced when the map grows, so it is only
+   * valid until the next call of insert
+   */
+  public double[] getValues() {
+    return _values;
+  }
+
+  /**
+   * @return The key of the entry, which is in [0, size())
+   */
+  public int getKey(int entry) {
+    return _keys[entry];
+  }
+
+  /**
+   * @return The entry of the key, or -1 if the key is absent
+   */
+  public int indexOf(int key) {
+    int slot = hash(key) & _mask;
+    while (true) {
+      long item = _table[slot];
+      if (item == 0) {
+        return -1;
+      }
+      if ((int) (item >>> 32) == key) {
+        return (int) item - 1;
+      }
+      slot = (slot + 1) & _mask;
+    }
+  }
+
+  /**
+   * @return The entry of the key, where a new key is inserted with the values of zero
+   */
+  public int insert(int key) {
+    int slot = hash(key) & _mask;
+    while (true) {
+      long item = _table[slot];
+      if (item == 0) {
+        break;
+      }
+      if ((int) (item >>> 32) == key) {
+        return (int) item - 1;
+      }
+      slot = (slot + 1) & _mask;
+    }
+    int entry = _size;
+    if (entry == _keys.length) {
+      grow();
+      slot = hash(key) & _mask;
+      while (_table[slot] != 0) {
+        slot = (slot + 1) & _mask;
+      }
+    }
+    _table[slot] = ((long) key << 32) | (entry + 1);
+    _keys[entry] = key;
+    _size++;
+    return entry;
+  }
+
+  /**
+   * Double the table and reinsert the keys. The entries and their values do not move.
+   */
+  private void grow() {
+    int capacity = _table.length * 2;
+    if (capacity > (1 << 30)) {
+      throw new IllegalStateException("The hash map is full with " + _size + " keys");
+    }
+    long[] table = new long[capacity];
+    int mask = capacity - 1;
+    for (int entry = 0; entry < _size; entry++) {
+      int slot = hash(_keys[entry]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = ((long) _keys[entry] << 32) | (entry + 1);
+    }
+    _table = table;
+    _mask = mask;
+    _keys = Arrays.copyOf(_keys, capacity / 2);
+    _values = Arrays.copyOf(_values, capacity / 2 * _numValues);
+  }
+
+  /**
+   * Spread the bits of the key, since the feature indices are often consecutive
+   */
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
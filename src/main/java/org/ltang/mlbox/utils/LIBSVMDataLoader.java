@@ -5,23 +5,260 @@ import java.io.BufferedReader;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.ltang.mlbox.data.BinaryDatasetWriter;
+import org.ltang.mlbox.data.CSRDataset;
 import org.ltang.mlbox.data.SparseVector;
 
 
 public class LIBSVMDataLoader {
 
+  /**
+   * The way of reading the data file
+   */
+  public enum LoadMode {
+    // Read the file twice line by line, tokenizing each line with String.split
+    READER,
+    // Memory-map the file and parse it from bytes in a single pass
+    MEMORY_MAPPED,
+    // Split the file into chunks of lines and parse them from bytes on several threads
+    PARALLEL
+  }
+
+  // The number of chunks per thread in the parallel mode, for balancing the workload
+  private static final int NUM_CHUNKS_PER_THREAD = 4;
+
   private Instance[] _instances = null;
 
   private int _dimension = -1;
 
+  // Hash the feature indices or names into a bounded space if it is not null
+  private FeatureHasher _hasher = null;
+
   public LIBSVMDataLoader(String fileName, int dimension) {
     this(fileName, dimension, Integer.MAX_VALUE);
   }
 
   public LIBSVMDataLoader(String fileName, int dimension, int maxNumInstances) {
+    this(fileName, dimension, maxNumInstances, LoadMode.READER);
+  }
+
+  public LIBSVMDataLoader(String fileName, int dimension, int maxNumInstances, LoadMode mode) {
+    this(fileName, dimension, maxNumInstances, mode, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param numThreads The number of threads for the parallel mode
+   */
+  public LIBSVMDataLoader(String fileName, int dimension, int maxNumInstances, LoadMode mode, int numThreads) {
+    this(fileName, dimension, null, maxNumInstances, mode, numThreads);
+  }
+
+  /**
+   * Load the data with the hashing trick. The feature indices, or feature names which are not
+   * numbers, are hashed into the space of the hasher, which is the dimension of the data.
+   */
+  public LIBSVMDataLoader(String fileName, FeatureHasher hasher) {
+    this(fileName, hasher, Integer.MAX_VALUE, LoadMode.MEMORY_MAPPED);
+  }
+
+  /**
+   * Load the data with the hashing trick. The hashing is done by the byte-level parser,
+   * so the READER mode is loaded as MEMORY_MAPPED.
+   */
+  public LIBSVMDataLoader(String fileName, FeatureHasher hasher, int maxNumInstances, LoadMode mode) {
+    this(fileName, hasher.getDimension(), hasher, maxNumInstances, mode == LoadMode.READER ? LoadMode.MEMORY_MAPPED
+        : mode, Runtime.getRuntime().availableProcessors());
+  }
+
+  private LIBSVMDataLoader(String fileName, int dimension, FeatureHasher hasher, int maxNumInstances, LoadMode mode,
+      int numThreads) {
+    this._dimension = dimension;
+    this._hasher = hasher;
+    if (mode == LoadMode.PARALLEL) {
+      loadParallel(fileName, maxNumInstances, numThreads);
+    } else if (mode == LoadMode.MEMORY_MAPPED) {
+      loadMapped(fileName, maxNumInstances);
+    } else {
+      loadByReader(fileName, maxNumInstances);
+    }
+  }
+
+  private void loadMapped(String fileName, int maxNumInstances) {
+    try {
+      LIBSVMParser parser = new LIBSVMParser(maxNumInstances, _hasher);
+      parser.parseFile(fileName);
+      if (this._dimension == -1) {
+        this._dimension = parser._maxUsedDimension;
+      }
+      _instances = parser.toInstances();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void loadParallel(final String fileName, final int maxNumInstances, final int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive: " + numThreads);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      RandomAccessFile file = new RandomAccessFile(fileName, "r");
+      final long[] boundaries;
+      try {
+        boundaries = LIBSVMParser.splitIntoChunks(file.getChannel(), numThreads * NUM_CHUNKS_PER_THREAD);
+      } finally {
+        file.close();
+      }
+
+      // Parse each chunk on its own worker
+      final int numChunks = boundaries.length - 1;
+      List<Future<LIBSVMParser>> parsedChunks = new ArrayList<Future<LIBSVMParser>>(numChunks);
+      for (int k = 0; k < numChunks; k++) {
+        final int chunkIndex = k;
+        parsedChunks.add(executor.submit(new Callable<LIBSVMParser>() {
+          @Override
+          public LIBSVMParser call()
+              throws IOException {
+            LIBSVMParser parser = new LIBSVMParser(maxNumInstances, _hasher);
+            RandomAccessFile file = new RandomAccessFile(fileName, "r");
+            try {
+              parser.parseRange(file.getChannel(), boundaries[chunkIndex], boundaries[chunkIndex + 1]);
+            } finally {
+              file.close();
+            }
+            return parser;
+          }
+        }));
+      }
+
+      // Stitch the chunks together in the original row order
+      LIBSVMParser[] parsers = new LIBSVMParser[numChunks];
+      int[] numUsedRows = new int[numChunks];
+      int numInstances = 0;
+      int maxUsedDimension = -1;
+      int k = 0;
+      for (; k < numChunks && numInstances < maxNumInstances; k++) {
+        LIBSVMParser parser = getChunk(parsedChunks.get(k));
+        parsers[k] = parser;
+        numUsedRows[k] = Math.min(parser._numRows, maxNumInstances - numInstances);
+        numInstances += numUsedRows[k];
+        maxUsedDimension = Math.max(parser.maxUsedDimension(numUsedRows[k]), maxUsedDimension);
+        if (parser._reachedEnd) {
+          k++;
+          break;
+        }
+      }
+      for (int j = k; j < numChunks; j++) {
+        parsedChunks.get(j).cancel(true);
+      }
+
+      // Build the instances of only the used rows of each chunk on the workers
+      List<Future<Instance[]>> builtChunks = new ArrayList<Future<Instance[]>>(k);
+      for (int j = 0; j < k; j++) {
+        final LIBSVMParser parser = parsers[j];
+        final int numRows = numUsedRows[j];
+        builtChunks.add(executor.submit(new Callable<Instance[]>() {
+          @Override
+          public Instance[] call() {
+            return parser.toInstances(numRows);
+          }
+        }));
+      }
+      _instances = new Instance[numInstances];
+      int instIndex = 0;
+      for (int j = 0; j < k; j++) {
+        System.arraycopy(getChunk(builtChunks.get(j)), 0, _instances, instIndex, numUsedRows[j]);
+        instIndex += numUsedRows[j];
+      }
+      if (this._dimension == -1) {
+        this._dimension = maxUsedDimension;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Load a LIBSVM file directly into a CSR data set, without creating an object per instance
+   * @param dimension The dimension of the data, -1 for the largest used dimension
+   */
+  public static CSRDataset loadCSRDataset(String fileName, int dimension)
+      throws IOException {
+    return loadCSRDataset(fileName, dimension, null);
+  }
+
+  /**
+   * Load a LIBSVM file directly into a CSR data set with the hashing trick
+   */
+  public static CSRDataset loadCSRDataset(String fileName, FeatureHasher hasher)
+      throws IOException {
+    return loadCSRDataset(fileName, hasher.getDimension(), hasher);
+  }
+
+  private static CSRDataset loadCSRDataset(String fileName, int dimension, FeatureHasher hasher)
+      throws IOException {
+    LIBSVMParser parser = new LIBSVMParser(Integer.MAX_VALUE, hasher);
+    parser.parseFile(fileName);
+    if (dimension == -1) {
+      dimension = parser._maxUsedDimension;
+    }
+    int numRows = parser._numRows;
+    int numEntries = parser._numEntries;
+    return new CSRDataset(dimension, numRows, Arrays.copyOf(parser._rowOffsets, numRows + 1),
+        Arrays.copyOf(parser._dims, numEntries), Arrays.copyOf(parser._vals, numEntries),
+        Arrays.copyOf(parser._labels, numRows), null, null, null);
+  }
+
+  /**
+   * Convert a LIBSVM file into the binary dataset format, which can be reloaded
+   * instantly by MappedBinaryDataset
+   * @param dimension The dimension of the data, -1 for the largest used dimension
+   */
+  public static void convertToBinary(String libsvmFileName, int dimension, String binaryFileName)
+      throws IOException {
+    LIBSVMParser parser = new LIBSVMParser(Integer.MAX_VALUE);
+    parser.parseFile(libsvmFileName);
+    if (dimension == -1) {
+      dimension = parser._maxUsedDimension;
+    }
+    BinaryDatasetWriter.write(binaryFileName, dimension, parser._numRows, parser._labels, null, null, null,
+        parser._rowOffsets, parser._dims, parser._vals);
+  }
+
+  private static <T> T getChunk(Future<T> chunk)
+      throws IOException {
+    try {
+      return chunk.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while loading the data");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new IllegalStateException(cause);
+      }
+    }
+  }
+
+  private void loadByReader(String fileName, int maxNumInstances) {
     try {
-      this._dimension = dimension;
       BufferedReader reader = new BufferedReader(new FileReader(fileName));
       preScan(reader, maxNumInstances);
       reader.close();
@@ -0,0 +1,220 @@
+package org.ltang.mlbox.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Dataset;
+
+
+/**
+ * A data set streamed from a LIBSVM file. Only one block of instances is in memory at a time,
+ * and each pass over the blocks parses the file again.
+ *
+ * @author Liang Tang
+ */
+public class LIBSVMFileDataset implements Dataset {
+
+  private final String _fileName;
+
+  private final int _maxNumInstances;
+
+  private final FeatureHasher _hasher;
+
+  private int _dimension;
+
+  private int _numInstances;
+
+  public LIBSVMFileDataset(String fileName, int dimension)
+      throws IOException {
+    this(fileName, dimension, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Scan the file once to count the instances and, if the dimension is -1, find the largest used dimension
+   */
+  public LIBSVMFileDataset(String fileName, int dimension, int maxNumInstances)
+      throws IOException {
+    this(fileName, dimension, null, maxNumInstances);
+  }
+
+  /**
+   * Stream the data with the hashing trick, the dimension is the size of the hashed space
+   */
+  public LIBSVMFileDataset(String fileName, FeatureHasher hasher, int maxNumInstances)
+      throws IOException {
+    this(fileName, hasher.getDimension(), hasher, maxNumInstances);
+  }
+
+  private LIBSVMFileDataset(String fileName, int dimension, FeatureHasher hasher, int maxNumInstances)
+      throws IOException {
+    _fileName = fileName;
+    _dimension = dimension;
+    _hasher = hasher;
+    _maxNumInstances = maxNumInstances;
+
+    BlockReader reader = new BlockReader();
+    int maxUsedDimension = -1;
+    int numInstances = 0;
+    int numRows;
+    while ((numRows = reader.read(Math.min(DEFAULT_BLOCK_SIZE, maxNumInstances - numInstances))) > 0) {
+      numInstances += numRows;
+      maxUsedDimension = Math.max(reader._parser._maxUsedDimension, maxUsedDimension);
+    }
+    _numInstances = numInstances;
+    if (_dimension == -1) {
+      _dimension = maxUsedDimension;
+    }
+  }
+
+  @Override
+  public int getDimension() {
+    return _dimension;
+  }
+
+  @Override
+  public int getNumInstances() {
+    return _numInstances;
+  }
+
+  /**
+   * The file is opened by the first next() and only while a window of it is mapped, so an iterator
+   * of an empty file, or one which is not read to the end, holds no open file
+   * @throws IllegalStateException If the file cannot be read
+   */
+  @Override
+  public Iterator<CSRDataset> blocks(final int maxBlockSize) {
+    if (maxBlockSize < 1) {
+      throw new IllegalArgumentException("The maximum block size must be positive: " + maxBlockSize);
+    }
+    // An empty file still has buffers of one instance
+    final int blockSize = Math.max(1, Math.min(maxBlockSize, _numInstances));
+    final float[] weights = new float[blockSize];
+    Arrays.fill(weights, 1f);
+    final float[] offsets = new float[blockSize];
+    final int[] flags = new int[blockSize];
+
+    return new Iterator<CSRDataset>() {
+
+      int _numReadInstances = 0;
+
+      BlockReader _reader = null;
+
+      @Override
+      public boolean hasNext() {
+        if (_numReadInstances < _numInstances) {
+          return true;
+        }
+        // Release the mapped windows of the last block
+        _reader = null;
+        return false;
+      }
+
+      @Override
+      public CSRDataset next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        try {
+          if (_reader == null) {
+            _reader = new BlockReader();
+          }
+          int numRows = _reader.read(Math.min(blockSize, _numInstances - _numReadInstances));
+          if (numRows == 0) {
+            throw new IllegalStateException(_fileName + " has changed since it was scanned");
+          }
+          _numReadInstances += numRows;
+          LIBSVMParser parser = _reader._parser;
+          return new CSRDataset(_dimension, numRows, parser._rowOffsets, parser._dims, parser._vals,
+              parser._labels, weights, offsets, flags);
+        } catch (IOException e) {
+          throw new IllegalStateException("Failed to read " + _fileName, e);
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Read the file block by block through a memory-mapped window. The file is open only while a
+   * window is mapped, as the mapping stays valid after the file is closed.
+   */
+  private class BlockReader {
+
+    final LIBSVMParser _parser = new LIBSVMParser(0, _hasher);
+
+    final long _fileSize;
+
+    // The mapped window contains the complete lines in [_windowStart, _windowStart+_windowLimit)
+    MappedByteBuffer _window = null;
+
+    long _windowStart = 0;
+
+    int _windowLimit = 0;
+
+    int _windowPos = 0;
+
+    int _numReadRows = 0;
+
+    BlockReader()
+        throws IOException {
+      RandomAccessFile file = new RandomAccessFile(_fileName, "r");
+      try {
+        _fileSize = file.length();
+      } finally {
+        file.close();
+      }
+    }
+
+    /**
+     * Parse the next maxNumRows rows at most into _parser
+     * @return The number of parsed rows, 0 at the end of the data
+     */
+    int read(int maxNumRows)
+        throws IOException {
+      _parser.clear(Math.min(maxNumRows, _maxNumInstances - _numReadRows));
+      while (!_parser.isFull()) {
+        if (_windowPos >= _windowLimit && !mapNextWindow()) {
+          break;
+        }
+        _windowPos = _parser.parse(_window, _windowPos, _windowLimit);
+      }
+      _numReadRows += _parser._numRows;
+      return _parser._numRows;
+    }
+
+    private boolean mapNextWindow()
+        throws IOException {
+      _windowStart += _windowLimit;
+      if (_windowStart >= _fileSize) {
+        return false;
+      }
+      long size = Math.min(_fileSize - _windowStart, LIBSVMParser.MAX_MAP_SIZE);
+      RandomAccessFile file = new RandomAccessFile(_fileName, "r");
+      try {
+        _window = file.getChannel().map(FileChannel.MapMode.READ_ONLY, _windowStart, size);
+      } finally {
+        file.close();
+      }
+      _windowLimit = (int) size;
+      if (_windowStart + size < _fileSize) {
+        _windowLimit = LIBSVMParser.lastLineEnd(_window, _windowLimit);
+        if (_windowLimit == 0) {
+          throw new IOException("The line at byte " + _windowStart + " is longer than "
+              + LIBSVMParser.MAX_MAP_SIZE + " bytes");
+        }
+      }
+      _windowPos = 0;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,515 @@
+package org.ltang.mlbox.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.SparseVector;
+
+
+/**
+ * Single-pass LIBSVM parser working directly on the bytes of a (memory-mapped) file.
+ * Labels, indices and values are decoded without creating a string per token, and the
+ * parsed rows are accumulated in growing primitive buffers.
+ *
+ * @author Liang Tang
+ */
+final class LIBSVMParser {
+
+  // The maximum number of bytes mapped at once (MappedByteBuffer is limited to 2GB)
+  static final int MAX_MAP_SIZE = 1 << 30;
+
+  private static final int INIT_NUM_ROWS = 1024;
+
+  private static final int INIT_NUM_ENTRIES = 16 * 1024;
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  // The value of tryParseInt for a token which is not an int
+  static final long NOT_INT = Long.MIN_VALUE;
+
+  // Exactly representable powers of ten
+  private static final double[] POW10 = new double[23];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i - 1] * 10;
+    }
+  }
+
+  // Stop parsing after this number of rows
+  private int _rowLimit;
+
+  // Hash the feature indices or names if it is not null
+  private final FeatureHasher _hasher;
+
+  float[] _labels = new float[INIT_NUM_ROWS];
+
+  // _rowOffsets[i] is the first entry of row i, _rowOffsets[_numRows] is the number of entries
+  int[] _rowOffsets = new int[INIT_NUM_ROWS + 1];
+
+  int[] _dims = new int[INIT_NUM_ENTRIES];
+
+  float[] _vals = new float[INIT_NUM_ENTRIES];
+
+  int _numRows = 0;
+
+  int _numEntries = 0;
+
+  // The largest used dimension, i.e., the largest one-based feature index
+  int _maxUsedDimension = -1;
+
+  // Set once a blank line is met, the original loader stops at the first blank line
+  boolean _reachedEnd = false;
+
+  // The current parsing position
+  private int _pos;
+
+  // The value of the last decimal parsed by parseDecimal
+  private double _number;
+
+  LIBSVMParser(int maxNumInstances) {
+    this(maxNumInstances, null);
+  }
+
+  /**
+   * @param hasher The feature hasher, or null if the feature indices are used as they are
+   */
+  LIBSVMParser(int maxNumInstances, FeatureHasher hasher) {
+    _rowLimit = maxNumInstances;
+    _hasher = hasher;
+  }
+
+  /**
+   * Drop the parsed rows but keep the buffers, for parsing the next block of rows
+   */
+  void clear(int rowLimit) {
+    _rowLimit = rowLimit;
+    _numRows = 0;
+    _numEntries = 0;
+    _rowOffsets[0] = 0;
+  }
+
+  /**
+   * Parse a whole file by mapping it into memory window by window
+   */
+  void parseFile(String fileName)
+      throws IOException {
+    RandomAccessFile file = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      parseRange(channel, 0, channel.size());
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Parse the lines of a file between the byte offsets [start, end). The start must be the
+   * beginning of a line.
+   */
+  void parseRange(FileChannel channel, long start, long end)
+      throws IOException {
+    long pos = start;
+    while (pos < end && !isFull()) {
+      long size = Math.min(end - pos, MAX_MAP_SIZE);
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+      int limit = (int) size;
+      if (pos + size < end) {
+        // Only parse the complete lines of this window
+        limit = lastLineEnd(buf, limit);
+        if (limit == 0) {
+          throw new IOException("The line at byte " + pos + " is longer than " + MAX_MAP_SIZE + " bytes");
+        }
+      }
+      parse(buf, 0, limit);
+      pos += limit;
+    }
+  }
+
+  /**
+   * Split the file into about numChunks byte ranges whose boundaries are aligned to the
+   * beginnings of lines
+   * @return the numChunks+1 boundaries, empty ranges are possible
+   */
+  static long[] splitIntoChunks(FileChannel channel, int numChunks)
+      throws IOException {
+    long size = channel.size();
+    long[] boundaries = new long[numChunks + 1];
+    boundaries[numChunks] = size;
+    ByteBuffer buf = ByteBuffer.allocate(4096);
+    for (int k = 1; k < numChunks; k++) {
+      long pos = Math.max(size / numChunks * k, boundaries[k - 1]);
+      boundaries[k] = nextLineStart(channel, pos, buf);
+    }
+    return boundaries;
+  }
+
+  // Find the beginning of the first line starting at or after pos
+  private static long nextLineStart(FileChannel channel, long pos, ByteBuffer buf)
+      throws IOException {
+    if (pos == 0) {
+      return 0;
+    }
+    // Start from the previous byte in case pos is already the beginning of a line
+    long readPos = pos - 1;
+    long size = channel.size();
+    while (readPos < size) {
+      buf.clear();
+      int n = channel.read(buf, readPos);
+      if (n <= 0) {
+        break;
+      }
+      for (int i = 0; i < n; i++) {
+        if (buf.get(i) == '\n') {
+          return readPos + i + 1;
+        }
+      }
+      readPos += n;
+    }
+    return size;
+  }
+
+  /**
+   * @return the position just after the last '\n' in buf[0, limit), or 0 if there is none
+   */
+  static int lastLineEnd(ByteBuffer buf, int limit) {
+    for (int i = limit - 1; i >= 0; i--) {
+      if (buf.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  boolean isFull() {
+    return _reachedEnd || _numRows >= _rowLimit;
+  }
+
+  /**
+   * Parse the lines in buf[from, to) until the row limit is reached
+   * @return The position of the first line which is not parsed
+   */
+  int parse(ByteBuffer buf, int from, int to) {
+    _pos = from;
+    while (_pos < to && !isFull()) {
+      int lineEnd = _pos;
+      while (lineEnd < to && buf.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      parseLine(buf, _pos, lineEnd);
+      _pos = lineEnd + 1;
+    }
+    return Math.min(_pos, to);
+  }
+
+  private void parseLine(ByteBuffer buf, int from, int to) {
+    // Ignore the trailing '\r' and white spaces
+    while (to > from && isSpace(buf.get(to - 1))) {
+      to--;
+    }
+    if (to == from) {
+      _reachedEnd = true;
+      return;
+    }
+
+    // The label
+    _pos = from;
+    int tokenEnd = skipToken(buf, _pos, to);
+    float y = parseFloat(buf, _pos, tokenEnd);
+    y = y < 0 ? 0 : 1;
+
+    // The "index:value" pairs
+    int rowStart = _numEntries;
+    _pos = skipSpaces(buf, tokenEnd, to);
+    while (_pos < to) {
+      tokenEnd = skipToken(buf, _pos, to);
+      int colon = _pos;
+      while (colon < tokenEnd && buf.get(colon) != ':') {
+        colon++;
+      }
+      if (colon == tokenEnd) {
+        throw new NumberFormatException("Missing ':' in the token \"" + toString(buf, _pos, tokenEnd) + "\"");
+      }
+      float val = parseFloat(buf, colon + 1, tokenEnd);
+      int dimIndex;
+      if (_hasher == null) {
+        dimIndex = parseInt(buf, _pos, colon) - 1;
+      } else {
+        // The indices which are ints are hashed by their values like FeatureHasher.getIndex(int), and
+        // other names by their bytes
+        long rawIndex = tryParseInt(buf, _pos, colon);
+        int hash = rawIndex != NOT_INT ? FeatureHasher.hash((int) rawIndex) : FeatureHasher.hash(buf, _pos, colon);
+        dimIndex = _hasher.indexOf(hash);
+        val *= _hasher.signOf(hash);
+      }
+      appendEntry(dimIndex, val);
+      _maxUsedDimension = Math.max(dimIndex + 1, _maxUsedDimension);
+      _pos = skipSpaces(buf, tokenEnd, to);
+    }
+    if (_hasher != null) {
+      // Sum up the values of the colliding features
+      SortUtil.sort(_dims, _vals, rowStart, _numEntries);
+      _numEntries = SortUtil.mergeDuplicates(_dims, _vals, rowStart, _numEntries);
+    }
+    appendRow(y, rowStart);
+  }
+
+  /**
+   * @return The value of the token if it is a decimal int like Integer.parseInt, or NOT_INT if it
+   * has other characters or overflows an int
+   */
+  static long tryParseInt(ByteBuffer buf, int from, int to) {
+    int pos = from;
+    boolean negative = false;
+    if (pos < to && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+      negative = buf.get(pos) == '-';
+      pos++;
+    }
+    if (pos == to) {
+      return NOT_INT;
+    }
+    long value = 0;
+    for (; pos < to; pos++) {
+      int digit = buf.get(pos) - '0';
+      if (digit < 0 || digit > 9) {
+        return NOT_INT;
+      }
+      value = value * 10 + digit;
+      if (value > (long) Integer.MAX_VALUE + 1) {
+        return NOT_INT;
+      }
+    }
+    value = negative ? -value : value;
+    return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NOT_INT : value;
+  }
+
+  private void appendEntry(int dimIndex, float val) {
+    if (_numEntries == _dims.length) {
+      int newCapacity = grow(_dims.length);
+      _dims = Arrays.copyOf(_dims, newCapacity);
+      _vals = Arrays.copyOf(_vals, newCapacity);
+    }
+    _dims[_numEntries] = dimIndex;
+    _vals[_numEntries] = val;
+    _numEntries++;
+  }
+
+  private void appendRow(float label, int rowStart) {
+    if (_numRows == _labels.length) {
+      int newCapacity = grow(_labels.length);
+      _labels = Arrays.copyOf(_labels, newCapacity);
+      _rowOffsets = Arrays.copyOf(_rowOffsets, newCapacity + 1);
+    }
+    _labels[_numRows] = label;
+    _rowOffsets[_numRows] = rowStart;
+    _numRows++;
+    _rowOffsets[_numRows] = _numEntries;
+  }
+
+  private static int grow(int capacity) {
+    if (capacity == Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("Too many rows or entries in a single data set");
+    }
+    return (int) Math.min((long) capacity * 2, Integer.MAX_VALUE - 8);
+  }
+
+  /**
+   * @return the largest used dimension of the first numRows rows
+   */
+  int maxUsedDimension(int numRows) {
+    if (numRows == _numRows) {
+      return _maxUsedDimension;
+    }
+    int maxUsedDimension = -1;
+    for (int j = 0; j < _rowOffsets[numRows]; j++) {
+      maxUsedDimension = Math.max(_dims[j] + 1, maxUsedDimension);
+    }
+    return maxUsedDimension;
+  }
+
+  /**
+   * Build the instances from the parsed rows
+   */
+  Instance[] toInstances() {
+    return toInstances(_numRows);
+  }
+
+  /**
+   * Build the instances from the first numRows parsed rows
+   */
+  Instance[] toInstances(int numRows) {
+    Instance[] instances = new Instance[numRows];
+    for (int i = 0; i < numRows; i++) {
+      int start = _rowOffsets[i];
+      int end = _rowOffsets[i + 1];
+      SparseVector features = new SparseVector(Arrays.copyOfRange(_dims, start, end),
+          Arrays.copyOfRange(_vals, start, end));
+      instances[i] = new Instance(features, _labels[i]);
+    }
+    return instances;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0x0B || b == '\f';
+  }
+
+  private static int skipSpaces(ByteBuffer buf, int pos, int to) {
+    while (pos < to && isSpace(buf.get(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int skipToken(ByteBuffer buf, int pos, int to) {
+    while (pos < to && !isSpace(buf.get(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static String toString(ByteBuffer buf, int from, int to) {
+    byte[] bytes = new byte[to - from];
+    for (int i = from; i < to; i++) {
+      bytes[i - from] = buf.get(i);
+    }
+    return new String(bytes, ASCII);
+  }
+
+  /**
+   * Parse a decimal integer, same as Integer.parseInt
+   */
+  static int parseInt(ByteBuffer buf, int from, int to) {
+    int pos = from;
+    boolean negative = false;
+    if (pos < to && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+      negative = buf.get(pos) == '-';
+      pos++;
+    }
+    if (pos == to || to - pos > 10) {
+      return Integer.parseInt(toString(buf, from, to));
+    }
+    long value = 0;
+    for (; pos < to; pos++) {
+      int digit = buf.get(pos) - '0';
+      if (digit < 0 || digit > 9) {
+        return Integer.parseInt(toString(buf, from, to));
+      }
+      value = value * 10 + digit;
+    }
+    value = negative ? -value : value;
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      return Integer.parseInt(toString(buf, from, to));
+    }
+    return (int) value;
+  }
+
+  /**
+   * Parse a decimal float. The result is identical to Float.parseFloat: the fast path is only taken
+   * when the decimal can be rounded exactly, otherwise the token is handed to Float.parseFloat.
+   */
+  float parseFloat(ByteBuffer buf, int from, int to) {
+    if (parseDecimal(buf, from, to)) {
+      double d = Math.abs(_number);
+      // A double lying exactly on a midpoint of two floats may have been rounded twice
+      long lowBits = Double.doubleToRawLongBits(d) & ((1L << 29) - 1);
+      if (lowBits != (1L << 28) && (d == 0 || (d > 1E-30 && d < 1E30))) {
+        return (float) _number;
+      }
+    }
+    return Float.parseFloat(toString(buf, from, to));
+  }
+
+  /**
+   * Parse [sign]digits[.digits][(e|E)[sign]digits] into a correctly rounded double
+   * into _number.
+   * @return false if the token is not in this simple form or cannot be rounded exactly
+   */
+  private boolean parseDecimal(ByteBuffer buf, int from, int to) {
+    int pos = from;
+    boolean negative = false;
+    if (pos < to && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+      negative = buf.get(pos) == '-';
+      pos++;
+    }
+    long mantissa = 0;
+    int numDigits = 0;
+    int exponent = 0;
+    boolean hasDigit = false;
+    for (; pos < to; pos++) {
+      int digit = buf.get(pos) - '0';
+      if (digit < 0 || digit > 9) {
+        break;
+      }
+      hasDigit = true;
+      if (mantissa != 0 || digit != 0) {
+        numDigits++;
+      }
+      mantissa = mantissa * 10 + digit;
+    }
+    if (pos < to && buf.get(pos) == '.') {
+      pos++;
+      for (; pos < to; pos++) {
+        int digit = buf.get(pos) - '0';
+        if (digit < 0 || digit > 9) {
+          break;
+        }
+        hasDigit = true;
+        if (mantissa != 0 || digit != 0) {
+          numDigits++;
+        }
+        mantissa = mantissa * 10 + digit;
+        exponent--;
+      }
+    }
+    if (!hasDigit || numDigits > 15) {
+      return false;
+    }
+    if (pos < to && (buf.get(pos) == 'e' || buf.get(pos) == 'E')) {
+      pos++;
+      boolean negativeExp = false;
+      if (pos < to && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+        negativeExp = buf.get(pos) == '-';
+        pos++;
+      }
+      int exp = 0;
+      int numExpDigits = 0;
+      for (; pos < to; pos++) {
+        int digit = buf.get(pos) - '0';
+        if (digit < 0 || digit > 9 || numExpDigits >= 4) {
+          return false;
+        }
+        exp = exp * 10 + digit;
+        numExpDigits++;
+      }
+      if (numExpDigits == 0) {
+        return false;
+      }
+      exponent += negativeExp ? -exp : exp;
+    }
+    if (pos != to) {
+      return false;
+    }
+
+    // Both the mantissa (< 10^15 < 2^53) and 10^|exponent| are exact doubles,
+    // so a single multiplication or division is correctly rounded.
+    double value;
+    if (mantissa == 0) {
+      value = 0;
+    } else if (exponent < 0 && exponent >= -22) {
+      value = mantissa / POW10[-exponent];
+    } else if (exponent >= 0 && exponent <= 22) {
+      value = mantissa * POW10[exponent];
+    } else {
+      return false;
+    }
+    _number = negative ? -value : value;
+    return true;
+  }
+}
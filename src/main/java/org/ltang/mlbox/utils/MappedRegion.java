@@ -0,0 +1,139 @@
+package org.ltang.mlbox.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A memory-mapped region of a file which can be larger than 2GB. The region is mapped in
+ * segments of 1GB, and all values are little-endian and addressed by their byte position.
+ * A region can also be allocated off the heap without a file, in direct buffers of 1GB.
+ * A value must not cross a segment boundary, which holds when every value is aligned to its size.
+ *
+ * @author Liang Tang
+ */
+public final class MappedRegion {
+
+  static final int SEGMENT_SHIFT = 30;
+
+  static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+  private final ByteBuffer[] _segments;
+
+  private final long _size;
+
+  public MappedRegion(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+      throws IOException {
+    _size = size;
+    int numSegments = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    _segments = new ByteBuffer[numSegments];
+    for (int s = 0; s < numSegments; s++) {
+      long segmentStart = (long) s << SEGMENT_SHIFT;
+      long segmentSize = Math.min(size - segmentStart, 1L << SEGMENT_SHIFT);
+      _segments[s] = channel.map(mode, position + segmentStart, segmentSize);
+      _segments[s].order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  /**
+   * Allocate a region of direct memory, which is initialized to zeros
+   */
+  public MappedRegion(long size) {
+    _size = size;
+    int numSegments = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    _segments = new ByteBuffer[numSegments];
+    for (int s = 0; s < numSegments; s++) {
+      long segmentStart = (long) s << SEGMENT_SHIFT;
+      int segmentSize = (int) Math.min(size - segmentStart, 1L << SEGMENT_SHIFT);
+      _segments[s] = ByteBuffer.allocateDirect(segmentSize);
+      _segments[s].order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  public long size() {
+    return _size;
+  }
+
+  private ByteBuffer segment(long pos) {
+    return _segments[(int) (pos >>> SEGMENT_SHIFT)];
+  }
+
+  public int getInt(long pos) {
+    return segment(pos).getInt((int) (pos & SEGMENT_MASK));
+  }
+
+  public long getLong(long pos) {
+    return segment(pos).getLong((int) (pos & SEGMENT_MASK));
+  }
+
+  public float getFloat(long pos) {
+    return segment(pos).getFloat((int) (pos & SEGMENT_MASK));
+  }
+
+  public double getDouble(long pos) {
+    return segment(pos).getDouble((int) (pos & SEGMENT_MASK));
+  }
+
+  public void putInt(long pos, int value) {
+    segment(pos).putInt((int) (pos & SEGMENT_MASK), value);
+  }
+
+  public void putLong(long pos, long value) {
+    segment(pos).putLong((int) (pos & SEGMENT_MASK), value);
+  }
+
+  public void putFloat(long pos, float value) {
+    segment(pos).putFloat((int) (pos & SEGMENT_MASK), value);
+  }
+
+  public void putDouble(long pos, double value) {
+    segment(pos).putDouble((int) (pos & SEGMENT_MASK), value);
+  }
+
+  /**
+   * Bulk copy of len ints starting at the byte position pos
+   */
+  public void getInts(long pos, int[] dst, int offset, int len) {
+    while (len > 0) {
+      int n = (int) Math.min(len, ((1L << SEGMENT_SHIFT) - (pos & SEGMENT_MASK)) >> 2);
+      slice(pos).asIntBuffer().get(dst, offset, n);
+      pos += (long) n << 2;
+      offset += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Bulk copy of len floats starting at the byte position pos
+   */
+  public void getFloats(long pos, float[] dst, int offset, int len) {
+    while (len > 0) {
+      int n = (int) Math.min(len, ((1L << SEGMENT_SHIFT) - (pos & SEGMENT_MASK)) >> 2);
+      slice(pos).asFloatBuffer().get(dst, offset, n);
+      pos += (long) n << 2;
+      offset += n;
+      len -= n;
+    }
+  }
+
+  // A little-endian view of the segment starting at pos
+  private ByteBuffer slice(long pos) {
+    ByteBuffer view = segment(pos).duplicate();
+    view.position((int) (pos & SEGMENT_MASK));
+    return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Write the changes of a read-write mapping back to the file
+   */
+  public void force() {
+    for (ByteBuffer segment : _segments) {
+      if (segment instanceof MappedByteBuffer) {
+        ((MappedByteBuffer) segment).force();
+      }
+    }
+  }
+}
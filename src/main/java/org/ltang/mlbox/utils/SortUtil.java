@@ -0,0 +1,111 @@
+package org.ltang.mlbox.utils;
+
+
+/**
+ * Sorting of primitive parallel arrays without boxing
+ *
+ * @author Liang Tang
+ */
+public final class SortUtil {
+
+  // Ranges up to this length are sorted by insertion sort
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+
+  /**
+   * Stable sort of keys[from, to) in ascending order, moving values along with their keys
+   */
+  public static void sort(final int[] keys, final float[] values, int from, int to) {
+    if (isSorted(keys, from, to)) {
+      return;
+    }
+    if (to - from <= INSERTION_SORT_THRESHOLD) {
+      insertionSort(keys, values, from, to);
+    } else {
+      int[] keyBuf = new int[to - from];
+      float[] valueBuf = new float[to - from];
+      mergeSort(keys, values, from, to, keyBuf, valueBuf);
+    }
+  }
+
+  public static boolean isSorted(final int[] keys, int from, int to) {
+    for (int i = from + 1; i < to; i++) {
+      if (keys[i - 1] > keys[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void insertionSort(final int[] keys, final float[] values, int from, int to) {
+    for (int i = from + 1; i < to; i++) {
+      int key = keys[i];
+      float value = values[i];
+      int j = i - 1;
+      while (j >= from && keys[j] > key) {
+        keys[j + 1] = keys[j];
+        values[j + 1] = values[j];
+        j--;
+      }
+      keys[j + 1] = key;
+      values[j + 1] = value;
+    }
+  }
+
+  // The buffers are indexed from 0 and hold at least to-from elements
+  private static void mergeSort(final int[] keys, final float[] values, int from, int to,
+      final int[] keyBuf, final float[] valueBuf) {
+    if (to - from <= INSERTION_SORT_THRESHOLD) {
+      insertionSort(keys, values, from, to);
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(keys, values, from, mid, keyBuf, valueBuf);
+    mergeSort(keys, values, mid, to, keyBuf, valueBuf);
+    if (keys[mid - 1] <= keys[mid]) {
+      return;
+    }
+    // Merge the two sorted halves through the buffers
+    int len = mid - from;
+    System.arraycopy(keys, from, keyBuf, 0, len);
+    System.arraycopy(values, from, valueBuf, 0, len);
+    int i = 0;
+    int j = mid;
+    int k = from;
+    while (i < len && j < to) {
+      if (keys[j] < keyBuf[i]) {
+        keys[k] = keys[j];
+        values[k] = values[j];
+        j++;
+      } else {
+        keys[k] = keyBuf[i];
+        values[k] = valueBuf[i];
+        i++;
+      }
+      k++;
+    }
+    System.arraycopy(keyBuf, i, keys, k, len - i);
+    System.arraycopy(valueBuf, i, values, k, len - i);
+  }
+
+  /**
+   * Sum up the values of the identical keys in the sorted keys[from, to), and move the merged
+   * entries to the front of the range
+   * @return The end of the merged range
+   */
+  public static int mergeDuplicates(final int[] keys, final float[] values, int from, int to) {
+    if (to - from < 2) {
+      return to;
+    }
+    int last = from;
+    for (int i = from + 1; i < to; i++) {
+      if (keys[i] == keys[last]) {
+        values[last] += values[i];
+      } else {
+        last++;
+        keys[last] = keys[i];
+        values[last] = values[i];
+      }
+    }
+    return last + 1;
+  }
+}
@@ -0,0 +1,102 @@
+package org.ltang.mlbox.utils;
+
+
+/**
+ * Variable-length encoding of non-negative ints, 7 bits per byte with the highest bit set on all
+ * the bytes but the last. Sorted ints are encoded as the gaps between them, which usually fit in
+ * one or two bytes.
+ *
+ * @author Liang Tang
+ */
+public final class VarIntCodec {
+
+  /**
+   * @return The number of bytes of the encoded value
+   */
+  public static int encodedSize(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Only non-negative values can be encoded: " + value);
+    }
+    int size = 1;
+    while (value >= 0x80) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Write the value at buf[pos]
+   * @return The position after the encoded value
+   */
+  public static int write(final byte[] buf, int pos, int value) {
+    while (value >= 0x80) {
+      buf[pos++] = (byte) (value | 0x80);
+      value >>>= 7;
+    }
+    buf[pos++] = (byte) value;
+    return pos;
+  }
+
+  /**
+   * @return The value encoded at buf[pos], which takes encodedSize(value) bytes
+   */
+  public static int read(final byte[] buf, int pos) {
+    int b = buf[pos++];
+    int value = b & 0x7f;
+    int shift = 7;
+    while (b < 0) {
+      b = buf[pos++];
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    }
+    return value;
+  }
+
+  /**
+   * @return The number of bytes of the gaps of the ascending values[from, to), where the first gap
+   * is from the value prev
+   */
+  public static long deltaEncodedSize(final int[] values, int from, int to, int prev) {
+    long size = 0;
+    for (int i = from; i < to; i++) {
+      size += encodedSize(values[i] - prev);
+      prev = values[i];
+    }
+    return size;
+  }
+
+  /**
+   * Write the gaps of the ascending values[from, to) at buf[pos], where the first gap is from the
+   * value prev
+   * @return The position after the encoded values
+   */
+  public static int writeDeltas(final byte[] buf, int pos, final int[] values, int from, int to, int prev) {
+    for (int i = from; i < to; i++) {
+      pos = write(buf, pos, values[i] - prev);
+      prev = values[i];
+    }
+    return pos;
+  }
+
+  /**
+   * Decode len values from the gaps encoded at buf[pos] into dst[offset, offset+len), where the
+   * first gap is from the value prev
+   * @return The position after the decoded gaps
+   */
+  public static int readDeltas(final byte[] buf, int pos, int prev, final int[] dst, int offset, int len) {
+    for (int i = offset; i < offset + len; i++) {
+      int b = buf[pos++];
+      int gap = b & 0x7f;
+      int shift = 7;
+      while (b < 0) {
+        b = buf[pos++];
+        gap |= (b & 0x7f) << shift;
+        shift += 7;
+      }
+      prev += gap;
+      dst[i] = prev;
+    }
+    return pos;
+  }
+}
@@ -74,6 +74,18 @@ public final class VectorUtil {
     return ret;
   }
 
+  /**
+   * y += a * x in place
+   */
+  public static void addScaled(final double[] y, double a, final double[] x) {
+    if (y.length != x.length) {
+      throw new IllegalArgumentException("Two vectors' dimensions are not identical !");
+    }
+    for (int i=0; i<y.length; i++) {
+      y[i] += a*x[i];
+    }
+  }
+
   public static double[] subVector(final double[] v, int len) {
     double[] sub = new double[len];
     for (int i=0; i<len; i++) {
@@ -1,12 +1,15 @@
 package org.ltang.mlbox.classifier;
 
+import org.ltang.mlbox.data.CSRDataset;
 import org.ltang.mlbox.data.Instance;
 import java.io.File;
 
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 import org.ltang.mlbox.classifier.eval.AUC;
 import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.ltang.mlbox.utils.LIBSVMFileDataset;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -105,4 +108,217 @@ public class LogisticRegressionTest {
     System.out.println("Liblinear AUC = " + LibLinear_aucScore + " , Accuracy = " + ((double) numAcc) / numTests);
     Assert.assertTrue(aucScore > LibLinear_aucScore*0.95);
   }
+
+  @Test
+  public void testA1ACSR()
+      throws IOException {
+    int dimension = 123;
+    LIBSVMDataLoader trainLoader = new LIBSVMDataLoader("data/libsvm/a1a.train.txt", dimension);
+    LogisticRegression LR = new LogisticRegression();
+    LR.train(dimension, trainLoader.getInstances());
+
+    CSRDataset trainData = LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", dimension);
+    LogisticRegression csrLR = new LogisticRegression();
+    csrLR.train(trainData);
+    double[] beta = LR.getCoefficients();
+    double[] csrBeta = csrLR.getCoefficients();
+    Assert.assertEquals(csrBeta.length, beta.length);
+    for (int i = 0; i < beta.length; i++) {
+      Assert.assertEquals(csrBeta[i], beta[i], 1E-10);
+    }
+  }
+
+  @Test
+  public void testPredictDataset()
+      throws IOException {
+    int dimension = 123;
+    LogisticRegression LR = new LogisticRegression();
+    LR.train(new LIBSVMFileDataset("data/libsvm/a1a.train.txt", dimension));
+
+    LIBSVMDataLoader testLoader = new LIBSVMDataLoader("data/libsvm/a1a.test.txt", dimension);
+    Instance[] testInsts = testLoader.getInstances();
+    double[] scores = new double[testInsts.length];
+    LR.predict(new LIBSVMFileDataset("data/libsvm/a1a.test.txt", dimension), scores);
+    for (int i = 0; i < testInsts.length; i++) {
+      Assert.assertEquals(scores[i], LR.predict(testInsts[i].getFeatures()), 1E-10);
+    }
+  }
+
+  /**
+   * The calls of predict reuse the threads of the model, and a replaced pool is shut down
+   */
+  @Test
+  public void testPredictReusesPool()
+      throws IOException {
+    int dimension = 123;
+    CSRDataset data = LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", dimension);
+    LogisticRegression LR = new LogisticRegression();
+    LR.train(data);
+    LR.setNumThreads(4);
+    double[] scores = new double[data.getNumInstances()];
+    LR.predict(data, scores);
+    ForkJoinPool pool = LR._pool;
+    Assert.assertNotNull(pool);
+    LR.predict(data, scores);
+    Assert.assertTrue(LR._pool == pool);
+    LR.setNumThreads(2);
+    Assert.assertTrue(pool.isShutdown());
+    LR.predict(data, scores);
+    Assert.assertEquals(LR._pool.getParallelism(), 2);
+    LR.shutdown();
+    Assert.assertNull(LR._pool);
+  }
+
+  /**
+   * The trainings of a model share the pool of its training threads
+   */
+  @Test
+  public void testTrainReusesPool()
+      throws IOException {
+    CSRDataset data = LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", 123);
+    LogisticRegression LR = new LogisticRegression();
+    LR.setNumTrainingThreads(2);
+    LR.train(data);
+    ForkJoinPool pool = LR._trainingPool;
+    Assert.assertNotNull(pool);
+    LR.train(data);
+    Assert.assertTrue(LR._trainingPool == pool);
+    LR.shutdown();
+    Assert.assertTrue(pool.isShutdown());
+    Assert.assertNull(LR._trainingPool);
+  }
+
+  static double getAUC(final LogisticRegression LR, final Instance[] instances) {
+    double[] scores = new double[instances.length];
+    boolean[] labels = new boolean[instances.length];
+    for (int i = 0; i < instances.length; i++) {
+      scores[i] = LR.predict(instances[i].getFeatures());
+      labels[i] = instances[i].getLabel() > 0.5;
+    }
+    return new AUC().calc(scores, labels);
+  }
+
+  /**
+   * The AUC and the time of the exact and the fast sigmoid and log-loss on a1a
+   */
+  @Test
+  public void testFastMathA1A()
+      throws IOException {
+    int dimension = 123;
+    CSRDataset trainData = LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", dimension);
+    Instance[] testInsts = new LIBSVMDataLoader("data/libsvm/a1a.test.txt", dimension).getInstances();
+    CSRDataset testData = new CSRDataset(dimension, testInsts);
+    double[] scores = new double[testInsts.length];
+    double[] aucs = new double[2];
+    for (int round = 0; round < 3; round++) {
+      for (int mode = 0; mode < 2; mode++) {
+        LogisticRegression LR = new LogisticRegression();
+        LR.setFastMath(mode == 1);
+        long start = System.nanoTime();
+        LR.train(trainData);
+        long trainTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+          LR.predict(testData, scores);
+        }
+        long predictTime = (System.nanoTime() - start) / 10;
+        aucs[mode] = getAUC(LR, testInsts);
+        if (round == 2) {
+          System.out.println((mode == 1 ? "Fast" : "Exact") + " math: AUC = " + aucs[mode] + ", train "
+              + trainTime / 1E6 + " ms, predict " + predictTime / 1E6 + " ms");
+        }
+      }
+      Assert.assertEquals(aucs[1], aucs[0], 1E-4);
+    }
+  }
+
+  /**
+   * The Hogwild SGD solver reads the rows of a data set of blocks, and its AUC is the same as the
+   * coordinate descent up to the races of the threads
+   */
+  @Test
+  public void testHogwildA1A()
+      throws IOException {
+    int dimension = 123;
+    Instance[] trainInsts = new LIBSVMDataLoader("data/libsvm/a1a.train.txt", dimension).getInstances();
+    Instance[] testInsts = new LIBSVMDataLoader("data/libsvm/a1a.test.txt", dimension).getInstances();
+    LogisticRegression LR = new LogisticRegression();
+    LR.train(dimension, trainInsts);
+    LogisticRegression hogwild = new LogisticRegression();
+    hogwild.setSolver(LogisticRegression.Solver.HOGWILD_SGD);
+    hogwild.setNumTrainingThreads(2);
+    hogwild.train(dimension, trainInsts);
+    Assert.assertEquals(getAUC(hogwild, testInsts), getAUC(LR, testInsts), 2E-3);
+  }
+
+  /**
+   * The L1 regularizer makes the model sparse
+   */
+  @Test
+  public void testL1A1A()
+      throws IOException {
+    int dimension = 123;
+    CSRDataset trainData = LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", dimension);
+    Instance[] testInsts = new LIBSVMDataLoader("data/libsvm/a1a.test.txt", dimension).getInstances();
+    LogisticRegression LR = new LogisticRegression(5);
+    LR.setL1Ratio(1);
+    LR.setNewtonSteps(true);
+    LR.train(trainData);
+    double auc = getAUC(LR, testInsts);
+    System.out.println("L1: " + LR.getNumNonZeroCoefficients() + " nonzero coefficients, AUC = " + auc);
+    Assert.assertTrue(LR.getNumNonZeroCoefficients() < dimension / 3);
+    Assert.assertTrue(auc > 0.88);
+  }
+
+  /**
+   * The models of a warm-started L1 path have the AUCs of the models trained from scratch, in a
+   * fraction of their time
+   */
+  @Test
+  public void testPathA1A()
+      throws IOException {
+    int dimension = 123;
+    CSRDataset trainData = LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", dimension);
+    Instance[] testInsts = new LIBSVMDataLoader("data/libsvm/a1a.test.txt", dimension).getInstances();
+    double[] lambdas = LogisticRegression.getLambdaPath(100, 0.01, 20);
+    LogisticRegression LR = new LogisticRegression();
+    LR.setL1Ratio(1);
+    LR.setNewtonSteps(true);
+    long start = System.nanoTime();
+    LogisticRegression[] models = LR.trainPath(trainData, lambdas);
+    long pathTime = System.nanoTime() - start;
+    Assert.assertEquals(models.length, lambdas.length);
+
+    long coldTime = 0;
+    for (int k = 0; k < lambdas.length; k++) {
+      LogisticRegression cold = new LogisticRegression(lambdas[k]);
+      cold.setL1Ratio(1);
+      cold.setNewtonSteps(true);
+      start = System.nanoTime();
+      cold.train(trainData);
+      coldTime += System.nanoTime() - start;
+      Assert.assertEquals(models[k]._lambda, lambdas[k]);
+      Assert.assertEquals(getAUC(models[k], testInsts), getAUC(cold, testInsts), 1E-3);
+    }
+    System.out.println("L1 path of " + lambdas.length + " lambdas: " + pathTime / 1E6 + " ms, from scratch: "
+        + coldTime / 1E6 + " ms, #nonzeros: " + models[0].getNumNonZeroCoefficients() + " to "
+        + models[lambdas.length - 1].getNumNonZeroCoefficients());
+    Assert.assertTrue(models[0].getNumNonZeroCoefficients() < models[lambdas.length - 1].getNumNonZeroCoefficients());
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testPathIncreasingLambdas()
+      throws IOException {
+    new LogisticRegression().trainPath(LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", 123),
+        new double[]{1, 2});
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testL1Unsupported()
+      throws IOException {
+    LogisticRegression LR = new LogisticRegression();
+    LR.setL1Ratio(0.5);
+    LR.setSolver(LogisticRegression.Solver.LBFGS);
+    LR.train(LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", 123));
+  }
 }
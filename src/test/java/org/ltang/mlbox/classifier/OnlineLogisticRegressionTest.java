@@ -0,0 +1,146 @@
+package org.ltang.mlbox.classifier;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.ltang.mlbox.classifier.eval.AUC;
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.SparseVector;
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class OnlineLogisticRegressionTest {
+
+  static final String A1A_TRAIN = "data/libsvm/a1a.train.txt";
+
+  static final String A1A_TEST = "data/libsvm/a1a.test.txt";
+
+  static double getAUC(final LogisticRegression model, final Instance[] instances) {
+    double[] scores = new double[instances.length];
+    boolean[] labels = new boolean[instances.length];
+    for (int i = 0; i < instances.length; i++) {
+      scores[i] = model.predict(instances[i].getFeatures());
+      labels[i] = instances[i].getLabel() > 0.5;
+    }
+    return new AUC().calc(scores, labels);
+  }
+
+  /**
+   * A few passes of the online learner are close to the batch model
+   */
+  @Test
+  public void testA1A()
+      throws IOException {
+    Instance[] train = new LIBSVMDataLoader(A1A_TRAIN, 123).getInstances();
+    Instance[] test = new LIBSVMDataLoader(A1A_TEST, 123).getInstances();
+    LogisticRegression batch = new LogisticRegression();
+    batch.train(123, train);
+    double batchAUC = getAUC(batch, test);
+
+    OnlineLogisticRegression online = new OnlineLogisticRegression();
+    for (int epoch = 0; epoch < 5; epoch++) {
+      online.update(train);
+    }
+    LogisticRegression exported = online.toLogisticRegression(123);
+    double onlineAUC = getAUC(exported, test);
+    System.out.println("Batch AUC: " + batchAUC + ", online AUC: " + onlineAUC);
+    Assert.assertEquals(online.getNumUpdates(), 5L * train.length);
+    Assert.assertEquals(onlineAUC, batchAUC, 0.01);
+
+    // The exported model predicts the same probabilities
+    for (int i = 0; i < test.length; i++) {
+      Assert.assertEquals(exported.predict(test[i].getFeatures()), online.predict(test[i].getFeatures()), 1E-12);
+    }
+  }
+
+  /**
+   * The updates by instances and by the blocks of a data set are the same
+   */
+  @Test
+  public void testDatasetUpdate()
+      throws IOException {
+    Instance[] train = new LIBSVMDataLoader(A1A_TRAIN, 123).getInstances();
+    OnlineLogisticRegression byInstances = new OnlineLogisticRegression(0.2, 1, 0.5, 0.1);
+    OnlineLogisticRegression byDataset = new OnlineLogisticRegression(0.2, 1, 0.5, 0.1);
+    for (int i = 0; i < train.length; i++) {
+      byInstances.update(train[i]);
+    }
+    byDataset.update(new CSRDataset(123, train));
+    double[] beta1 = byInstances.toLogisticRegression().getCoefficients();
+    double[] beta2 = byDataset.toLogisticRegression().getCoefficients();
+    Assert.assertEquals(beta1.length, beta2.length);
+    for (int dim = 0; dim < beta1.length; dim++) {
+      Assert.assertEquals(beta1[dim], beta2[dim]);
+    }
+  }
+
+  /**
+   * The L1 regularizer makes most coefficients of the noise features exactly zero
+   */
+  @Test
+  public void testSparsity() {
+    Random random = new Random(1);
+    int numInformative = 10;
+    OnlineLogisticRegression dense = new OnlineLogisticRegression(0.1, 1, 0, 0);
+    OnlineLogisticRegression sparse = new OnlineLogisticRegression(0.1, 1, 5, 0);
+    for (int i = 0; i < 50000; i++) {
+      // 10 informative features and 10 noise features out of a space of a billion
+      int[] dims = new int[20];
+      float[] vals = new float[20];
+      double margin = 0;
+      for (int k = 0; k < 20; k++) {
+        dims[k] = k < numInformative ? k * 1000 : 1000000 + random.nextInt(1000000000);
+        vals[k] = (float) random.nextGaussian();
+        if (k < numInformative) {
+          margin += vals[k];
+        }
+      }
+      float label = random.nextDouble() < 1 / (1 + Math.exp(-margin)) ? 1f : 0f;
+      Instance inst = new Instance(new SparseVector(dims, vals), label);
+      dense.update(inst);
+      sparse.update(inst);
+    }
+    System.out.println("#dimensions: " + sparse.getNumDimensions() + ", #nonzeros without L1: "
+        + dense.getNumNonZeroCoefficients() + ", #nonzeros with L1: " + sparse.getNumNonZeroCoefficients());
+    Assert.assertTrue(sparse.getNumDimensions() > 400000);
+    Assert.assertEquals(dense.getNumNonZeroCoefficients(), dense.getNumDimensions());
+    Assert.assertTrue(sparse.getNumNonZeroCoefficients() < sparse.getNumDimensions() / 100);
+    for (int k = 0; k < numInformative; k++) {
+      Assert.assertTrue(sparse.getCoefficient(k * 1000) > 0.5);
+    }
+  }
+
+  /**
+   * The throughput of the updates
+   */
+  @Test(groups = "benchmark")
+  public void testThroughput()
+      throws IOException {
+    CSRDataset train = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, 123);
+    OnlineLogisticRegression online = new OnlineLogisticRegression();
+    int numEpochs = 500;
+    // Warm up
+    for (int epoch = 0; epoch < 50; epoch++) {
+      online.update(train);
+    }
+    long start = System.nanoTime();
+    for (int epoch = 0; epoch < numEpochs; epoch++) {
+      online.update(train);
+    }
+    long time = System.nanoTime() - start;
+    double updatesPerSecond = (double) numEpochs * train.getNumInstances() / time * 1E9;
+    System.out.println("Online updates: " + updatesPerSecond / 1E6 + " million instances per second, "
+        + (double) numEpochs * train.getNumEntries() / time * 1E3 + " million features per second");
+    Assert.assertTrue(updatesPerSecond > 1E6);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testExportTooSmall() {
+    OnlineLogisticRegression online = new OnlineLogisticRegression();
+    online.update(new Instance(new SparseVector(new int[]{5}, new float[]{1f}), 1f));
+    online.toLogisticRegression(5);
+  }
+}
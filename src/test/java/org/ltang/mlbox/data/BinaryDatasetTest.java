@@ -0,0 +1,88 @@
+package org.ltang.mlbox.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class BinaryDatasetTest {
+
+  static File createTempFile()
+      throws IOException {
+    File file = File.createTempFile("dataset", ".bin");
+    file.deleteOnExit();
+    return file;
+  }
+
+  @Test
+  public void testConvertA1A()
+      throws IOException {
+    File file = createTempFile();
+    LIBSVMDataLoader.convertToBinary("data/libsvm/a1a.train.txt", -1, file.getPath());
+    LIBSVMDataLoader loader = new LIBSVMDataLoader("data/libsvm/a1a.train.txt", -1);
+
+    MappedBinaryDataset dataset = new MappedBinaryDataset(file.getPath());
+    Assert.assertEquals(dataset.getDimension(), loader.getDimension());
+    Assert.assertEquals(dataset.getNumInstances(), loader.getNumInstances());
+    Assert.assertEquals(dataset.getInstances(), loader.getInstances());
+  }
+
+  @Test
+  public void testWriteInstances()
+      throws IOException {
+    Instance[] instances = new Instance[]{
+        new Instance(new SparseVector(new int[]{3, 1}, new float[]{0.5f, -2f}), 1f, 0.25f, 1.5f, 7),
+        new Instance(new SparseVector(new int[0], new float[0]), 0f, 2f, -1f, 0),
+        new Instance(new SparseVector(new int[]{Integer.MAX_VALUE - 1}, new float[]{3f}), 1f)};
+    File file = createTempFile();
+    BinaryDatasetWriter.write(file.getPath(), Integer.MAX_VALUE, instances);
+
+    MappedBinaryDataset dataset = new MappedBinaryDataset(file.getPath());
+    Assert.assertEquals(dataset.getDimension(), Integer.MAX_VALUE);
+    Assert.assertEquals(dataset.getNumEntries(), 3);
+    Assert.assertEquals(dataset.getInstances(), instances);
+    Assert.assertEquals(dataset.getRowStart(2), 2);
+    Assert.assertEquals(dataset.getEntryDimension(2), Integer.MAX_VALUE - 1);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testNotBinaryDataset()
+      throws IOException {
+    new MappedBinaryDataset("data/libsvm/a1a.train.txt");
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testTruncatedFile()
+      throws IOException {
+    File file = createTempFile();
+    LIBSVMDataLoader.convertToBinary("data/libsvm/a1a.train.txt", -1, file.getPath());
+    FileOutputStream os = new FileOutputStream(file, true);
+    os.getChannel().truncate(file.length() / 2);
+    os.close();
+    new MappedBinaryDataset(file.getPath());
+  }
+
+  @Test
+  public void testReloadTime()
+      throws IOException {
+    File file = createTempFile();
+    long start = System.nanoTime();
+    LIBSVMDataLoader.convertToBinary("data/libsvm/a1a.test.txt", -1, file.getPath());
+    System.out.println("Convert a1a.test : " + (System.nanoTime() - start) / 1E6 + " ms");
+
+    start = System.nanoTime();
+    MappedBinaryDataset dataset = new MappedBinaryDataset(file.getPath());
+    double sum = 0;
+    for (int i = 0; i < dataset.getNumInstances(); i++) {
+      for (long j = dataset.getRowStart(i); j < dataset.getRowEnd(i); j++) {
+        sum += dataset.getEntryValue(j) * dataset.getLabel(i);
+      }
+    }
+    System.out.println("Reload and scan a1a.test : " + (System.nanoTime() - start) / 1E6 + " ms");
+    Assert.assertTrue(sum > 0);
+  }
+}
@@ -0,0 +1,74 @@
+package org.ltang.mlbox.data;
+
+import java.io.IOException;
+
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class CSRDatasetTest {
+
+  @Test
+  public void testPackInstances() {
+    Instance[] instances = new Instance[]{
+        new Instance(new SparseVector(new int[]{3, 1}, new float[]{0.5f, -2f}), 1f, 0.25f, 1.5f, 7),
+        new Instance(new SparseVector(new int[0], new float[0]), 0f, 2f, -1f, 0),
+        new Instance(new SparseVector(new int[]{0, 4}, new float[]{3f, 1f}), 1f)};
+    CSRDataset data = new CSRDataset(5, instances);
+    Assert.assertEquals(data.getNumInstances(), 3);
+    Assert.assertEquals(data.getNumEntries(), 4);
+    Assert.assertEquals(data.getDimension(), 5);
+    Assert.assertEquals(data.toInstances(), instances);
+    Assert.assertEquals(data.innerProduct(0, new double[]{1, 2, 3, 4, 5}), 0.5 * 4 - 2 * 2, 1E-10);
+    Assert.assertEquals(data.innerProduct(1, new double[]{1, 2, 3, 4, 5}), 0, 1E-10);
+  }
+
+  @Test
+  public void testLoadA1A()
+      throws IOException {
+    LIBSVMDataLoader loader = new LIBSVMDataLoader("data/libsvm/a1a.train.txt", -1);
+    CSRDataset data = LIBSVMDataLoader.loadCSRDataset("data/libsvm/a1a.train.txt", -1);
+    Assert.assertEquals(data.getDimension(), loader.getDimension());
+    Assert.assertEquals(data.toInstances(), loader.getInstances());
+  }
+
+  /**
+   * Copy a data set of several blocks into one CSR data set
+   */
+  @Test
+  public void testCopyOf()
+      throws IOException {
+    Instance[] instances = new LIBSVMDataLoader("data/libsvm/a1a.test.txt", 123).getInstances();
+    InstanceArrayDataset blocks = new InstanceArrayDataset(123, instances);
+    CSRDataset data = CSRDataset.copyOf(blocks);
+    Assert.assertEquals(data.getNumInstances(), instances.length);
+    Assert.assertEquals(data.getDimension(), 123);
+    for (int i = 0; i < instances.length; i++) {
+      Assert.assertEquals(data.getInstance(i), instances[i]);
+    }
+    Assert.assertTrue(CSRDataset.copyOf(data) == data);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @Test
+  public void testHeapUsage()
+      throws IOException {
+    long base = usedHeap();
+    Instance[] instances = new LIBSVMDataLoader("data/libsvm/a1a.test.txt", -1).getInstances();
+    long instancesBytes = usedHeap() - base;
+
+    base = usedHeap();
+    CSRDataset data = new CSRDataset(123, instances);
+    long csrBytes = usedHeap() - base;
+    System.out.println("a1a.test heap usage, Instance[]: " + instancesBytes / 1024 + "KB, CSR: " + csrBytes / 1024 + "KB");
+    Assert.assertEquals(data.getNumInstances(), instances.length);
+  }
+}
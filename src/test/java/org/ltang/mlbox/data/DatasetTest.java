@@ -0,0 +1,140 @@
+package org.ltang.mlbox.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.ltang.mlbox.utils.LIBSVMFileDataset;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class DatasetTest {
+
+  static final String A1A_TEST = "data/libsvm/a1a.test.txt";
+
+  /**
+   * Read all the instances of a data set block by block
+   */
+  static List<Instance> readAll(Dataset data, int maxBlockSize) {
+    List<Instance> instances = new ArrayList<Instance>();
+    Iterator<CSRDataset> blocks = data.blocks(maxBlockSize);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      Assert.assertTrue(block.getNumInstances() > 0);
+      for (int i = 0; i < block.getNumInstances(); i++) {
+        instances.add(block.getInstance(i));
+      }
+    }
+    return instances;
+  }
+
+  static void assertSameInstances(Dataset data, Instance[] expected) {
+    Assert.assertEquals(data.getNumInstances(), expected.length);
+    for (int maxBlockSize : new int[]{1, 1000, Dataset.DEFAULT_BLOCK_SIZE, Integer.MAX_VALUE}) {
+      List<Instance> instances = readAll(data, maxBlockSize);
+      Assert.assertEquals(instances.toArray(), expected);
+    }
+  }
+
+  @Test
+  public void testInstanceArrayDataset() {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TEST, -1).getInstances();
+    assertSameInstances(new InstanceArrayDataset(123, instances), instances);
+  }
+
+  @Test
+  public void testMappedBinaryDataset()
+      throws IOException {
+    File file = File.createTempFile("dataset", ".bin");
+    file.deleteOnExit();
+    LIBSVMDataLoader.convertToBinary(A1A_TEST, -1, file.getPath());
+    Instance[] instances = new LIBSVMDataLoader(A1A_TEST, -1).getInstances();
+    assertSameInstances(new MappedBinaryDataset(file.getPath()), instances);
+  }
+
+  @Test
+  public void testLIBSVMFileDataset()
+      throws IOException {
+    LIBSVMDataLoader loader = new LIBSVMDataLoader(A1A_TEST, -1);
+    LIBSVMFileDataset data = new LIBSVMFileDataset(A1A_TEST, -1);
+    Assert.assertEquals(data.getDimension(), loader.getDimension());
+    assertSameInstances(data, loader.getInstances());
+
+    LIBSVMDataLoader limitedLoader = new LIBSVMDataLoader(A1A_TEST, 123, 5000);
+    assertSameInstances(new LIBSVMFileDataset(A1A_TEST, 123, 5000), limitedLoader.getInstances());
+  }
+
+  /**
+   * @return The number of the open files of this process which are the file, or 0 if they cannot be
+   * listed
+   */
+  static int countOpenFiles(File file)
+      throws IOException {
+    File[] fds = new File("/proc/self/fd").listFiles();
+    if (fds == null) {
+      return 0;
+    }
+    int numOpenFiles = 0;
+    for (File fd : fds) {
+      if (fd.getCanonicalPath().equals(file.getCanonicalPath())) {
+        numOpenFiles++;
+      }
+    }
+    return numOpenFiles;
+  }
+
+  /**
+   * The iterators of an empty file and of a file which is not read to the end leave it closed
+   */
+  @Test
+  public void testLIBSVMFileDatasetClosed()
+      throws IOException {
+    File empty = File.createTempFile("empty", ".txt");
+    LIBSVMFileDataset emptyData = new LIBSVMFileDataset(empty.getPath(), 10);
+    Assert.assertEquals(emptyData.getNumInstances(), 0);
+    Assert.assertFalse(emptyData.blocks(100).hasNext());
+    Assert.assertEquals(countOpenFiles(empty), 0);
+    Assert.assertTrue(empty.delete());
+
+    File file = File.createTempFile("dataset", ".txt");
+    Files.copy(new File(A1A_TEST).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    LIBSVMFileDataset data = new LIBSVMFileDataset(file.getPath(), 123);
+    for (int i = 0; i < 3; i++) {
+      Iterator<CSRDataset> blocks = data.blocks(100);
+      Assert.assertEquals(blocks.next().getNumInstances(), 100);
+      Assert.assertEquals(countOpenFiles(file), 0);
+    }
+    Assert.assertTrue(file.delete());
+  }
+
+  /**
+   * All the data sets reject a block size which is not positive instead of returning empty blocks
+   */
+  @Test
+  public void testInvalidBlockSize()
+      throws IOException {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TEST, -1).getInstances();
+    File file = File.createTempFile("dataset", ".bin");
+    file.deleteOnExit();
+    LIBSVMDataLoader.convertToBinary(A1A_TEST, -1, file.getPath());
+    Dataset[] datasets = new Dataset[]{new InstanceArrayDataset(123, instances), new CSRDataset(123, instances),
+        new MappedBinaryDataset(file.getPath()), new LIBSVMFileDataset(A1A_TEST, -1)};
+    int numRejected = 0;
+    for (Dataset data : datasets) {
+      for (int maxBlockSize : new int[]{0, -1}) {
+        try {
+          data.blocks(maxBlockSize);
+        } catch (IllegalArgumentException e) {
+          numRejected++;
+        }
+      }
+    }
+    Assert.assertEquals(numRejected, datasets.length * 2);
+  }
+}
@@ -0,0 +1,461 @@
+package org.ltang.mlbox.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.ltang.mlbox.utils.HalfFloat;
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class SparseVectorTest {
+
+  static void assertVector(SparseVector v, int[] dims, float[] vals) {
+    Assert.assertEquals(v.dims.length, dims.length);
+    Assert.assertEquals(v.vals.length, vals.length);
+    for (int i = 0; i < dims.length; i++) {
+      Assert.assertEquals(v.dims[i], dims[i]);
+      Assert.assertEquals(v.vals[i], vals[i], 0f);
+    }
+  }
+
+  @Test
+  public void testSortOnConstruction() {
+    int[] dims = new int[]{5, 1, 3};
+    float[] vals = new float[]{0.5f, 1f, 3f};
+    SparseVector v = new SparseVector(dims, vals);
+    assertVector(v, new int[]{1, 3, 5}, new float[]{1f, 3f, 0.5f});
+    // The input arrays are copied, not sorted in place
+    Assert.assertEquals(dims[0], 5);
+    Assert.assertEquals(vals[0], 0.5f, 0f);
+  }
+
+  @Test
+  public void testLargeIndices() {
+    int big = Integer.MAX_VALUE - 1;
+    SparseVector v = new SparseVector(new int[]{big, (1 << 24) + 1, 1 << 24}, new float[]{1f, 2f, 3f});
+    assertVector(v, new int[]{1 << 24, (1 << 24) + 1, big}, new float[]{3f, 2f, 1f});
+    SparseVector w = new SparseVector(new int[]{(1 << 24) + 1, Integer.MAX_VALUE}, new float[]{4f, 5f});
+    assertVector(v.add(w), new int[]{1 << 24, (1 << 24) + 1, big, Integer.MAX_VALUE},
+        new float[]{3f, 6f, 1f, 5f});
+    assertVector(v.elementwiseMultiply(w), new int[]{(1 << 24) + 1}, new float[]{8f});
+    Assert.assertEquals(v.get(big), 1f, 0f);
+  }
+
+  @Test
+  public void testDense() {
+    SparseVector v = new SparseVector(new float[]{0f, 1.5f, 0f, -2f});
+    assertVector(v, new int[]{1, 3}, new float[]{1.5f, -2f});
+    assertVector(new SparseVector(new float[3]), new int[0], new float[0]);
+  }
+
+  @Test
+  public void testCreate() {
+    SparseVector v = SparseVector.create(new String[]{"7:1.5", " 2:3", "16777217:2"});
+    assertVector(v, new int[]{2, 7, 16777217}, new float[]{3f, 1.5f, 2f});
+  }
+
+  @Test
+  public void testAdd() {
+    SparseVector v1 = new SparseVector(new int[]{0, 2, 4}, new float[]{1f, 2f, 3f});
+    SparseVector v2 = new SparseVector(new int[]{1, 2, 5}, new float[]{10f, 20f, 30f});
+    assertVector(v1.add(v2), new int[]{0, 1, 2, 4, 5}, new float[]{1f, 10f, 22f, 3f, 30f});
+    assertVector(v1.add(new SparseVector(new int[0], new float[0])), v1.dims, v1.vals);
+    assertVector(v1.elementwiseMultiply(v2), new int[]{2}, new float[]{40f});
+  }
+
+  @Test
+  public void testCopy() {
+    SparseVector v = new SparseVector(new int[]{3, 1}, new float[]{1f, 2f});
+    SparseVector copy = v.copyNew();
+    Assert.assertEquals(copy, v);
+    Assert.assertNotSame(copy.dims, v.dims);
+    Assert.assertNotSame(copy.vals, v.vals);
+  }
+
+  @Test
+  public void testSubtract() {
+    SparseVector v1 = new SparseVector(new int[]{0, 2, 4}, new float[]{1f, 2f, 3f});
+    SparseVector v2 = new SparseVector(new int[]{1, 2, 5}, new float[]{10f, 20f, 30f});
+    assertVector(v1.subtract(v2), new int[]{0, 1, 2, 4, 5}, new float[]{1f, -10f, -18f, 3f, -30f});
+    // The operands are not changed
+    assertVector(v2, new int[]{1, 2, 5}, new float[]{10f, 20f, 30f});
+  }
+
+  @Test
+  public void testInPlace() {
+    SparseVector v = new SparseVector(new int[]{1, 3}, new float[]{2f, -4f});
+    SparseVector copy = v.neg();
+    assertVector(v, new int[]{1, 3}, new float[]{2f, -4f});
+    assertVector(copy, new int[]{1, 3}, new float[]{-2f, 4f});
+
+    Assert.assertTrue(v.mulInPlace(2f) == v);
+    assertVector(v, new int[]{1, 3}, new float[]{4f, -8f});
+    assertVector(v.divInPlace(4f), new int[]{1, 3}, new float[]{1f, -2f});
+    assertVector(v.squareInPlace(), new int[]{1, 3}, new float[]{1f, 4f});
+    assertVector(v.inverseInPlace(), new int[]{1, 3}, new float[]{1f, 0.25f});
+    assertVector(v.powInPlace(0.5f), new int[]{1, 3}, new float[]{1f, 0.5f});
+    assertVector(v.negInPlace(), new int[]{1, 3}, new float[]{-1f, -0.5f});
+  }
+
+  @Test
+  public void testAxpy() {
+    SparseVector v = new SparseVector(new int[]{0, 3}, new float[]{2f, -1f});
+    double[] y = new double[]{1, 1, 1, 1};
+    v.axpy(0.5, y);
+    Assert.assertEquals(y[0], 2, 0);
+    Assert.assertEquals(y[1], 1, 0);
+    Assert.assertEquals(y[3], 0.5, 0);
+    float[] fy = new float[4];
+    v.axpy(-2f, fy);
+    Assert.assertEquals(fy[0], -4f, 0f);
+    Assert.assertEquals(fy[3], 2f, 0f);
+  }
+
+  @Test
+  public void testBuilder() {
+    SparseVectorBuilder builder = new SparseVectorBuilder(2);
+    SparseVector v = builder.append(1, 1f).append(4, 2f).append(9, 3f).finish();
+    assertVector(v, new int[]{1, 4, 9}, new float[]{1f, 2f, 3f});
+    Assert.assertEquals(builder.size(), 0);
+
+    // Appended out of order, with a duplicate dimension
+    v = builder.append(7, 1f).append(2, 2f).append(7, 0.5f).append(1 << 30, 4f).finish();
+    assertVector(v, new int[]{2, 7, 1 << 30}, new float[]{2f, 1.5f, 4f});
+
+    v = builder.append(new SparseVector(new int[]{0, 5}, new float[]{1f, 2f}), -1f).append(5, 2f).finish();
+    assertVector(v, new int[]{0, 5}, new float[]{-1f, 0f});
+    assertVector(builder.finish(), new int[0], new float[0]);
+  }
+
+  static SparseVector randomVector(Random random, int numEntries, int maxGap) {
+    int[] dims = new int[numEntries];
+    float[] vals = new float[numEntries];
+    int dim = random.nextInt(maxGap);
+    for (int i = 0; i < numEntries; i++) {
+      dims[i] = dim;
+      vals[i] = random.nextFloat();
+      dim += 1 + random.nextInt(maxGap);
+    }
+    return new SparseVector(dims, vals);
+  }
+
+  // The plain linear merge as the reference
+  static float linearInnerProduct(SparseVector v1, SparseVector v2) {
+    float ret = 0;
+    int i = 0;
+    int j = 0;
+    while (i < v1.dims.length && j < v2.dims.length) {
+      if (v1.dims[i] < v2.dims[j]) {
+        i++;
+      } else if (v1.dims[i] > v2.dims[j]) {
+        j++;
+      } else {
+        ret += v1.vals[i++] * v2.vals[j++];
+      }
+    }
+    return ret;
+  }
+
+  @Test
+  public void testGallop() {
+    int[] dims = new int[]{1, 3, 5, 7, 9, 11};
+    Assert.assertEquals(SparseVector.gallop(dims, 0, 0), 0);
+    Assert.assertEquals(SparseVector.gallop(dims, 0, 1), 0);
+    Assert.assertEquals(SparseVector.gallop(dims, 0, 6), 3);
+    Assert.assertEquals(SparseVector.gallop(dims, 2, 11), 5);
+    Assert.assertEquals(SparseVector.gallop(dims, 4, 4), 4);
+    Assert.assertEquals(SparseVector.gallop(dims, 1, 12), 6);
+    Assert.assertEquals(SparseVector.gallop(dims, 6, 1), 6);
+  }
+
+  @Test
+  public void testIntersection() {
+    Random random = new Random(5);
+    int[] lengths = new int[]{0, 1, 3, 20, 100, 5000};
+    for (int len1 : lengths) {
+      for (int len2 : lengths) {
+        SparseVector v1 = randomVector(random, len1, 3);
+        SparseVector v2 = randomVector(random, len2, 200);
+        float expected = linearInnerProduct(v1, v2);
+        Assert.assertEquals(v1.innerProduct(v2), expected, 0f);
+        Assert.assertEquals(v2.innerProduct(v1), expected, 0f);
+        Assert.assertEquals(SparseVector.innerProductMerge(v1, v2), expected, 0f);
+        if (len1 <= len2) {
+          Assert.assertEquals(SparseVector.innerProductGallop(v1, v2), expected, 0f);
+        }
+        SparseVector product = v1.elementwiseMultiply(v2);
+        float sum = 0;
+        for (int i = 0; i < product.dims.length; i++) {
+          Assert.assertEquals(product.vals[i], v1.get(product.dims[i]) * v2.get(product.dims[i]), 0f);
+          sum += product.vals[i];
+        }
+        Assert.assertEquals(sum, expected, 0f);
+      }
+    }
+  }
+
+  @Test
+  public void testCachedNorm() {
+    SparseVector v = new SparseVector(new int[]{1, 2}, new float[]{3f, 4f});
+    Assert.assertEquals(v.norm2(), 5f, 0f);
+    Assert.assertEquals(v.mulInPlace(2f).norm2(), 10f, 0f);
+    Assert.assertEquals(SparseVector.cosine(v, v.mul(3f)), 1f, 1E-6f);
+  }
+
+  /**
+   * The inner products between short query vectors and long profile vectors, and between
+   * vectors of similar lengths
+   */
+  @Test(groups = "benchmark")
+  public void testIntersectionThroughput() {
+    Random random = new Random(9);
+    SparseVector[] queries = new SparseVector[1000];
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = randomVector(random, 20, 20000);
+    }
+    SparseVector[] profiles = new SparseVector[20];
+    for (int i = 0; i < profiles.length; i++) {
+      profiles[i] = randomVector(random, 50000, 8);
+    }
+    SparseVector[] balanced = new SparseVector[1000];
+    for (int i = 0; i < balanced.length; i++) {
+      balanced[i] = randomVector(random, 500, 40);
+    }
+    for (int round = 0; round < 5; round++) {
+      double linearSum = 0;
+      double adaptiveSum = 0;
+      long start = System.nanoTime();
+      for (SparseVector profile : profiles) {
+        for (SparseVector query : queries) {
+          linearSum += linearInnerProduct(query, profile);
+        }
+      }
+      long linearSkewedTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (SparseVector profile : profiles) {
+        for (SparseVector query : queries) {
+          adaptiveSum += query.innerProduct(profile);
+        }
+      }
+      long skewedTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 1; i < balanced.length; i++) {
+        linearSum += linearInnerProduct(balanced[i - 1], balanced[i]);
+      }
+      long linearBalancedTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 1; i < balanced.length; i++) {
+        adaptiveSum += balanced[i - 1].innerProduct(balanced[i]);
+      }
+      long balancedTime = System.nanoTime() - start;
+      // The same products are summed in the same order
+      Assert.assertEquals(adaptiveSum, linearSum, 0);
+      if (round == 4) {
+        int numSkewed = queries.length * profiles.length;
+        System.out.println("innerProduct ns, 20 x 50000 entries, linear: " + linearSkewedTime / numSkewed
+            + ", adaptive: " + skewedTime / numSkewed + "; 500 x 500 entries, linear: "
+            + linearBalancedTime / balanced.length + ", adaptive: " + balancedTime / balanced.length);
+      }
+    }
+  }
+
+  static int[][] randomDims(Random random, int numVectors, int numEntries, boolean sorted) {
+    int[][] dims = new int[numVectors][numEntries];
+    for (int i = 0; i < numVectors; i++) {
+      int dim = 0;
+      for (int j = 0; j < numEntries; j++) {
+        dim += 1 + random.nextInt(100);
+        dims[i][j] = dim;
+      }
+      for (int j = numEntries - 1; j > 0 && !sorted; j--) {
+        int k = random.nextInt(j + 1);
+        int tmp = dims[i][j];
+        dims[i][j] = dims[i][k];
+        dims[i][k] = tmp;
+      }
+    }
+    return dims;
+  }
+
+  /**
+   * The throughput of constructing and adding vectors
+   */
+  @Test(groups = "benchmark")
+  public void testThroughput() {
+    Random random = new Random(3);
+    int numVectors = 20000;
+    int numEntries = 50;
+    float[] vals = new float[numEntries];
+    for (int j = 0; j < numEntries; j++) {
+      vals[j] = random.nextFloat();
+    }
+    int[][] sortedDims = randomDims(random, numVectors, numEntries, true);
+    int[][] unsortedDims = randomDims(random, numVectors, numEntries, false);
+    SparseVector[] vectors = new SparseVector[numVectors];
+    for (int round = 0; round < 10; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < numVectors; i++) {
+        vectors[i] = new SparseVector(sortedDims[i], vals);
+      }
+      long sortedTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < numVectors; i++) {
+        vectors[i] = new SparseVector(unsortedDims[i], vals);
+      }
+      long unsortedTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      SparseVector sum = vectors[0];
+      for (int i = 1; i < 2000; i++) {
+        sum = sum.add(vectors[i]);
+      }
+      long addTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      int numProducts = 0;
+      for (int i = 1; i < numVectors; i++) {
+        numProducts += vectors[i - 1].elementwiseMultiply(vectors[i]).dims.length;
+      }
+      long multiplyTime = System.nanoTime() - start;
+      if (round == 9) {
+        System.out.println("SparseVector ns/vector, sorted construction: " + sortedTime / numVectors
+            + ", unsorted construction: " + unsortedTime / numVectors + ", add (accumulated " + sum.dims.length
+            + " entries): " + addTime / 2000 + ", elementwiseMultiply: " + multiplyTime / numVectors
+            + " (" + numProducts + " entries)");
+      }
+    }
+  }
+
+  static SparseVector[] serializationVectors() {
+    Random random = new Random(5);
+    SparseVector longVector = randomVector(random, 5000, 100);
+    longVector.vals[7] = -3.5E-6f;
+    longVector.vals[8] = 6E4f;
+    return new SparseVector[]{new SparseVector(new int[0], new float[0]),
+        new SparseVector(new int[]{0, 3, 200, Integer.MAX_VALUE - 1}, new float[]{1f, 1f, 1f, 1f}),
+        new SparseVector(new int[]{5, 1 << 20}, new float[]{-2.25f, 0.1f}), longVector};
+  }
+
+  static void assertHalfFloats(SparseVector v, SparseVector expected) {
+    Assert.assertEquals(v.dims.length, expected.dims.length);
+    for (int i = 0; i < v.dims.length; i++) {
+      Assert.assertEquals(v.dims[i], expected.dims[i]);
+      Assert.assertEquals(v.vals[i], HalfFloat.toFloat(HalfFloat.fromFloat(expected.vals[i])), 0f);
+    }
+  }
+
+  @Test
+  public void testSerialization()
+      throws IOException {
+    SparseVector[] vectors = serializationVectors();
+    // Both serializations in the same stream
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream os = new DataOutputStream(bytes);
+    for (SparseVector v : vectors) {
+      v.serialize(os);
+      v.serialize(os, false);
+      v.serialize(os, true);
+    }
+    os.close();
+    DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+    for (SparseVector v : vectors) {
+      Assert.assertEquals(SparseVector.deserialize(dis), v);
+      Assert.assertEquals(SparseVector.deserialize(dis), v);
+      assertHalfFloats(SparseVector.deserialize(dis), v);
+      Assert.assertEquals(SparseVector.deserialize(buf), v);
+      Assert.assertEquals(SparseVector.deserialize(buf), v);
+      assertHalfFloats(SparseVector.deserialize(buf), v);
+    }
+    Assert.assertEquals(dis.read(), -1);
+    Assert.assertEquals(buf.remaining(), 0);
+
+    // The values of all ones are not written
+    SparseVector ones = vectors[1];
+    Assert.assertEquals(ones.getSerializedSize(false), 1 + 1 + 1 + 1 + 1 + 2 + 5);
+    Assert.assertEquals(ones.getSerializedSize(true), ones.getSerializedSize(false));
+    Assert.assertEquals(vectors[2].getSerializedSize(true), vectors[2].getSerializedSize(false) - 4);
+
+    // Heap and direct buffers at a non-zero position
+    for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(100000), ByteBuffer.allocateDirect(100000)}) {
+      buffer.position(3);
+      int size = 0;
+      for (SparseVector v : vectors) {
+        v.serialize(buffer, false);
+        size += v.getSerializedSize(false);
+      }
+      Assert.assertEquals(buffer.position(), size + 3);
+      buffer.flip();
+      buffer.position(3);
+      for (SparseVector v : vectors) {
+        Assert.assertEquals(SparseVector.deserialize(buffer), v);
+      }
+      Assert.assertEquals(buffer.remaining(), 0);
+    }
+  }
+
+  @Test(expectedExceptions = java.nio.BufferOverflowException.class)
+  public void testSerializationOverflow() {
+    serializationVectors()[3].serialize(ByteBuffer.allocate(100), false);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testSerializeNegativeIndex() {
+    new SparseVector(new int[]{-1, 2}, new float[]{1f, 2f}).getSerializedSize(false);
+  }
+
+  /**
+   * The sizes and the throughput of the original and the compact serializations, of the binary
+   * a1a vectors and of random real-valued vectors
+   */
+  @Test(groups = "benchmark")
+  public void testSerializationThroughput()
+      throws IOException {
+    Random random = new Random(7);
+    SparseVector[] a1a = new SparseVector[40000];
+    SparseVector[] real = new SparseVector[a1a.length];
+    Instance[] instances = new LIBSVMDataLoader("data/libsvm/a1a.test.txt", 123).getInstances();
+    for (int i = 0; i < a1a.length; i++) {
+      a1a[i] = instances[i % instances.length].getFeatures();
+      real[i] = randomVector(random, 20, 50);
+    }
+    for (SparseVector[] vectors : new SparseVector[][]{a1a, real}) {
+      String name = vectors == a1a ? "a1a" : "real-valued";
+      long[] times = new long[6];
+      int[] sizes = new int[3];
+      for (int round = 0; round < 10; round++) {
+        for (int format = 0; format < 3; format++) {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+          DataOutputStream os = new DataOutputStream(bytes);
+          long start = System.nanoTime();
+          for (SparseVector v : vectors) {
+            if (format == 0) {
+              v.serialize(os);
+            } else {
+              v.serialize(os, format == 2);
+            }
+          }
+          os.flush();
+          times[format * 2] = System.nanoTime() - start;
+          byte[] serialized = bytes.toByteArray();
+          sizes[format] = serialized.length;
+          DataInputStream dis = new DataInputStream(new ByteArrayInputStream(serialized));
+          start = System.nanoTime();
+          for (SparseVector v : vectors) {
+            Assert.assertEquals(SparseVector.deserialize(dis).dims.length, v.dims.length);
+          }
+          times[format * 2 + 1] = System.nanoTime() - start;
+        }
+      }
+      System.out.println("Serialize " + vectors.length + " " + name + " vectors (bytes, write ms, read ms), original: "
+          + sizes[0] + ", " + times[0] / 1E6 + ", " + times[1] / 1E6 + "; compact: " + sizes[1] + ", "
+          + times[2] / 1E6 + ", " + times[3] / 1E6 + "; compact float16: " + sizes[2] + ", " + times[4] / 1E6
+          + ", " + times[5] / 1E6);
+    }
+  }
+}
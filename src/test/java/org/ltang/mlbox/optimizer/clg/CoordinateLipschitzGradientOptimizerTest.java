@@ -0,0 +1,352 @@
+package org.ltang.mlbox.optimizer.clg;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ltang.mlbox.classifier.eval.AUC;
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Dataset;
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.optimizer.LipschitzConstantGradientLoss;
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class CoordinateLipschitzGradientOptimizerTest {
+
+  static final String A1A_TEST = "data/libsvm/a1a.test.txt";
+
+  static final int A1A_DIMENSION = LogisticLossTest.A1A_DIMENSION;
+
+  static CoordinateLipschitzGradientOptimizer createOptimizer(final Dataset data, int numThreads) {
+    LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(new LogisticLoss(data));
+    loss.add(new L2RegularizerLoss(A1A_DIMENSION));
+    CoordinateLipschitzGradientOptimizer optimizer = new CoordinateLipschitzGradientOptimizer(loss);
+    optimizer.setNumThreads(numThreads);
+    return optimizer;
+  }
+
+  static double getAUC(final double[] beta, final Instance[] instances) {
+    double[] scores = new double[instances.length];
+    boolean[] labels = new boolean[instances.length];
+    for (int i = 0; i < instances.length; i++) {
+      scores[i] = instances[i].getFeatures().innerProduct(beta) + beta[A1A_DIMENSION];
+      labels[i] = instances[i].getLabel() > 0.5;
+    }
+    return new AUC().calc(scores, labels);
+  }
+
+  /**
+   * The block updates converge to the same model as the serial updates, including too many
+   * coordinates at a time which have to be halved
+   */
+  @Test
+  public void testParallelA1A()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION);
+    Instance[] test = new LIBSVMDataLoader(A1A_TEST, A1A_DIMENSION).getInstances();
+    CoordinateLipschitzGradientOptimizer serial = createOptimizer(data, 1);
+    serial.train();
+    double serialCost = serial._loss.cost(serial.getCofficients());
+    double serialAUC = getAUC(serial.getCofficients(), test);
+    for (int numThreads : new int[]{2, 4, 16, 64}) {
+      CoordinateLipschitzGradientOptimizer parallel = createOptimizer(data, numThreads);
+      parallel.train();
+      double[] beta = parallel.getCofficients();
+      Assert.assertEquals(parallel._loss.cost(beta), serialCost, serialCost * 1E-2);
+      Assert.assertEquals(getAUC(beta, test), serialAUC, 1E-3);
+
+      // The same coefficients for the same number of threads
+      CoordinateLipschitzGradientOptimizer again = createOptimizer(data, numThreads);
+      again.train();
+      LogisticLossTest.assertSameCoefficients(again.getCofficients(), beta);
+    }
+  }
+
+  /**
+   * The derivatives of the combined losses are the weighted sums of the ones of each loss, which
+   * are computed in the array of the caller
+   */
+  @Test
+  public void testCombinedDerivatives()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION);
+    LogisticLoss logLoss = new LogisticLoss(data);
+    L2RegularizerLoss l2Loss = new L2RegularizerLoss(A1A_DIMENSION);
+    LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(logLoss);
+    loss.add(l2Loss, 0.5);
+    double[] beta = new double[A1A_DIMENSION + 1];
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      beta[dim] = 0.01 * (dim % 7);
+    }
+    double[] derivatives = new double[2];
+    double[] logDerivatives = new double[2];
+    double[] l2Derivatives = new double[2];
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      loss.getDerivatives(dim, beta, derivatives);
+      logLoss.getDerivatives(dim, beta, logDerivatives);
+      l2Loss.getDerivatives(dim, beta, l2Derivatives);
+      Assert.assertEquals(derivatives[0], logDerivatives[0] + 0.5 * l2Derivatives[0], 1E-12);
+      Assert.assertEquals(derivatives[1], logDerivatives[1] + 0.5 * l2Derivatives[1], 1E-12);
+    }
+  }
+
+  /**
+   * A shared pool gives the same coefficients as the pool of the same number of threads created by
+   * the optimizer, and only the created pool is shut down by the optimizer
+   */
+  @Test
+  public void testSharedPool()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION);
+    CoordinateLipschitzGradientOptimizer owner = createOptimizer(data, 4);
+    ForkJoinPool ownPool = owner._pool;
+    owner.train();
+    ForkJoinPool sharedPool = new ForkJoinPool(4);
+    CoordinateLipschitzGradientOptimizer sharer = createOptimizer(data, 1);
+    sharer.setPool(sharedPool);
+    sharer.train();
+    LogisticLossTest.assertSameCoefficients(sharer.getCofficients(), owner.getCofficients());
+    sharer.shutdown();
+    Assert.assertFalse(sharedPool.isShutdown());
+    owner.setNumThreads(2);
+    Assert.assertTrue(ownPool.isShutdown());
+    owner.shutdown();
+    Assert.assertTrue(owner._pool == null);
+    sharedPool.shutdown();
+  }
+
+  /**
+   * The shrinking reaches the same objective with a fraction of the gradients
+   */
+  @Test
+  public void testShrinkingA1A()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION);
+    double[] costs = new double[2];
+    long[] numGradients = new long[2];
+    for (int numThreads : new int[]{1, 4}) {
+      for (int i = 0; i < 2; i++) {
+        CoordinateLipschitzGradientOptimizer optimizer = createOptimizer(data, numThreads);
+        optimizer.setShrinking(i == 1);
+        optimizer.setMaxNumIteration(10000);
+        optimizer.train();
+        costs[i] = optimizer._loss.cost(optimizer.getCofficients());
+        numGradients[i] = optimizer._numGradients;
+      }
+      System.out.println("Coordinate descent with " + numThreads + " threads, #gradients without shrinking: "
+          + numGradients[0] + ", cost: " + costs[0] + ", with shrinking: " + numGradients[1] + ", cost: " + costs[1]);
+      Assert.assertEquals(costs[1], costs[0], costs[0] * 1E-5);
+      Assert.assertTrue(numGradients[1] * 3 < numGradients[0]);
+    }
+  }
+
+  /**
+   * The Newton steps reach the same tolerance in much fewer iterations, and a better objective
+   */
+  @Test(groups = "benchmark")
+  public void testNewtonStepsA1A()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION);
+    Instance[] test = new LIBSVMDataLoader(A1A_TEST, A1A_DIMENSION).getInstances();
+    for (int numThreads : new int[]{1, 4}) {
+      for (boolean shrinking : new boolean[]{false, true}) {
+        double[] costs = new double[2];
+        double[] aucs = new double[2];
+        long[] numGradients = new long[2];
+        for (int i = 0; i < 2; i++) {
+          CoordinateLipschitzGradientOptimizer optimizer = createOptimizer(data, numThreads);
+          optimizer.setShrinking(shrinking);
+          optimizer.setNewtonSteps(i == 1);
+          optimizer.setMaxNumIteration(10000);
+          long start = System.nanoTime();
+          optimizer.train();
+          long time = System.nanoTime() - start;
+          costs[i] = optimizer._loss.cost(optimizer.getCofficients());
+          aucs[i] = getAUC(optimizer.getCofficients(), test);
+          numGradients[i] = optimizer._numGradients;
+          System.out.println("Coordinate descent with " + numThreads + " threads, shrinking " + shrinking
+              + (i == 1 ? ", Newton" : ", Lipschitz") + " steps: " + (double) numGradients[i] / (A1A_DIMENSION + 1)
+              + " epochs, " + optimizer._numLineSearches + " line searches, " + time / 1E6 + " ms, cost: " + costs[i]);
+        }
+        Assert.assertTrue(costs[1] < costs[0] * (1 + 1E-6));
+        Assert.assertEquals(aucs[1], aucs[0], 1E-3);
+        Assert.assertTrue(numGradients[1] * 2 < numGradients[0]);
+      }
+    }
+  }
+
+  /**
+   * The proximal Lipschitz and Newton steps, with and without shrinking and threads, reach the same
+   * sparse optimum of the L1 regularizer
+   */
+  @Test
+  public void testL1A1A()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION);
+    Instance[] test = new LIBSVMDataLoader(A1A_TEST, A1A_DIMENSION).getInstances();
+    ElasticNetRegularizer regularizer = new ElasticNetRegularizer(A1A_DIMENSION, 5, 0);
+    double firstCost = 0;
+    for (int numThreads : new int[]{1, 4}) {
+      for (int mode = 0; mode < 3; mode++) {
+        CoordinateLipschitzGradientOptimizer optimizer = createOptimizer(data, numThreads);
+        optimizer.setRegularizer(regularizer);
+        optimizer.setNewtonSteps(mode >= 1);
+        optimizer.setShrinking(mode == 2);
+        optimizer.setMaxNumIteration(10000);
+        long start = System.nanoTime();
+        optimizer.train();
+        long time = System.nanoTime() - start;
+        double[] beta = optimizer.getCofficients();
+        int numNonZeros = 0;
+        double subgradNorm = 0;
+        for (int dimIndex = 0; dimIndex < A1A_DIMENSION + 1; dimIndex++) {
+          if (dimIndex < A1A_DIMENSION && beta[dimIndex] != 0) {
+            numNonZeros++;
+          }
+          double grad = optimizer._loss.getGradient(dimIndex, beta);
+          double subgrad = regularizer.getSubgradient(dimIndex, beta[dimIndex], grad);
+          subgradNorm += subgrad * subgrad;
+        }
+        double cost = optimizer.cost();
+        System.out.println("L1 with " + numThreads + " threads, " + (mode == 0 ? "Lipschitz" : "Newton")
+            + (mode == 2 ? " shrinking" : "") + " steps: " + (double) optimizer._numGradients / (A1A_DIMENSION + 1)
+            + " epochs, " + time / 1E6 + " ms, cost: " + cost + ", #nonzeros: " + numNonZeros + ", AUC: "
+            + getAUC(beta, test) + ", subgradient norm: " + Math.sqrt(subgradNorm));
+        if (firstCost == 0) {
+          firstCost = cost;
+        }
+        Assert.assertEquals(cost, firstCost, firstCost * 1E-4);
+        Assert.assertTrue(numNonZeros < A1A_DIMENSION / 3);
+        // The initial subgradient norm is about 1100, and the tolerance is 1E-4 of it
+        Assert.assertTrue(Math.sqrt(subgradNorm) < 0.5);
+        Assert.assertEquals(cost, optimizer._loss.cost(beta) + regularizer.cost(beta), 1E-10);
+      }
+    }
+  }
+
+  /**
+   * The proximal steps of the L2 part of the elastic net reach the same optimum as the L2 loss
+   */
+  @Test
+  public void testElasticNetL2()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION);
+    CoordinateLipschitzGradientOptimizer smooth = createOptimizer(data, 1);
+    smooth.setNewtonSteps(true);
+    smooth.setMaxNumIteration(10000);
+    smooth.train();
+    LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(new LogisticLoss(data));
+    CoordinateLipschitzGradientOptimizer proximal = new CoordinateLipschitzGradientOptimizer(loss);
+    proximal.setRegularizer(new ElasticNetRegularizer(A1A_DIMENSION, 0, 1));
+    proximal.setNewtonSteps(true);
+    proximal.setMaxNumIteration(10000);
+    proximal.train();
+    Assert.assertEquals(proximal.cost(), smooth.cost(), smooth.cost() * 1E-5);
+  }
+
+  /**
+   * The train warm-started from the solution of a larger L1 weight with the strong rule reaches the
+   * objective of the train from scratch with fewer gradients, where both stop at the tolerance
+   * relative to the subgradient norm at zero
+   */
+  @Test
+  public void testWarmStartL1A1A()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION);
+    CoordinateLipschitzGradientOptimizer cold = createOptimizer(data, 1);
+    ElasticNetRegularizer regularizer = new ElasticNetRegularizer(A1A_DIMENSION, 5, 0);
+    double[] zeros = new double[A1A_DIMENSION + 1];
+    double initGradNorm = 0;
+    for (int dimIndex = 0; dimIndex < A1A_DIMENSION + 1; dimIndex++) {
+      double subgrad = regularizer.getSubgradient(dimIndex, 0, cold._loss.getGradient(dimIndex, zeros));
+      initGradNorm += subgrad * subgrad;
+    }
+    initGradNorm = Math.sqrt(initGradNorm);
+    cold.setNewtonSteps(true);
+    cold.setRegularizer(regularizer);
+    cold.train();
+
+    CoordinateLipschitzGradientOptimizer warm = createOptimizer(data, 1);
+    warm.setNewtonSteps(true);
+    warm.setRegularizer(new ElasticNetRegularizer(A1A_DIMENSION, 10, 0));
+    warm.train();
+    long numGradients = warm._numGradients;
+    warm.setRegularizer(regularizer);
+    warm.setScreeningMargin(5);
+    warm.setReferenceGradientNorm(initGradNorm);
+    warm.train();
+    numGradients = warm._numGradients - numGradients;
+    System.out.println("L1 from scratch: " + cold._numGradients + " gradients, cost: " + cold.cost()
+        + ", warm-started: " + numGradients + " gradients, cost: " + warm.cost());
+    Assert.assertEquals(warm.cost(), cold.cost(), cold.cost() * 1E-5);
+    Assert.assertTrue(numGradients < cold._numGradients);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testNewtonStepsUnsupported()
+      throws IOException {
+    LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(new LogisticLoss(LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION)));
+    loss.add(new LipschitzConstantGradientLoss() {
+      @Override
+      public double getMaxSecondDerivative(int dimIndex) {
+        return 1;
+      }
+
+      @Override
+      public double getGradient(int dimIndex, double[] beta) {
+        return 0;
+      }
+
+      @Override
+      public double cost(double[] beta) {
+        return 0;
+      }
+
+      @Override
+      public int getDimension() {
+        return A1A_DIMENSION;
+      }
+
+      @Override
+      public void coefficientUpdate(int dimIndex, double delta, double[] newBeta) {
+      }
+    });
+    new CoordinateLipschitzGradientOptimizer(loss).setNewtonSteps(true);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testZeroThreads()
+      throws IOException {
+    createOptimizer(LIBSVMDataLoader.loadCSRDataset(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION), 0);
+  }
+
+  /**
+   * The time of the same number of iterations from 1 thread to the number of cores
+   */
+  @Test
+  public void testParallelScaling() {
+    Instance[] a1a = new LIBSVMDataLoader(LogisticLossTest.A1A_TRAIN, A1A_DIMENSION).getInstances();
+    Instance[] instances = new Instance[a1a.length * 40];
+    for (int i = 0; i < instances.length; i++) {
+      instances[i] = a1a[i % a1a.length];
+    }
+    Dataset data = new CSRDataset(A1A_DIMENSION, instances);
+    int numCores = Runtime.getRuntime().availableProcessors();
+    int maxThreads = Math.max(numCores, 4);
+    for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+      CoordinateLipschitzGradientOptimizer optimizer = createOptimizer(data, numThreads);
+      optimizer.setMaxNumIteration(10);
+      optimizer.setToleranceForStopCriterion(0);
+      long start = System.nanoTime();
+      optimizer.train();
+      System.out.println("Coordinate descent of " + instances.length + " instances, 10 iterations with "
+          + numThreads + " threads on " + numCores + " cores: " + (System.nanoTime() - start) / 1E6 + " ms");
+    }
+  }
+}
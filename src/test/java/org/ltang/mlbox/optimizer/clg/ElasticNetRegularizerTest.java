@@ -0,0 +1,44 @@
+package org.ltang.mlbox.optimizer.clg;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class ElasticNetRegularizerTest {
+
+  /**
+   * The proximal step is the minimum of the quadratic plus the regularizer, where the subgradient
+   * is zero
+   */
+  @Test
+  public void testProximal() {
+    Random random = new Random(1);
+    ElasticNetRegularizer regularizer = new ElasticNetRegularizer(3, 0.7, 0.3);
+    for (int i = 0; i < 1000; i++) {
+      int dimIndex = random.nextInt(4);
+      double value = 4 * random.nextGaussian();
+      double curvature = 0.1 + random.nextDouble();
+      double x = regularizer.proximal(dimIndex, value, curvature);
+      double objective = curvature / 2 * (x - value) * (x - value) + regularizer.cost(dimIndex, x);
+      for (double t = -1; t <= 1; t += 0.01) {
+        double y = x + t;
+        Assert.assertTrue(objective <= curvature / 2 * (y - value) * (y - value) + regularizer.cost(dimIndex, y) + 1E-12);
+      }
+      Assert.assertEquals(regularizer.getSubgradient(dimIndex, x, curvature * (x - value)), 0, 1E-12);
+      if (Math.abs(curvature * value) <= regularizer.getZeroThreshold(dimIndex)) {
+        Assert.assertEquals(x, 0.0);
+      }
+    }
+    // The intercept is not regularized
+    Assert.assertEquals(regularizer.proximal(3, 0.1, 1), 0.1);
+    Assert.assertEquals(regularizer.getZeroThreshold(3), 0.0);
+    Assert.assertEquals(regularizer.cost(new double[]{1, -2, 0, 100}), 0.7 * 3 + 0.3 * 5 / 2, 1E-12);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testNegativeWeight() {
+    new ElasticNetRegularizer(3, -1, 0);
+  }
+}
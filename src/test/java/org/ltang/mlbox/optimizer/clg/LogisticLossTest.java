@@ -0,0 +1,542 @@
+package org.ltang.mlbox.optimizer.clg;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Dataset;
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.SparseVector;
+import org.ltang.mlbox.optimizer.clg.LogisticLoss.ColumnStorage;
+import org.ltang.mlbox.utils.FastMath;
+import org.ltang.mlbox.utils.FeatureHasher;
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.ltang.mlbox.utils.LIBSVMFileDataset;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class LogisticLossTest {
+
+  static final String A1A_TRAIN = "data/libsvm/a1a.train.txt";
+
+  static final int A1A_DIMENSION = 123;
+
+  static double[] trainA1A(LogisticLoss logLoss) {
+    LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(logLoss);
+    loss.add(new L2RegularizerLoss(A1A_DIMENSION));
+    CoordinateLipschitzGradientOptimizer optimizer = new CoordinateLipschitzGradientOptimizer(loss);
+    optimizer.train();
+    return optimizer.getCofficients();
+  }
+
+  static void assertSameCoefficients(double[] actual, double[] expected) {
+    Assert.assertEquals(actual.length, expected.length);
+    for (int i = 0; i < expected.length; i++) {
+      Assert.assertEquals(actual[i], expected[i], 1E-10);
+    }
+  }
+
+  static void assertSameLoss(LogisticLoss expected, LogisticLoss actual, double[] beta) {
+    Assert.assertEquals(actual.cost(beta), expected.cost(beta), 1E-10);
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      Assert.assertEquals(actual.getGradient(dim, beta), expected.getGradient(dim, beta), 1E-10);
+      Assert.assertEquals(actual.getMaxSecondDerivative(dim), expected.getMaxSecondDerivative(dim), 1E-10);
+    }
+  }
+
+  @Test
+  public void testDatasets()
+      throws IOException {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TRAIN, A1A_DIMENSION).getInstances();
+    LogisticLoss expected = new LogisticLoss(A1A_DIMENSION, instances);
+    double[] beta = trainA1A(new LogisticLoss(A1A_DIMENSION, instances));
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      expected.coefficientUpdate(dim, beta[dim], beta);
+    }
+
+    Dataset[] datasets = new Dataset[]{new CSRDataset(A1A_DIMENSION, instances),
+        LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, A1A_DIMENSION),
+        new LIBSVMFileDataset(A1A_TRAIN, A1A_DIMENSION)};
+    for (Dataset data : datasets) {
+      LogisticLoss actual = new LogisticLoss(data);
+      for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+        actual.coefficientUpdate(dim, beta[dim], beta);
+      }
+      assertSameLoss(expected, actual, beta);
+      assertSameCoefficients(trainA1A(new LogisticLoss(data)), beta);
+    }
+  }
+
+  @Test
+  public void testHashedColumnStore()
+      throws IOException {
+    FeatureHasher hasher = new FeatureHasher(20, true);
+    LogisticLoss loss = new LogisticLoss(LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, hasher));
+    Assert.assertEquals(loss.getDimension(), 1 << 20);
+    // The unused dimensions of the hashed space share one empty column
+    int numUsedDims = 0;
+    int[] emptyColumn = null;
+    for (int dim = 0; dim < loss.getDimension(); dim++) {
+      if (loss._colIndexArrs[dim].length > 0) {
+        numUsedDims++;
+      } else if (emptyColumn == null) {
+        emptyColumn = loss._colIndexArrs[dim];
+      } else {
+        Assert.assertTrue(loss._colIndexArrs[dim] == emptyColumn);
+      }
+    }
+    Assert.assertTrue(numUsedDims > 0 && numUsedDims <= A1A_DIMENSION);
+  }
+
+  @Test
+  public void testConstantColumns() {
+    // Dimension 0 is binary, 1 is the constant 2.5, and 2 has different values
+    Instance[] instances = new Instance[]{
+        new Instance(new SparseVector(new int[]{0, 1, 2}, new float[]{1f, 2.5f, 0.5f}), 1f),
+        new Instance(new SparseVector(new int[]{1, 2}, new float[]{2.5f, -1f}), 0f),
+        new Instance(new SparseVector(new int[]{0, 2}, new float[]{1f, 3f}), 1f, 2f, 0f, 0)};
+    LogisticLoss loss = new LogisticLoss(3, instances);
+    Assert.assertNull(loss._colValArrs[0]);
+    Assert.assertNull(loss._colValArrs[1]);
+    Assert.assertNotNull(loss._colValArrs[2]);
+    Assert.assertNull(loss._colValArrs[3]);
+    Assert.assertEquals(loss._colConstants[1], 2.5, 0);
+
+    double[] beta = new double[]{0.3, -0.2, 0.1, 0.05};
+    for (int dim = 0; dim <= 3; dim++) {
+      loss.coefficientUpdate(dim, beta[dim], beta);
+    }
+    for (int dim = 0; dim <= 3; dim++) {
+      double grad = 0;
+      double maxSecondDerivative = 0;
+      for (Instance inst : instances) {
+        double x = dim == 3 ? 1 : 0;
+        double v = beta[3];
+        SparseVector features = inst.getFeatures();
+        for (int i = 0; i < features.dims.length; i++) {
+          v += beta[features.dims[i]] * features.vals[i];
+          if (features.dims[i] == dim) {
+            x = features.vals[i];
+          }
+        }
+        grad += -(inst.getLabel() - 1 / (1 + Math.exp(-v))) * x * inst.getWeight();
+        maxSecondDerivative += 0.25 * x * x * inst.getWeight();
+      }
+      Assert.assertEquals(loss.getGradient(dim, beta), grad, 1E-10);
+      Assert.assertEquals(loss.getMaxSecondDerivative(dim), maxSecondDerivative, 1E-10);
+    }
+  }
+
+  /**
+   * The second derivatives and the changes of the loss of the binary, constant and real-valued
+   * columns, and the intercept
+   */
+  @Test
+  public void testNewtonDerivatives() {
+    Instance[] instances = new Instance[]{
+        new Instance(new SparseVector(new int[]{0, 1, 2}, new float[]{1f, 2.5f, 0.5f}), 1f),
+        new Instance(new SparseVector(new int[]{1, 2}, new float[]{2.5f, -1f}), 0f),
+        new Instance(new SparseVector(new int[]{0, 2}, new float[]{1f, 3f}), 1f, 2f, 0f, 0)};
+    LogisticLoss loss = new LogisticLoss(3, instances);
+    double[] beta = new double[]{0.3, -0.2, 0.1, 0.05};
+    for (int dim = 0; dim <= 3; dim++) {
+      loss.coefficientUpdate(dim, beta[dim], beta);
+    }
+    double[] derivatives = new double[2];
+    for (int dim = 0; dim <= 3; dim++) {
+      double secondDerivative = 0;
+      for (Instance inst : instances) {
+        double x = dim == 3 ? 1 : inst.getFeatures().get(dim);
+        double pred = 1 / (1 + Math.exp(-inst.getFeatures().innerProduct(beta) - beta[3]));
+        secondDerivative += pred * (1 - pred) * x * x * inst.getWeight();
+      }
+      loss.getDerivatives(dim, beta, derivatives);
+      Assert.assertEquals(derivatives[0], loss.getGradient(dim, beta), 1E-10);
+      Assert.assertEquals(derivatives[1], secondDerivative, 1E-10);
+      for (double delta : new double[]{-1, 0.01, 2}) {
+        double[] newBeta = Arrays.copyOf(beta, beta.length);
+        newBeta[dim] += delta;
+        Assert.assertEquals(loss.getCostChange(dim, delta, beta), loss.cost(newBeta) - loss.cost(beta), 1E-10);
+      }
+    }
+    Assert.assertEquals(loss.getSecondDerivativeGrowthRate(0), 1, 0);
+    Assert.assertEquals(loss.getSecondDerivativeGrowthRate(1), 2.5, 0);
+    Assert.assertEquals(loss.getSecondDerivativeGrowthRate(2), 3, 0);
+    Assert.assertEquals(loss.getSecondDerivativeGrowthRate(3), 1, 0);
+  }
+
+  /**
+   * The full gradients of the rows are the gradients of the columns, and the Hessian-vector
+   * products are the changes of the full gradients
+   */
+  @Test
+  public void testBatchGradient()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, A1A_DIMENSION);
+    double[] beta = trainA1A(new LogisticLoss(data));
+    LogisticLoss serial = new LogisticLoss(data);
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      serial.coefficientUpdate(dim, beta[dim], beta);
+    }
+    Random random = new Random(1);
+    double[] v = new double[A1A_DIMENSION + 1];
+    double[] shifted = new double[A1A_DIMENSION + 1];
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      v[dim] = random.nextGaussian();
+      shifted[dim] = beta[dim] + 1E-6 * v[dim];
+    }
+    for (int numThreads : new int[]{1, 4}) {
+      LogisticLoss loss = new LogisticLoss(data);
+      loss.setNumThreads(numThreads);
+      double[] shiftedGradient = new double[A1A_DIMENSION + 1];
+      loss.getCostAndGradient(shifted, shiftedGradient);
+      double[] gradient = new double[A1A_DIMENSION + 1];
+      Assert.assertEquals(loss.getCostAndGradient(beta, gradient), serial.cost(beta), 1E-8);
+      double[] hv = new double[A1A_DIMENSION + 1];
+      loss.getHessianVectorProduct(v, hv);
+      for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+        Assert.assertEquals(gradient[dim], serial.getGradient(dim, beta), 1E-8);
+        Assert.assertEquals(hv[dim], (shiftedGradient[dim] - gradient[dim]) / 1E-6, 1E-3 * (1 + Math.abs(hv[dim])));
+      }
+    }
+  }
+
+  @Test
+  public void testColumnStoreSize() {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TRAIN, A1A_DIMENSION).getInstances();
+    long numEntries = instances.length;
+    for (Instance inst : instances) {
+      numEntries += inst.getFeatures().dims.length;
+    }
+    LogisticLoss loss = new LogisticLoss(A1A_DIMENSION, instances);
+    // All the features of a1a are binary, so no values are stored
+    Assert.assertEquals(loss.getColumnStoreSize(), 4 * numEntries);
+    System.out.println("a1a column store: " + loss.getColumnStoreSize() / 1024 + "KB, with values: "
+        + 12 * numEntries / 1024 + "KB");
+  }
+
+  @Test
+  public void testCompressedStorage() {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TRAIN, A1A_DIMENSION).getInstances();
+    LogisticLoss expected = new LogisticLoss(A1A_DIMENSION, instances);
+    LogisticLoss actual = new LogisticLoss(A1A_DIMENSION, instances, ColumnStorage.COMPRESSED);
+    Assert.assertNull(actual._colIndexArrs);
+    Assert.assertTrue(actual.getColumnStoreSize() < expected.getColumnStoreSize() / 2);
+    System.out.println("a1a column store: " + expected.getColumnStoreSize() / 1024 + "KB, compressed: "
+        + actual.getColumnStoreSize() / 1024 + "KB");
+
+    long start = System.nanoTime();
+    double[] beta = trainA1A(new LogisticLoss(A1A_DIMENSION, instances));
+    long arrayTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    assertSameCoefficients(trainA1A(new LogisticLoss(A1A_DIMENSION, instances, ColumnStorage.COMPRESSED)), beta);
+    long compressedTime = System.nanoTime() - start;
+    System.out.println("Train a1a, array: " + arrayTime / 1E6 + " ms, compressed: " + compressedTime / 1E6 + " ms");
+
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      expected.coefficientUpdate(dim, beta[dim], beta);
+      actual.coefficientUpdate(dim, beta[dim], beta);
+    }
+    assertSameLoss(expected, actual, beta);
+  }
+
+  @Test
+  public void testCompressedLongColumns() {
+    // Long columns of several chunks, with gaps of one to three bytes and different values
+    Random random = new Random(7);
+    int dimension = 3;
+    Instance[] instances = new Instance[20000];
+    for (int i = 0; i < instances.length; i++) {
+      int numFeatures = 0;
+      int[] dims = new int[dimension];
+      float[] vals = new float[dimension];
+      if (random.nextInt(3) > 0) {
+        dims[numFeatures] = 0;
+        vals[numFeatures++] = 1f;
+      }
+      if (random.nextInt(2000) == 0) {
+        dims[numFeatures] = 1;
+        vals[numFeatures++] = random.nextFloat();
+      }
+      if (i < 5 || i > 19990) {
+        dims[numFeatures] = 2;
+        vals[numFeatures++] = random.nextFloat() - 0.5f;
+      }
+      SparseVector features = new SparseVector(Arrays.copyOf(dims, numFeatures),
+          Arrays.copyOf(vals, numFeatures));
+      instances[i] = new Instance(features, random.nextInt(2), i % 10 == 0 ? 0f : 1f);
+    }
+    LogisticLoss expected = new LogisticLoss(dimension, instances);
+    LogisticLoss actual = new LogisticLoss(dimension, instances, ColumnStorage.COMPRESSED);
+    double[] beta = new double[]{0.2, -0.7, 1.5, -0.1};
+    for (int dim = 0; dim <= dimension; dim++) {
+      Assert.assertEquals(actual._colSizes[dim], expected._colIndexArrs[dim].length);
+      expected.coefficientUpdate(dim, beta[dim], beta);
+      actual.coefficientUpdate(dim, beta[dim], beta);
+    }
+    for (int i = 0; i < instances.length; i++) {
+      Assert.assertEquals(actual._innerProducts[i], expected._innerProducts[i], 0);
+    }
+    for (int dim = 0; dim <= dimension; dim++) {
+      Assert.assertEquals(actual.getGradient(dim, beta), expected.getGradient(dim, beta), 0);
+      Assert.assertEquals(actual.getMaxSecondDerivative(dim), expected.getMaxSecondDerivative(dim), 0);
+    }
+  }
+
+  @Test
+  public void testOffHeapStorage()
+      throws IOException {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TRAIN, A1A_DIMENSION).getInstances();
+    Dataset data = new CSRDataset(A1A_DIMENSION, instances);
+    File file = File.createTempFile("columns", ".bin");
+    file.deleteOnExit();
+    LogisticLoss expected = new LogisticLoss(data);
+    double[] beta = trainA1A(new LogisticLoss(data));
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      expected.coefficientUpdate(dim, beta[dim], beta);
+    }
+    for (String columnStoreFile : new String[]{null, file.getPath()}) {
+      LogisticLoss actual = new LogisticLoss(data, ColumnStorage.OFF_HEAP, columnStoreFile);
+      Assert.assertNull(actual._colIndexArrs);
+      Assert.assertEquals(actual.getColumnStoreSize(), expected.getColumnStoreSize());
+      for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+        actual.coefficientUpdate(dim, beta[dim], beta);
+      }
+      assertSameLoss(expected, actual, beta);
+      assertSameCoefficients(trainA1A(new LogisticLoss(data, ColumnStorage.OFF_HEAP, columnStoreFile)), beta);
+    }
+    Assert.assertEquals(file.length(), expected.getColumnStoreSize());
+  }
+
+  @Test
+  public void testOffHeapLongColumns() {
+    // Columns of several chunks, with values which are not constant
+    Random random = new Random(11);
+    Instance[] instances = new Instance[5000];
+    for (int i = 0; i < instances.length; i++) {
+      SparseVector features = new SparseVector(new int[]{0, 1}, new float[]{random.nextFloat(), 1f});
+      instances[i] = new Instance(features, random.nextInt(2));
+    }
+    Dataset data = new CSRDataset(2, instances);
+    LogisticLoss expected = new LogisticLoss(data);
+    LogisticLoss actual = new LogisticLoss(data, ColumnStorage.OFF_HEAP, null);
+    double[] beta = new double[]{0.8, -0.3, 0.1};
+    for (int dim = 0; dim <= 2; dim++) {
+      expected.coefficientUpdate(dim, beta[dim], beta);
+      actual.coefficientUpdate(dim, beta[dim], beta);
+    }
+    for (int dim = 0; dim <= 2; dim++) {
+      Assert.assertEquals(actual.getGradient(dim, beta), expected.getGradient(dim, beta), 0);
+      Assert.assertEquals(actual.getMaxSecondDerivative(dim), expected.getMaxSecondDerivative(dim), 0);
+    }
+  }
+
+  static long getGCTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(bean.getCollectionTime(), 0);
+    }
+    return time;
+  }
+
+  /**
+   * Compare the GC time and the epoch time of the on-heap and off-heap column stores, on a1a
+   * replicated to a larger data set
+   */
+  @Test(groups = "benchmark")
+  public void testOffHeapBenchmark() {
+    Instance[] a1a = new LIBSVMDataLoader(A1A_TRAIN, A1A_DIMENSION).getInstances();
+    Instance[] instances = new Instance[a1a.length * 40];
+    for (int i = 0; i < instances.length; i++) {
+      instances[i] = a1a[i % a1a.length];
+    }
+    Dataset data = new CSRDataset(A1A_DIMENSION, instances);
+    int numEpochs = 5;
+    for (ColumnStorage storage : new ColumnStorage[]{ColumnStorage.ARRAY, ColumnStorage.OFF_HEAP,
+        ColumnStorage.ARRAY, ColumnStorage.OFF_HEAP}) {
+      System.gc();
+      long gcTime = getGCTime();
+      long start = System.nanoTime();
+      LogisticLoss loss = new LogisticLoss(data, storage, null);
+      long buildTime = System.nanoTime() - start;
+      double[] beta = new double[A1A_DIMENSION + 1];
+      start = System.nanoTime();
+      for (int epoch = 0; epoch < numEpochs; epoch++) {
+        for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+          double delta = -loss.getGradient(dim, beta) / Math.max(loss.getMaxSecondDerivative(dim), 1E-7);
+          beta[dim] += delta;
+          loss.coefficientUpdate(dim, delta, beta);
+        }
+      }
+      long epochTime = (System.nanoTime() - start) / numEpochs;
+      // Some garbage on the heap, as a long-running training process would have
+      for (int i = 0; i < 20; i++) {
+        new CSRDataset(A1A_DIMENSION, a1a);
+      }
+      System.gc();
+      System.out.println(storage + ": build " + buildTime / 1E6 + " ms, epoch " + epochTime / 1E6 + " ms, GC "
+          + (getGCTime() - gcTime) + " ms, column store " + loss.getColumnStoreSize() / 1024 + "KB");
+    }
+  }
+
+  static LogisticLoss createRangeLoss(final Dataset data, ColumnStorage storage, int numThreads) {
+    LogisticLoss loss = new LogisticLoss(data, storage);
+    loss._rangeSize = 100;
+    loss.setParallelColumnSize(300);
+    loss.setNumThreads(numThreads);
+    return loss;
+  }
+
+  /**
+   * The long columns computed range by range give the same gradients, second derivatives and
+   * changes of the loss for any number of threads and any storage
+   */
+  @Test
+  public void testParallelColumns()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, A1A_DIMENSION);
+    LogisticLoss serial = new LogisticLoss(data);
+    double[] beta = trainA1A(new LogisticLoss(data));
+    LogisticLoss expected = createRangeLoss(data, ColumnStorage.ARRAY, 1);
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      serial.coefficientUpdate(dim, beta[dim], beta);
+      expected.coefficientUpdate(dim, beta[dim], beta);
+    }
+    int numLongColumns = 0;
+    for (ColumnStorage storage : ColumnStorage.values()) {
+      for (int numThreads : new int[]{1, 2, 4}) {
+        LogisticLoss actual = createRangeLoss(data, storage, numThreads);
+        for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+          actual.coefficientUpdate(dim, beta[dim], beta);
+        }
+        for (int i = 0; i < actual._numInsts; i++) {
+          Assert.assertEquals(actual._innerProducts[i], expected._innerProducts[i], 0);
+        }
+        double[] actualDerivatives = new double[2];
+        double[] expectedDerivatives = new double[2];
+        for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+          Assert.assertEquals(actual.getGradient(dim, beta), expected.getGradient(dim, beta), 0);
+          Assert.assertEquals(actual.getGradient(dim, beta), serial.getGradient(dim, beta), 1E-10);
+          actual.getDerivatives(dim, beta, actualDerivatives);
+          expected.getDerivatives(dim, beta, expectedDerivatives);
+          Assert.assertEquals(actualDerivatives[0], expectedDerivatives[0], 0);
+          Assert.assertEquals(actualDerivatives[1], expectedDerivatives[1], 0);
+          Assert.assertEquals(actual.getCostChange(dim, 0.1, beta), expected.getCostChange(dim, 0.1, beta), 0);
+          Assert.assertEquals(actual.getCostChange(dim, 0.1, beta), serial.getCostChange(dim, 0.1, beta), 1E-10);
+          if (actual._colSizes[dim] >= 300) {
+            numLongColumns++;
+          }
+        }
+        // The exact derivatives above give the same training for any number of threads, so only the
+        // most parallel one of each storage is trained
+        if (numThreads == 4) {
+          assertSameCoefficients(trainA1A(createRangeLoss(data, storage, numThreads)), beta);
+        }
+      }
+    }
+    Assert.assertTrue(numLongColumns > 0);
+  }
+
+  /**
+   * A shared pool gives the same gradients as the pool created by setNumThreads, and only the
+   * created pool is shut down by the loss
+   */
+  @Test
+  public void testSharedPool()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, A1A_DIMENSION);
+    LogisticLoss owner = createRangeLoss(data, ColumnStorage.ARRAY, 4);
+    ForkJoinPool ownPool = owner._pool;
+    owner.setNumThreads(4);
+    Assert.assertTrue(owner._pool == ownPool);
+    ForkJoinPool sharedPool = new ForkJoinPool(4);
+    LogisticLoss sharer = createRangeLoss(data, ColumnStorage.ARRAY, 1);
+    sharer.setPool(sharedPool);
+    double[] beta = new double[A1A_DIMENSION + 1];
+    Arrays.fill(beta, 0.01);
+    double[] ownGradient = new double[beta.length];
+    double[] sharedGradient = new double[beta.length];
+    Assert.assertEquals(sharer.getCostAndGradient(beta, sharedGradient),
+        owner.getCostAndGradient(beta, ownGradient), 0);
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      Assert.assertEquals(sharedGradient[dim], ownGradient[dim], 0);
+      Assert.assertEquals(sharer.getGradient(dim, beta), owner.getGradient(dim, beta), 0);
+    }
+    sharer.shutdown();
+    Assert.assertFalse(sharedPool.isShutdown());
+    owner.setNumThreads(2);
+    Assert.assertTrue(ownPool.isShutdown());
+    owner.shutdown();
+    Assert.assertNull(owner._pool);
+    sharedPool.shutdown();
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testParallelColumnSize() {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TRAIN, A1A_DIMENSION).getInstances();
+    new LogisticLoss(A1A_DIMENSION, instances).setParallelColumnSize(1);
+  }
+
+  /**
+   * The time of the gradient and the update of the intercept column, which has an entry for
+   * every instance
+   */
+  @Test(groups = "benchmark")
+  public void testParallelColumnBenchmark() {
+    Instance[] a1a = new LIBSVMDataLoader(A1A_TRAIN, A1A_DIMENSION).getInstances();
+    Instance[] instances = new Instance[a1a.length * 800];
+    for (int i = 0; i < instances.length; i++) {
+      instances[i] = a1a[i % a1a.length];
+    }
+    Dataset data = new CSRDataset(A1A_DIMENSION, instances);
+    LogisticLoss loss = new LogisticLoss(data);
+    double[] beta = new double[A1A_DIMENSION + 1];
+    int numCores = Runtime.getRuntime().availableProcessors();
+    int numRounds = 20;
+    for (int numThreads = 1; numThreads <= Math.max(numCores, 4); numThreads *= 2) {
+      loss.setNumThreads(numThreads);
+      long gradientTime = 0;
+      long updateTime = 0;
+      for (int round = 0; round < numRounds; round++) {
+        long start = System.nanoTime();
+        double grad = loss.getGradient(A1A_DIMENSION, beta);
+        gradientTime += System.nanoTime() - start;
+        start = System.nanoTime();
+        loss.coefficientUpdate(A1A_DIMENSION, round % 2 == 0 ? 0.1 : -0.1, beta);
+        updateTime += System.nanoTime() - start;
+        Assert.assertFalse(Double.isNaN(grad));
+      }
+      System.out.println("Intercept column of " + instances.length + " entries with " + numThreads + " threads on "
+          + numCores + " cores, gradient: " + gradientTime / 1E6 / numRounds + " ms, update: "
+          + updateTime / 1E6 / numRounds + " ms");
+    }
+  }
+
+  @Test
+  public void testFastMath()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, A1A_DIMENSION);
+    LogisticLoss exact = new LogisticLoss(data);
+    LogisticLoss fast = new LogisticLoss(data);
+    fast.setFastMath(true);
+    double[] beta = trainA1A(new LogisticLoss(data));
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      exact.coefficientUpdate(dim, beta[dim], beta);
+      fast.coefficientUpdate(dim, beta[dim], beta);
+    }
+    // Every instance has the weight 1
+    int numInsts = data.getNumInstances();
+    Assert.assertEquals(fast.cost(beta), exact.cost(beta), numInsts * FastMath.SOFTPLUS_MAX_ERROR);
+    for (int dim = 0; dim <= A1A_DIMENSION; dim++) {
+      Assert.assertEquals(fast.getGradient(dim, beta), exact.getGradient(dim, beta),
+          fast._colSizes[dim] * FastMath.SIGMOID_MAX_ERROR);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package org.ltang.mlbox.optimizer.qn;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.ltang.mlbox.classifier.eval.AUC;
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Dataset;
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.SparseVector;
+import org.ltang.mlbox.optimizer.LipschitzConstantGradientLoss;
+import org.ltang.mlbox.optimizer.clg.CoordinateLipschitzGradientOptimizer;
+import org.ltang.mlbox.optimizer.clg.L2RegularizerLoss;
+import org.ltang.mlbox.optimizer.clg.LinearCombineLoss;
+import org.ltang.mlbox.optimizer.clg.LogisticLoss;
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class BatchGradientOptimizerTest {
+
+  static final String A1A_TRAIN = "data/libsvm/a1a.train.txt";
+
+  static final String A1A_TEST = "data/libsvm/a1a.test.txt";
+
+  static LinearCombineLoss createLoss(final Dataset data, int numThreads) {
+    LogisticLoss logLoss = new LogisticLoss(data);
+    logLoss.setNumThreads(numThreads);
+    LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(logLoss);
+    loss.add(new L2RegularizerLoss(data.getDimension()));
+    return loss;
+  }
+
+  static double getAUC(final double[] beta, final Instance[] instances) {
+    double[] scores = new double[instances.length];
+    boolean[] labels = new boolean[instances.length];
+    for (int i = 0; i < instances.length; i++) {
+      scores[i] = instances[i].getFeatures().innerProduct(beta) + beta[beta.length - 1];
+      labels[i] = instances[i].getLabel() > 0.5;
+    }
+    return new AUC().calc(scores, labels);
+  }
+
+  /**
+   * Dense features which share a common factor, so they are strongly correlated
+   */
+  static Instance[] createCorrelatedInstances(int numInstances, final double[] trueBeta, final Random random) {
+    int dimension = trueBeta.length;
+    Instance[] instances = new Instance[numInstances];
+    for (int i = 0; i < numInstances; i++) {
+      float[] features = new float[dimension];
+      double factor = random.nextGaussian();
+      double margin = 0;
+      for (int dim = 0; dim < dimension; dim++) {
+        features[dim] = (float) (factor + 0.3 * random.nextGaussian());
+        margin += features[dim] * trueBeta[dim];
+      }
+      float label = random.nextDouble() < 1 / (1 + Math.exp(-margin)) ? 1f : 0f;
+      instances[i] = new Instance(new SparseVector(features), label);
+    }
+    return instances;
+  }
+
+  /**
+   * Trains the same loss by the coordinate descent with the Newton steps, L-BFGS and TRON
+   * @return The passes over the training data of L-BFGS and TRON, which are the full gradients
+   * and the Hessian-vector products
+   */
+  static int[] compareSolvers(final Dataset data, final Instance[] test, String name) {
+    double[] costs = new double[3];
+    double[] aucs = new double[3];
+    int[] numPasses = new int[3];
+    for (int solver = 0; solver < 3; solver++) {
+      LinearCombineLoss loss = createLoss(data, solver == 0 ? 1 : 2);
+      long start = System.nanoTime();
+      double[] beta;
+      if (solver == 0) {
+        CoordinateLipschitzGradientOptimizer optimizer = new CoordinateLipschitzGradientOptimizer(loss);
+        optimizer.setNewtonSteps(true);
+        optimizer.setShrinking(true);
+        optimizer.setMaxNumIteration(100000);
+        optimizer.train();
+        beta = optimizer.getCofficients();
+      } else {
+        BatchGradientOptimizer optimizer = solver == 1 ? new LBFGSOptimizer(loss) : new TronOptimizer(loss);
+        optimizer.train();
+        beta = optimizer.getCofficients();
+        numPasses[solver] = optimizer._numGradients + optimizer._numHessianProducts;
+      }
+      long time = System.nanoTime() - start;
+      costs[solver] = loss.cost(beta);
+      aucs[solver] = getAUC(beta, test);
+      System.out.println(name + ", " + (solver == 0 ? "coordinate descent" : solver == 1 ? "L-BFGS" : "TRON") + ": "
+          + (solver == 0 ? "" : numPasses[solver] + " passes, ") + time / 1E6 + " ms, cost: " + costs[solver]
+          + ", AUC: " + aucs[solver]);
+    }
+    for (int solver = 1; solver < 3; solver++) {
+      Assert.assertTrue(costs[solver] < costs[0] * (1 + 1E-6));
+      Assert.assertEquals(aucs[solver], aucs[0], 1E-3);
+    }
+    return numPasses;
+  }
+
+  @Test
+  public void testA1A()
+      throws IOException {
+    Dataset data = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, 123);
+    Instance[] test = new LIBSVMDataLoader(A1A_TEST, 123).getInstances();
+    int[] numPasses = compareSolvers(data, test, "a1a");
+    Assert.assertTrue(numPasses[1] < 100);
+    Assert.assertTrue(numPasses[2] < 100);
+  }
+
+  /**
+   * The full-gradient solvers converge in dozens of passes on the dense correlated features, where
+   * the coordinate descent needs hundreds of passes over the columns
+   */
+  @Test
+  public void testCorrelatedFeatures() {
+    Random random = new Random(1);
+    double[] trueBeta = new double[50];
+    for (int dim = 0; dim < trueBeta.length; dim++) {
+      trueBeta[dim] = 0.3 * random.nextGaussian();
+    }
+    Dataset data = new CSRDataset(trueBeta.length, createCorrelatedInstances(5000, trueBeta, random));
+    Instance[] test = createCorrelatedInstances(2000, trueBeta, random);
+    int[] numPasses = compareSolvers(data, test, "Correlated features");
+    Assert.assertTrue(numPasses[1] < 50);
+    Assert.assertTrue(numPasses[2] < 50);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testUnsupportedLoss()
+      throws IOException {
+    LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(new LogisticLoss(LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, 123)));
+    loss.add(new LipschitzConstantGradientLoss() {
+      @Override
+      public double getMaxSecondDerivative(int dimIndex) {
+        return 1;
+      }
+
+      @Override
+      public double getGradient(int dimIndex, double[] beta) {
+        return 0;
+      }
+
+      @Override
+      public double cost(double[] beta) {
+        return 0;
+      }
+
+      @Override
+      public int getDimension() {
+        return 123;
+      }
+
+      @Override
+      public void coefficientUpdate(int dimIndex, double delta, double[] newBeta) {
+      }
+    });
+    new LBFGSOptimizer(loss);
+  }
+}
@@ -0,0 +1,170 @@
+package org.ltang.mlbox.optimizer.sgd;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ltang.mlbox.classifier.eval.AUC;
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.SparseVector;
+import org.ltang.mlbox.optimizer.clg.CoordinateLipschitzGradientOptimizer;
+import org.ltang.mlbox.optimizer.clg.L2RegularizerLoss;
+import org.ltang.mlbox.optimizer.clg.LinearCombineLoss;
+import org.ltang.mlbox.optimizer.clg.LogisticLoss;
+import org.ltang.mlbox.utils.LIBSVMDataLoader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class HogwildSGDOptimizerTest {
+
+  static final String A1A_TRAIN = "data/libsvm/a1a.train.txt";
+
+  static final String A1A_TEST = "data/libsvm/a1a.test.txt";
+
+  static double getAUC(final double[] beta, final Instance[] instances) {
+    double[] scores = new double[instances.length];
+    boolean[] labels = new boolean[instances.length];
+    for (int i = 0; i < instances.length; i++) {
+      scores[i] = instances[i].getFeatures().innerProduct(beta) + beta[beta.length - 1];
+      labels[i] = instances[i].getLabel() > 0.5;
+    }
+    return new AUC().calc(scores, labels);
+  }
+
+  /**
+   * The AUC of the lazy and the dense L2 with 1 and 4 threads is close to the coordinate descent
+   */
+  @Test
+  public void testA1A()
+      throws IOException {
+    CSRDataset data = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, 123);
+    Instance[] test = new LIBSVMDataLoader(A1A_TEST, 123).getInstances();
+    LinearCombineLoss loss = new LinearCombineLoss();
+    loss.add(new LogisticLoss(data));
+    loss.add(new L2RegularizerLoss(123));
+    CoordinateLipschitzGradientOptimizer cd = new CoordinateLipschitzGradientOptimizer(loss);
+    cd.train();
+    double cdCost = loss.cost(cd.getCofficients());
+    double cdAUC = getAUC(cd.getCofficients(), test);
+    System.out.println("Coordinate descent, cost: " + cdCost + ", AUC: " + cdAUC);
+
+    for (int numThreads = 1; numThreads <= 4; numThreads *= 4) {
+      for (int lazy = 0; lazy < 2; lazy++) {
+        HogwildSGDOptimizer optimizer = new HogwildSGDOptimizer(data, 1.0);
+        optimizer.setNumThreads(numThreads);
+        optimizer.setLazyL2(lazy == 1);
+        long start = System.nanoTime();
+        optimizer.train();
+        long time = System.nanoTime() - start;
+        double cost = loss.cost(optimizer.getCofficients());
+        double auc = getAUC(optimizer.getCofficients(), test);
+        System.out.println("Hogwild, " + numThreads + " threads, " + (lazy == 1 ? "lazy" : "dense") + " L2: "
+            + optimizer.getNumEpochs() + " epochs, " + time / 1E6 + " ms, cost: " + cost + ", AUC: " + auc);
+        // The races of several threads make the coefficients differ from run to run
+        Assert.assertEquals(auc, cdAUC, numThreads == 1 ? 1E-3 : 2E-3);
+        Assert.assertTrue(cost < cdCost * 1.01);
+        Assert.assertEquals(cost, optimizer.cost(), 1E-6 * cost);
+      }
+    }
+  }
+
+  @Test
+  public void testDeterministic()
+      throws IOException {
+    CSRDataset data = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, 123);
+    double[][] betas = new double[2][];
+    for (int run = 0; run < 2; run++) {
+      HogwildSGDOptimizer optimizer = new HogwildSGDOptimizer(data, 1.0);
+      optimizer.setMaxNumIteration(5);
+      optimizer.train();
+      betas[run] = optimizer.getCofficients();
+    }
+    for (int dim = 0; dim < betas[0].length; dim++) {
+      Assert.assertEquals(betas[0][dim], betas[1][dim]);
+    }
+  }
+
+  /**
+   * A shared pool of one thread trains the same single shard as the serial optimizer, and only the
+   * pool created by setNumThreads is shut down by the optimizer
+   */
+  @Test
+  public void testSharedPool()
+      throws IOException {
+    CSRDataset data = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, 123);
+    HogwildSGDOptimizer serial = new HogwildSGDOptimizer(data, 1.0);
+    serial.setMaxNumIteration(5);
+    serial.train();
+    ForkJoinPool sharedPool = new ForkJoinPool(1);
+    HogwildSGDOptimizer sharer = new HogwildSGDOptimizer(data, 1.0);
+    sharer.setMaxNumIteration(5);
+    sharer.setPool(sharedPool);
+    sharer.train();
+    double[] expected = serial.getCofficients();
+    double[] actual = sharer.getCofficients();
+    for (int dim = 0; dim < expected.length; dim++) {
+      Assert.assertEquals(actual[dim], expected[dim]);
+    }
+    sharer.shutdown();
+    Assert.assertFalse(sharedPool.isShutdown());
+    HogwildSGDOptimizer owner = new HogwildSGDOptimizer(data, 1.0);
+    owner.setNumThreads(4);
+    ForkJoinPool ownPool = owner._pool;
+    owner.setNumThreads(4);
+    Assert.assertTrue(owner._pool == ownPool);
+    owner.setNumThreads(2);
+    Assert.assertTrue(ownPool.isShutdown());
+    owner.shutdown();
+    Assert.assertNull(owner._pool);
+    sharedPool.shutdown();
+  }
+
+  /**
+   * Rows per second against the number of threads on sparse rows of a large dimension
+   */
+  @Test(groups = "benchmark")
+  public void testThroughput() {
+    Random random = new Random(1);
+    int dimension = 1 << 20;
+    int numInstances = 200000;
+    double[] trueBeta = new double[dimension];
+    for (int dim = 0; dim < dimension; dim++) {
+      trueBeta[dim] = random.nextGaussian();
+    }
+    Instance[] instances = new Instance[numInstances];
+    for (int i = 0; i < numInstances; i++) {
+      int[] dims = new int[20];
+      float[] vals = new float[20];
+      double margin = 0;
+      for (int k = 0; k < 20; k++) {
+        dims[k] = random.nextInt(dimension);
+        vals[k] = 0.3f;
+        margin += trueBeta[dims[k]] * vals[k];
+      }
+      float label = random.nextDouble() < 1 / (1 + Math.exp(-margin)) ? 1f : 0f;
+      instances[i] = new Instance(new SparseVector(dims, vals), label);
+    }
+    CSRDataset data = new CSRDataset(dimension, instances);
+    int numEpochs = 5;
+    for (int numThreads = 1; numThreads <= 4; numThreads *= 2) {
+      HogwildSGDOptimizer optimizer = new HogwildSGDOptimizer(data, 1.0);
+      optimizer.setNumThreads(numThreads);
+      optimizer.setMaxNumIteration(numEpochs);
+      optimizer.setToleranceForStopCriterion(0);
+      long start = System.nanoTime();
+      optimizer.train();
+      long time = System.nanoTime() - start;
+      System.out.println("Hogwild, " + numThreads + " threads: " + (double) numEpochs * numInstances / time * 1E3
+          + " million rows per second");
+      Assert.assertEquals(optimizer.getNumEpochs(), numEpochs);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidLabel() {
+    Instance[] instances = new Instance[]{new Instance(new SparseVector(new float[]{1f}), -1f)};
+    new HogwildSGDOptimizer(new CSRDataset(1, instances), 1.0);
+  }
+}
@@ -0,0 +1,234 @@
+package org.ltang.mlbox.utils;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Dataset;
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.SparseVector;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class BatchScorerTest {
+
+  static final String A1A_TEST = "data/libsvm/a1a.test.txt";
+
+  static double[] randomCoefficients(int dimension) {
+    Random random = new Random(1);
+    double[] beta = new double[dimension + 1];
+    for (int i = 0; i < beta.length; i++) {
+      beta[i] = random.nextGaussian();
+    }
+    return beta;
+  }
+
+  @Test
+  public void testScoreA1A() {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TEST, 123).getInstances();
+    CSRDataset block = new CSRDataset(123, instances);
+    SparseVector[] rows = new SparseVector[instances.length];
+    for (int i = 0; i < instances.length; i++) {
+      rows[i] = instances[i].getFeatures();
+    }
+    double[] beta = randomCoefficients(123);
+    double intercept = beta[123];
+    for (int numThreads : new int[]{1, 4}) {
+      BatchScorer scorer = new BatchScorer(numThreads);
+      double[] csrScores = new double[instances.length + 3];
+      scorer.score(block, beta, intercept, true, csrScores, 3);
+      double[] vectorScores = new double[instances.length];
+      scorer.score(rows, 0, rows.length, beta, intercept, true, vectorScores, 0);
+      double[] innerProducts = new double[instances.length - 10];
+      scorer.score(rows, 10, rows.length, beta, 0, false, innerProducts, 0);
+      for (int i = 0; i < instances.length; i++) {
+        double innerProduct = rows[i].innerProduct(beta);
+        double expected = MathFunctions.sigmoid(innerProduct + intercept);
+        Assert.assertEquals(csrScores[i + 3], expected, 0);
+        Assert.assertEquals(vectorScores[i], expected, 0);
+        if (i >= 10) {
+          Assert.assertEquals(innerProducts[i - 10], innerProduct, 0);
+        }
+      }
+      scorer.shutdown();
+    }
+  }
+
+  @Test
+  public void testMultiplyTransposed() {
+    Instance[] a1a = new LIBSVMDataLoader(A1A_TEST, 123).getInstances();
+    Instance[] instances = new Instance[a1a.length * 4];
+    for (int i = 0; i < instances.length; i++) {
+      instances[i] = a1a[i % a1a.length];
+    }
+    CSRDataset block = new CSRDataset(123, instances);
+    double[] rowValues = randomCoefficients(instances.length + 4);
+    double[] expected = new double[123];
+    double expectedIntercept = 0;
+    for (int i = 0; i < instances.length; i++) {
+      SparseVector row = instances[i].getFeatures();
+      for (int j = 0; j < row.dims.length; j++) {
+        expected[row.dims[j]] += rowValues[i + 5] * row.vals[j];
+      }
+      expectedIntercept += rowValues[i + 5];
+    }
+    for (int numThreads : new int[]{1, 2, 4}) {
+      double[] out = new double[123];
+      BatchScorer scorer = new BatchScorer(numThreads);
+      double intercept = scorer.multiplyTransposed(block, rowValues, 5, out);
+      scorer.shutdown();
+      Assert.assertEquals(intercept, expectedIntercept, 1E-8);
+      for (int dim = 0; dim < 123; dim++) {
+        Assert.assertEquals(out[dim], expected[dim], 1E-8);
+      }
+    }
+  }
+
+  /**
+   * A block of random entries of a hashed feature space, which has far more dimensions than entries
+   */
+  static CSRDataset hashedBlock(int dimension, int numRows, int numEntriesPerRow) {
+    Random random = new Random(1);
+    int[] rowOffsets = new int[numRows + 1];
+    int[] dims = new int[numRows * numEntriesPerRow];
+    float[] vals = new float[dims.length];
+    float[] labels = new float[numRows];
+    for (int i = 0; i < numRows; i++) {
+      rowOffsets[i + 1] = rowOffsets[i] + numEntriesPerRow;
+      for (int j = rowOffsets[i]; j < rowOffsets[i + 1]; j++) {
+        dims[j] = random.nextInt(dimension);
+        vals[j] = (float) random.nextGaussian();
+      }
+    }
+    return new CSRDataset(dimension, numRows, rowOffsets, dims, vals, labels, null, null, null);
+  }
+
+  /**
+   * The transposed product of a block with far more dimensions than entries is summed serially,
+   * which is the same as one thread
+   */
+  @Test
+  public void testMultiplyTransposedHashed() {
+    int dimension = 1 << 22;
+    CSRDataset block = hashedBlock(dimension, Dataset.DEFAULT_BLOCK_SIZE, 20);
+    double[] rowValues = randomCoefficients(block.getNumInstances());
+    double[] expected = new double[dimension];
+    double expectedIntercept = new BatchScorer(1).multiplyTransposed(block, rowValues, 0, expected);
+    for (int numThreads : new int[]{2, 4}) {
+      double[] out = new double[dimension];
+      BatchScorer scorer = new BatchScorer(numThreads);
+      double intercept = scorer.multiplyTransposed(block, rowValues, 0, out);
+      scorer.shutdown();
+      Assert.assertEquals(intercept, expectedIntercept, 0);
+      for (int dim = 0; dim < dimension; dim++) {
+        Assert.assertEquals(out[dim], expected[dim], 0);
+      }
+    }
+  }
+
+  /**
+   * The transposed products of the blocks of a hashed feature space by 1 and 4 threads
+   */
+  @Test(groups = "benchmark")
+  public void testMultiplyTransposedHashedThroughput() {
+    int dimension = 1 << 22;
+    CSRDataset block = hashedBlock(dimension, Dataset.DEFAULT_BLOCK_SIZE, 20);
+    double[] rowValues = randomCoefficients(block.getNumInstances());
+    double[] out = new double[dimension];
+    int numCores = Runtime.getRuntime().availableProcessors();
+    for (int numThreads : new int[]{1, 4}) {
+      BatchScorer scorer = new BatchScorer(numThreads);
+      long time = 0;
+      for (int round = 0; round < 10; round++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+          scorer.multiplyTransposed(block, rowValues, 0, out);
+        }
+        time = System.nanoTime() - start;
+      }
+      System.out.println("Transposed product of a block of " + block.getNumEntries() + " entries and " + dimension
+          + " dimensions with " + numThreads + " threads on " + numCores + " cores: " + time / 1E8 + " ms");
+      scorer.shutdown();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testShortOutput() {
+    SparseVector[] rows = new SparseVector[]{new SparseVector(new float[]{1f, 2f})};
+    new BatchScorer(1).score(rows, 0, 1, new double[3], 0, false, new double[1], 1);
+  }
+
+  /**
+   * Scoring one row at a time by SparseVector.innerProduct vs. the batch kernel
+   */
+  @Test(groups = "benchmark")
+  public void testThroughput() {
+    Instance[] a1a = new LIBSVMDataLoader(A1A_TEST, 123).getInstances();
+    SparseVector[] rows = new SparseVector[a1a.length * 10];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = a1a[i % a1a.length].getFeatures();
+    }
+    Instance[] instances = new Instance[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      instances[i] = a1a[i % a1a.length];
+    }
+    CSRDataset block = new CSRDataset(123, instances);
+    double[] beta = randomCoefficients(123);
+    double[] scores = new double[rows.length];
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    BatchScorer serial = new BatchScorer(1);
+    BatchScorer parallel = new BatchScorer(Math.max(numThreads, 2));
+    for (int round = 0; round < 10; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < rows.length; i++) {
+        scores[i] = MathFunctions.sigmoid(rows[i].innerProduct(beta) + beta[123]);
+      }
+      long rowTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      serial.score(rows, 0, rows.length, beta, beta[123], true, scores, 0);
+      long vectorTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      serial.score(block, beta, beta[123], true, scores, 0);
+      long csrTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      parallel.score(block, beta, beta[123], true, scores, 0);
+      long parallelTime = System.nanoTime() - start;
+      if (round == 9) {
+        System.out.println("Score " + rows.length + " rows (ms), one by one: " + rowTime / 1E6 + ", batch of vectors: "
+            + vectorTime / 1E6 + ", CSR: " + csrTime / 1E6 + ", CSR with " + parallel.getNumThreads()
+            + " threads on " + numThreads + " cores: " + parallelTime / 1E6);
+      }
+    }
+    parallel.shutdown();
+  }
+
+  /**
+   * The scorer shuts down only the pool it created, and then scores the rows in the caller thread
+   */
+  @Test
+  public void testShutdown() {
+    Instance[] instances = new LIBSVMDataLoader(A1A_TEST, 123).getInstances();
+    CSRDataset block = new CSRDataset(123, instances);
+    double[] beta = randomCoefficients(123);
+    double[] expected = new double[instances.length];
+    new BatchScorer(1).score(block, beta, beta[123], true, expected, 0);
+
+    ForkJoinPool sharedPool = new ForkJoinPool(2);
+    BatchScorer sharer = new BatchScorer(sharedPool);
+    sharer.shutdown();
+    Assert.assertFalse(sharedPool.isShutdown());
+    sharedPool.shutdown();
+
+    BatchScorer owner = new BatchScorer(4);
+    ForkJoinPool ownPool = owner._pool;
+    owner.shutdown();
+    Assert.assertTrue(ownPool.isShutdown());
+    Assert.assertEquals(owner.getNumThreads(), 1);
+    double[] scores = new double[instances.length];
+    owner.score(block, beta, beta[123], true, scores, 0);
+    for (int i = 0; i < instances.length; i++) {
+      Assert.assertEquals(scores[i], expected[i], 0);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package org.ltang.mlbox.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class FastMathTest {
+
+  @Test
+  public void testMaxError() {
+    double sigmoidError = 0;
+    double softplusError = 0;
+    for (int i = -4000000; i <= 4000000; i++) {
+      // Not aligned with the steps of the tables
+      double v = i * 1.0000001E-5;
+      double softplus = Math.max(v, 0) + Math.log1p(Math.exp(-Math.abs(v)));
+      sigmoidError = Math.max(sigmoidError, Math.abs(FastMath.sigmoid(v) - MathFunctions.sigmoid(v)));
+      softplusError = Math.max(softplusError, Math.abs(FastMath.softplus(v) - softplus));
+    }
+    Assert.assertTrue(sigmoidError <= FastMath.SIGMOID_MAX_ERROR, "sigmoid error " + sigmoidError);
+    Assert.assertTrue(softplusError <= FastMath.SOFTPLUS_MAX_ERROR, "softplus error " + softplusError);
+  }
+
+  @Test
+  public void testOutOfRange() {
+    Assert.assertEquals(FastMath.sigmoid(0), 0.5, 0);
+    Assert.assertEquals(FastMath.softplus(0), Math.log(2), 1E-15);
+    Assert.assertEquals(FastMath.sigmoid(100), 1, FastMath.SIGMOID_MAX_ERROR);
+    Assert.assertEquals(FastMath.sigmoid(-100), 0, FastMath.SIGMOID_MAX_ERROR);
+    Assert.assertEquals(FastMath.softplus(100), 100, 0);
+    Assert.assertEquals(FastMath.softplus(-100), 0, FastMath.SOFTPLUS_MAX_ERROR);
+    Assert.assertTrue(Double.isNaN(FastMath.sigmoid(Double.NaN)));
+  }
+}
@@ -0,0 +1,144 @@
+package org.ltang.mlbox.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.ltang.mlbox.data.CSRDataset;
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.data.SparseVector;
+import org.ltang.mlbox.utils.LIBSVMDataLoader.LoadMode;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class FeatureHasherTest {
+
+  static final String A1A_TRAIN = "data/libsvm/a1a.train.txt";
+
+  @Test
+  public void testIndexRange() {
+    FeatureHasher hasher = new FeatureHasher(10, true);
+    Assert.assertEquals(hasher.getDimension(), 1024);
+    int numNegative = 0;
+    for (int i = 0; i < 100000; i++) {
+      int index = hasher.getIndex(i);
+      Assert.assertTrue(index >= 0 && index < 1024);
+      Assert.assertEquals(hasher.getIndex(Integer.toString(i) + "x"), hasher.getIndex(i + "x"));
+      if (hasher.getSign(i) < 0) {
+        numNegative++;
+      }
+    }
+    // The signs should be balanced
+    Assert.assertTrue(numNegative > 45000 && numNegative < 55000);
+    Assert.assertEquals(new FeatureHasher(10).getSign(12345), 1f);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testTooManyBits() {
+    new FeatureHasher(FeatureHasher.MAX_NUM_BITS + 1);
+  }
+
+  @Test
+  public void testTransformMergesCollisions() {
+    // With one bit, the names collide in at most two dimensions
+    FeatureHasher hasher = new FeatureHasher(1);
+    String[] names = new String[]{"a", "b", "c", "d", "e"};
+    float[] values = new float[]{1f, 2f, 3f, 4f, 5f};
+    SparseVector v = hasher.transform(names, values);
+    Assert.assertTrue(v.dims.length <= 2);
+    float sum = 0;
+    for (int i = 0; i < v.dims.length; i++) {
+      if (i > 0) {
+        Assert.assertTrue(v.dims[i - 1] < v.dims[i]);
+      }
+      sum += v.vals[i];
+    }
+    Assert.assertEquals(sum, 15f, 1E-6);
+  }
+
+  @Test
+  public void testLoadWithHashing()
+      throws IOException {
+    File file = LIBSVMDataLoaderTest.writeTempFile("1 3:1 7:0.5 user=alice:1\n"
+        + "0 3:2 item_42:1.5 7:1\n");
+    FeatureHasher hasher = new FeatureHasher(4, true);
+    LIBSVMDataLoader loader = new LIBSVMDataLoader(file.getPath(), hasher);
+    Assert.assertEquals(loader.getDimension(), 16);
+    Assert.assertEquals(loader.getNumInstances(), 2);
+    Instance inst = loader.getInstances()[1];
+    float[] expected = new float[16];
+    expected[hasher.getIndex(3)] += hasher.getSign(3) * 2f;
+    expected[hasher.getIndex("item_42")] += hasher.getSign("item_42") * 1.5f;
+    expected[hasher.getIndex(7)] += hasher.getSign(7) * 1f;
+    float[] actual = new float[16];
+    SparseVector features = inst.getFeatures();
+    for (int i = 0; i < features.dims.length; i++) {
+      if (i > 0) {
+        Assert.assertTrue(features.dims[i - 1] < features.dims[i]);
+      }
+      actual[features.dims[i]] = features.vals[i];
+    }
+    for (int i = 0; i < 16; i++) {
+      Assert.assertEquals(actual[i], expected[i], 1E-6);
+    }
+  }
+
+  /**
+   * The raw IDs which fit in an int are hashed like getIndex(int) however many digits they have,
+   * and the ones which overflow an int are hashed like names
+   */
+  @Test
+  public void testLoadLargeRawIds()
+      throws IOException {
+    String[] ids = new String[]{"2000000000", "2147483647", "-2147483648", "0000000042", "2147483648"};
+    StringBuilder text = new StringBuilder();
+    for (String id : ids) {
+      text.append("1 ").append(id).append(":1\n");
+    }
+    FeatureHasher hasher = new FeatureHasher(20, true);
+    Instance[] instances = new LIBSVMDataLoader(LIBSVMDataLoaderTest.writeTempFile(text.toString()).getPath(),
+        hasher).getInstances();
+    Assert.assertEquals(instances.length, ids.length);
+    for (int i = 0; i < ids.length; i++) {
+      SparseVector features = instances[i].getFeatures();
+      Assert.assertEquals(features.dims.length, 1);
+      if (i < ids.length - 1) {
+        int rawIndex = Integer.parseInt(ids[i]);
+        Assert.assertEquals(features.dims[0], hasher.getIndex(rawIndex));
+        Assert.assertEquals(features.vals[0], hasher.getSign(rawIndex), 0f);
+      } else {
+        Assert.assertEquals(features.dims[0], hasher.getIndex(ids[i]));
+        Assert.assertEquals(features.vals[0], hasher.getSign(ids[i]), 0f);
+      }
+    }
+  }
+
+  @Test
+  public void testHashingLoadModes()
+      throws IOException {
+    FeatureHasher hasher = new FeatureHasher(6, true);
+    LIBSVMDataLoader mapped = new LIBSVMDataLoader(A1A_TRAIN, hasher, Integer.MAX_VALUE, LoadMode.MEMORY_MAPPED);
+    LIBSVMDataLoaderTest.assertSameData(mapped,
+        new LIBSVMDataLoader(A1A_TRAIN, hasher, Integer.MAX_VALUE, LoadMode.PARALLEL));
+    LIBSVMDataLoaderTest.assertSameData(mapped,
+        new LIBSVMDataLoader(A1A_TRAIN, hasher, Integer.MAX_VALUE, LoadMode.READER));
+
+    Instance[] expected = mapped.getInstances();
+    CSRDataset csr = LIBSVMDataLoader.loadCSRDataset(A1A_TRAIN, hasher);
+    Assert.assertEquals(csr.getDimension(), 64);
+    Assert.assertEquals(csr.toInstances(), expected);
+
+    LIBSVMFileDataset data = new LIBSVMFileDataset(A1A_TRAIN, hasher, Integer.MAX_VALUE);
+    Assert.assertEquals(data.getDimension(), 64);
+    int instIndex = 0;
+    Iterator<CSRDataset> blocks = data.blocks(100);
+    while (blocks.hasNext()) {
+      CSRDataset block = blocks.next();
+      for (int i = 0; i < block.getNumInstances(); i++) {
+        Assert.assertEquals(block.getInstance(i), expected[instIndex++]);
+      }
+    }
+    Assert.assertEquals(instIndex, expected.length);
+  }
+}
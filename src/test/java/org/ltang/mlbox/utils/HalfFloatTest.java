@@ -0,0 +1,46 @@
+package org.ltang.mlbox.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class HalfFloatTest {
+
+  @Test
+  public void testValues() {
+    Assert.assertEquals(HalfFloat.fromFloat(1f), (short) 0x3c00);
+    Assert.assertEquals(HalfFloat.fromFloat(-2f), (short) 0xc000);
+    Assert.assertEquals(HalfFloat.fromFloat(65504f), (short) 0x7bff);
+    Assert.assertEquals(HalfFloat.fromFloat(0.1f), (short) 0x2e66);
+    Assert.assertEquals(HalfFloat.fromFloat(-0f), (short) 0x8000);
+    // The smallest subnormal, and the halfway to it which rounds to the even zero
+    Assert.assertEquals(HalfFloat.fromFloat(5.9604645E-8f), (short) 0x0001);
+    Assert.assertEquals(HalfFloat.fromFloat(2.9802322E-8f), (short) 0x0000);
+    // Ties to even: 2049 is halfway between 2048 and 2050
+    Assert.assertEquals(HalfFloat.fromFloat(2049f), HalfFloat.fromFloat(2048f));
+    Assert.assertEquals(HalfFloat.fromFloat(2051f), HalfFloat.fromFloat(2052f));
+    // Overflow and the special values
+    Assert.assertEquals(HalfFloat.fromFloat(65520f), (short) 0x7c00);
+    Assert.assertEquals(HalfFloat.fromFloat(Float.NEGATIVE_INFINITY), (short) 0xfc00);
+    Assert.assertTrue(Float.isNaN(HalfFloat.toFloat(HalfFloat.fromFloat(Float.NaN))));
+    Assert.assertEquals(HalfFloat.toFloat((short) 0x7c00), Float.POSITIVE_INFINITY);
+  }
+
+  @Test
+  public void testAllHalves() {
+    for (int bits = 0; bits < 0x10000; bits++) {
+      short half = (short) bits;
+      float value = HalfFloat.toFloat(half);
+      if (Float.isNaN(value)) {
+        continue;
+      }
+      Assert.assertEquals(HalfFloat.fromFloat(value), half);
+      // The relative error of the normal halves is at most 2^-11
+      if (Math.abs(value) >= 6.1035156E-5f && !Float.isInfinite(value)) {
+        float next = Math.nextUp(Math.abs(value)) * 1.0004f;
+        float rounded = HalfFloat.toFloat(HalfFloat.fromFloat(next));
+        Assert.assertTrue(Float.isInfinite(rounded) || Math.abs(rounded - next) <= next / 2048);
+      }
+    }
+  }
+}
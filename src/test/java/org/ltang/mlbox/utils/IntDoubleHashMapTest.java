@@ -0,0 +1,63 @@
+package org.ltang.mlbox.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class IntDoubleHashMapTest {
+
+  @Test
+  public void testRandomKeys() {
+    Random random = new Random(1);
+    IntDoubleHashMap map = new IntDoubleHashMap(2);
+    Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    for (int i = 0; i < 200000; i++) {
+      // Negative keys, consecutive keys and repeated keys
+      int key = i % 3 == 0 ? random.nextInt() : i % 3 == 1 ? i : random.nextInt(1000);
+      int entry = map.insert(key);
+      Integer expectedEntry = expected.get(key);
+      if (expectedEntry == null) {
+        Assert.assertEquals(entry, expected.size());
+        expected.put(key, entry);
+      } else {
+        Assert.assertEquals(entry, expectedEntry.intValue());
+      }
+      map.getValues()[entry * 2] += 1;
+      map.getValues()[entry * 2 + 1] = key;
+    }
+    Assert.assertEquals(map.size(), expected.size());
+    for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+      int entry = map.indexOf(e.getKey());
+      Assert.assertEquals(entry, e.getValue().intValue());
+      Assert.assertEquals(map.getKey(entry), e.getKey().intValue());
+      Assert.assertEquals(map.getValues()[entry * 2 + 1], (double) e.getKey());
+    }
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertTrue(map.getValues()[map.indexOf(i) * 2] >= 1);
+    }
+    Assert.assertEquals(map.indexOf(-1), expected.containsKey(-1) ? expected.get(-1).intValue() : -1);
+  }
+
+  @Test
+  public void testAbsentKeys() {
+    IntDoubleHashMap map = new IntDoubleHashMap(1, 100);
+    for (int i = 0; i < 100; i++) {
+      map.insert(i * 2);
+    }
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(map.indexOf(i * 2), i);
+      Assert.assertEquals(map.indexOf(i * 2 + 1), -1);
+    }
+    // The key 0 is not confused with the empty slots
+    Assert.assertEquals(map.getValues()[map.indexOf(0)], 0.0);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testNoValues() {
+    new IntDoubleHashMap(0);
+  }
+}
@@ -0,0 +1,137 @@
+package org.ltang.mlbox.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.ltang.mlbox.data.Instance;
+import org.ltang.mlbox.utils.LIBSVMDataLoader.LoadMode;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class LIBSVMDataLoaderTest {
+
+  static void assertSameData(LIBSVMDataLoader expected, LIBSVMDataLoader actual) {
+    Assert.assertEquals(actual.getDimension(), expected.getDimension());
+    Assert.assertEquals(actual.getNumInstances(), expected.getNumInstances());
+    Instance[] expectedInsts = expected.getInstances();
+    Instance[] actualInsts = actual.getInstances();
+    for (int i = 0; i < expectedInsts.length; i++) {
+      Assert.assertEquals(actualInsts[i], expectedInsts[i]);
+    }
+  }
+
+  static File writeTempFile(String content)
+      throws IOException {
+    File file = File.createTempFile("libsvm", ".txt");
+    file.deleteOnExit();
+    OutputStream os = new FileOutputStream(file);
+    os.write(content.getBytes("US-ASCII"));
+    os.close();
+    return file;
+  }
+
+  /**
+   * Concatenate a data file several times to get a larger file
+   */
+  static File scaleUp(String fileName, int times)
+      throws IOException {
+    File file = File.createTempFile("libsvm-scaled", ".txt");
+    file.deleteOnExit();
+    OutputStream os = new FileOutputStream(file);
+    byte[] buf = new byte[1 << 16];
+    for (int t = 0; t < times; t++) {
+      InputStream is = new FileInputStream(fileName);
+      int n;
+      while ((n = is.read(buf)) > 0) {
+        os.write(buf, 0, n);
+      }
+      is.close();
+    }
+    os.close();
+    return file;
+  }
+
+  @Test
+  public void testMemoryMappedA1A() {
+    for (String fileName : new String[]{"data/libsvm/a1a.train.txt", "data/libsvm/a1a.test.txt"}) {
+      assertSameData(new LIBSVMDataLoader(fileName, -1, Integer.MAX_VALUE, LoadMode.READER),
+          new LIBSVMDataLoader(fileName, -1, Integer.MAX_VALUE, LoadMode.MEMORY_MAPPED));
+      assertSameData(new LIBSVMDataLoader(fileName, 123, 100, LoadMode.READER),
+          new LIBSVMDataLoader(fileName, 123, 100, LoadMode.MEMORY_MAPPED));
+    }
+  }
+
+  @Test
+  public void testMemoryMappedValues()
+      throws IOException {
+    String content = "+1 1:0.5 3:-1.25e-3 7:3.4028235E38\r\n"
+        + "-1\t2:0.1   4:123456789012 5:1e-45 \r\n"
+        + "0 10:0.30000001192092896 6:.5 8:7.\n"
+        + "\n"
+        + "1 1:1\n";
+    File file = writeTempFile(content);
+    LIBSVMDataLoader expected = new LIBSVMDataLoader(file.getPath(), -1, Integer.MAX_VALUE, LoadMode.READER);
+    LIBSVMDataLoader actual = new LIBSVMDataLoader(file.getPath(), -1, Integer.MAX_VALUE, LoadMode.MEMORY_MAPPED);
+    Assert.assertEquals(actual.getNumInstances(), 3);
+    Assert.assertEquals(actual.getDimension(), 10);
+    assertSameData(expected, actual);
+  }
+
+  @Test
+  public void testParallelA1A() {
+    String fileName = "data/libsvm/a1a.test.txt";
+    LIBSVMDataLoader expected = new LIBSVMDataLoader(fileName, -1, Integer.MAX_VALUE, LoadMode.READER);
+    for (int numThreads : new int[]{1, 3, 8}) {
+      assertSameData(expected, new LIBSVMDataLoader(fileName, -1, Integer.MAX_VALUE, LoadMode.PARALLEL, numThreads));
+    }
+    for (int maxNumInstances : new int[]{1, 100, 5000}) {
+      assertSameData(new LIBSVMDataLoader(fileName, -1, maxNumInstances, LoadMode.READER),
+          new LIBSVMDataLoader(fileName, -1, maxNumInstances, LoadMode.PARALLEL, 4));
+    }
+  }
+
+  @Test
+  public void testParallelStopsAtBlankLine()
+      throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      content.append(i % 2 == 0 ? "+1" : "-1").append(" ").append(i % 7 + 1).append(":1 ")
+          .append(i % 13 + 10).append(":").append(i * 0.25).append("\n");
+      if (i == 600) {
+        content.append("\n");
+      }
+    }
+    File file = writeTempFile(content.toString());
+    LIBSVMDataLoader expected = new LIBSVMDataLoader(file.getPath(), -1, Integer.MAX_VALUE, LoadMode.READER);
+    Assert.assertEquals(expected.getNumInstances(), 601);
+    assertSameData(expected, new LIBSVMDataLoader(file.getPath(), -1, Integer.MAX_VALUE, LoadMode.PARALLEL, 4));
+  }
+
+  @Test(groups = "benchmark")
+  public void testLoadThroughput()
+      throws IOException {
+    File file = scaleUp("data/libsvm/a1a.test.txt", 8);
+    double sizeMB = file.length() / (1024.0 * 1024.0);
+    for (LoadMode mode : new LoadMode[]{LoadMode.READER, LoadMode.MEMORY_MAPPED}) {
+      long start = System.nanoTime();
+      LIBSVMDataLoader loader = new LIBSVMDataLoader(file.getPath(), -1, Integer.MAX_VALUE, mode);
+      double seconds = (System.nanoTime() - start) / 1E9;
+      Assert.assertEquals(loader.getNumInstances(), 8 * 30956);
+      System.out.println(mode + ": " + String.format("%.1f", sizeMB / seconds) + " MB/s");
+    }
+    for (int numThreads = 1; numThreads <= Runtime.getRuntime().availableProcessors(); numThreads *= 2) {
+      long start = System.nanoTime();
+      LIBSVMDataLoader loader = new LIBSVMDataLoader(file.getPath(), -1, Integer.MAX_VALUE, LoadMode.PARALLEL,
+          numThreads);
+      double seconds = (System.nanoTime() - start) / 1E9;
+      Assert.assertEquals(loader.getNumInstances(), 8 * 30956);
+      System.out.println(LoadMode.PARALLEL + " (" + numThreads + " threads): "
+          + String.format("%.1f", sizeMB / seconds) + " MB/s");
+    }
+  }
+}
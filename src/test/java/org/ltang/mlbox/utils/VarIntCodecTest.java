@@ -0,0 +1,54 @@
+package org.ltang.mlbox.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+
+public class VarIntCodecTest {
+
+  @Test
+  public void testEncodedSize() {
+    Assert.assertEquals(VarIntCodec.encodedSize(0), 1);
+    Assert.assertEquals(VarIntCodec.encodedSize(127), 1);
+    Assert.assertEquals(VarIntCodec.encodedSize(128), 2);
+    Assert.assertEquals(VarIntCodec.encodedSize(16383), 2);
+    Assert.assertEquals(VarIntCodec.encodedSize(16384), 3);
+    Assert.assertEquals(VarIntCodec.encodedSize(Integer.MAX_VALUE), 5);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testNegative() {
+    VarIntCodec.encodedSize(-1);
+  }
+
+  @Test
+  public void testDeltas() {
+    int[] values = new int[]{0, 1, 2, 130, 20000, 20001, 3000000, Integer.MAX_VALUE};
+    int size = (int) VarIntCodec.deltaEncodedSize(values, 0, values.length, 0);
+    byte[] buf = new byte[size + 2];
+    int end = VarIntCodec.writeDeltas(buf, 1, values, 0, values.length, 0);
+    Assert.assertEquals(end, size + 1);
+
+    int[] decoded = new int[values.length];
+    Assert.assertEquals(VarIntCodec.readDeltas(buf, 1, 0, decoded, 0, values.length), end);
+    for (int i = 0; i < values.length; i++) {
+      Assert.assertEquals(decoded[i], values[i]);
+    }
+
+    // Decode in two parts, where the second part continues from the last value of the first part
+    int pos = VarIntCodec.readDeltas(buf, 1, 0, decoded, 0, 3);
+    VarIntCodec.readDeltas(buf, pos, decoded[2], decoded, 3, values.length - 3);
+    for (int i = 0; i < values.length; i++) {
+      Assert.assertEquals(decoded[i], values[i]);
+    }
+  }
+
+  @Test
+  public void testRead() {
+    byte[] buf = new byte[12];
+    int pos = VarIntCodec.write(buf, 1, 300);
+    VarIntCodec.write(buf, pos, Integer.MAX_VALUE);
+    Assert.assertEquals(VarIntCodec.read(buf, 1), 300);
+    Assert.assertEquals(VarIntCodec.read(buf, 1 + VarIntCodec.encodedSize(300)), Integer.MAX_VALUE);
+  }
+}